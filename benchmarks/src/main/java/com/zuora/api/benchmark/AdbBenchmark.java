@@ -0,0 +1,95 @@
+package com.zuora.api.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Create;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+
+/**
+ * ADB serialization of a create() request and deserialization of a query()
+ * response, the same way as the generated stub (SOAP 1.1 envelope, Axiom)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdbBenchmark {
+
+	@Param({ "50", "500", "2000" })
+	public int size;
+
+	private Create create;
+
+	private byte[] queryResponse;
+
+	/** Discards the bytes written, only counts them */
+	private final CountingOutputStream sink = new CountingOutputStream();
+
+	@Setup
+	public void setUp() throws Exception {
+
+		create = new Create();
+		create.setZObjects(Payloads.accounts(size, false));
+
+		queryResponse = Payloads.toSoap(Payloads.queryResponse(size), QueryResponse.MY_QNAME);
+	}
+
+	@Benchmark
+	public long serializeCreate() throws Exception {
+
+		SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+		SOAPEnvelope envelope = factory.getDefaultEnvelope();
+		envelope.getBody().addChild(create.getOMElement(Create.MY_QNAME, factory));
+
+		sink.count = 0;
+		envelope.serializeAndConsume(sink);
+
+		return sink.count;
+	}
+
+	@Benchmark
+	public QueryResponse deserializeQueryResponse() throws Exception {
+
+		SOAPEnvelope envelope = OMXMLBuilderFactory
+				.createSOAPModelBuilder(new ByteArrayInputStream(queryResponse), "UTF-8").getSOAPEnvelope();
+		OMElement body = envelope.getBody().getFirstElement();
+
+		return QueryResponse.Factory.parse(body.getXMLStreamReaderWithoutCaching());
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.zuora.api.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.databinding.ADBBean;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Payloads shared by the benchmarks
+ */
+public final class Payloads {
+
+	private Payloads() {
+	}
+
+	/**
+	 * Accounts as sent to create() (without ID) or returned by query() (with
+	 * ID)
+	 */
+	public static ZObject[] accounts(int size, boolean withId) {
+
+		ZObject[] accounts = new ZObject[size];
+
+		for (int i = 0; i < size; i++) {
+			Account account = new Account();
+			if (withId) {
+				account.setId(id(i));
+			}
+			account.setName("Benchmark account " + i);
+			account.setAccountNumber(String.format("B%08d", i));
+			account.setCurrency("USD");
+			account.setBillCycleDay(1);
+			account.setStatus("Draft");
+			account.setPaymentTerm("Due Upon Receipt");
+			account.setBatch("Batch1");
+			accounts[i] = account;
+		}
+
+		return accounts;
+	}
+
+	/**
+	 * Account IDs, as strings
+	 */
+	public static String[] ids(int size) {
+
+		String[] ids = new String[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = id(i).getID();
+		}
+
+		return ids;
+	}
+
+	/**
+	 * A valid Zuora ID (32 hexadecimal characters)
+	 */
+	public static ID id(int i) {
+
+		ID id = new ID();
+		id.setID(String.format("2c92c0f8%024x", i));
+
+		return id;
+	}
+
+	/**
+	 * A query result with the given number of accounts
+	 */
+	public static QueryResponse queryResponse(int size) {
+
+		QueryResult result = new QueryResult();
+		result.setDone(true);
+		result.setSize(size);
+		result.setRecords(accounts(size, true));
+
+		QueryResponse response = new QueryResponse();
+		response.setResult(result);
+
+		return response;
+	}
+
+	/**
+	 * Wrap a response in a SOAP envelope, the way the stub reads it
+	 */
+	public static byte[] toSoap(ADBBean response, QName name) throws IOException {
+
+		SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+		SOAPEnvelope envelope = factory.getDefaultEnvelope();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			envelope.getBody().addChild(response.getOMElement(name, factory));
+			envelope.serialize(out);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,90 @@
+package com.zuora.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+import com.zuora.api.util.ZApi;
+import com.zuora.api.util.ZMockServer;
+
+/**
+ * Full zQuery()/zCreate() calls (stub, HTTP, parsing) against a local
+ * ZMockServer: `size` records per query, `size` objects per create (sent in
+ * chunks of ZApi.MAX_OBJECTS). The measured time includes the in-memory work
+ * of the mock server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+	@Param({ "50", "500", "2000" })
+	public int size;
+
+	private ZMockServer server;
+
+	private ZApi zapi;
+
+	private ZObject[] accounts;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		// Otherwise the server waits for the delayed ACK on kept-alive connections
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		server = new ZMockServer();
+		server.start();
+
+		zapi = new ZApi(server.getEndpoint());
+		zapi.zLogin("benchmark@zuora.com", "benchmark");
+
+		accounts = Payloads.accounts(size, false);
+	}
+
+	/**
+	 * Only the `size` accounts to query, not the ones created by the previous
+	 * iteration (the session is renewed by the first call)
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+
+		server.clear();
+		for (ZObject account : Payloads.accounts(size, true)) {
+			server.put(account);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Benchmark
+	public QueryResult zQuery() {
+		return zapi.zQuery("SELECT Id, Name, AccountNumber FROM Account");
+	}
+
+	@Benchmark
+	public SaveResult[] zCreate() {
+		return zapi.zCreate(accounts);
+	}
+}
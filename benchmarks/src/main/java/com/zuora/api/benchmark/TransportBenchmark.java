@@ -0,0 +1,74 @@
+package com.zuora.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.util.ZApi;
+import com.zuora.api.util.ZMockServer;
+import com.zuora.api.util.ZTransport;
+
+/**
+ * Per-call latency (percentiles) of a small zQuery() against a local
+ * ZMockServer, with a new HTTP connection per call (keep-alive off, as the
+ * default Axis2 transport) and with the pooled keep-alive connections of
+ * ZTransport. The query returns no record, so the difference is the
+ * connection setup only; against Zuora (TLS) it is larger.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean keepAlive;
+
+	private ZMockServer server;
+
+	private ZTransport transport;
+
+	private ZApi zapi;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		// Otherwise the server waits for the delayed ACK on kept-alive connections
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		server = new ZMockServer();
+		server.start();
+
+		transport = new ZTransport(1, 1, ZTransport.DEFAULT_CONNECT_TIMEOUT, ZTransport.DEFAULT_READ_TIMEOUT,
+				keepAlive, false);
+
+		zapi = new ZApi(transport, server.getEndpoint());
+		zapi.zLogin("benchmark@zuora.com", "benchmark");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		transport.shutdown();
+		server.stop();
+	}
+
+	@Benchmark
+	public QueryResult zQuery() {
+		return zapi.zQuery("SELECT Id FROM Account WHERE Name = 'benchmark'");
+	}
+}
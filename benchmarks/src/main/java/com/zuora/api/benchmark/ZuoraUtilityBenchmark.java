@@ -0,0 +1,82 @@
+package com.zuora.api.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+import com.zuora.api.util.ZApi;
+import com.zuora.api.util.ZBatcher;
+import com.zuora.api.util.ZuoraUtility;
+
+/**
+ * Splitting of the objects/IDs in chunks of ZApi.MAX_OBJECTS (by count, or by
+ * count and serialized size) and conversion of the IDs, done before each
+ * create/update/delete call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZuoraUtilityBenchmark {
+
+	@Param({ "50", "500", "2000" })
+	public int size;
+
+	private ZObject[] objects;
+
+	private String[] ids;
+
+	@Setup
+	public void setUp() {
+		objects = Payloads.accounts(size, false);
+		ids = Payloads.ids(size);
+	}
+
+	@Benchmark
+	public ZObject[][] splitObjects() {
+		return ZuoraUtility.splitObjects(objects);
+	}
+
+	@Benchmark
+	public String[][] splitIds() {
+		return ZuoraUtility.splitIds(ids);
+	}
+
+	@Benchmark
+	public ZObject[][] batchObjects() {
+
+		List<ZBatcher.Batch> batches = new ZBatcher(ZApi.MAX_OBJECTS).split(objects);
+
+		ZObject[][] chunks = new ZObject[batches.size()][];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = batches.get(i).of(objects);
+		}
+
+		return chunks;
+	}
+
+	@Benchmark
+	public List<ZBatcher.Batch> batchObjectsByPayload() {
+		return new ZBatcher(ZApi.MAX_OBJECTS, 16 * 1024).split(objects);
+	}
+
+	@Benchmark
+	public ID[] stringToZuoraId() {
+		return ZuoraUtility.stringToZuoraId(ids);
+	}
+}
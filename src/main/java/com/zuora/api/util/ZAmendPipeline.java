@@ -0,0 +1,467 @@
+package com.zuora.api.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Amend many subscriptions in parallel without racing two amendments of the
+ * same subscription: the requests are partitioned by subscription (the
+ * SubscriptionId of their amendments), each subscription has at most one
+ * request in flight, and its requests are sent in the order they were
+ * submitted. The requests of different subscriptions are batched together
+ * (`batch.amend.size`) and several batches are in flight at the same time
+ * (the concurrency of the bulk API).
+ *
+ * `try (ZAmendPipeline pipeline = new ZAmendPipeline(bulk, (index, request, result) -> ...)) {`
+ * `    for (AmendRequest request : campaign) pipeline.submit(request);`
+ * `}`
+ *
+ * Each amendment creates a new version of the subscription: before sending
+ * the next request of a subscription, its amendments are moved to the ID of
+ * the latest version (read from the previous amendment), so the requests can
+ * all use the ID known when they were built. Once a request of a subscription
+ * failed, its next requests are not sent (failed results), including the ones
+ * submitted later.
+ *
+ * submit() waits when `maxPending` requests are waiting. The handler is
+ * called by the threads of the bulk API; it should not submit requests to the
+ * same pipeline.
+ */
+public class ZAmendPipeline implements AutoCloseable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZAmendPipeline.class);
+
+	/** Default max number of requests waiting to be sent */
+	public static final int DEFAULT_MAX_PENDING = 10000;
+
+	/** Reads the new version of the subscriptions amended */
+	private static final String QUERY = "SELECT Id, SubscriptionId FROM Amendment WHERE ";
+
+	/** Sends the batches */
+	private final ZBulkApi bulk;
+
+	/** Gets the results */
+	private final ResultHandler handler;
+
+	/** Max number of requests per batch */
+	private final int batchSize;
+
+	/** Max number of requests waiting to be sent */
+	private final int maxPending;
+
+	/** The subscriptions, by the ID given in their first request */
+	private final Map<String, Partition> partitions = new HashMap<String, Partition>();
+
+	/** The subscriptions with requests to send and none in flight, in order */
+	private final Set<Partition> ready = new LinkedHashSet<Partition>();
+
+	/** Index of the next request submitted */
+	private long submitted = 0;
+
+	/** Number of requests submitted and not done */
+	private int pending = 0;
+
+	/** Number of batches in flight */
+	private int inFlight = 0;
+
+	private long succeeded = 0;
+
+	private long failed = 0;
+
+	/**
+	 * Instantiates a new pipeline, with DEFAULT_MAX_PENDING requests waiting
+	 * at most
+	 *
+	 * @param bulk
+	 *            The bulk API sending the batches, its concurrency is the max
+	 *            number of batches in flight
+	 * @param handler
+	 *            Gets the result of each request (in order for a given
+	 *            subscription)
+	 */
+	public ZAmendPipeline(ZBulkApi bulk, ResultHandler handler) {
+
+		this(bulk, handler, DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * Overloaded constructor to specify the max number of requests waiting
+	 *
+	 * @param maxPending
+	 *            Max number of requests submitted and not done, submit() waits
+	 *            above
+	 */
+	public ZAmendPipeline(ZBulkApi bulk, ResultHandler handler, int maxPending) {
+
+		this.bulk = bulk;
+		this.handler = handler;
+		this.batchSize = ZBatcher.forOperation("amend").getBatchSize();
+		this.maxPending = Math.max(1, maxPending);
+	}
+
+	/**
+	 * Submit a request, sent once the previous requests of its subscription
+	 * are done
+	 *
+	 * @param request
+	 *            The request, all its amendments on the same subscription
+	 * @return The index of the request (given to the handler with its result)
+	 */
+	public synchronized long submit(AmendRequest request) throws InterruptedException {
+
+		String subscriptionId = getSubscriptionId(request);
+
+		while (pending >= maxPending) {
+			wait();
+		}
+
+		Partition partition = partitions.get(subscriptionId);
+		if (partition == null) {
+			partition = new Partition(subscriptionId);
+			partitions.put(subscriptionId, partition);
+		}
+
+		long index = submitted++;
+		pending++;
+
+		// A previous request failed: the next ones are not sent
+		if (partition.failure != null) {
+			fail(new Pending(index, request), partition.failure);
+			return index;
+		}
+
+		partition.queue.add(new Pending(index, request));
+		if (!partition.busy) {
+			ready.add(partition);
+		}
+
+		dispatch();
+
+		return index;
+	}
+
+	/**
+	 * Wait until the handler got the results of all the requests submitted
+	 * (returns earlier if the thread is interrupted, with its interrupt flag
+	 * set)
+	 */
+	@Override
+	public synchronized void close() {
+
+		try {
+			while (pending > 0) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Amend pipeline closed with {} request(s) not done (interrupted)", pending);
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		logger.info("Amend pipeline closed: {} request(s) successful, {} failed, {} subscription(s)", succeeded,
+				failed, partitions.size());
+	}
+
+	/**
+	 * Send batches of ready subscriptions (one request each) while the
+	 * concurrency allows it
+	 */
+	private void dispatch() {
+
+		while (inFlight < bulk.getConcurrency() && !ready.isEmpty()) {
+
+			final List<Partition> batch = new ArrayList<Partition>();
+			for (Partition partition : ready) {
+				batch.add(partition);
+				if (batch.size() == batchSize) {
+					break;
+				}
+			}
+
+			AmendRequest[] requests = new AmendRequest[batch.size()];
+			for (int i = 0; i < requests.length; i++) {
+				Partition partition = batch.get(i);
+				ready.remove(partition);
+				partition.busy = true;
+
+				requests[i] = partition.queue.peek().request;
+				for (Amendment amendment : requests[i].getAmendments()) {
+					amendment.setSubscriptionId(toId(partition.currentId));
+				}
+			}
+
+			inFlight++;
+			bulk.amend(requests).thenAccept(results -> done(batch, results));
+		}
+	}
+
+	/**
+	 * Give the results of a batch to the handler, move the subscriptions
+	 * amended to their new version and send their next requests
+	 */
+	private void done(List<Partition> batch, AmendResult[] results) {
+
+		Map<String, Partition> amended = new HashMap<String, Partition>();
+		for (int i = 0; i < batch.size(); i++) {
+			Partition partition = batch.get(i);
+			// Looked up even if no request is waiting, more can be submitted
+			if (results[i].getSuccess() && results[i].getAmendmentIds() != null
+					&& results[i].getAmendmentIds().length > 0) {
+				ID[] amendmentIds = results[i].getAmendmentIds();
+				amended.put(amendmentIds[amendmentIds.length - 1].getID(), partition);
+			}
+		}
+		Map<String, String> versions = getNewVersions(amended.keySet());
+
+		// The queues are also written by submit()
+		List<Pending> sent = new ArrayList<Pending>(batch.size());
+		synchronized (this) {
+			for (Partition partition : batch) {
+				sent.add(partition.queue.poll());
+			}
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			deliver(sent.get(i), results[i]);
+
+			if (!results[i].getSuccess()) {
+				failPartition(batch.get(i), "amendment #" + sent.get(i).index + " failed");
+			}
+		}
+
+		synchronized (this) {
+			for (Map.Entry<String, Partition> amendment : amended.entrySet()) {
+				String version = versions != null ? versions.get(amendment.getKey()) : null;
+				if (version != null) {
+					amendment.getValue().currentId = version;
+				} else {
+					failPartition(amendment.getValue(), "new version of subscription "
+							+ amendment.getValue().currentId + " not found");
+				}
+			}
+
+			for (Partition partition : batch) {
+				partition.busy = false;
+				if (!partition.queue.isEmpty()) {
+					ready.add(partition);
+				}
+			}
+
+			inFlight--;
+			dispatch();
+		}
+	}
+
+	/**
+	 * Fail the requests waiting for a subscription and the ones submitted
+	 * later (their order cannot be kept)
+	 */
+	private void failPartition(Partition partition, String reason) {
+
+		List<Pending> skipped;
+		synchronized (this) {
+			partition.failure = reason;
+			skipped = new ArrayList<Pending>(partition.queue);
+			partition.queue.clear();
+		}
+
+		for (Pending request : skipped) {
+			fail(request, reason);
+		}
+	}
+
+	/**
+	 * Give a failed result to the handler for a request not sent
+	 */
+	private void fail(Pending request, String reason) {
+
+		com.zuora.api.axis2.ZuoraServiceStub.Error error = new com.zuora.api.axis2.ZuoraServiceStub.Error();
+		error.setCode(ErrorCode.INVALID_VALUE);
+		error.setMessage("Not sent, " + reason);
+
+		AmendResult result = new AmendResult();
+		result.setSuccess(false);
+		result.setErrors(new com.zuora.api.axis2.ZuoraServiceStub.Error[] { error });
+
+		deliver(request, result);
+	}
+
+	/**
+	 * Give a result to the handler
+	 */
+	private void deliver(Pending request, AmendResult result) {
+
+		try {
+			handler.onResult(request.index, request.request, result);
+		} catch (RuntimeException e) {
+			logger.error("Amend result handler failed on request #{} | {}", request.index, e);
+		}
+
+		synchronized (this) {
+			if (result.getSuccess()) {
+				succeeded++;
+			} else {
+				failed++;
+			}
+			pending--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * The subscription versions created by some amendments
+	 *
+	 * @return The new subscription ID by amendment ID, null if the query
+	 *         failed
+	 */
+	private Map<String, String> getNewVersions(Set<String> amendmentIds) {
+
+		Map<String, String> versions = new HashMap<String, String>();
+		if (amendmentIds.isEmpty()) {
+			return versions;
+		}
+
+		StringBuilder query = new StringBuilder(QUERY);
+		for (String amendmentId : amendmentIds) {
+			query.append(query.length() > QUERY.length() ? " OR Id = '" : "Id = '").append(amendmentId).append("'");
+		}
+
+		QueryResult result = bulk.getPool().execute(zapi -> zapi.zQuery(query.toString(), null, false));
+		if (result == null) {
+			logger.error("Could not read the new version of {} subscription(s)", amendmentIds.size());
+			return null;
+		}
+
+		for (ZObject record : result.getRecords() != null ? result.getRecords() : new ZObject[0]) {
+			Amendment amendment = (Amendment) record;
+			versions.put(amendment.getId().getID(), amendment.getSubscriptionId().getID());
+		}
+
+		return versions;
+	}
+
+	private static String getSubscriptionId(AmendRequest request) {
+
+		Amendment[] amendments = request.getAmendments();
+		if (amendments == null || amendments.length == 0 || amendments[0].getSubscriptionId() == null) {
+			throw new IllegalArgumentException("Amend request without SubscriptionId");
+		}
+
+		String subscriptionId = amendments[0].getSubscriptionId().getID();
+		for (Amendment amendment : amendments) {
+			if (amendment.getSubscriptionId() == null
+					|| !subscriptionId.equals(amendment.getSubscriptionId().getID())) {
+				throw new IllegalArgumentException("The amendments of a request must be on the same subscription");
+			}
+		}
+
+		return subscriptionId;
+	}
+
+	private static ID toId(String value) {
+
+		ID id = new ID();
+		id.setID(value);
+
+		return id;
+	}
+
+	// --- Getter(s) ---
+
+	/**
+	 * Number of requests submitted and not done
+	 */
+	public synchronized int getPendingCount() {
+		return pending;
+	}
+
+	public synchronized long getSucceededCount() {
+		return succeeded;
+	}
+
+	public synchronized long getFailedCount() {
+		return failed;
+	}
+
+	/**
+	 * The ID of the latest version of a subscription amended through this
+	 * pipeline
+	 *
+	 * @param subscriptionId
+	 *            The ID given in its first request
+	 * @return The latest ID known, null if not amended through this pipeline
+	 */
+	public synchronized String getLatestId(String subscriptionId) {
+
+		Partition partition = partitions.get(subscriptionId);
+
+		return partition != null ? partition.currentId : null;
+	}
+
+	/**
+	 * Gets the result of each request
+	 */
+	public interface ResultHandler {
+
+		/**
+		 * @param index
+		 *            Index of the request (0 for the first one submitted)
+		 */
+		void onResult(long index, AmendRequest request, AmendResult result);
+	}
+
+	/**
+	 * A subscription: its requests waiting, the first one in flight if busy
+	 */
+	private static class Partition {
+
+		/** The ID of its latest version */
+		private String currentId;
+
+		/** Its requests not done, in order (only read and written holding the pipeline lock) */
+		private final Deque<Pending> queue = new ArrayDeque<Pending>();
+
+		/** True if its first request is in flight */
+		private boolean busy = false;
+
+		/** Why its requests are not sent anymore, null if none failed */
+		private String failure;
+
+		Partition(String subscriptionId) {
+			this.currentId = subscriptionId;
+		}
+	}
+
+	/**
+	 * A request submitted
+	 */
+	private static class Pending {
+
+		private final long index;
+
+		private final AmendRequest request;
+
+		Pending(long index, AmendRequest request) {
+			this.index = index;
+			this.request = request;
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package com.zuora.api.util;
 
 import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.client.ServiceClient;
@@ -14,20 +17,34 @@ import com.zuora.api.axis2.LoginFault;
 import com.zuora.api.axis2.MalformedQueryFault;
 import com.zuora.api.axis2.UnexpectedErrorFault;
 import com.zuora.api.axis2.ZuoraServiceStub;
+import com.zuora.api.axis2.ZuoraServiceStub.Amend;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
 import com.zuora.api.axis2.ZuoraServiceStub.Create;
 import com.zuora.api.axis2.ZuoraServiceStub.CreateResponse;
 import com.zuora.api.axis2.ZuoraServiceStub.Delete;
 import com.zuora.api.axis2.ZuoraServiceStub.DeleteResponse;
 import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Generate;
+import com.zuora.api.axis2.ZuoraServiceStub.GenerateResponse;
 import com.zuora.api.axis2.ZuoraServiceStub.ID;
 import com.zuora.api.axis2.ZuoraServiceStub.Login;
 import com.zuora.api.axis2.ZuoraServiceStub.LoginResponse;
 import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
 import com.zuora.api.axis2.ZuoraServiceStub.Query;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryLocator;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMore;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMoreResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryOptions;
 import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
 import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
 import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
 import com.zuora.api.axis2.ZuoraServiceStub.SessionHeader;
+import com.zuora.api.axis2.ZuoraServiceStub.Subscribe;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
 import com.zuora.api.axis2.ZuoraServiceStub.Update;
 import com.zuora.api.axis2.ZuoraServiceStub.UpdateResponse;
 import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
@@ -49,6 +66,9 @@ public class ZApi {
 	/** Max number of objects per call (except QUERY) */
 	public static final int MAX_OBJECTS = 50;
 
+	/** Max number of objects returned per query() or queryMore() call */
+	public static final int MAX_QUERY_OBJECTS = 2000;
+
 	/** The stub. */
 	private ZuoraServiceStub stub;
 
@@ -58,28 +78,36 @@ public class ZApi {
 	/** The endpoint used. */
 	private String endpoint;
 
-	/**
-	 * Instantiates a new Zuora API Helper
-	 */
-	public ZApi() {
+	/** The HTTP transport of the stub. */
+	private final ZTransport transport;
 
-		logger.info("Creating a new ZAPI object");
+	/** The user logged in (used to get a new session when needed). */
+	private String username;
 
-		try {
-			setStub(new ZuoraServiceStub());
+	/** The password of the user logged in. */
+	private String password;
 
-			// set new ENDPOINT
-			setEndpoint(ZuoraUtility.getPropertyValue(PROPERTY_ENDPOINT));
+	/** The limiter of the calls sent to Zuora. */
+	private ZRateLimiter rateLimiter = ZRateLimiter.getInstance();
 
-			if (endpoint != null && endpoint.trim().length() > 0) {
-				ServiceClient client = stub._getServiceClient();
-				client.getOptions().getTo().setAddress(endpoint);
-			}
+	/** The listener of the calls sent to Zuora. */
+	private ZApiMetrics metrics = ZMetricsRegistry.getInstance();
 
-		} catch (AxisFault e) {
-			logger.error(e.getMessage());
-		}
+	/** The batchers of the create/update/delete calls, by operation. */
+	private final Map<String, ZBatcher> batchers = new HashMap<String, ZBatcher>();
+
+	/** The cache of the query results, null if disabled. */
+	private ZQueryCache queryCache;
+
+	/** The fault code of the last call sent, null if it succeeded. */
+	private String lastFault;
+
+	/**
+	 * Instantiates a new Zuora API Helper
+	 */
+	public ZApi() {
 
+		this(ZuoraUtility.getPropertyValue(PROPERTY_ENDPOINT));
 	}
 
 	/**
@@ -91,19 +119,38 @@ public class ZApi {
 	 */
 	public ZApi(String endpoint) {
 
+		this(ZTransport.getDefault(), endpoint);
+	}
+
+	/**
+	 * Overloaded method to specify the HTTP transport (connection pool,
+	 * timeouts, compression) instead of the default one
+	 * 
+	 * @param transport
+	 *            The HTTP transport to use
+	 * @param endpoint
+	 *            Specify the endpoint (Zuora) to connect to
+	 */
+	public ZApi(ZTransport transport, String endpoint) {
+
 		logger.info("Creating a new ZAPI object");
 
+		this.transport = transport;
+
 		try {
-			setStub(new ZuoraServiceStub());
+			setStub(new ZuoraServiceStub(transport.getConfigurationContext()));
 
 			// set new ENDPOINT
 			setEndpoint(endpoint);
 
+			ServiceClient client = stub._getServiceClient();
+
 			if (endpoint != null && endpoint.trim().length() > 0) {
-				ServiceClient client = stub._getServiceClient();
 				client.getOptions().getTo().setAddress(endpoint);
 			}
 
+			transport.configure(client.getOptions());
+
 		} catch (AxisFault e) {
 			logger.error(e.getMessage());
 		}
@@ -120,7 +167,7 @@ public class ZApi {
 		String username = ZuoraUtility.getPropertyValue(PROPERTY_USERNAME);
 		String password = ZuoraUtility.getPropertyValue(PROPERTY_PASSWORD);
 
-		logger.debug("Username = " + username + " | Password = " + password);
+		logger.debug("Username = {}", username);
 
 		return zLogin(username, password);
 	}
@@ -137,6 +184,27 @@ public class ZApi {
 	 */
 	public LoginResult zLogin(String username, String password) {
 
+		this.username = username;
+		this.password = password;
+
+		// Reuse the session of this endpoint/user/password if there is one
+		LoginResult result = ZSessionCache.getInstance().get(endpoint, username, password,
+				() -> login(username, password));
+
+		if (result != null) {
+			useSession(result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Send the login call to Zuora
+	 * 
+	 * @return LoginResult object, null if an error occurred
+	 */
+	private LoginResult login(String username, String password) {
+
 		LoginResult result = null;
 
 		// Prepare the login request
@@ -150,28 +218,164 @@ public class ZApi {
 
 		try {
 
-			resp = stub.login(login);
+			resp = measure("login", () -> stub.login(login));
 			result = resp.getResult();
 
-			// Create session for all subsequent calls
-			setHeader(new SessionHeader());
-			getHeader().setSession(result.getSession());
-
-			logger.info("User `" + ZuoraUtility.getPropertyValue(PROPERTY_USERNAME) + "` successfully connected!");
+			logger.info("User `{}` successfully connected!", username);
 
 		} catch (RemoteException e) {
-			logger.error("Remote error while trying to login | " + e.getMessage());
+			logger.error("Remote error while trying to login | {}", e.getMessage());
 
 		} catch (UnexpectedErrorFault e) {
-			logger.error("Unexpected Error Fault | " + e.getMessage());
+			logger.error("Unexpected Error Fault | {}", e.getMessage());
 
 		} catch (LoginFault e) {
-			logger.error("Login Fault | " + e.getMessage());
+			logger.error("Login Fault | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
 		}
 
 		return result;
 	}
 
+	/**
+	 * Create session for all subsequent calls
+	 */
+	private void useSession(LoginResult result) {
+
+		if (header == null || !result.getSession().equals(header.getSession())) {
+			SessionHeader newHeader = new SessionHeader();
+			newHeader.setSession(result.getSession());
+			setHeader(newHeader);
+		}
+	}
+
+	/**
+	 * Send a call to Zuora within the limits of the rate limiter. If Zuora
+	 * throttles it, only this call is sent again after a jittered exponential
+	 * delay.
+	 * 
+	 * @param operation
+	 *            The SOAP operation, for the metrics
+	 * @param call
+	 *            The stub call, must read the `header` field when called
+	 * @return The response of the call
+	 */
+	private <T> T invoke(String operation, StubCall<T> call) throws Exception {
+
+		for (int retry = 0;; retry++) {
+
+			rateLimiter.acquire();
+
+			boolean throttled = false;
+			try {
+				return measure(operation, () -> invokeWithSession(call));
+
+			} catch (Exception e) {
+				throttled = ZuoraUtility.isThrottled(e);
+				if (!throttled || retry >= rateLimiter.getMaxRetries()) {
+					throw e;
+				}
+
+			} finally {
+				rateLimiter.release(throttled);
+			}
+
+			long delay = rateLimiter.getRetryDelay(retry);
+			logger.warn("Call throttled by Zuora, sending it again in {} ms (retry #{})", delay, retry + 1);
+			Thread.sleep(delay);
+		}
+	}
+
+	/**
+	 * Send a call to Zuora with the current session. The session is renewed
+	 * before the call if it is too old, or once after the call if the server
+	 * rejects it (INVALID_SESSION), then the call is sent again. At most one
+	 * login is done per call.
+	 * 
+	 * @param call
+	 *            The stub call, must read the `header` field when called
+	 * @return The response of the call
+	 */
+	private <T> T invokeWithSession(StubCall<T> call) throws Exception {
+
+		// Not logged in with zLogin(), nothing to renew
+		if (username == null) {
+			return call.call();
+		}
+
+		final boolean[] loggedIn = { false };
+
+		LoginResult result = ZSessionCache.getInstance().get(endpoint, username, password, () -> {
+			loggedIn[0] = true;
+			return login(username, password);
+		});
+		if (result != null) {
+			useSession(result);
+		}
+
+		try {
+			return call.call();
+
+		} catch (Exception e) {
+			if (loggedIn[0] || !"INVALID_SESSION".equals(ZuoraUtility.getFaultCode(e))) {
+				throw e;
+			}
+
+			String rejectedSession = header != null ? header.getSession() : null;
+
+			result = ZSessionCache.getInstance().renew(endpoint, username, password, rejectedSession,
+					() -> login(username, password));
+			if (result == null || result.getSession().equals(rejectedSession)) {
+				throw e;
+			}
+
+			logger.info("Session expired, sending the call again with a new session");
+			useSession(result);
+
+			return call.call();
+		}
+	}
+
+	/**
+	 * Send a call and give its duration, size and outcome to the metrics
+	 * listener
+	 * 
+	 * @param operation
+	 *            The SOAP operation
+	 * @param call
+	 *            The call
+	 * @return The response of the call
+	 */
+	private <T> T measure(String operation, StubCall<T> call) throws Exception {
+
+		long sent = ZCountingSocketFactory.getBytesSent();
+		long received = ZCountingSocketFactory.getBytesReceived();
+		long start = System.nanoTime();
+
+		T response = null;
+		String fault = null;
+
+		try {
+			response = call.call();
+			return response;
+
+		} catch (Exception e) {
+			fault = ZuoraUtility.getFaultCode(e);
+			if (fault == null) {
+				fault = ZuoraUtility.isThrottled(e) ? "THROTTLED" : e.getClass().getSimpleName();
+			}
+			throw e;
+
+		} finally {
+			lastFault = fault;
+			metrics.onCall(operation, System.nanoTime() - start, getRecordCount(response),
+					ZCountingSocketFactory.getBytesSent() - sent, ZCountingSocketFactory.getBytesReceived() - received,
+					fault);
+		}
+	}
+
 	/**
 	 * Do a query to Zuora and return the result (no more than 2,000 objects)
 	 * 
@@ -181,37 +385,188 @@ public class ZApi {
 	 */
 	public QueryResult zQuery(String queryString) {
 
+		// We set `null` for the query options to return max. 2000 objects
+		return zQuery(queryString, null);
+	}
+
+	/**
+	 * Overloaded zQuery call to pass the query options (batch size, case
+	 * sensitivity)
+	 * 
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param options
+	 *            The query options, or null to use the server defaults
+	 * @return The query result
+	 */
+	public QueryResult zQuery(String queryString, QueryOptions options) {
+
+		return zQuery(queryString, options, true);
+	}
+
+	/**
+	 * The scope of a cached query: the endpoint and the options changing its
+	 * result (batch size, case sensitivity)
+	 */
+	private String getCacheScope(QueryOptions options) {
+
+		StringBuilder scope = new StringBuilder(endpoint);
+		if (options != null && options.isBatchSizeSpecified()) {
+			scope.append("|batchSize=").append(options.getBatchSize());
+		}
+		if (options != null && options.isCaseSensitiveSpecified()) {
+			scope.append("|caseSensitive=").append(options.getCaseSensitive());
+		}
+
+		return scope.toString();
+	}
+
+	/**
+	 * Overloaded zQuery call to bypass the query cache, for the data changed
+	 * by Zuora itself (status of an import/export, UpdatedDate, etc.) that the
+	 * writes through this ZApi do not invalidate
+	 * 
+	 * @param useCache
+	 *            False to send the query (its result is not cached either)
+	 */
+	public QueryResult zQuery(String queryString, QueryOptions options, boolean useCache) {
+
 		QueryResult result = null;
 
+		// Already in the cache
+		String cacheKey = null;
+		if (useCache && queryCache != null) {
+			cacheKey = ZQueryCache.normalize(getCacheScope(options), queryString);
+			result = queryCache.get(cacheKey);
+			if (result != null) {
+				logger.debug("Query found in the cache = {}", queryString);
+				return result;
+			}
+		}
+
 		// Prepare the query
 		Query query = new Query();
 
 		query.setQueryString(queryString);
-		logger.debug("Query String = " + queryString);
+		logger.debug("Query String = {}", queryString);
 
-		// We set `null` for the 2nd parameter to return max. 2000 objects
 		try {
-			QueryResponse resp = stub.query(query, null, header);
+			QueryResponse resp = invoke("query", () -> stub.query(query, options, header));
 			result = resp.getResult();
-			logger.info("Query returned " + result.getSize() + " values");
+			logger.info("Query returned {} values", result.getSize());
+
+			if (cacheKey != null) {
+				queryCache.put(cacheKey, result);
+			}
 
 		} catch (RemoteException e) {
-			logger.error("Remote Exception | " + e.getMessage());
+			logger.error("Remote Exception | {}", e.getMessage());
 
 		} catch (MalformedQueryFault e) {
-			logger.error("Malformed Query | " + e.getMessage());
+			logger.error("Malformed Query | {}", e.getMessage());
+
+		} catch (UnexpectedErrorFault e) {
+			logger.error("Unexpected Error Fault | {}", e.getMessage());
+
+		} catch (InvalidQueryLocatorFault e) {
+			logger.error("Invalid Query Locator | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the next batch of objects of a query, using the query locator
+	 * returned by the previous zQuery() or zQueryMore() call
+	 * 
+	 * @param queryLocator
+	 *            The query locator of the previous result
+	 * @return The query result
+	 */
+	public QueryResult zQueryMore(String queryLocator) {
+
+		return zQueryMore(queryLocator, null);
+	}
+
+	/**
+	 * Overloaded zQueryMore call to pass the query options (batch size, case
+	 * sensitivity)
+	 * 
+	 * @param queryLocator
+	 *            The query locator of the previous result
+	 * @param options
+	 *            The query options, or null to use the server defaults
+	 * @return The query result
+	 */
+	public QueryResult zQueryMore(String queryLocator, QueryOptions options) {
+
+		QueryResult result = null;
+
+		// Prepare the queryMore
+		QueryLocator locator = new QueryLocator();
+		locator.setQueryLocator(queryLocator);
+
+		QueryMore queryMore = new QueryMore();
+		queryMore.setQueryLocator(locator);
+		logger.debug("Query Locator = {}", queryLocator);
+
+		try {
+			QueryMoreResponse resp = invoke("queryMore", () -> stub.queryMore(queryMore, options, header));
+			result = resp.getResult();
+			logger.info("QueryMore returned {} values", result.getSize());
+
+		} catch (RemoteException e) {
+			logger.error("Remote Exception | {}", e.getMessage());
 
 		} catch (UnexpectedErrorFault e) {
-			logger.error("Unexpected Error Fault | " + e.getMessage());
+			logger.error("Unexpected Error Fault | {}", e.getMessage());
 
 		} catch (InvalidQueryLocatorFault e) {
-			logger.error("Invalid Query Locator | " + e.getMessage());
+			logger.error("Invalid Query Locator | {}", e.getMessage());
 
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
 		}
 
 		return result;
 	}
 
+	/**
+	 * Stream all the records of a query, following the query locators
+	 * automatically. The next page is fetched in the background (with its own
+	 * ZApi, same session) while the current one is consumed: this ZApi can be
+	 * used in the loop, e.g. to update each record.
+	 * 
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @return An iterator over all the records of the query
+	 */
+	public ZQueryIterator zQueryIterator(String queryString) {
+
+		return zQueryIterator(queryString, MAX_QUERY_OBJECTS);
+	}
+
+	/**
+	 * Overloaded zQueryIterator call to pass the number of records fetched per
+	 * call
+	 * 
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param batchSize
+	 *            Number of records per query()/queryMore() call (max. 2,000)
+	 * @return An iterator over all the records of the query
+	 */
+	public ZQueryIterator zQueryIterator(String queryString, int batchSize) {
+
+		QueryOptions options = new QueryOptions();
+		options.setBatchSize(Math.min(batchSize, MAX_QUERY_OBJECTS));
+
+		return new ZQueryIterator(this, queryString, options, ZQueryIterator.DEFAULT_MAX_PAGES);
+	}
+
 	/**
 	 * Create object(s) in Zuora using API call
 	 * 
@@ -220,73 +575,91 @@ public class ZApi {
 	 * @return SaveResult or null if an error occured
 	 */
 	public SaveResult[] zCreate(ZObject[] objects) {
+		return zCreate(objects, null);
+	}
+
+	/**
+	 * Create object(s) in Zuora, recording each batch of objects in a
+	 * checkpoint journal: the chunks already recorded (by a previous run of
+	 * the same job) are not sent again, their results are rebuilt from the
+	 * journal.
+	 * 
+	 * @param objects
+	 *            array of objects to create (same order on each run)
+	 * @param journal
+	 *            The checkpoint journal of the job, null for none
+	 * @return SaveResult or null if an error occured (the chunks created so
+	 *         far are in the journal)
+	 */
+	public SaveResult[] zCreate(ZObject[] objects, ZCheckpointJournal journal) {
 
 		SaveResult[] saveResult = null;
 
 		try {
-			// If there is more than MAX_OBJECTS to create we split the call and
-			// then merge back the result
-			if (objects.length > MAX_OBJECTS) {
-
-				// Get the objects in split tables
-				ZObject[][] splittedObjects = ZuoraUtility.splitObjects(objects);
-
-				saveResult = new SaveResult[objects.length];
+			// If there is more than one batch of objects to create we split the
+			// call and then merge back the result
+			List<ZBatcher.Batch> batches = getBatcher("create").split(objects);
+			metrics.onChunks("create", objects.length, batches.size());
 
-				// For each sub table, create() API call
-				for (int i = 0; i < splittedObjects.length; i++) {
+			SaveResult[] results = new SaveResult[objects.length];
 
-					// Prepare the create object
-					Create create = new Create();
-					create.setZObjects(splittedObjects[i]);
+			for (ZBatcher.Batch batch : batches) {
+				ZObject[] chunk = batch.of(objects);
 
-					CreateResponse createResponse = stub.create(create, null, header);
-					SaveResult[] tmpSaveResult = createResponse.getResult();
-
-					// Save the tmp result in the final table result returned
-					for (int j = 0; j < tmpSaveResult.length; j++) {
-						saveResult[(i * MAX_OBJECTS) + j] = tmpSaveResult[j];
-					}
+				// Already created by a previous run
+				String[] createdIds = journal != null ? journal.get("create", batch.getFrom(), chunk.length) : null;
+				if (createdIds != null) {
+					System.arraycopy(toSaveResults(createdIds), 0, results, batch.getFrom(), chunk.length);
+					continue;
 				}
 
-			} else {
-
 				// Prepare the create object
 				Create create = new Create();
-				create.setZObjects(objects);
+				create.setZObjects(chunk);
+
+				CreateResponse createResponse = invoke("create", () -> stub.create(create, null, header));
+				SaveResult[] tmpSaveResult = createResponse.getResult();
 
-				CreateResponse createResponse = stub.create(create, null, header);
-				saveResult = createResponse.getResult();
+				if (journal != null) {
+					journal.record("create", batch.getFrom(), toIds(tmpSaveResult));
+				}
 
+				// Save the tmp result in the final table result returned
+				System.arraycopy(tmpSaveResult, 0, results, batch.getFrom(), tmpSaveResult.length);
 			}
 
+			saveResult = results;
+
 		} catch (UnexpectedErrorFault e) {
-			logger.error("Unexpected error | " + e.getFaultMessage());
+			logger.error("Unexpected error | {}", e.getFaultMessage());
 
 		} catch (InvalidTypeFault e) {
-			logger.error("Invalid Type Fault | " + e.getFaultMessage());
+			logger.error("Invalid Type Fault | {}", e.getFaultMessage());
 
 		} catch (RemoteException e) {
-			logger.error("Remote Exception | " + e.getMessage());
+			logger.error("Remote Exception | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
 		}
 
 		if (saveResult != null) {
-			logger.debug("Successfully received " + saveResult.length + " save result(s).");
+			logger.debug("Successfully received {} save result(s).", saveResult.length);
 		} else {
 			logger.error("Null object received during zCreate() operation");
 		}
 
-		// If an error occurred, log it
-		for (SaveResult result : saveResult) {
-			if (!result.getSuccess()) {
-				logger.error("Create call failed with the following errors:");
-				for (com.zuora.api.axis2.ZuoraServiceStub.Error error : result.getErrors()) {
-					logger.error("field: " + error.getField() + " | message: " + error.getMessage() + " | code: "
-							+ error.getCode());
-				}
+		// If an error occurred, log a summary of the errors
+		if (saveResult != null && logger.isErrorEnabled()) {
+			String errors = ZuoraUtility.summarizeErrors("zCreate", saveResult);
+			if (errors != null) {
+				logger.error(errors);
 			}
 		}
 
+		// The cached queries on these objects may be stale
+		invalidateCache(objects);
+
 		return saveResult;
 	}
 
@@ -302,68 +675,58 @@ public class ZApi {
 		SaveResult[] saveResult = null;
 
 		try {
-			// If there is more than MAX_OBJECTS to create we split the call and
-			// then merge back the result
-			if (objects.length > MAX_OBJECTS) {
-
-				// Get the objects in split tables
-				ZObject[][] splittedObjects = ZuoraUtility.splitObjects(objects);
+			// If there is more than one batch of objects to update we split the
+			// call and then merge back the result
+			List<ZBatcher.Batch> batches = getBatcher("update").split(objects);
+			metrics.onChunks("update", objects.length, batches.size());
 
-				saveResult = new SaveResult[objects.length];
+			SaveResult[] results = new SaveResult[objects.length];
 
-				// For each sub table, create() API call
-				for (int i = 0; i < splittedObjects.length; i++) {
+			for (ZBatcher.Batch batch : batches) {
 
-					// Prepare the create object
-					Update update = new Update();
-					update.setZObjects(splittedObjects[i]);
-
-					UpdateResponse updateResponse = stub.update(update, header);
-					SaveResult[] tmpSaveResult = updateResponse.getResult();
-
-					// Save the tmp result in the final table result returned
-					for (int j = 0; j < tmpSaveResult.length; j++) {
-						saveResult[(i * MAX_OBJECTS) + j] = tmpSaveResult[j];
-					}
-				}
-
-			} else {
-
-				// Prepare the create object
+				// Prepare the update object
 				Update update = new Update();
-				update.setZObjects(objects);
+				update.setZObjects(batch.of(objects));
 
-				UpdateResponse updateResponse = stub.update(update, header);
-				saveResult = updateResponse.getResult();
+				UpdateResponse updateResponse = invoke("update", () -> stub.update(update, header));
+				SaveResult[] tmpSaveResult = updateResponse.getResult();
+
+				// Save the tmp result in the final table result returned
+				System.arraycopy(tmpSaveResult, 0, results, batch.getFrom(), tmpSaveResult.length);
 			}
 
+			saveResult = results;
+
 		} catch (UnexpectedErrorFault e) {
-			logger.error("Unexpected error | " + e.getFaultMessage());
+			logger.error("Unexpected error | {}", e.getFaultMessage());
 
 		} catch (InvalidTypeFault e) {
-			logger.error("Invalid Type Fault | " + e.getFaultMessage());
+			logger.error("Invalid Type Fault | {}", e.getFaultMessage());
 
 		} catch (RemoteException e) {
-			logger.error("Remote Exception | " + e.getMessage());
+			logger.error("Remote Exception | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
 		}
 
 		if (saveResult != null) {
-			logger.debug("Successfully received " + saveResult.length + " save result(s).");
+			logger.debug("Successfully received {} save result(s).", saveResult.length);
 		} else {
 			logger.error("Null object received during zCreate() operation");
 		}
 
-		// If an error occurred, log it
-		for (SaveResult result : saveResult) {
-			if (!result.getSuccess()) {
-				logger.error("Create call failed with the following errors:");
-				for (com.zuora.api.axis2.ZuoraServiceStub.Error error : result.getErrors()) {
-					logger.error("field: " + error.getField() + " | message: " + error.getMessage() + " | code: "
-							+ error.getCode());
-				}
+		// If an error occurred, log a summary of the errors
+		if (saveResult != null && logger.isErrorEnabled()) {
+			String errors = ZuoraUtility.summarizeErrors("zUpdate", saveResult);
+			if (errors != null) {
+				logger.error(errors);
 			}
 		}
 
+		// The cached queries on these objects may be stale
+		invalidateCache(objects);
+
 		return saveResult;
 	}
 
@@ -377,74 +740,288 @@ public class ZApi {
 	 * @return Delete Result if success, null if an error occurred
 	 */
 	public DeleteResult[] zDelete(String[] ids, String type) {
+		return zDelete(ids, type, null);
+	}
+
+	/**
+	 * Delete object(s) in Zuora, recording each batch of IDs in a
+	 * checkpoint journal: the chunks already recorded (by a previous run of
+	 * the same job) are not sent again.
+	 * 
+	 * @param ids
+	 *            Zuora ID of object to delete (same order on each run)
+	 * @param type
+	 *            can be Account, Subscription, etc.
+	 * @param journal
+	 *            The checkpoint journal of the job, null for none
+	 * @return Delete Result if success, null if an error occurred (the chunks
+	 *         deleted so far are in the journal)
+	 */
+	public DeleteResult[] zDelete(String[] ids, String type, ZCheckpointJournal journal) {
 
 		DeleteResult[] deleteResult = null;
 
 		try {
 
-			// If there is more than MAX_OBJECTS to create we split the call and
-			// then merge back the result
-			if (ids.length > MAX_OBJECTS) {
+			// If there is more than one batch of objects to delete we split the
+			// call and then merge back the result
+			List<ZBatcher.Batch> batches = getBatcher("delete").split(ids.length);
+			metrics.onChunks("delete", ids.length, batches.size());
 
-				// Get the objects in split tables
-				String[][] splittedIds = ZuoraUtility.splitIds(ids);
+			DeleteResult[] results = new DeleteResult[ids.length];
 
-				deleteResult = new DeleteResult[ids.length];
+			for (ZBatcher.Batch batch : batches) {
+				String[] chunk = batch.of(ids);
 
-				// For each sub table, create() API call
-				for (int i = 0; i < splittedIds.length; i++) {
-
-					// Convert the IDs to Zuora IDs
-					ID[] zuoraIds = ZuoraUtility.stringToZuoraId(splittedIds[i]);
-
-					// Prepare the delete object
-					Delete delete = new Delete();
-					delete.setType(type);
-					delete.setIds(zuoraIds);
-
-					DeleteResponse deleteResponse = stub.delete(delete, header);
-					DeleteResult[] tmpDeleteResult = deleteResponse.getResult();
-
-					// Save the tmp result in the final table result returned
-					for (int j = 0; j < tmpDeleteResult.length; j++) {
-						deleteResult[(i * MAX_OBJECTS) + j] = tmpDeleteResult[j];
-					}
+				// Already deleted by a previous run
+				String[] deletedIds = journal != null ? journal.get("delete:" + type, batch.getFrom(), chunk.length)
+						: null;
+				if (deletedIds != null) {
+					System.arraycopy(toDeleteResults(deletedIds), 0, results, batch.getFrom(), chunk.length);
+					continue;
 				}
 
-			} else {
-				// Convert the IDs to Zuora IDs
-				ID[] zuoraIds = ZuoraUtility.stringToZuoraId(ids);
-
 				// Prepare the delete object
 				Delete delete = new Delete();
 				delete.setType(type);
-				delete.setIds(zuoraIds);
+				delete.setIds(ZuoraUtility.stringToZuoraId(chunk));
+
+				DeleteResponse deleteResponse = invoke("delete", () -> stub.delete(delete, header));
+				DeleteResult[] tmpDeleteResult = deleteResponse.getResult();
 
-				DeleteResponse deleteResponse = stub.delete(delete, header);
-				deleteResult = deleteResponse.getResult();
+				if (journal != null) {
+					journal.record("delete:" + type, batch.getFrom(), toIds(tmpDeleteResult));
+				}
+
+				// Save the tmp result in the final table result returned
+				System.arraycopy(tmpDeleteResult, 0, results, batch.getFrom(), tmpDeleteResult.length);
 			}
 
+			deleteResult = results;
+
 		} catch (InvalidValueFault e) {
-			logger.error("Invalid Value | " + e.getFaultMessage());
+			logger.error("Invalid Value | {}", e.getFaultMessage());
 
 		} catch (UnexpectedErrorFault e) {
-			logger.error("Unexpected error | " + e.getFaultMessage());
+			logger.error("Unexpected error | {}", e.getFaultMessage());
 
 		} catch (InvalidTypeFault e) {
-			logger.error("Invalid Type Fault | " + e.getFaultMessage());
+			logger.error("Invalid Type Fault | {}", e.getFaultMessage());
 
 		} catch (RemoteException e) {
-			logger.error("Remote Exception | " + e.getMessage());
+			logger.error("Remote Exception | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
 		}
 
 		if (deleteResult != null)
-			logger.info("Successfully deleted " + deleteResult.length + " zObject(s)");
+			logger.info("Successfully deleted {} zObject(s)", deleteResult.length);
 		else
 			logger.error("An error occurred during the zDelete() call");
 
+		// If an error occurred, log a summary of the errors
+		if (deleteResult != null && logger.isErrorEnabled()) {
+			String errors = ZuoraUtility.summarizeErrors("zDelete", deleteResult);
+			if (errors != null) {
+				logger.error(errors);
+			}
+		}
+
+		// The cached queries on these objects may be stale
+		if (queryCache != null) {
+			queryCache.invalidate(type);
+		}
+
 		return deleteResult;
 	}
 
+	/**
+	 * Subscribe call (account + contacts + payment method + subscription in a
+	 * single call), split in batches of MAX_OBJECTS requests (see
+	 * `batch.subscribe.size`)
+	 * 
+	 * @param requests
+	 *            the subscribe requests
+	 * @return SubscribeResult (same order as the requests) or null if an error
+	 *         occured
+	 */
+	public SubscribeResult[] zSubscribe(SubscribeRequest[] requests) {
+
+		SubscribeResult[] subscribeResult = null;
+
+		try {
+			List<ZBatcher.Batch> batches = getBatcher("subscribe").split(requests.length);
+			metrics.onChunks("subscribe", requests.length, batches.size());
+
+			SubscribeResult[] results = new SubscribeResult[requests.length];
+
+			for (ZBatcher.Batch batch : batches) {
+				// Prepare the subscribe object
+				Subscribe subscribe = new Subscribe();
+				subscribe.setSubscribes(batch.of(requests));
+
+				SubscribeResponse subscribeResponse = invoke("subscribe", () -> stub.subscribe(subscribe, header));
+				SubscribeResult[] tmpSubscribeResult = subscribeResponse.getResult();
+
+				System.arraycopy(tmpSubscribeResult, 0, results, batch.getFrom(), tmpSubscribeResult.length);
+			}
+
+			subscribeResult = results;
+
+		} catch (UnexpectedErrorFault e) {
+			logger.error("Unexpected error | {}", e.getFaultMessage());
+
+		} catch (RemoteException e) {
+			logger.error("Remote Exception | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
+		}
+
+		if (subscribeResult != null) {
+			logger.debug("Successfully received {} subscribe result(s).", subscribeResult.length);
+		} else {
+			logger.error("Null object received during zSubscribe() operation");
+		}
+
+		// The cached queries on these objects may be stale
+		invalidateCache(null);
+
+		return subscribeResult;
+	}
+
+	/**
+	 * Amend call (amendments of existing subscriptions), split in batches of
+	 * MAX_OBJECTS requests (see `batch.amend.size`). The batches are sent one
+	 * after the other; see ZAmendPipeline to amend many subscriptions in
+	 * parallel.
+	 * 
+	 * @param requests
+	 *            the amend requests
+	 * @return AmendResult (same order as the requests) or null if an error
+	 *         occured
+	 */
+	public AmendResult[] zAmend(AmendRequest[] requests) {
+
+		AmendResult[] amendResult = null;
+
+		try {
+			List<ZBatcher.Batch> batches = getBatcher("amend").split(requests.length);
+			metrics.onChunks("amend", requests.length, batches.size());
+
+			AmendResult[] results = new AmendResult[requests.length];
+
+			for (ZBatcher.Batch batch : batches) {
+				// Prepare the amend object
+				Amend amend = new Amend();
+				amend.setRequests(batch.of(requests));
+
+				AmendResponse amendResponse = invoke("amend", () -> stub.amend(amend, header));
+				AmendResult[] tmpAmendResult = amendResponse.getResults();
+
+				System.arraycopy(tmpAmendResult, 0, results, batch.getFrom(), tmpAmendResult.length);
+			}
+
+			amendResult = results;
+
+		} catch (UnexpectedErrorFault e) {
+			logger.error("Unexpected error | {}", e.getFaultMessage());
+
+		} catch (RemoteException e) {
+			logger.error("Remote Exception | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
+		}
+
+		if (amendResult != null) {
+			logger.debug("Successfully received {} amend result(s).", amendResult.length);
+		} else {
+			logger.error("Null object received during zAmend() operation");
+		}
+
+		// If an error occurred, log a summary of the errors
+		if (amendResult != null && logger.isErrorEnabled()) {
+			String errors = ZuoraUtility.summarizeErrors("zAmend", amendResult);
+			if (errors != null) {
+				logger.error(errors);
+			}
+		}
+
+		// The cached queries on these objects may be stale
+		invalidateCache(null);
+
+		return amendResult;
+	}
+
+	/**
+	 * Generate object(s) in Zuora (e.g. invoices) using API call
+	 * 
+	 * @param objects
+	 *            array of objects to generate (max. MAX_OBJECTS per call)
+	 * @return SaveResult or null if an error occured
+	 */
+	public SaveResult[] zGenerate(ZObject[] objects) {
+
+		SaveResult[] saveResult = null;
+
+		// Prepare the generate object
+		Generate generate = new Generate();
+		generate.setZObjects(objects);
+
+		try {
+			GenerateResponse generateResponse = invoke("generate", () -> stub.generate(generate, header));
+			saveResult = generateResponse.getResult();
+
+		} catch (UnexpectedErrorFault e) {
+			logger.error("Unexpected error | {}", e.getFaultMessage());
+
+		} catch (InvalidTypeFault e) {
+			logger.error("Invalid Type Fault | {}", e.getFaultMessage());
+
+		} catch (RemoteException e) {
+			logger.error("Remote Exception | {}", e.getMessage());
+
+		} catch (Exception e) {
+			logger.error("Unexpected Exception | {}", e.getMessage());
+		}
+
+		if (saveResult != null) {
+			logger.debug("Successfully received {} generate result(s).", saveResult.length);
+		} else {
+			logger.error("Null object received during zGenerate() operation");
+		}
+
+		// The cached queries on these objects may be stale
+		invalidateCache(objects);
+
+		return saveResult;
+	}
+
+	/**
+	 * A new ZApi on the same transport and endpoint, with the same session and
+	 * settings (rate limiter, metrics, batchers, query cache), for calls sent
+	 * at the same time as the calls of this one (a ZApi is not thread-safe)
+	 */
+	ZApi fork() {
+
+		ZApi fork = new ZApi(transport, endpoint);
+		fork.username = username;
+		fork.password = password;
+		if (header != null) {
+			SessionHeader forkHeader = new SessionHeader();
+			forkHeader.setSession(header.getSession());
+			fork.setHeader(forkHeader);
+		}
+		fork.rateLimiter = rateLimiter;
+		fork.metrics = metrics;
+		fork.batchers.putAll(batchers);
+		fork.queryCache = queryCache;
+
+		return fork;
+	}
+
 	// --- Setter(s) & Getter(s) ---
 
 	public ZuoraServiceStub getStub() {
@@ -471,4 +1048,191 @@ public class ZApi {
 		this.endpoint = endpoint;
 	}
 
+	public ZRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Use another limiter than the shared one (e.g. one per tenant)
+	 */
+	public void setRateLimiter(ZRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Fault code of the last call sent to Zuora (SERVER_UNAVAILABLE,
+	 * THROTTLED, SocketTimeoutException, etc.), null if it succeeded. Tells
+	 * why a method returned null.
+	 */
+	public String getLastFault() {
+		return lastFault;
+	}
+
+	/**
+	 * The batcher splitting the objects of an operation (create, update,
+	 * delete, subscribe or amend), configured by `batch.<operation>.*` by default
+	 */
+	public ZBatcher getBatcher(String operation) {
+		return batchers.computeIfAbsent(operation, ZBatcher::forOperation);
+	}
+
+	/**
+	 * Use another batch size or max payload for an operation (create, update,
+	 * delete, subscribe or amend)
+	 */
+	public void setBatcher(String operation, ZBatcher batcher) {
+		batchers.put(operation, batcher);
+	}
+
+	public ZQueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	/**
+	 * Cache the results of zQuery() (can be shared by several ZApi of the
+	 * same tenant), null to disable it
+	 */
+	public void setQueryCache(ZQueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	public ZApiMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Send the metrics of the calls of this ZApi to another listener (by
+	 * default the shared ZMetricsRegistry), ZApiMetrics.NONE to disable them
+	 */
+	public void setMetrics(ZApiMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Remove the cached queries on the types of the objects written, all of
+	 * them if null (subscribe, amend)
+	 */
+	private void invalidateCache(ZObject[] objects) {
+
+		if (queryCache == null) {
+			return;
+		}
+
+		if (objects == null) {
+			queryCache.invalidateAll();
+			return;
+		}
+
+		String type = null;
+		for (ZObject object : objects) {
+			if (object != null && !object.getClass().getSimpleName().equals(type)) {
+				type = object.getClass().getSimpleName();
+				queryCache.invalidate(type);
+			}
+		}
+	}
+
+	/**
+	 * The ID of each object saved, null for the failed ones (for the journal)
+	 */
+	private static String[] toIds(SaveResult[] results) {
+
+		String[] ids = new String[results.length];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null && results[i].getSuccess() && results[i].getId() != null) {
+				ids[i] = results[i].getId().getID();
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * The ID of each object deleted, null for the failed ones (for the
+	 * journal)
+	 */
+	private static String[] toIds(DeleteResult[] results) {
+
+		String[] ids = new String[results.length];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null && results[i].getSuccess() && results[i].getId() != null) {
+				ids[i] = results[i].getId().getID();
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Results of a chunk read from the journal (failed without error details
+	 * if no ID was recorded)
+	 */
+	private static SaveResult[] toSaveResults(String[] ids) {
+
+		SaveResult[] results = new SaveResult[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			results[i] = new SaveResult();
+			results[i].setSuccess(!ids[i].isEmpty());
+			if (!ids[i].isEmpty()) {
+				results[i].setId(ZuoraUtility.stringToZuoraId(new String[] { ids[i] })[0]);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Same for a delete
+	 */
+	private static DeleteResult[] toDeleteResults(String[] ids) {
+
+		DeleteResult[] results = new DeleteResult[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			results[i] = new DeleteResult();
+			results[i].setSuccess(!ids[i].isEmpty());
+			if (!ids[i].isEmpty()) {
+				results[i].setId(ZuoraUtility.stringToZuoraId(new String[] { ids[i] })[0]);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Number of records returned by a query or sent by a create, update, etc.
+	 * (one result per record)
+	 */
+	private static int getRecordCount(Object response) {
+
+		Object[] records = null;
+
+		if (response instanceof QueryResponse) {
+			records = ((QueryResponse) response).getResult().getRecords();
+		} else if (response instanceof QueryMoreResponse) {
+			records = ((QueryMoreResponse) response).getResult().getRecords();
+		} else if (response instanceof CreateResponse) {
+			records = ((CreateResponse) response).getResult();
+		} else if (response instanceof UpdateResponse) {
+			records = ((UpdateResponse) response).getResult();
+		} else if (response instanceof DeleteResponse) {
+			records = ((DeleteResponse) response).getResult();
+		} else if (response instanceof SubscribeResponse) {
+			records = ((SubscribeResponse) response).getResult();
+		} else if (response instanceof AmendResponse) {
+			records = ((AmendResponse) response).getResults();
+		} else if (response instanceof GenerateResponse) {
+			records = ((GenerateResponse) response).getResult();
+		}
+
+		return records != null ? records.length : 0;
+	}
+
+	/**
+	 * A call to the Zuora stub
+	 */
+	private interface StubCall<T> {
+
+		T call() throws Exception;
+	}
+
 }
@@ -0,0 +1,302 @@
+package com.zuora.api.util;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Asynchronous version of ZApi: every call returns a CompletableFuture.
+ *
+ * At most `maxConcurrency` calls are in flight, each one on a ZApi borrowed
+ * from a ZApiPool; the other calls wait in a queue without holding a thread.
+ * The blocking SOAP calls run on the given Executor, so passing a virtual
+ * thread executor (Java 21+) or an event loop executor avoids dedicating an OS
+ * thread per call.
+ *
+ * A future cancelled while queued never reaches Zuora. A call already sent
+ * cannot be aborted, its result is discarded.
+ */
+public class ZApiAsync {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZApiAsync.class);
+
+	/** The pool of ZApi used to run the calls */
+	private final ZApiPool pool;
+
+	/** Max number of calls in flight */
+	private final int maxConcurrency;
+
+	/** The calls waiting for a free slot */
+	private final Queue<PendingCall<?>> pending = new ConcurrentLinkedQueue<PendingCall<?>>();
+
+	/** Number of calls in flight */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/** The executor running the blocking calls */
+	private final Executor executor;
+
+	/** The executor created by this class (shut down by shutdown()) */
+	private final ExecutorService ownExecutor;
+
+	/** True if the pool was created by this class (closed by shutdown()) */
+	private final boolean ownPool;
+
+	/**
+	 * Instantiates a new async Zuora API helper, with its own pool of ZApi and
+	 * of daemon threads
+	 *
+	 * @param maxConcurrency
+	 *            Max number of calls in flight
+	 */
+	public ZApiAsync(int maxConcurrency) {
+
+		this(new ZApiPool(maxConcurrency), maxConcurrency, null, true);
+	}
+
+	/**
+	 * Overloaded constructor to specify the executor running the blocking calls
+	 *
+	 * @param maxConcurrency
+	 *            Max number of calls in flight
+	 * @param executor
+	 *            The executor (e.g. Executors.newVirtualThreadPerTaskExecutor())
+	 */
+	public ZApiAsync(int maxConcurrency, Executor executor) {
+
+		this(new ZApiPool(maxConcurrency), maxConcurrency, executor, true);
+	}
+
+	/**
+	 * Overloaded constructor to share an existing ZApi pool
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to run the calls
+	 * @param maxConcurrency
+	 *            Max number of calls in flight (should not be more than the
+	 *            pool max size)
+	 * @param executor
+	 *            The executor, or null to use a pool of daemon threads
+	 */
+	public ZApiAsync(ZApiPool pool, int maxConcurrency, Executor executor) {
+
+		this(pool, maxConcurrency, executor, false);
+	}
+
+	private ZApiAsync(ZApiPool pool, int maxConcurrency, Executor executor, boolean ownPool) {
+
+		this.pool = pool;
+		this.ownPool = ownPool;
+		this.maxConcurrency = maxConcurrency;
+
+		if (executor == null) {
+			this.ownExecutor = Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "zapi-async-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this.executor = ownExecutor;
+		} else {
+			this.ownExecutor = null;
+			this.executor = executor;
+		}
+
+		logger.info("Async ZAPI ready with {} call(s) in flight", maxConcurrency);
+	}
+
+	/**
+	 * Log in the ZApi pool, the session is shared by all the calls. Optional:
+	 * the pool logs in on the first call otherwise.
+	 */
+	public CompletableFuture<LoginResult> login() {
+
+		return CompletableFuture.supplyAsync(() -> check("zLogin", pool.login()), executor);
+	}
+
+	public CompletableFuture<QueryResult> query(String queryString) {
+		return submit("zQuery", zapi -> zapi.zQuery(queryString));
+	}
+
+	public CompletableFuture<QueryResult> query(String queryString, QueryOptions options) {
+		return submit("zQuery", zapi -> zapi.zQuery(queryString, options));
+	}
+
+	public CompletableFuture<QueryResult> queryMore(String queryLocator) {
+		return submit("zQueryMore", zapi -> zapi.zQueryMore(queryLocator));
+	}
+
+	public CompletableFuture<SaveResult[]> create(ZObject[] objects) {
+		return submit("zCreate", zapi -> zapi.zCreate(objects));
+	}
+
+	public CompletableFuture<SaveResult[]> update(ZObject[] objects) {
+		return submit("zUpdate", zapi -> zapi.zUpdate(objects));
+	}
+
+	public CompletableFuture<DeleteResult[]> delete(String[] ids, String type) {
+		return submit("zDelete", zapi -> zapi.zDelete(ids, type));
+	}
+
+	public CompletableFuture<SubscribeResult[]> subscribe(SubscribeRequest[] requests) {
+		return submit("zSubscribe", zapi -> zapi.zSubscribe(requests));
+	}
+
+	public CompletableFuture<AmendResult[]> amend(AmendRequest[] requests) {
+		return submit("zAmend", zapi -> zapi.zAmend(requests));
+	}
+
+	public CompletableFuture<SaveResult[]> generate(ZObject[] objects) {
+		return submit("zGenerate", zapi -> zapi.zGenerate(objects));
+	}
+
+	/**
+	 * Stop the threads created by this class (not the executor nor the pool
+	 * given to the constructor)
+	 */
+	public void shutdown() {
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+		if (ownPool) {
+			pool.close();
+		}
+	}
+
+	/**
+	 * Number of calls waiting for a free slot
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Number of calls in flight
+	 */
+	public int getInFlightCount() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Queue a call and start it if the max concurrency is not reached
+	 */
+	private <T> CompletableFuture<T> submit(String operation, Function<ZApi, T> call) {
+
+		PendingCall<T> pendingCall = new PendingCall<T>(operation, call);
+		pending.add(pendingCall);
+		dispatch();
+
+		return pendingCall.future;
+	}
+
+	/**
+	 * Start the pending calls while the max concurrency is not reached
+	 */
+	private void dispatch() {
+
+		while (!pending.isEmpty()) {
+
+			// Reserve a slot
+			int current = inFlight.get();
+			if (current >= maxConcurrency) {
+				return;
+			}
+			if (!inFlight.compareAndSet(current, current + 1)) {
+				continue;
+			}
+
+			PendingCall<?> pendingCall = pending.poll();
+
+			if (pendingCall == null || pendingCall.future.isDone()) {
+				// Nothing left, or cancelled while waiting
+				inFlight.decrementAndGet();
+				continue;
+			}
+
+			start(pendingCall);
+		}
+	}
+
+	/**
+	 * Run the call on the executor with a ZApi borrowed from the pool, then
+	 * free the slot and start the next pending call
+	 */
+	private <T> void start(final PendingCall<T> pendingCall) {
+
+		try {
+			executor.execute(() -> {
+				try {
+					T result = pool.execute(pendingCall.call);
+					pendingCall.future.complete(check(pendingCall.operation, result));
+				} catch (Throwable e) {
+					// Errors too (e.g. OutOfMemoryError), the caller would wait forever
+					pendingCall.future.completeExceptionally(e);
+				} finally {
+					release();
+				}
+			});
+
+		} catch (RuntimeException e) {
+			// Executor rejected the call (e.g. shut down)
+			pendingCall.future.completeExceptionally(e);
+			release();
+		}
+	}
+
+	private void release() {
+		inFlight.decrementAndGet();
+		dispatch();
+	}
+
+	/**
+	 * ZApi logs the errors and returns null, turn that into a failed future
+	 */
+	private static <T> T check(String operation, T result) {
+
+		if (result == null) {
+			throw new IllegalStateException(operation + "() failed (see previous error)");
+		}
+
+		return result;
+	}
+
+	/**
+	 * A call waiting for a free slot, and the future completed with its result
+	 */
+	private static class PendingCall<T> {
+
+		private final String operation;
+
+		private final Function<ZApi, T> call;
+
+		private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		PendingCall(String operation, Function<ZApi, T> call) {
+			this.operation = operation;
+			this.call = call;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.zuora.api.util;
+
+/**
+ * Listener of the calls sent by the ZApi, to feed metrics (see
+ * ZMetricsRegistry for the in-memory one used by default, and
+ * ZMicrometerMetrics for Micrometer). The methods are called by the threads
+ * sending the calls, they must be fast and thread-safe.
+ */
+public interface ZApiMetrics {
+
+	/** Ignore all the calls */
+	ZApiMetrics NONE = new ZApiMetrics() {
+	};
+
+	/**
+	 * A stub call is done (each attempt: a call throttled then sent again is
+	 * seen twice)
+	 *
+	 * @param operation
+	 *            The SOAP operation (login, query, queryMore, create, etc.)
+	 * @param latencyNanos
+	 *            Duration of the call (ns)
+	 * @param records
+	 *            Number of records sent or received (0 if the call failed)
+	 * @param bytesSent
+	 *            Bytes written on the HTTP connection
+	 * @param bytesReceived
+	 *            Bytes read on the HTTP connection
+	 * @param fault
+	 *            The fault code (e.g. INVALID_SESSION), or the exception name if
+	 *            there is no code, null if the call succeeded
+	 */
+	default void onCall(String operation, long latencyNanos, int records, long bytesSent, long bytesReceived,
+			String fault) {
+	}
+
+	/**
+	 * The objects of a create/update/delete are sent in chunks of max.
+	 * ZApi.MAX_OBJECTS
+	 *
+	 * @param operation
+	 *            The SOAP operation (create, update or delete)
+	 * @param objects
+	 *            Number of objects
+	 * @param chunks
+	 *            Number of calls sent
+	 */
+	default void onChunks(String operation, int objects, int chunks) {
+	}
+}
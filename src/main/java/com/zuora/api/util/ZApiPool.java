@@ -0,0 +1,426 @@
+package com.zuora.api.util;
+
+import java.io.Closeable;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.axis2.AxisFault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+
+/**
+ * Thread-safe pool of ZApi instances. All the instances share one ZTransport
+ * (Axis2 configuration context and HTTP connections) and one Zuora session,
+ * through the ZSessionCache.
+ *
+ * A borrowed ZApi must only be used by the borrowing thread and given back
+ * with release(), or use execute() to do both.
+ */
+public class ZApiPool implements Closeable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZApiPool.class);
+
+	/** The Constant PROPERTY_ENDPOINT. */
+	private static final String PROPERTY_ENDPOINT = "endpoint";
+
+	/** The Constant PROPERTY_USERNAME. */
+	private static final String PROPERTY_USERNAME = "username";
+
+	/** The Constant PROPERTY_PASSWORD. */
+	private static final String PROPERTY_PASSWORD = "password";
+
+	/** The Constant PROPERTY_MIN_SIZE. */
+	private static final String PROPERTY_MIN_SIZE = "pool.minSize";
+
+	/** The Constant PROPERTY_MAX_SIZE. */
+	private static final String PROPERTY_MAX_SIZE = "pool.maxSize";
+
+	/** The Constant PROPERTY_IDLE_TIMEOUT. */
+	private static final String PROPERTY_IDLE_TIMEOUT = "pool.idleTimeout";
+
+	/** The Constant PROPERTY_BORROW_TIMEOUT. */
+	private static final String PROPERTY_BORROW_TIMEOUT = "pool.borrowTimeout";
+
+	/** Default min number of idle ZApi kept in the pool */
+	public static final int DEFAULT_MIN_SIZE = 1;
+
+	/** Default max number of ZApi in the pool */
+	public static final int DEFAULT_MAX_SIZE = 8;
+
+	/** Default time (ms) after which an idle ZApi is evicted */
+	public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+	/** Default time (ms) to wait for a ZApi before giving up */
+	public static final long DEFAULT_BORROW_TIMEOUT = 30 * 1000;
+
+	/** The endpoint used. */
+	private final String endpoint;
+
+	/** The Zuora API user */
+	private final String username;
+
+	/** The Zuora API password */
+	private final String password;
+
+	/** Min number of idle ZApi kept in the pool */
+	private final int minSize;
+
+	/** Max number of ZApi in the pool */
+	private final int maxSize;
+
+	/** Time (ms) after which an idle ZApi is evicted */
+	private final long idleTimeout;
+
+	/** Time (ms) to wait for a ZApi before giving up */
+	private final long borrowTimeout;
+
+	/** The HTTP transport shared by all the stubs */
+	private final ZTransport transport;
+
+	/** The idle ZApi, most recently used first */
+	private final LinkedBlockingDeque<IdleZApi> idle = new LinkedBlockingDeque<IdleZApi>();
+
+	/** One permit per ZApi that can still be borrowed */
+	private final Semaphore permits;
+
+	/** Number of ZApi created and not evicted */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/** The query cache given to the ZApi borrowed, null if disabled */
+	private volatile ZQueryCache queryCache;
+
+	/** Evicts the ZApi idle for too long */
+	private final ScheduledExecutorService evictor;
+
+	/**
+	 * Instantiates a new pool, the endpoint, credentials and pool settings are
+	 * read from the config.properties file
+	 */
+	public ZApiPool() {
+
+		this(ZuoraUtility.getPropertyValue(PROPERTY_ENDPOINT), ZuoraUtility.getPropertyValue(PROPERTY_USERNAME),
+				ZuoraUtility.getPropertyValue(PROPERTY_PASSWORD),
+				ZuoraUtility.getPropertyValue(PROPERTY_MIN_SIZE, DEFAULT_MIN_SIZE),
+				ZuoraUtility.getPropertyValue(PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE),
+				ZuoraUtility.getPropertyValue(PROPERTY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT),
+				ZuoraUtility.getPropertyValue(PROPERTY_BORROW_TIMEOUT, DEFAULT_BORROW_TIMEOUT));
+	}
+
+	/**
+	 * Overloaded constructor to only specify the max size, the other settings
+	 * are read from the config.properties file
+	 *
+	 * @param maxSize
+	 *            Max number of ZApi in the pool
+	 */
+	public ZApiPool(int maxSize) {
+
+		this(ZuoraUtility.getPropertyValue(PROPERTY_ENDPOINT), ZuoraUtility.getPropertyValue(PROPERTY_USERNAME),
+				ZuoraUtility.getPropertyValue(PROPERTY_PASSWORD),
+				Math.min(maxSize, ZuoraUtility.getPropertyValue(PROPERTY_MIN_SIZE, DEFAULT_MIN_SIZE)), maxSize,
+				ZuoraUtility.getPropertyValue(PROPERTY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT),
+				ZuoraUtility.getPropertyValue(PROPERTY_BORROW_TIMEOUT, DEFAULT_BORROW_TIMEOUT));
+	}
+
+	/**
+	 * Overloaded constructor to specify all the settings
+	 *
+	 * @param endpoint
+	 *            Specify the endpoint (Zuora) to connect to
+	 * @param username
+	 *            Zuora API user
+	 * @param password
+	 *            Zuora API password
+	 * @param minSize
+	 *            Min number of idle ZApi kept in the pool
+	 * @param maxSize
+	 *            Max number of ZApi in the pool
+	 * @param idleTimeout
+	 *            Time (ms) after which an idle ZApi is evicted
+	 * @param borrowTimeout
+	 *            Time (ms) to wait for a ZApi before giving up
+	 */
+	public ZApiPool(String endpoint, String username, String password, int minSize, int maxSize, long idleTimeout,
+			long borrowTimeout) {
+
+		if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size, min = " + minSize + " | max = " + maxSize);
+		}
+
+		this.endpoint = endpoint;
+		this.username = username;
+		this.password = password;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.borrowTimeout = borrowTimeout;
+		this.permits = new Semaphore(maxSize, true);
+
+		// At least one HTTP connection per ZApi
+		transport = new ZTransport(maxSize);
+
+		for (int i = 0; i < minSize; i++) {
+			ZApi zapi = newZApi();
+			if (zapi != null) {
+				idle.offerLast(new IdleZApi(zapi));
+			}
+		}
+
+		evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "zapi-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+
+		long period = Math.max(1000, idleTimeout / 2);
+		evictor.scheduleAtFixedRate(() -> evict(), period, period, TimeUnit.MILLISECONDS);
+
+		logger.info("ZApi pool created for `{}` (min = {} | max = {})", endpoint, minSize, maxSize);
+	}
+
+	/**
+	 * Log in (or reuse the cached session) before the first borrow(), to check
+	 * the credentials. Optional: each ZApi logs in when first borrowed. An
+	 * idle ZApi is used if there is one, a new one is only created within
+	 * maxSize.
+	 *
+	 * @return LoginResult object, null if the login failed
+	 */
+	public LoginResult login() {
+
+		try {
+			if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				logger.error("Timed out after {} ms waiting for a ZApi to log in (max = {})", borrowTimeout, maxSize);
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		IdleZApi idleZApi = idle.pollFirst();
+		ZApi zapi = idleZApi != null ? idleZApi.zapi : newZApi();
+		if (zapi == null) {
+			permits.release();
+			return null;
+		}
+
+		LoginResult result = zapi.zLogin(username, password);
+
+		if (result != null) {
+			// Ready to be borrowed
+			idle.offerFirst(new IdleZApi(zapi));
+		} else {
+			discard(zapi);
+		}
+		permits.release();
+
+		return result;
+	}
+
+	/**
+	 * Borrow a ZApi (logged in) from the pool, waiting at most the borrow
+	 * timeout if all the ZApi are in use
+	 *
+	 * @return A ZApi to give back with release()
+	 * @throws NoSuchElementException
+	 *             if no ZApi is available before the borrow timeout
+	 */
+	public ZApi borrow() {
+
+		try {
+			if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				throw new NoSuchElementException("Timed out after " + borrowTimeout + " ms waiting for a ZApi (max = "
+						+ maxSize + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a ZApi", e);
+		}
+
+		IdleZApi idleZApi = idle.pollFirst();
+		ZApi zapi = idleZApi != null ? idleZApi.zapi : newZApi();
+
+		if (zapi == null) {
+			permits.release();
+			throw new IllegalStateException("Could not create a new ZApi (see previous error)");
+		}
+
+		// New ZApi: get the shared session (one login for the whole pool)
+		if (zapi.getHeader() == null && zapi.zLogin(username, password) == null) {
+			release(zapi);
+			throw new IllegalStateException("Could not log in to `" + endpoint + "` (see previous error)");
+		}
+
+		zapi.setQueryCache(queryCache);
+
+		return zapi;
+	}
+
+	/**
+	 * Give back a ZApi borrowed from the pool
+	 *
+	 * @param zapi
+	 *            The borrowed ZApi
+	 */
+	public void release(ZApi zapi) {
+
+		idle.offerFirst(new IdleZApi(zapi));
+		permits.release();
+	}
+
+	/**
+	 * Run a call with a ZApi borrowed from the pool for the duration of the
+	 * call
+	 *
+	 * @param call
+	 *            The call, e.g. zapi -> zapi.zQuery("SELECT Id FROM Account")
+	 * @return The result of the call
+	 */
+	public <T> T execute(Function<ZApi, T> call) {
+
+		ZApi zapi = borrow();
+		try {
+			return call.apply(zapi);
+		} finally {
+			release(zapi);
+		}
+	}
+
+	/**
+	 * Close the pool: stop the evictor and close the HTTP connections
+	 */
+	public void close() {
+
+		evictor.shutdownNow();
+
+		IdleZApi idleZApi;
+		while ((idleZApi = idle.pollFirst()) != null) {
+			discard(idleZApi.zapi);
+		}
+
+		transport.shutdown();
+
+		logger.info("ZApi pool closed for `{}`", endpoint);
+	}
+
+	/**
+	 * Evict the ZApi idle for longer than the idle timeout, keeping at least
+	 * minSize of them
+	 */
+	private void evict() {
+
+		long now = System.currentTimeMillis();
+
+		while (idle.size() > minSize) {
+
+			IdleZApi oldest = idle.pollLast();
+			if (oldest == null) {
+				return;
+			}
+
+			if (now - oldest.since < idleTimeout) {
+				idle.offerLast(oldest);
+				return;
+			}
+
+			discard(oldest.zapi);
+		}
+
+		transport.closeIdleConnections(idleTimeout);
+	}
+
+	private ZApi newZApi() {
+
+		ZApi zapi = new ZApi(transport, endpoint);
+
+		if (zapi.getStub() == null) {
+			return null;
+		}
+
+		size.incrementAndGet();
+		return zapi;
+	}
+
+	private void discard(ZApi zapi) {
+
+		size.decrementAndGet();
+
+		try {
+			zapi.getStub()._getServiceClient().cleanup();
+		} catch (AxisFault e) {
+			logger.debug("Error while cleaning up a ZApi | {}", e.getMessage());
+		}
+	}
+
+	// --- Getter(s) ---
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Number of ZApi currently in the pool (idle or borrowed)
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	/**
+	 * Number of ZApi currently idle
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Number of ZApi currently borrowed
+	 */
+	public int getActiveCount() {
+		return maxSize - permits.availablePermits();
+	}
+
+	public ZTransport getTransport() {
+		return transport;
+	}
+
+	public ZQueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	/**
+	 * Share a query cache between the ZApi of the pool, null to disable it.
+	 * The pollers of the pool (ZImportTracker, ZExport, ZSync, etc.) do not
+	 * use it: see ZApi.zQuery(query, options, false).
+	 */
+	public void setQueryCache(ZQueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	/**
+	 * An idle ZApi and the time it was given back
+	 */
+	private static class IdleZApi {
+
+		private final ZApi zapi;
+
+		private final long since = System.currentTimeMillis();
+
+		IdleZApi(ZApi zapi) {
+			this.zapi = zapi;
+		}
+	}
+}
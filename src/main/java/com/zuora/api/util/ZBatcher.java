@@ -0,0 +1,239 @@
+package com.zuora.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Split the objects (or IDs) of a create/update/delete in batches of exact
+ * size: at most `batchSize` objects (ZApi.MAX_OBJECTS max.) and, if
+ * `maxPayload` is set, at most this number of bytes of serialized objects (a
+ * batch always has at least one object). The objects with an attachment (an
+ * Import and its file) are counted as 0 bytes: the file is sent as an MTOM
+ * part and serializing it would read it (a stream can only be read once).
+ *
+ * The batches are index ranges of the input; the objects are only copied to
+ * the table sent to the stub when the input does not fit in one batch.
+ *
+ * The size and payload can be configured per operation (create, update,
+ * delete):
+ *
+ * `batch.create.size = 50`
+ * `batch.create.maxPayload = 262144`
+ */
+public class ZBatcher {
+
+	/** The Constant PROPERTY_BATCH_SIZE. */
+	private static final String PROPERTY_BATCH_SIZE = "batch.%s.size";
+
+	/** The Constant PROPERTY_MAX_PAYLOAD. */
+	private static final String PROPERTY_MAX_PAYLOAD = "batch.%s.maxPayload";
+
+	/** The element of the objects in a create/update call */
+	private static final QName ZOBJECTS = new QName("http://api.zuora.com/", "zObjects");
+
+	/** The writers used to get the size of the objects */
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	/** Max number of objects per batch */
+	private final int batchSize;
+
+	/** Max size (bytes) of the serialized objects of a batch, 0 = no limit */
+	private final long maxPayload;
+
+	/**
+	 * Instantiates a batcher cutting by number of objects only
+	 *
+	 * @param batchSize
+	 *            Max number of objects per batch (ZApi.MAX_OBJECTS max.)
+	 */
+	public ZBatcher(int batchSize) {
+		this(batchSize, 0);
+	}
+
+	/**
+	 * Instantiates a batcher cutting by number of objects and by size
+	 *
+	 * @param batchSize
+	 *            Max number of objects per batch (ZApi.MAX_OBJECTS max.)
+	 * @param maxPayload
+	 *            Max size (bytes) of the serialized objects of a batch, 0 =
+	 *            no limit
+	 */
+	public ZBatcher(int batchSize, long maxPayload) {
+		this.batchSize = Math.max(1, Math.min(batchSize, ZApi.MAX_OBJECTS));
+		this.maxPayload = Math.max(0, maxPayload);
+	}
+
+	/**
+	 * The batcher of an operation, as configured in the config.properties
+	 * file (`batch.<operation>.size` and `batch.<operation>.maxPayload`),
+	 * ZApi.MAX_OBJECTS objects by default
+	 *
+	 * @param operation
+	 *            create, update or delete
+	 */
+	public static ZBatcher forOperation(String operation) {
+		return new ZBatcher(
+				ZuoraUtility.getPropertyValue(String.format(PROPERTY_BATCH_SIZE, operation), ZApi.MAX_OBJECTS),
+				ZuoraUtility.getPropertyValue(String.format(PROPERTY_MAX_PAYLOAD, operation), 0L));
+	}
+
+	/**
+	 * Split a number of items (IDs, etc.) in batches of batchSize, the last
+	 * one possibly smaller
+	 */
+	public List<Batch> split(int length) {
+
+		if (length <= batchSize) {
+			return length == 0 ? Collections.<Batch> emptyList() : Collections.singletonList(new Batch(0, length));
+		}
+
+		List<Batch> batches = new ArrayList<Batch>((length + batchSize - 1) / batchSize);
+		for (int from = 0; from < length; from += batchSize) {
+			batches.add(new Batch(from, Math.min(from + batchSize, length)));
+		}
+
+		return batches;
+	}
+
+	/**
+	 * Split objects in batches of batchSize and, if maxPayload is set, of at
+	 * most maxPayload bytes once serialized
+	 */
+	public List<Batch> split(ZObject[] objects) {
+
+		if (maxPayload == 0) {
+			return split(objects.length);
+		}
+
+		List<Batch> batches = new ArrayList<Batch>();
+		int from = 0;
+		long payload = 0;
+
+		for (int i = 0; i < objects.length; i++) {
+			long size = getSerializedSize(objects[i]);
+
+			if (i > from && (i - from == batchSize || payload + size > maxPayload)) {
+				batches.add(new Batch(from, i));
+				from = i;
+				payload = 0;
+			}
+			payload += size;
+		}
+		if (from < objects.length) {
+			batches.add(new Batch(from, objects.length));
+		}
+
+		return batches;
+	}
+
+	/**
+	 * Size (bytes) of an object serialized in a create/update call, 0 for an
+	 * object with an attachment (not read)
+	 */
+	public static long getSerializedSize(ZObject object) {
+
+		if (object instanceof Import && ((Import) object).getFileContent() != null) {
+			return 0;
+		}
+
+		CountingOutputStream out = new CountingOutputStream();
+
+		try {
+			XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+			object.serialize(ZOBJECTS, writer);
+			writer.flush();
+
+		} catch (XMLStreamException e) {
+			throw new IllegalArgumentException("Could not serialize " + object.getClass().getSimpleName(), e);
+		}
+
+		return out.count;
+	}
+
+	// --- Getter(s) ---
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getMaxPayload() {
+		return maxPayload;
+	}
+
+	/**
+	 * A batch: the range [from, to) of the input
+	 */
+	public static final class Batch {
+
+		private final int from;
+
+		private final int to;
+
+		Batch(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * The items of the batch, the input itself if the batch covers it
+		 */
+		public <T> T[] of(T[] items) {
+			return from == 0 && to == items.length ? items : Arrays.copyOfRange(items, from, to);
+		}
+
+		/**
+		 * The items of the batch, as a view of the input
+		 */
+		public <T> List<T> view(T[] items) {
+			return Arrays.asList(items).subList(from, to);
+		}
+
+		public int getFrom() {
+			return from;
+		}
+
+		public int getTo() {
+			return to;
+		}
+
+		public int size() {
+			return to - from;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + from + ", " + to + ")";
+		}
+	}
+
+	/**
+	 * Counts the bytes written, discards them
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		private long count = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,564 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Bulk version of the create/update/delete/subscribe calls: the objects are split in
+ * chunks (see ZBatcher, MAX_OBJECTS by default) and several chunks are sent at the same time, each one
+ * through a ZApi borrowed from a ZApiPool. The results are merged back in the
+ * same order as the input.
+ *
+ * zCreateAll()/zUpdateAll() keep the results of the chunks which succeeded
+ * when others fail, and send the objects failing with a retryable error again
+ * in new chunks (see ZBulkWriteResult).
+ *
+ * A create is not idempotent: zCreateAll() only sends again the objects whose
+ * call was rejected before anything was written (throttled,
+ * SERVER_UNAVAILABLE, BATCH_FAIL_ERROR, INVALID_SESSION). After a timeout, a
+ * transport error or an UNKNOWN_ERROR, Zuora may have committed the objects
+ * before the response was lost: they are reported as permanent failures. Query
+ * them (e.g. by a unique field) before creating the missing ones again, or
+ * use a ZCheckpointJournal to know which chunks were done.
+ */
+public class ZBulkApi {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZBulkApi.class);
+
+	/** The Constant PROPERTY_CONCURRENCY. */
+	private static final String PROPERTY_CONCURRENCY = "bulk.concurrency";
+
+	/** The Constant PROPERTY_MAX_ATTEMPTS. */
+	private static final String PROPERTY_MAX_ATTEMPTS = "bulk.maxAttempts";
+
+	/** Default number of chunk calls in flight */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/** Default number of times an object failing with a retryable error is sent */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/** The pool of ZApi used to send the chunks */
+	private final ZApiPool pool;
+
+	/** The threads sending the chunks */
+	private final ExecutorService executor;
+
+	/** Number of chunk calls in flight */
+	private final int concurrency;
+
+	/** True if the pool was created by this class (closed by shutdown()) */
+	private final boolean ownPool;
+
+	/** Number of times zCreateAll()/zUpdateAll() send a failing object */
+	private int maxAttempts = ZuoraUtility.getPropertyValue(PROPERTY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS);
+
+	/**
+	 * Instantiates a new bulk helper, the concurrency is read from the
+	 * config.properties file (`bulk.concurrency`) and the ZApi pool logs in
+	 * with the configured credentials
+	 */
+	public ZBulkApi() {
+
+		this(ZuoraUtility.getPropertyValue(PROPERTY_CONCURRENCY, DEFAULT_CONCURRENCY));
+	}
+
+	/**
+	 * Overloaded constructor to specify the number of chunk calls in flight
+	 *
+	 * @param concurrency
+	 *            Number of chunk calls in flight
+	 */
+	public ZBulkApi(int concurrency) {
+
+		this(new ZApiPool(concurrency), concurrency, true);
+	}
+
+	/**
+	 * Overloaded constructor to share an existing ZApi pool
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to send the chunks
+	 * @param concurrency
+	 *            Number of chunk calls in flight (should not be more than the
+	 *            pool max size)
+	 */
+	public ZBulkApi(ZApiPool pool, int concurrency) {
+
+		this(pool, concurrency, false);
+	}
+
+	private ZBulkApi(ZApiPool pool, int concurrency, boolean ownPool) {
+
+		this.pool = pool;
+		this.ownPool = ownPool;
+		this.concurrency = concurrency;
+		this.executor = Executors.newFixedThreadPool(concurrency);
+
+		logger.info("Bulk API ready with {} chunk call(s) in flight", concurrency);
+	}
+
+	/**
+	 * Create object(s) in Zuora, sending several chunks at the same time
+	 *
+	 * @param objects
+	 *            array of objects to create
+	 * @return SaveResult (same order as the objects) or null if an error
+	 *         occured
+	 */
+	public SaveResult[] zCreate(ZObject[] objects) {
+
+		ZBulkWriteResult result = new ZBulkWriteResult("zCreate", objects);
+		write(result, all(objects.length));
+
+		return result.isComplete() ? result.getResults() : null;
+	}
+
+	/**
+	 * Update object(s) in Zuora, sending several chunks at the same time
+	 *
+	 * @param objects
+	 *            array of objects to update (must have their Zuora IDs set)
+	 * @return SaveResult (same order as the objects) or null if an error
+	 *         occured
+	 */
+	public SaveResult[] zUpdate(ZObject[] objects) {
+
+		ZBulkWriteResult result = new ZBulkWriteResult("zUpdate", objects);
+		write(result, all(objects.length));
+
+		return result.isComplete() ? result.getResults() : null;
+	}
+
+	/**
+	 * Create object(s) in Zuora, keeping the results of the chunks which
+	 * succeeded. The objects failing with an error proving that they were not
+	 * created (see ZuoraUtility.isRetryable(code, false)) are sent again in
+	 * new chunks, up to `bulk.maxAttempts` times in all.
+	 *
+	 * @param objects
+	 *            array of objects to create
+	 * @return The result of each object and the errors of the failed ones
+	 */
+	public ZBulkWriteResult zCreateAll(ZObject[] objects) {
+
+		return writeAll(new ZBulkWriteResult("zCreate", objects));
+	}
+
+	/**
+	 * Update object(s) in Zuora, keeping the results of the chunks which
+	 * succeeded and sending again the objects failing with a retryable error
+	 * (see zCreateAll())
+	 *
+	 * @param objects
+	 *            array of objects to update (must have their Zuora IDs set)
+	 * @return The result of each object and the errors of the failed ones
+	 */
+	public ZBulkWriteResult zUpdateAll(ZObject[] objects) {
+
+		return writeAll(new ZBulkWriteResult("zUpdate", objects));
+	}
+
+	/**
+	 * Send again, in new chunks, only the objects of a previous result which
+	 * failed with a retryable error. The result is updated with their new
+	 * results.
+	 *
+	 * @param result
+	 *            The result of zCreateAll() or zUpdateAll()
+	 * @return The same result, updated
+	 */
+	public ZBulkWriteResult retry(ZBulkWriteResult result) {
+
+		int[] retryable = result.getRetryableIndexes();
+
+		if (retryable.length > 0) {
+			logger.info("{}: sending {} retryable object(s) again, {} permanent failure(s) left aside",
+					result.getOperation(), retryable.length, result.getPermanentIndexes().length);
+			write(result, retryable);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Delete object(s) in Zuora, sending several chunks at the same time
+	 *
+	 * @param ids
+	 *            Zuora ID of object to delete
+	 * @param type
+	 *            can be Account, Subscription, etc.
+	 * @return Delete Result (same order as the IDs) if success, null if an
+	 *         error occurred
+	 */
+	public DeleteResult[] zDelete(String[] ids, final String type) {
+
+		List<Callable<DeleteResult[]>> calls = new ArrayList<Callable<DeleteResult[]>>();
+
+		for (ZBatcher.Batch batch : ZBatcher.forOperation("delete").split(ids.length)) {
+			final String[] chunk = batch.of(ids);
+
+			calls.add(new ApiCall<DeleteResult[]>() {
+				DeleteResult[] call(ZApi zapi) {
+					return zapi.zDelete(chunk, type);
+				}
+			});
+		}
+
+		return merge(dispatch("zDelete", calls), new DeleteResult[ids.length]);
+	}
+
+	/**
+	 * Subscribe calls, sending several chunks of requests at the same time
+	 * (see `batch.subscribe.size`)
+	 *
+	 * @param requests
+	 *            the subscribe requests
+	 * @return SubscribeResult of each request, same order as the requests
+	 *         (the requests of a chunk whose call failed get a failed result
+	 *         with the fault of the call, see ZuoraUtility.toErrors())
+	 */
+	public SubscribeResult[] zSubscribe(SubscribeRequest[] requests) {
+
+		List<ZBatcher.Batch> batches = ZBatcher.forOperation("subscribe").split(requests.length);
+		logger.debug("zSubscribe() split in {} chunk(s), {} in flight", batches.size(), concurrency);
+
+		List<CompletableFuture<SubscribeResult[]>> futures = new ArrayList<CompletableFuture<SubscribeResult[]>>();
+		for (ZBatcher.Batch batch : batches) {
+			futures.add(subscribe(batch.of(requests)));
+		}
+
+		SubscribeResult[] results = new SubscribeResult[requests.length];
+		for (int i = 0; i < futures.size(); i++) {
+			System.arraycopy(futures.get(i).join(), 0, results, batches.get(i).getFrom(), batches.get(i).size());
+		}
+
+		String errors = ZuoraUtility.summarizeErrors("zSubscribe", results);
+		if (errors != null) {
+			logger.error("{}", errors);
+		} else {
+			logger.info("zSubscribe: {} request(s) successful", results.length);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Send a chunk of subscribe requests
+	 *
+	 * @return Future completed with the result of each request (failed
+	 *         results if the call failed), never completed exceptionally
+	 */
+	CompletableFuture<SubscribeResult[]> subscribe(final SubscribeRequest[] chunk) {
+
+		return send("subscribe", chunk.length, zapi -> zapi.zSubscribe(chunk), errors -> {
+			SubscribeResult[] failed = new SubscribeResult[chunk.length];
+			for (int i = 0; i < failed.length; i++) {
+				failed[i] = new SubscribeResult();
+				failed[i].setSuccess(false);
+				failed[i].setErrors(errors);
+			}
+			return failed;
+		});
+	}
+
+	/**
+	 * Send a chunk of amend requests (see ZAmendPipeline)
+	 *
+	 * @return Future completed with the result of each request (failed
+	 *         results if the call failed), never completed exceptionally
+	 */
+	CompletableFuture<AmendResult[]> amend(final AmendRequest[] chunk) {
+
+		return send("amend", chunk.length, zapi -> zapi.zAmend(chunk), errors -> {
+			AmendResult[] failed = new AmendResult[chunk.length];
+			for (int i = 0; i < failed.length; i++) {
+				failed[i] = new AmendResult();
+				failed[i].setSuccess(false);
+				failed[i].setErrors(errors);
+			}
+			return failed;
+		});
+	}
+
+	/**
+	 * Send a chunk call through a ZApi of the pool
+	 *
+	 * @param failed
+	 *            The results of the requests if the call failed, from the
+	 *            errors of its fault
+	 */
+	private <T> CompletableFuture<T> send(String operation, final int size, final Function<ZApi, T> send,
+			Function<com.zuora.api.axis2.ZuoraServiceStub.Error[], T> failed) {
+
+		ApiCall<T> call = new ApiCall<T>() {
+			T call(ZApi zapi) {
+				T results = send.apply(zapi);
+				if (results == null) {
+					throw new ChunkFailure(zapi.getLastFault());
+				}
+				return results;
+			}
+		};
+
+		return CompletableFuture.supplyAsync(call::call, executor).exceptionally(e -> {
+			String fault = getFault(e instanceof CompletionException ? e.getCause() : e);
+			logger.error("Chunk of {} {} request(s) failed | {}", size, operation, fault);
+
+			return failed.apply(ZuoraUtility.toErrors(fault));
+		});
+	}
+
+	/**
+	 * Stop the threads sending the chunks (and close the pool if it was not
+	 * given to the constructor)
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		if (ownPool) {
+			pool.close();
+		}
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Number of times zCreateAll()/zUpdateAll() send an object failing with a
+	 * retryable error (1 = no retry)
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	public ZApiPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Send the objects, then the retryable failures again until they are
+	 * saved or maxAttempts is reached
+	 */
+	private ZBulkWriteResult writeAll(ZBulkWriteResult result) {
+
+		write(result, all(result.getObjects().length));
+
+		for (int retry = 0; result.getAttempts() < maxAttempts && result.getRetryableIndexes().length > 0; retry++) {
+			long delay = ZRateLimiter.getInstance().getRetryDelay(retry);
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				logger.error("Interrupted while waiting to retry {}() | {}", result.getOperation(), e.getMessage());
+				Thread.currentThread().interrupt();
+				break;
+			}
+
+			retry(result);
+		}
+
+		if (!result.isSuccess()) {
+			logger.error("{}", result);
+		} else {
+			logger.info("{}", result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Send some objects of a bulk result in batches (see ZBatcher) and record
+	 * the result of each chunk, failed or not
+	 *
+	 * @param result
+	 *            The bulk result, updated
+	 * @param indexes
+	 *            Input index of the objects to send
+	 */
+	private void write(final ZBulkWriteResult result, int[] indexes) {
+
+		final boolean create = "zCreate".equals(result.getOperation());
+		List<Callable<SaveResult[]>> calls = new ArrayList<Callable<SaveResult[]>>();
+		List<int[]> chunks = new ArrayList<int[]>();
+
+		ZObject[] pending = new ZObject[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			pending[i] = result.getObjects()[indexes[i]];
+		}
+
+		for (ZBatcher.Batch batch : ZBatcher.forOperation(create ? "create" : "update").split(pending)) {
+			int[] chunkIndexes = Arrays.copyOfRange(indexes, batch.getFrom(), batch.getTo());
+			final ZObject[] chunk = batch.of(pending);
+
+			chunks.add(chunkIndexes);
+			calls.add(new ApiCall<SaveResult[]>() {
+				SaveResult[] call(ZApi zapi) {
+					SaveResult[] results = create ? zapi.zCreate(chunk) : zapi.zUpdate(chunk);
+					if (results == null) {
+						throw new ChunkFailure(zapi.getLastFault());
+					}
+					return results;
+				}
+			});
+		}
+
+		result.addAttempt();
+		logger.debug("{}() split in {} chunk(s), {} in flight", result.getOperation(), calls.size(), concurrency);
+
+		List<Future<SaveResult[]>> futures = new ArrayList<Future<SaveResult[]>>(calls.size());
+		for (Callable<SaveResult[]> call : calls) {
+			futures.add(executor.submit(call));
+		}
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				result.setResults(chunks.get(i), futures.get(i).get());
+
+			} catch (ExecutionException e) {
+				String fault = getFault(e.getCause());
+				logger.error("Chunk #{} of {}() failed | {}", i, result.getOperation(), fault);
+				result.setFailed(chunks.get(i), fault);
+
+			} catch (InterruptedException e) {
+				logger.error("Interrupted while waiting for {}() | {}", result.getOperation(), e.getMessage());
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The fault of a failed chunk call
+	 */
+	private static String getFault(Throwable cause) {
+		return cause instanceof ChunkFailure ? ((ChunkFailure) cause).fault : cause.getClass().getSimpleName();
+	}
+
+	/**
+	 * Indexes 0 to length - 1
+	 */
+	private static int[] all(int length) {
+
+		int[] indexes = new int[length];
+		for (int i = 0; i < length; i++) {
+			indexes[i] = i;
+		}
+
+		return indexes;
+	}
+
+	/**
+	 * Send all the chunk calls and wait for their results
+	 *
+	 * @return The result of each chunk (same order as the calls) or null if one
+	 *         of them failed
+	 */
+	private <T> List<T> dispatch(String operation, List<Callable<T>> calls) {
+
+		logger.debug("{}() split in {} chunk(s), {} in flight", operation, calls.size(), concurrency);
+
+		List<Future<T>> futures = new ArrayList<Future<T>>(calls.size());
+		for (Callable<T> call : calls) {
+			futures.add(executor.submit(call));
+		}
+
+		List<T> results = new ArrayList<T>(calls.size());
+		boolean failed = false;
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				T result = futures.get(i).get();
+				if (result == null) {
+					logger.error("Chunk #{} of {}() returned no result", i, operation);
+					failed = true;
+				}
+				results.add(result);
+
+			} catch (ExecutionException e) {
+				logger.error("Chunk #{} of {}() failed | {}", i, operation, e.getCause());
+				failed = true;
+
+			} catch (InterruptedException e) {
+				logger.error("Interrupted while waiting for {}() | {}", operation, e.getMessage());
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		return failed ? null : results;
+	}
+
+	/**
+	 * Merge the results of the chunks back in one table, in input order
+	 */
+	private static <T> T[] merge(List<T[]> chunkResults, T[] merged) {
+
+		if (chunkResults == null) {
+			return null;
+		}
+
+		int offset = 0;
+		for (T[] chunkResult : chunkResults) {
+			System.arraycopy(chunkResult, 0, merged, offset, chunkResult.length);
+			offset += chunkResult.length;
+		}
+
+		return merged;
+	}
+
+	/**
+	 * A chunk call which returned no result, with the fault code of the call
+	 */
+	@SuppressWarnings("serial")
+	private static class ChunkFailure extends RuntimeException {
+
+		private final String fault;
+
+		ChunkFailure(String fault) {
+			super(fault, null, false, false);
+			this.fault = fault;
+		}
+	}
+
+	/**
+	 * A chunk call, run with a ZApi borrowed for the duration of the call
+	 */
+	private abstract class ApiCall<T> implements Callable<T> {
+
+		abstract T call(ZApi zapi);
+
+		public T call() {
+
+			ZApi zapi = pool.borrow();
+			try {
+				return call(zapi);
+			} finally {
+				pool.release(zapi);
+			}
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Result of a bulk create/update: the SaveResult of each object (same order
+ * as the input) and the error codes of each object not saved. A chunk call
+ * failing does not lose the results of the other chunks, its objects are
+ * failed with the fault code of the call.
+ *
+ * The failures are either retryable (SERVER_UNAVAILABLE, THROTTLED, transport
+ * error, etc.) or permanent (INVALID_VALUE, etc.), see
+ * ZuoraUtility.isRetryable(). ZBulkApi.retry() sends the retryable objects
+ * again. For a create, only the errors proving that nothing was written are
+ * retryable: after a timeout or an UNKNOWN_ERROR the objects may have been
+ * created, they are permanent failures to check in Zuora before sending them
+ * again.
+ */
+public class ZBulkWriteResult {
+
+	/** The error code of the objects of a chunk which failed without fault code */
+	public static final String NO_RESULT = "NO_RESULT";
+
+	/** zCreate or zUpdate */
+	private final String operation;
+
+	/** The objects sent */
+	private final ZObject[] objects;
+
+	/** The result of each object, null if its chunk failed */
+	private final SaveResult[] results;
+
+	/** The error codes of the objects not saved, by input index */
+	private final Map<Integer, List<String>> errors = new TreeMap<Integer, List<String>>();
+
+	/** Number of times the objects were sent (1 + retries) */
+	private int attempts = 0;
+
+	ZBulkWriteResult(String operation, ZObject[] objects) {
+
+		this.operation = operation;
+		this.objects = objects;
+		this.results = new SaveResult[objects.length];
+
+		for (int i = 0; i < objects.length; i++) {
+			errors.put(i, Collections.singletonList(NO_RESULT));
+		}
+	}
+
+	/**
+	 * Record the results of a chunk
+	 *
+	 * @param indexes
+	 *            The input index of each object of the chunk
+	 * @param chunkResults
+	 *            The results of the chunk call
+	 */
+	void setResults(int[] indexes, SaveResult[] chunkResults) {
+
+		for (int i = 0; i < indexes.length; i++) {
+			SaveResult result = i < chunkResults.length ? chunkResults[i] : null;
+			results[indexes[i]] = result;
+
+			if (result == null) {
+				errors.put(indexes[i], Collections.singletonList(NO_RESULT));
+
+			} else if (result.getSuccess()) {
+				errors.remove(indexes[i]);
+
+			} else {
+				List<String> codes = new ArrayList<String>();
+				if (result.getErrors() != null) {
+					for (com.zuora.api.axis2.ZuoraServiceStub.Error error : result.getErrors()) {
+						if (error != null && error.getCode() != null) {
+							codes.add(error.getCode().getValue());
+						}
+					}
+				}
+				if (codes.isEmpty()) {
+					codes.add("UNKNOWN_ERROR");
+				}
+				errors.put(indexes[i], codes);
+			}
+		}
+	}
+
+	/**
+	 * Record the failure of a chunk call
+	 *
+	 * @param indexes
+	 *            The input index of each object of the chunk
+	 * @param fault
+	 *            The fault code of the call, null if unknown
+	 */
+	void setFailed(int[] indexes, String fault) {
+
+		List<String> codes = Collections.singletonList(fault != null ? fault : NO_RESULT);
+
+		for (int index : indexes) {
+			results[index] = null;
+			errors.put(index, codes);
+		}
+	}
+
+	void addAttempt() {
+		attempts++;
+	}
+
+	/**
+	 * True if an object may be saved by sending it again: all its error codes
+	 * are retryable (for a create: none of them may hide a created object)
+	 */
+	public boolean isRetryable(int index) {
+
+		List<String> codes = errors.get(index);
+		if (codes == null) {
+			return false;
+		}
+
+		boolean idempotent = !"zCreate".equals(operation);
+		for (String code : codes) {
+			if (!ZuoraUtility.isRetryable(code, idempotent)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Input index of the failed objects which may be saved by sending them
+	 * again
+	 */
+	public int[] getRetryableIndexes() {
+		return getFailedIndexes(true);
+	}
+
+	/**
+	 * Input index of the failed objects which need to be fixed first
+	 */
+	public int[] getPermanentIndexes() {
+		return getFailedIndexes(false);
+	}
+
+	private int[] getFailedIndexes(boolean retryable) {
+
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (Integer index : errors.keySet()) {
+			if (isRetryable(index) == retryable) {
+				indexes.add(index);
+			}
+		}
+
+		int[] table = new int[indexes.size()];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = indexes.get(i);
+		}
+
+		return table;
+	}
+
+	/**
+	 * True if all the objects were saved
+	 */
+	public boolean isSuccess() {
+		return errors.isEmpty();
+	}
+
+	/**
+	 * True if every object has a result (no chunk call failed), successful
+	 * or not
+	 */
+	public boolean isComplete() {
+
+		for (SaveResult result : results) {
+			if (result == null) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Zuora ID of each object saved (same order as the input), null for the
+	 * failed ones
+	 */
+	public String[] getIds() {
+
+		String[] ids = new String[results.length];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null && results[i].getSuccess() && results[i].getId() != null) {
+				ids[i] = results[i].getId().getID();
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * One line, e.g. `zCreate: 1000 object(s) in 2 attempt(s) | 990 saved | 2
+	 * retryable | 8 permanent`
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: %d object(s) in %d attempt(s) | %d saved | %d retryable | %d permanent",
+				operation, objects.length, attempts, getSuccessCount(), getRetryableIndexes().length,
+				getPermanentIndexes().length);
+	}
+
+	// --- Getter(s) ---
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public ZObject[] getObjects() {
+		return objects;
+	}
+
+	/**
+	 * The result of each object (same order as the input), null if its chunk
+	 * call failed
+	 */
+	public SaveResult[] getResults() {
+		return results;
+	}
+
+	public SaveResult getResult(int index) {
+		return results[index];
+	}
+
+	/**
+	 * The error codes of the failed objects, by input index
+	 */
+	public Map<Integer, List<String>> getErrors() {
+		return Collections.unmodifiableMap(errors);
+	}
+
+	/**
+	 * The error codes of an object, empty if it was saved
+	 */
+	public List<String> getErrorCodes(int index) {
+
+		List<String> codes = errors.get(index);
+
+		return codes != null ? Collections.unmodifiableList(codes) : Collections.<String> emptyList();
+	}
+
+	public int getSuccessCount() {
+		return objects.length - errors.size();
+	}
+
+	public int getFailedCount() {
+		return errors.size();
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+}
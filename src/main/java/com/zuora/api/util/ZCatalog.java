@@ -0,0 +1,409 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.axis2.databinding.utils.ConverterUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Product;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlan;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlanCharge;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * In-memory snapshot of the product catalog (products, rate plans and
+ * charges), to resolve the IDs of the subscribe/amend calls without querying
+ * Zuora each time:
+ *
+ * `ZCatalog catalog = new ZCatalog(pool);`
+ * `catalog.load();`
+ * `ProductRatePlan plan = catalog.getRatePlan("SKU-00001", "Gold Monthly");`
+ *
+ * The three types are loaded at the same time, each one through a ZApi of
+ * the pool. refresh() only loads the objects updated since the last load
+ * (UpdatedDate), objects deleted from Zuora stay until the next load(). Each
+ * load or refresh builds a new snapshot which replaces the previous one at
+ * once: the readers never wait and always see a consistent catalog.
+ */
+public class ZCatalog {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZCatalog.class);
+
+	/** The fields of the products */
+	private static final String PRODUCT_QUERY = "SELECT Id, Name, SKU, Description, Category, EffectiveStartDate,"
+			+ " EffectiveEndDate, UpdatedDate FROM Product";
+
+	/** The fields of the rate plans */
+	private static final String RATE_PLAN_QUERY = "SELECT Id, Name, ProductId, Description, EffectiveStartDate,"
+			+ " EffectiveEndDate, UpdatedDate FROM ProductRatePlan";
+
+	/** The fields of the charges */
+	private static final String CHARGE_QUERY = "SELECT Id, Name, ProductRatePlanId, ChargeModel, ChargeType,"
+			+ " BillingPeriod, UOM, DefaultQuantity, UpdatedDate FROM ProductRatePlanCharge";
+
+	/** The pool of ZApi used to load the catalog */
+	private final ZApiPool pool;
+
+	/** The current snapshot, replaced by each load/refresh */
+	private volatile Snapshot snapshot = new Snapshot(Collections.<String, Product> emptyMap(),
+			Collections.<String, ProductRatePlan> emptyMap(), Collections.<String, ProductRatePlanCharge> emptyMap(),
+			null);
+
+	/**
+	 * Instantiates a new catalog (empty until load() is called)
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to load the catalog (3 queries at the
+	 *            same time)
+	 */
+	public ZCatalog(ZApiPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Load the whole catalog and replace the current snapshot
+	 *
+	 * @return True if loaded, false if a query failed (the current snapshot
+	 *         is kept)
+	 */
+	public synchronized boolean load() {
+
+		long start = System.currentTimeMillis();
+
+		List<List<ZObject>> loaded = queryAll("");
+		if (loaded == null) {
+			return false;
+		}
+
+		snapshot = new Snapshot(byId(loaded.get(0), Product.class), byId(loaded.get(1), ProductRatePlan.class),
+				byId(loaded.get(2), ProductRatePlanCharge.class), null);
+
+		logger.info("Catalog loaded in {} ms: {}", System.currentTimeMillis() - start, snapshot);
+		return true;
+	}
+
+	/**
+	 * Load the objects updated since the last load/refresh and replace the
+	 * current snapshot (load() if the catalog was never loaded)
+	 *
+	 * @return True if refreshed, false if a query failed (the current
+	 *         snapshot is kept)
+	 */
+	public synchronized boolean refresh() {
+
+		Snapshot current = snapshot;
+		if (current.getUpdatedDate() == null) {
+			return load();
+		}
+
+		// Objects updated at the same time as the last ones are loaded again
+		List<List<ZObject>> updated = queryAll(
+				" WHERE UpdatedDate >= '" + ConverterUtil.convertToString(current.getUpdatedDate()) + "'");
+		if (updated == null) {
+			return false;
+		}
+
+		Map<String, Product> products = new LinkedHashMap<String, Product>(current.products);
+		products.putAll(byId(updated.get(0), Product.class));
+		Map<String, ProductRatePlan> ratePlans = new LinkedHashMap<String, ProductRatePlan>(current.ratePlans);
+		ratePlans.putAll(byId(updated.get(1), ProductRatePlan.class));
+		Map<String, ProductRatePlanCharge> charges = new LinkedHashMap<String, ProductRatePlanCharge>(
+				current.charges);
+		charges.putAll(byId(updated.get(2), ProductRatePlanCharge.class));
+
+		snapshot = new Snapshot(products, ratePlans, charges, current.getUpdatedDate());
+
+		logger.info("Catalog refreshed, {} object(s) updated: {}",
+				updated.get(0).size() + updated.get(1).size() + updated.get(2).size(), snapshot);
+		return true;
+	}
+
+	/**
+	 * Query the products, rate plans and charges at the same time
+	 *
+	 * @param where
+	 *            The condition added to the queries
+	 * @return The objects of each type, or null if a query failed
+	 */
+	private List<List<ZObject>> queryAll(final String where) {
+
+		String[] queries = { PRODUCT_QUERY + where, RATE_PLAN_QUERY + where, CHARGE_QUERY + where };
+
+		ExecutorService executor = Executors.newFixedThreadPool(queries.length);
+		try {
+			List<Future<List<ZObject>>> futures = new ArrayList<Future<List<ZObject>>>();
+			for (final String query : queries) {
+				futures.add(executor.submit(() -> pool.execute(zapi -> query(zapi, query))));
+			}
+
+			List<List<ZObject>> results = new ArrayList<List<ZObject>>();
+			for (int i = 0; i < futures.size(); i++) {
+				List<ZObject> records = futures.get(i).get();
+				if (records == null) {
+					logger.error("Could not load the catalog, query failed: `{}`", queries[i]);
+					return null;
+				}
+				results.add(records);
+			}
+
+			return results;
+
+		} catch (ExecutionException e) {
+			logger.error("Could not load the catalog | {}", e.getCause().getMessage());
+			return null;
+
+		} catch (InterruptedException e) {
+			logger.error("Interrupted while loading the catalog");
+			Thread.currentThread().interrupt();
+			return null;
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * All the pages of a query
+	 *
+	 * @return The records, or null if a call failed
+	 */
+	private static List<ZObject> query(ZApi zapi, String query) {
+
+		List<ZObject> records = new ArrayList<ZObject>();
+		// Not from the query cache: a refresh reads the current catalog
+		QueryResult result = zapi.zQuery(query, null, false);
+
+		while (result != null) {
+			if (result.getRecords() != null) {
+				Collections.addAll(records, result.getRecords());
+			}
+			if (result.getDone() || result.getQueryLocator() == null) {
+				return records;
+			}
+			result = zapi.zQueryMore(result.getQueryLocator().getQueryLocator());
+		}
+
+		return null;
+	}
+
+	private static <T extends ZObject> Map<String, T> byId(List<ZObject> records, Class<T> type) {
+
+		Map<String, T> objects = new LinkedHashMap<String, T>();
+		for (ZObject record : records) {
+			if (type.isInstance(record) && record.getId() != null) {
+				objects.put(record.getId().getID(), type.cast(record));
+			}
+		}
+
+		return objects;
+	}
+
+	// --- Lookups (current snapshot) ---
+
+	public Product getProduct(String id) {
+		return snapshot.getProduct(id);
+	}
+
+	public Product getProductBySku(String sku) {
+		return snapshot.getProductBySku(sku);
+	}
+
+	public ProductRatePlan getRatePlan(String id) {
+		return snapshot.getRatePlan(id);
+	}
+
+	public ProductRatePlan getRatePlan(String sku, String name) {
+		return snapshot.getRatePlan(sku, name);
+	}
+
+	public ProductRatePlanCharge getCharge(String id) {
+		return snapshot.getCharge(id);
+	}
+
+	// --- Getter(s) ---
+
+	/**
+	 * The current snapshot, to do several lookups on the same version of the
+	 * catalog
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public ZApiPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * A version of the catalog (never modified), indexed by ID, SKU and name
+	 */
+	public static final class Snapshot {
+
+		private final Map<String, Product> products;
+
+		private final Map<String, ProductRatePlan> ratePlans;
+
+		private final Map<String, ProductRatePlanCharge> charges;
+
+		private final Map<String, Product> productsBySku = new HashMap<String, Product>();
+
+		private final Map<String, List<Product>> productsByName = new HashMap<String, List<Product>>();
+
+		private final Map<String, List<ProductRatePlan>> ratePlansByProduct = new HashMap<String, List<ProductRatePlan>>();
+
+		private final Map<String, List<ProductRatePlanCharge>> chargesByRatePlan = new HashMap<String, List<ProductRatePlanCharge>>();
+
+		/** The last UpdatedDate of the objects */
+		private final Calendar updatedDate;
+
+		/** When the snapshot was built (ms) */
+		private final long time = System.currentTimeMillis();
+
+		Snapshot(Map<String, Product> products, Map<String, ProductRatePlan> ratePlans,
+				Map<String, ProductRatePlanCharge> charges, Calendar updatedDate) {
+
+			this.products = Collections.unmodifiableMap(products);
+			this.ratePlans = Collections.unmodifiableMap(ratePlans);
+			this.charges = Collections.unmodifiableMap(charges);
+
+			for (Product product : products.values()) {
+				if (product.getSKU() != null) {
+					productsBySku.put(product.getSKU(), product);
+				}
+				productsByName.computeIfAbsent(product.getName(), k -> new ArrayList<Product>()).add(product);
+				updatedDate = latest(updatedDate, product.getUpdatedDate());
+			}
+			for (ProductRatePlan ratePlan : ratePlans.values()) {
+				ratePlansByProduct.computeIfAbsent(ratePlan.getProductId() != null ? ratePlan.getProductId().getID()
+						: null, k -> new ArrayList<ProductRatePlan>()).add(ratePlan);
+				updatedDate = latest(updatedDate, ratePlan.getUpdatedDate());
+			}
+			for (ProductRatePlanCharge charge : charges.values()) {
+				chargesByRatePlan.computeIfAbsent(charge.getProductRatePlanId() != null ? charge
+						.getProductRatePlanId().getID() : null, k -> new ArrayList<ProductRatePlanCharge>()).add(charge);
+				updatedDate = latest(updatedDate, charge.getUpdatedDate());
+			}
+
+			this.updatedDate = updatedDate;
+		}
+
+		private static Calendar latest(Calendar latest, Calendar date) {
+			return date != null && (latest == null || date.after(latest)) ? date : latest;
+		}
+
+		public Product getProduct(String id) {
+			return products.get(id);
+		}
+
+		public Product getProductBySku(String sku) {
+			return productsBySku.get(sku);
+		}
+
+		/**
+		 * The products with this name (names are not unique)
+		 */
+		public List<Product> getProductsByName(String name) {
+			return unmodifiable(productsByName.get(name));
+		}
+
+		public ProductRatePlan getRatePlan(String id) {
+			return ratePlans.get(id);
+		}
+
+		public List<ProductRatePlan> getRatePlans(String productId) {
+			return unmodifiable(ratePlansByProduct.get(productId));
+		}
+
+		/**
+		 * The rate plan of a product by name, e.g. ("SKU-00001", "Gold
+		 * Monthly"), null if not found
+		 */
+		public ProductRatePlan getRatePlan(String sku, String name) {
+
+			Product product = productsBySku.get(sku);
+			if (product == null) {
+				return null;
+			}
+
+			for (ProductRatePlan ratePlan : getRatePlans(product.getId().getID())) {
+				if (name.equals(ratePlan.getName())) {
+					return ratePlan;
+				}
+			}
+
+			return null;
+		}
+
+		public ProductRatePlanCharge getCharge(String id) {
+			return charges.get(id);
+		}
+
+		public List<ProductRatePlanCharge> getCharges(String ratePlanId) {
+			return unmodifiable(chargesByRatePlan.get(ratePlanId));
+		}
+
+		/**
+		 * The charge of a rate plan by name, null if not found
+		 */
+		public ProductRatePlanCharge getCharge(String ratePlanId, String name) {
+
+			for (ProductRatePlanCharge charge : getCharges(ratePlanId)) {
+				if (name.equals(charge.getName())) {
+					return charge;
+				}
+			}
+
+			return null;
+		}
+
+		private static <T> List<T> unmodifiable(List<T> list) {
+			return list != null ? Collections.unmodifiableList(list) : Collections.<T> emptyList();
+		}
+
+		public Collection<Product> getProducts() {
+			return products.values();
+		}
+
+		public Collection<ProductRatePlan> getRatePlans() {
+			return ratePlans.values();
+		}
+
+		public Collection<ProductRatePlanCharge> getCharges() {
+			return charges.values();
+		}
+
+		/**
+		 * The last UpdatedDate of the objects, null if empty
+		 */
+		public Calendar getUpdatedDate() {
+			return updatedDate;
+		}
+
+		/**
+		 * When the snapshot was built (ms)
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d product(s) | %d rate plan(s) | %d charge(s)", products.size(), ratePlans.size(),
+					charges.size());
+		}
+	}
+}
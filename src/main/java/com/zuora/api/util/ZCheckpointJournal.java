@@ -0,0 +1,207 @@
+package com.zuora.api.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the chunks of a bulk job already processed by Zuora,
+ * to resume the job where it stopped after a restart instead of sending
+ * everything again (and creating duplicates).
+ *
+ * One line per chunk: `<crc32>\t<operation>\t<from>\t<id>,<id>,...`, with the
+ * input index of the first object of the chunk and the Zuora ID returned for
+ * each object (empty if it failed). Each line is written to disk (fsync)
+ * before the next chunk is sent. On open, the journal is read back; a line
+ * cut by a crash or with a wrong checksum ends it and is removed.
+ *
+ * `ZCheckpointJournal journal = new ZCheckpointJournal(new File("accounts.journal"));`
+ * `zapi.zCreate(accounts, journal);`
+ *
+ * Use one journal per job, with the same input (and order) when resuming.
+ * Delete it with delete() when the job is done.
+ */
+public class ZCheckpointJournal implements Closeable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZCheckpointJournal.class);
+
+	/** The journal file */
+	private final File file;
+
+	/** Opened in append mode */
+	private final FileChannel channel;
+
+	/** The IDs of each chunk recorded, by operation and input index */
+	private final Map<String, String[]> chunks = new HashMap<String, String[]>();
+
+	/**
+	 * Open a journal, reading the chunks already recorded if the file exists
+	 *
+	 * @param file
+	 *            The journal file (created if it does not exist)
+	 */
+	public ZCheckpointJournal(File file) throws IOException {
+
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+		long valid = replay();
+		if (valid < channel.size()) {
+			logger.warn("Journal `{}` ends with an incomplete record, {} byte(s) removed", file,
+					channel.size() - valid);
+			channel.truncate(valid);
+			channel.force(false);
+		}
+		channel.position(valid);
+
+		if (!chunks.isEmpty()) {
+			logger.info("Resuming from journal `{}`: {} chunk(s) already processed", file, chunks.size());
+		}
+	}
+
+	/**
+	 * Read the records back
+	 *
+	 * @return Length of the valid records (bytes)
+	 */
+	private long replay() throws IOException {
+
+		byte[] content = Files.readAllBytes(file.toPath());
+		int start = 0;
+
+		for (int end = 0; end < content.length; end++) {
+			if (content[end] != '\n') {
+				continue;
+			}
+
+			String line = new String(content, start, end - start, StandardCharsets.UTF_8);
+			int tab = line.indexOf('\t');
+			if (tab < 0 || !Long.toHexString(crc(line.substring(tab + 1))).equals(line.substring(0, tab))) {
+				break;
+			}
+
+			String[] fields = line.substring(tab + 1).split("\t", -1);
+			if (fields.length != 3 || !fields[1].matches("\\d+")) {
+				break;
+			}
+			chunks.put(key(fields[0], Integer.parseInt(fields[1])), fields[2].split(",", -1));
+
+			start = end + 1;
+		}
+
+		return start;
+	}
+
+	/**
+	 * The IDs recorded for a chunk
+	 *
+	 * @param operation
+	 *            The operation of the job, e.g. create or delete:Account
+	 * @param from
+	 *            Input index of the first object of the chunk
+	 * @param size
+	 *            Number of objects in the chunk
+	 * @return The Zuora ID of each object of the chunk (empty if it failed), or
+	 *         null if the chunk was not processed
+	 */
+	public synchronized String[] get(String operation, int from, int size) {
+
+		String[] ids = chunks.get(key(operation, from));
+
+		if (ids != null && ids.length != size) {
+			logger.warn("Chunk {} #{} of journal `{}` has {} object(s) instead of {}, sending it again", operation,
+					from, file, ids.length, size);
+			return null;
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Record a chunk processed by Zuora (written to disk before returning)
+	 *
+	 * @param operation
+	 *            The operation of the job, e.g. create or delete:Account
+	 * @param from
+	 *            Input index of the first object of the chunk
+	 * @param ids
+	 *            The Zuora ID of each object of the chunk, null or empty if it
+	 *            failed
+	 */
+	public synchronized void record(String operation, int from, String[] ids) throws IOException {
+
+		StringBuilder record = new StringBuilder();
+		record.append(operation).append('\t').append(from).append('\t');
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) {
+				record.append(',');
+			}
+			if (ids[i] != null) {
+				record.append(ids[i]);
+			}
+		}
+
+		String line = Long.toHexString(crc(record.toString())) + "\t" + record + "\n";
+		ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+
+		String[] recorded = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			recorded[i] = ids[i] != null ? ids[i] : "";
+		}
+		chunks.put(key(operation, from), recorded);
+	}
+
+	/**
+	 * Number of chunks recorded
+	 */
+	public synchronized int size() {
+		return chunks.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Close and delete the journal, once the job is done
+	 */
+	public synchronized void delete() throws IOException {
+		close();
+		Files.deleteIfExists(file.toPath());
+	}
+
+	private static String key(String operation, int from) {
+		return operation + "#" + from;
+	}
+
+	private static long crc(String record) {
+
+		CRC32 crc = new CRC32();
+		crc.update(record.getBytes(StandardCharsets.UTF_8));
+
+		return crc.getValue();
+	}
+
+	// --- Getter(s) ---
+
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,155 @@
+package com.zuora.api.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+/**
+ * Socket factory of the ZTransport counting the bytes written and read on the
+ * HTTP connections. A stub call is sent and its response read by the calling
+ * thread, so the bytes are counted per thread: the difference before/after a
+ * call is the size of that call on the wire (headers included, after gzip and
+ * TLS).
+ */
+class ZCountingSocketFactory implements ProtocolSocketFactory {
+
+	/** Bytes written [0] and read [1] by the current thread */
+	private static final ThreadLocal<long[]> BYTES = ThreadLocal.withInitial(() -> new long[2]);
+
+	/**
+	 * Bytes written so far by the current thread
+	 */
+	static long getBytesSent() {
+		return BYTES.get()[0];
+	}
+
+	/**
+	 * Bytes read so far by the current thread
+	 */
+	static long getBytesReceived() {
+		return BYTES.get()[1];
+	}
+
+	public Socket createSocket(String host, int port) throws IOException {
+		return createSocket(host, port, null, 0, null);
+	}
+
+	public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+		return createSocket(host, port, localAddress, localPort, null);
+	}
+
+	public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+			HttpConnectionParams params) throws IOException {
+
+		Socket socket = new CountingSocket();
+
+		if (localAddress != null) {
+			socket.bind(new InetSocketAddress(localAddress, localPort));
+		}
+		socket.connect(new InetSocketAddress(host, port), params != null ? params.getConnectionTimeout() : 0);
+
+		return socket;
+	}
+
+	/**
+	 * Same for https: TLS on top of a counting socket, by the socket factory
+	 * registered for https (e.g. with a client certificate) if it can be
+	 * layered, else by the default SSL socket factory of the JVM
+	 */
+	static class Secure extends ZCountingSocketFactory implements SecureProtocolSocketFactory {
+
+		private final SecureProtocolSocketFactory tls;
+
+		Secure() {
+			ProtocolSocketFactory registered = Protocol.getProtocol("https").getSocketFactory();
+			tls = registered instanceof SecureProtocolSocketFactory ? (SecureProtocolSocketFactory) registered : null;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+				HttpConnectionParams params) throws IOException {
+			return createSocket(super.createSocket(host, port, localAddress, localPort, params), host, port, true);
+		}
+
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			if (tls != null) {
+				return tls.createSocket(socket, host, port, autoClose);
+			}
+			return ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, autoClose);
+		}
+	}
+
+	/**
+	 * Plain socket whose streams count the bytes
+	 */
+	private static class CountingSocket extends Socket {
+
+		private InputStream countingIn;
+
+		private OutputStream countingOut;
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+
+			if (countingIn == null) {
+				countingIn = new FilterInputStream(super.getInputStream()) {
+
+					@Override
+					public int read() throws IOException {
+						int b = super.read();
+						if (b != -1) {
+							BYTES.get()[1]++;
+						}
+						return b;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						int n = super.read(b, off, len);
+						if (n > 0) {
+							BYTES.get()[1] += n;
+						}
+						return n;
+					}
+				};
+			}
+
+			return countingIn;
+		}
+
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+
+			if (countingOut == null) {
+				countingOut = new FilterOutputStream(super.getOutputStream()) {
+
+					@Override
+					public void write(int b) throws IOException {
+						out.write(b);
+						BYTES.get()[0]++;
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						out.write(b, off, len);
+						BYTES.get()[0] += len;
+					}
+				};
+			}
+
+			return countingOut;
+		}
+	}
+}
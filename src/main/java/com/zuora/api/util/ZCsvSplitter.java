@@ -0,0 +1,245 @@
+package com.zuora.api.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Split a CSV file (e.g. usage) in shards of at most `maxShardSize` bytes,
+ * each one starting with the header row of the file.
+ *
+ * The file is read once, as a stream: only the current row is kept in memory.
+ * The rows are never cut, including the ones with quoted line breaks; a row
+ * larger than maxShardSize gets a shard of its own. Blank rows are skipped.
+ */
+public class ZCsvSplitter {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZCsvSplitter.class);
+
+	/** Max size (bytes) of a shard, header included */
+	private final long maxShardSize;
+
+	/** The directory of the shard files */
+	private final File directory;
+
+	/**
+	 * Instantiates a new splitter
+	 *
+	 * @param maxShardSize
+	 *            Max size (bytes) of a shard, header included
+	 * @param directory
+	 *            The directory of the shard files
+	 */
+	public ZCsvSplitter(long maxShardSize, File directory) {
+
+		this.maxShardSize = maxShardSize;
+		this.directory = directory;
+	}
+
+	/**
+	 * Split a CSV file, each shard is given to the listener once complete
+	 * (before the next one is written)
+	 *
+	 * @param in
+	 *            The CSV file
+	 * @param fileName
+	 *            Name of the CSV file, the shards are named
+	 *            `<name>.part0001.csv`, `<name>.part0002.csv`, etc.
+	 * @param listener
+	 *            Called for each shard, in order
+	 * @return Number of shards
+	 * @throws IOException
+	 *             if the file cannot be read or a shard cannot be written
+	 */
+	public int split(InputStream in, String fileName, ShardListener listener) throws IOException {
+
+		String baseName = fileName.toLowerCase().endsWith(".csv") ? fileName.substring(0, fileName.length() - 4)
+				: fileName;
+
+		Splitting splitting = new Splitting(baseName, listener);
+
+		byte[] buffer = new byte[ZStreamDataSource.BUFFER_SIZE];
+		boolean inQuotes = false;
+		int length;
+
+		try {
+			while ((length = in.read(buffer)) != -1) {
+
+				// Start of the current row in the buffer
+				int from = 0;
+
+				for (int i = 0; i < length; i++) {
+					if (buffer[i] == '"') {
+						inQuotes = !inQuotes;
+					} else if (buffer[i] == '\n' && !inQuotes) {
+						splitting.row.write(buffer, from, i + 1 - from);
+						splitting.endOfRow();
+						from = i + 1;
+					}
+				}
+
+				splitting.row.write(buffer, from, length - from);
+			}
+
+			// Last row, without line break
+			splitting.endOfRow();
+			splitting.endOfShard();
+
+		} finally {
+			if (splitting.shard != null) {
+				splitting.shard.close();
+			}
+		}
+
+		logger.debug("`{}` split in {} shard(s) of max. {} bytes", fileName, splitting.count, maxShardSize);
+
+		return splitting.count;
+	}
+
+	public long getMaxShardSize() {
+		return maxShardSize;
+	}
+
+	/**
+	 * State of a split in progress
+	 */
+	private class Splitting {
+
+		private final String baseName;
+
+		private final ShardListener listener;
+
+		private final ByteArrayOutputStream row = new ByteArrayOutputStream();
+
+		private byte[] header = null;
+
+		private Shard shard = null;
+
+		private int count = 0;
+
+		Splitting(String baseName, ShardListener listener) {
+			this.baseName = baseName;
+			this.listener = listener;
+		}
+
+		/**
+		 * Add the current row to the current shard, or to a new one if it
+		 * would be too large
+		 */
+		void endOfRow() throws IOException {
+
+			byte[] bytes = row.toByteArray();
+			row.reset();
+
+			if (isBlank(bytes)) {
+				return;
+			}
+
+			bytes = withLineBreak(bytes);
+
+			if (header == null) {
+				header = bytes;
+				return;
+			}
+
+			if (shard != null && shard.size + bytes.length > maxShardSize) {
+				endOfShard();
+			}
+
+			if (shard == null) {
+				shard = new Shard(new File(directory, String.format("%s.part%04d.csv", baseName, ++count)));
+				shard.write(header);
+			}
+
+			shard.write(bytes);
+		}
+
+		/**
+		 * Give the current shard to the listener
+		 */
+		void endOfShard() throws IOException {
+
+			if (shard != null) {
+				File file = shard.close();
+				shard = null;
+				listener.onShard(count - 1, file);
+			}
+		}
+	}
+
+	private static boolean isBlank(byte[] row) {
+
+		for (byte b : row) {
+			if (b != '\n' && b != '\r' && b != ' ' && b != '\t') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * The last row of the file may have no line break
+	 */
+	private static byte[] withLineBreak(byte[] row) {
+
+		if (row[row.length - 1] == '\n') {
+			return row;
+		}
+
+		byte[] result = new byte[row.length + 1];
+		System.arraycopy(row, 0, result, 0, row.length);
+		result[row.length] = '\n';
+
+		return result;
+	}
+
+	/**
+	 * Called for each shard of the file
+	 */
+	public interface ShardListener {
+
+		/**
+		 * @param index
+		 *            Index of the shard (0 for the first one)
+		 * @param shard
+		 *            The shard file, header included
+		 */
+		void onShard(int index, File shard) throws IOException;
+	}
+
+	/**
+	 * A shard being written
+	 */
+	private static class Shard {
+
+		private final File file;
+
+		private final OutputStream out;
+
+		private long size = 0;
+
+		Shard(File file) throws IOException {
+			this.file = file;
+			this.out = new BufferedOutputStream(new FileOutputStream(file), ZStreamDataSource.BUFFER_SIZE);
+		}
+
+		void write(byte[] bytes) throws IOException {
+			out.write(bytes);
+			size += bytes.length;
+		}
+
+		File close() throws IOException {
+			out.close();
+			return file;
+		}
+	}
+}
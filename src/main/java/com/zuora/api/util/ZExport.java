@@ -0,0 +1,351 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.axis2.client.Options;
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Export;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Bulk extracts through the Export object: the query is run by Zuora, which
+ * writes the result to a CSV file (optionally zipped), instead of thousands
+ * of query/queryMore pages.
+ *
+ * `File file = new ZExport(pool).export("SELECT Id, Name FROM Account", new File("accounts.csv")).join();`
+ *
+ * Each export is created, its status is polled until Completed (the poll
+ * interval starts at `export.pollInterval` and grows up to
+ * `export.maxPollInterval`), then its file is streamed to the target file
+ * (written to a temporary file next to it, moved once complete). Several
+ * exports can run at the same time, at most `export.concurrency` calls
+ * (create, download) are sent at the same time.
+ */
+public class ZExport {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZExport.class);
+
+	/** The Constant PROPERTY_POLL_INTERVAL. */
+	private static final String PROPERTY_POLL_INTERVAL = "export.pollInterval";
+
+	/** The Constant PROPERTY_MAX_POLL_INTERVAL. */
+	private static final String PROPERTY_MAX_POLL_INTERVAL = "export.maxPollInterval";
+
+	/** The Constant PROPERTY_CONCURRENCY. */
+	private static final String PROPERTY_CONCURRENCY = "export.concurrency";
+
+	/** Default first poll interval (ms) */
+	public static final long DEFAULT_POLL_INTERVAL = 5 * 1000;
+
+	/** Default max poll interval (ms) */
+	public static final long DEFAULT_MAX_POLL_INTERVAL = 60 * 1000;
+
+	/** Default number of creates/downloads at the same time */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/** Status of an export whose file is ready */
+	public static final String STATUS_COMPLETED = "Completed";
+
+	/** Status of an export that could not be processed */
+	public static final String STATUS_FAILED = "Failed";
+
+	/** Status of an export cancelled in Zuora */
+	public static final String STATUS_CANCELED = "Canceled";
+
+	/** The format of the files */
+	public static final String FORMAT_CSV = "csv";
+
+	/** The path of the files, after the host of the endpoint */
+	private static final String FILE_PATH = "/apps/api/file/";
+
+	/** Bytes transferred per NIO call */
+	private static final long TRANSFER_SIZE = 1024 * 1024;
+
+	/** The fields read at each poll */
+	private static final String QUERY = "SELECT Id, Status, StatusReason, FileId, Size FROM Export WHERE Id = '%s'";
+
+	/** The pool of ZApi used to send the calls */
+	private final ZApiPool pool;
+
+	/** First poll interval (ms) */
+	private final long pollInterval;
+
+	/** Max poll interval (ms) */
+	private final long maxPollInterval;
+
+	/** Sends the creates and downloads */
+	private final ExecutorService executor;
+
+	/** Runs the polls */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Instantiates a new export helper, the poll intervals and concurrency are
+	 * read from the config.properties file (`export.*`)
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to send the calls
+	 */
+	public ZExport(ZApiPool pool) {
+
+		this(pool, ZuoraUtility.getPropertyValue(PROPERTY_POLL_INTERVAL, DEFAULT_POLL_INTERVAL),
+				ZuoraUtility.getPropertyValue(PROPERTY_MAX_POLL_INTERVAL, DEFAULT_MAX_POLL_INTERVAL),
+				ZuoraUtility.getPropertyValue(PROPERTY_CONCURRENCY, DEFAULT_CONCURRENCY));
+	}
+
+	/**
+	 * Overloaded constructor to specify the poll intervals and concurrency
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to send the calls
+	 * @param pollInterval
+	 *            First poll interval (ms)
+	 * @param maxPollInterval
+	 *            Max poll interval (ms)
+	 * @param concurrency
+	 *            Number of creates/downloads at the same time
+	 */
+	public ZExport(ZApiPool pool, long pollInterval, long maxPollInterval, int concurrency) {
+
+		this.pool = pool;
+		this.pollInterval = pollInterval;
+		this.maxPollInterval = Math.max(pollInterval, maxPollInterval);
+
+		this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+			Thread t = new Thread(r, "zexport");
+			t.setDaemon(true);
+			return t;
+		});
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "zexport-poller");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Export the result of a query to a CSV file
+	 *
+	 * @param query
+	 *            The ZOQL query
+	 * @param target
+	 *            The file written
+	 * @return Future completed with the target file once written, failed if
+	 *         the export failed in Zuora or could not be created/downloaded
+	 */
+	public CompletableFuture<File> export(String query, File target) {
+		return export(query, target, false);
+	}
+
+	/**
+	 * Overloaded method to get the file zipped
+	 *
+	 * @param zip
+	 *            True to get a zip file (the target should be named *.zip)
+	 */
+	public CompletableFuture<File> export(final String query, final File target, final boolean zip) {
+
+		final CompletableFuture<File> future = new CompletableFuture<File>();
+
+		executor.execute(() -> {
+			try {
+				ID exportId = pool.execute(zapi -> createExport(zapi, target.getName(), query, zip));
+				if (exportId == null) {
+					throw new IllegalStateException("Could not create the export of `" + query
+							+ "` (see previous error)");
+				}
+				schedule(exportId.getID(), target, future, pollInterval);
+
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Stop polling and downloading, the exports in progress are not cancelled
+	 * in Zuora
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Create an export
+	 *
+	 * @param zapi
+	 *            ZApi logged in
+	 * @param name
+	 *            Name of the export
+	 * @param query
+	 *            The ZOQL query
+	 * @param zip
+	 *            True to get a zip file
+	 * @return ID of the export, null if an error occurred
+	 */
+	public static ID createExport(ZApi zapi, String name, String query, boolean zip) {
+
+		Export export = new Export();
+		export.setName(name);
+		export.setQuery(query);
+		export.setFormat(FORMAT_CSV);
+		export.setZip(zip);
+
+		SaveResult[] results = zapi.zCreate(new ZObject[] { export });
+
+		if (results == null || !results[0].getSuccess()) {
+			logger.error("Export `{}` failed (see previous error)", name);
+			return null;
+		}
+
+		logger.debug("Successfully created export with ID = {}", results[0].getId().getID());
+
+		return results[0].getId();
+	}
+
+	/**
+	 * Stream a file of Zuora (export, import result, etc.) to a local file
+	 * with NIO, whatever its size: it is written to a temporary file next to
+	 * the target, moved once complete
+	 *
+	 * @param zapi
+	 *            ZApi logged in (its session is used)
+	 * @param fileId
+	 *            ID of the file
+	 * @param target
+	 *            The file written (replaced if it exists)
+	 * @return Number of bytes written
+	 */
+	public static long download(ZApi zapi, String fileId, File target) throws IOException {
+
+		String endpoint = zapi.getEndpoint();
+		int apps = endpoint.indexOf("/apps/");
+		URL url = new URL((apps > 0 ? endpoint.substring(0, apps) : endpoint) + FILE_PATH + fileId);
+
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestProperty("Authorization", "ZSession " + zapi.getHeader().getSession());
+		// Same timeouts as the SOAP calls of this ZApi
+		Options options = zapi.getStub()._getServiceClient().getOptions();
+		Object connectTimeout = options.getProperty(HTTPConstants.CONNECTION_TIMEOUT);
+		connection.setConnectTimeout(connectTimeout instanceof Integer ? (Integer) connectTimeout
+				: ZTransport.DEFAULT_CONNECT_TIMEOUT);
+		connection.setReadTimeout((int) options.getTimeOutInMilliSeconds());
+
+		Path targetPath = target.getAbsoluteFile().toPath();
+		Path tmp = Files.createTempFile(targetPath.getParent(), target.getName(), ".part");
+		long size = 0;
+
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Could not download the file " + fileId + ": HTTP "
+						+ connection.getResponseCode());
+			}
+
+			try (InputStream in = connection.getInputStream();
+					ReadableByteChannel source = Channels.newChannel(in);
+					FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+
+				long transferred;
+				while ((transferred = out.transferFrom(source, size, TRANSFER_SIZE)) > 0) {
+					size += transferred;
+				}
+			}
+
+			Files.move(tmp, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		} finally {
+			Files.deleteIfExists(tmp);
+			connection.disconnect();
+		}
+
+		logger.debug("Downloaded file {} to `{}` ({} bytes)", fileId, target, size);
+
+		return size;
+	}
+
+	/**
+	 * Schedule the next poll of an export
+	 */
+	private void schedule(final String exportId, final File target, final CompletableFuture<File> future,
+			final long interval) {
+
+		if (future.isDone()) {
+			return;
+		}
+
+		scheduler.schedule(() -> poll(exportId, target, future, interval), interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Read the status of an export, download its file once completed
+	 */
+	private void poll(final String exportId, final File target, final CompletableFuture<File> future,
+			long interval) {
+
+		QueryResult result = null;
+		try {
+			// Not from the query cache: the status is changed by Zuora
+			result = pool.execute(zapi -> zapi.zQuery(String.format(QUERY, exportId), null, false));
+		} catch (RuntimeException e) {
+			logger.error("Could not read the status of the export {} | {}", exportId, e.getMessage());
+		}
+
+		Export export = result != null && result.getSize() > 0 ? (Export) result.getRecords()[0] : null;
+		String status = export != null ? export.getStatus() : null;
+
+		if (STATUS_COMPLETED.equals(status)) {
+			final String fileId = export.getFileId().getID();
+			executor.execute(() -> {
+				try {
+					pool.execute(zapi -> {
+						try {
+							return download(zapi, fileId, target);
+						} catch (IOException e) {
+							throw new IllegalStateException(e.getMessage(), e);
+						}
+					});
+					future.complete(target);
+				} catch (RuntimeException e) {
+					logger.error("Could not download the export {} | {}", exportId, e.getMessage());
+					future.completeExceptionally(e);
+				}
+			});
+
+		} else if (STATUS_FAILED.equals(status) || STATUS_CANCELED.equals(status)) {
+			logger.error("Export {} {}: {}", exportId, status, export.getStatusReason());
+			future.completeExceptionally(new IllegalStateException("Export " + exportId + " " + status + ": "
+					+ export.getStatusReason()));
+
+		} else {
+			logger.debug("Export {} is {}", exportId, status);
+			schedule(exportId, target, future, Math.min(maxPollInterval, interval * 3 / 2));
+		}
+	}
+}
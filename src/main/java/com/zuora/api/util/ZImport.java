@@ -1,15 +1,26 @@
 package com.zuora.api.util;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
-import javax.mail.util.ByteArrayDataSource;
 
 import org.apache.axis2.Constants;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.transport.http.HTTPConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +34,12 @@ public class ZImport {
 	/** The constant USAGE_TYPE */
 	public static final String USAGE_TYPE = "Usage";
 
+	/** The Constant PROPERTY_SHARD_SIZE. */
+	private static final String PROPERTY_SHARD_SIZE = "import.shardSize";
+
+	/** Default max size (bytes) of a usage file shard */
+	public static final long DEFAULT_SHARD_SIZE = 4 * 1024 * 1024;
+
 	/** The logger. */
 	private static Logger logger = LoggerFactory.getLogger(ZImport.class);
 
@@ -38,14 +55,15 @@ public class ZImport {
 	 * @return ID of the created usage import
 	 */
 	public static ID createImport(String usageFilePath, String usageFileName) {
-		ID createdImportId = null;
-		try {
-			InputStream is = new FileInputStream(usageFilePath);
-			createdImportId = createImport(is, usageFileName);
-		} catch (FileNotFoundException ex) {
-			logger.error("Could not load file from path: `" + usageFilePath + "`");
+		File usageFile = new File(usageFilePath);
+		if (!usageFile.isFile()) {
+			logger.error("Could not load file from path: `{}`", usageFilePath);
+			return null;
 		}
-		return createdImportId;
+		// Get the zuora API object and log into Zuora
+		ZApi zapi = new ZApi();
+		zapi.zLogin();
+		return createImport(zapi, new ZStreamDataSource(usageFile, toContentType(usageFileName)));
 	}
 
 	/**
@@ -60,42 +78,279 @@ public class ZImport {
 	 * @return ID of the created usage import
 	 */
 	public static ID createImport(InputStream usageFileInputStream, String usageFileName) {
-		logger.debug("Entering import method for filename `" + usageFileName + "`");
-		// Add the MIME content if not already present
-		if (!usageFileName.contains("text/plain;name=")) {
-			usageFileName = "text/plain;name=" + usageFileName;
-			logger.debug("Added MIME content to filename: `" + usageFileName + "`");
-		}
+		// Get the zuora API object and log into Zuora
+		ZApi zapi = new ZApi();
+		zapi.zLogin();
+		return createImport(zapi, usageFileInputStream, usageFileName);
+	}
+
+	/**
+	 * Create a usage import with a ZApi already logged in, the file is read
+	 * while it is sent
+	 * 
+	 * @param zapi
+	 *            ZApi logged in
+	 * @param usageFile
+	 *            The usage file (CSV)
+	 * @return ID of the created usage import
+	 */
+	public static ID createImport(ZApi zapi, File usageFile) {
+		return createImport(zapi, new ZStreamDataSource(usageFile, toContentType(usageFile.getName())));
+	}
+
+	/**
+	 * Create a usage import with a ZApi already logged in, the channel is read
+	 * from its current position while it is sent
+	 * 
+	 * @param zapi
+	 *            ZApi logged in
+	 * @param usageFileChannel
+	 *            Channel of the usage file (CSV)
+	 * @param usageFileName
+	 *            File name
+	 * @return ID of the created usage import
+	 */
+	public static ID createImport(ZApi zapi, FileChannel usageFileChannel, String usageFileName) {
+		return createImport(zapi, new ZStreamDataSource(usageFileChannel, toContentType(usageFileName)));
+	}
+
+	/**
+	 * Create a usage import with a ZApi already logged in, the stream is read
+	 * while it is sent
+	 * 
+	 * @param zapi
+	 *            ZApi logged in
+	 * @param usageFileInputStream
+	 *            InputStream for the usage file
+	 * @param usageFileName
+	 *            File name
+	 * @return ID of the created usage import
+	 */
+	public static ID createImport(ZApi zapi, InputStream usageFileInputStream, String usageFileName) {
+		return createImport(zapi, new ZStreamDataSource(usageFileInputStream, toContentType(usageFileName)));
+	}
+
+	/**
+	 * Create an import object in Zuora, the file is sent as an MTOM attachment
+	 * with chunked transfer encoding so that it is streamed, never loaded in
+	 * memory
+	 * 
+	 * @param zapi
+	 *            ZApi logged in
+	 * @param dataSource
+	 *            The usage file (CSV), content type `text/plain;name=<YOUR
+	 *            FILE NAME>`
+	 * @return ID of the created usage import, null if an error occurred
+	 */
+	public static ID createImport(ZApi zapi, DataSource dataSource) {
+		logger.debug("Entering import method for `{}`", dataSource.getName());
 		// Create the import object and set the import type
 		Import zimport = new Import();
 		zimport.setImportType(USAGE_TYPE);
-		// Prepare the data source (CSV file containing the usage)
-		DataSource dataSource = null;
+		zimport.setFileContent(new DataHandler(dataSource));
+		// Set the proper configuration options to the ZApi, only for this call
+		// (the ZApi may be shared)
+		Options options = zapi.getStub()._getServiceClient().getOptions();
+		Object mtom = options.getProperty(Constants.Configuration.ENABLE_MTOM);
+		Object chunked = options.getProperty(HTTPConstants.CHUNKED);
+		Object protocol = options.getProperty(HTTPConstants.HTTP_PROTOCOL_VERSION);
+		options.setProperty(Constants.Configuration.ENABLE_MTOM, Constants.VALUE_TRUE);
+		// Without chunking the whole request is buffered to get its length
+		options.setProperty(HTTPConstants.CHUNKED, Boolean.TRUE);
+		options.setProperty(HTTPConstants.HTTP_PROTOCOL_VERSION, HTTPConstants.HEADER_PROTOCOL_11);
+		SaveResult[] results;
 		try {
-			dataSource = new ByteArrayDataSource(usageFileInputStream, usageFileName);
-		} catch (IOException e) {
-			logger.error("I/O Error loading usage file | " + e.getMessage());
+			// Create the object in Zuora
+			results = zapi.zCreate(new ZObject[] { zimport });
+		} finally {
+			options.setProperty(Constants.Configuration.ENABLE_MTOM, mtom);
+			options.setProperty(HTTPConstants.CHUNKED, chunked);
+			options.setProperty(HTTPConstants.HTTP_PROTOCOL_VERSION, protocol);
 		}
-		DataHandler dataHandler = new DataHandler(dataSource);
-		zimport.setFileContent(dataHandler);
-		// Get the zuora API object and log into Zuora
-		ZApi zapi = new ZApi();
-		zapi.zLogin();
-		// Set the proper configuration option to the ZApi
-		zapi.getStub()._getServiceClient().getOptions()
-				.setProperty(Constants.Configuration.ENABLE_MTOM, Constants.VALUE_TRUE);
-		// Create the object in Zuora
-		SaveResult result = zapi.zCreate(new ZObject[] { zimport })[0];
+		if (results == null) {
+			logger.error("Import of `{}` failed (see previous error)", dataSource.getName());
+			return null;
+		}
+		SaveResult result = results[0];
 		if (result.getSuccess()) {
-			logger.debug("Successfully created import with ID = " + result.getId());
+			logger.debug("Successfully created import with ID = {}", result.getId());
 		} else {
-			logger.error("Import failed with the following error(s):");
-			for (com.zuora.api.axis2.ZuoraServiceStub.Error error : result.getErrors()) {
-				logger.error("field: " + error.getField() + " | message: " + error.getMessage() + " | code: "
-						+ error.getCode());
-			}
+			logger.error("Import of `{}` failed (see previous error)", dataSource.getName());
 		}
 		return result.getId();
 	}
 
+	/**
+	 * Sharded version of the usage import: the file is split in shards of at
+	 * most `import.shardSize` bytes (each one with the header row) which are
+	 * imported in parallel
+	 * 
+	 * @param pool
+	 *            The ZApi pool (one shard upload per ZApi, sharing the session)
+	 * @param usageFile
+	 *            The usage file (CSV)
+	 * @return ID of the created usage imports (same order as the shards) or
+	 *         null if an error occurred
+	 */
+	public static List<ID> createShardedImport(ZApiPool pool, File usageFile) {
+		return createShardedImport(pool, usageFile,
+				ZuoraUtility.getPropertyValue(PROPERTY_SHARD_SIZE, DEFAULT_SHARD_SIZE));
+	}
+
+	/**
+	 * Overloaded createShardedImport call to specify the max size of a shard
+	 * 
+	 * @param pool
+	 *            The ZApi pool (one shard upload per ZApi, sharing the session)
+	 * @param usageFile
+	 *            The usage file (CSV)
+	 * @param maxShardSize
+	 *            Max size (bytes) of a shard, header included
+	 * @return ID of the created usage imports (same order as the shards) or
+	 *         null if an error occurred
+	 */
+	public static List<ID> createShardedImport(ZApiPool pool, File usageFile, long maxShardSize) {
+		try (InputStream is = new FileInputStream(usageFile)) {
+			return createShardedImport(pool, is, usageFile.getName(), maxShardSize);
+		} catch (IOException e) {
+			logger.error("Could not load file from path: `{}` | {}", usageFile, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Split a usage file in shards of at most maxShardSize bytes (each one with
+	 * the header row) and import them in parallel, up to the pool max size at a
+	 * time. The file is read once, as a stream; at most one shard more than
+	 * the uploads in flight is written to a temporary directory.
+	 * 
+	 * @param pool
+	 *            The ZApi pool (one shard upload per ZApi, sharing the session)
+	 * @param usageFileInputStream
+	 *            InputStream for the usage file
+	 * @param usageFileName
+	 *            File name, the shards are named `<name>.part0001.csv`, etc.
+	 * @param maxShardSize
+	 *            Max size (bytes) of a shard, header included
+	 * @return ID of the created usage imports (same order as the shards) or
+	 *         null if an error occurred
+	 */
+	public static List<ID> createShardedImport(final ZApiPool pool, InputStream usageFileInputStream,
+			String usageFileName, long maxShardSize) {
+		return createShardedImport(pool, usageFileInputStream, usageFileName, maxShardSize, null);
+	}
+
+	/**
+	 * Same as createShardedImport(), recording the import ID of each shard in
+	 * a checkpoint journal: the shards already imported (by a previous run
+	 * with the same file and shard size) are not sent again.
+	 * 
+	 * @param journal
+	 *            The checkpoint journal of the job, null for none
+	 * @return ID of the usage imports (same order as the shards) or null if an
+	 *         error occurred (the shards imported so far are in the journal)
+	 */
+	public static List<ID> createShardedImport(final ZApiPool pool, InputStream usageFileInputStream,
+			String usageFileName, long maxShardSize, final ZCheckpointJournal journal) {
+		int concurrency = pool.getMaxSize();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		// One permit per shard written and not uploaded yet
+		final Semaphore pendingShards = new Semaphore(concurrency + 1);
+		final List<Future<ID>> futures = new ArrayList<Future<ID>>();
+		File directory = null;
+		boolean failed = false;
+		try {
+			directory = Files.createTempDirectory("zimport").toFile();
+			new ZCsvSplitter(maxShardSize, directory).split(usageFileInputStream, usageFileName,
+					(index, shard) -> {
+						try {
+							pendingShards.acquire();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("Interrupted while waiting for a shard upload");
+						}
+						futures.add(executor.submit(() -> {
+							try {
+								// Already imported by a previous run
+								String[] importId = journal != null ? journal.get("import", index, 1) : null;
+								if (importId != null && !importId[0].isEmpty()) {
+									logger.info("Shard #{} of `{}` already imported: {}", index, usageFileName,
+											importId[0]);
+									return ZuoraUtility.stringToZuoraId(importId)[0];
+								}
+
+								ID created = pool.execute(zapi -> createImport(zapi, shard));
+								if (created != null && journal != null) {
+									journal.record("import", index, new String[] { created.getID() });
+								}
+								return created;
+							} finally {
+								shard.delete();
+								pendingShards.release();
+							}
+						}));
+					});
+		} catch (IOException e) {
+			logger.error("I/O Error splitting usage file `{}` | {}", usageFileName, e.getMessage());
+			failed = true;
+		}
+		// Wait for all the uploads, even after an error, to clean up the shards
+		List<ID> importIds = new ArrayList<ID>(futures.size());
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				ID importId = futures.get(i).get();
+				if (importId == null) {
+					logger.error("Import of shard #{} of `{}` failed", i, usageFileName);
+					failed = true;
+				}
+				importIds.add(importId);
+			} catch (ExecutionException e) {
+				logger.error("Import of shard #{} of `{}` failed | {}", i, usageFileName, e.getCause());
+				failed = true;
+			} catch (InterruptedException e) {
+				logger.error("Interrupted while waiting for the import of `{}`", usageFileName);
+				Thread.currentThread().interrupt();
+				failed = true;
+				break;
+			}
+		}
+		executor.shutdown();
+		// Shards left by a failed split or upload too
+		deleteDirectory(directory);
+		if (failed) {
+			return null;
+		}
+		logger.debug("Successfully created {} import(s) for `{}`", importIds.size(), usageFileName);
+		return importIds;
+	}
+
+	/**
+	 * Delete a temporary directory and the files in it
+	 */
+	private static void deleteDirectory(File directory) {
+		if (directory == null) {
+			return;
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		if (!directory.delete()) {
+			logger.warn("Could not delete the temporary directory `{}`", directory);
+		}
+	}
+
+	/**
+	 * Add the MIME content to the file name if not already present
+	 */
+	private static String toContentType(String usageFileName) {
+		if (!usageFileName.contains("text/plain;name=")) {
+			usageFileName = "text/plain;name=" + usageFileName;
+			logger.debug("Added MIME content to filename: `{}`", usageFileName);
+		}
+		return usageFileName;
+	}
+
 }
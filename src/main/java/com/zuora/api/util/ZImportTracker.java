@@ -0,0 +1,347 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Track the status of many imports: at each tick the status of all the
+ * imports still in progress is read with one query (per MAX_IDS_PER_QUERY
+ * imports), and the future of each import is completed once Zuora is done
+ * with it (Completed, Failed or Canceled).
+ *
+ * The poll interval starts at `import.pollInterval` and grows up to
+ * `import.maxPollInterval` while no status changes; it is reset when a status
+ * changes or a new import is tracked.
+ *
+ * An import not returned by `import.maxMissingPolls` status queries in a row
+ * (wrong or deleted ID) is not tracked anymore, its future fails.
+ */
+public class ZImportTracker {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZImportTracker.class);
+
+	/** The Constant PROPERTY_POLL_INTERVAL. */
+	private static final String PROPERTY_POLL_INTERVAL = "import.pollInterval";
+
+	/** The Constant PROPERTY_MAX_POLL_INTERVAL. */
+	private static final String PROPERTY_MAX_POLL_INTERVAL = "import.maxPollInterval";
+
+	/** The Constant PROPERTY_MAX_MISSING_POLLS. */
+	private static final String PROPERTY_MAX_MISSING_POLLS = "import.maxMissingPolls";
+
+	/** Default first poll interval (ms) */
+	public static final long DEFAULT_POLL_INTERVAL = 2 * 1000;
+
+	/** Default max poll interval (ms) */
+	public static final long DEFAULT_MAX_POLL_INTERVAL = 60 * 1000;
+
+	/** Default number of status queries in a row without an import before it fails */
+	public static final int DEFAULT_MAX_MISSING_POLLS = 5;
+
+	/** Max number of imports per status query (`Id = ... OR Id = ...`) */
+	public static final int MAX_IDS_PER_QUERY = 200;
+
+	/** Status of an import processed without error */
+	public static final String STATUS_COMPLETED = "Completed";
+
+	/** Status of an import that could not be processed */
+	public static final String STATUS_FAILED = "Failed";
+
+	/** Status of an import cancelled in Zuora */
+	public static final String STATUS_CANCELED = "Canceled";
+
+	/** The fields read at each tick */
+	private static final String QUERY = "SELECT Id, Name, Status, StatusReason, ImportedCount, TotalCount, "
+			+ "ResultResourceUrl FROM Import WHERE ";
+
+	/** The pool of ZApi used to send the queries */
+	private final ZApiPool pool;
+
+	/** First poll interval (ms) */
+	private final long pollInterval;
+
+	/** Max poll interval (ms) */
+	private final long maxPollInterval;
+
+	/** Number of status queries in a row without an import before it fails */
+	private int maxMissingPolls = ZuoraUtility.getPropertyValue(PROPERTY_MAX_MISSING_POLLS,
+			DEFAULT_MAX_MISSING_POLLS);
+
+	/** The imports in progress, by ID */
+	private final Map<String, TrackedImport> tracked = new ConcurrentHashMap<String, TrackedImport>();
+
+	/** Runs the ticks */
+	private final ScheduledExecutorService scheduler;
+
+	/** Current poll interval (ms) */
+	private long currentInterval;
+
+	/** True if a tick is scheduled */
+	private boolean scheduled = false;
+
+	/**
+	 * Instantiates a new tracker, the poll intervals are read from the
+	 * config.properties file (`import.*`)
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to send the queries
+	 */
+	public ZImportTracker(ZApiPool pool) {
+
+		this(pool, ZuoraUtility.getPropertyValue(PROPERTY_POLL_INTERVAL, DEFAULT_POLL_INTERVAL),
+				ZuoraUtility.getPropertyValue(PROPERTY_MAX_POLL_INTERVAL, DEFAULT_MAX_POLL_INTERVAL));
+	}
+
+	/**
+	 * Overloaded constructor to specify the poll intervals
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to send the queries
+	 * @param pollInterval
+	 *            First poll interval (ms)
+	 * @param maxPollInterval
+	 *            Max poll interval (ms)
+	 */
+	public ZImportTracker(ZApiPool pool, long pollInterval, long maxPollInterval) {
+
+		this.pool = pool;
+		this.pollInterval = pollInterval;
+		this.maxPollInterval = Math.max(pollInterval, maxPollInterval);
+		this.currentInterval = pollInterval;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "zimport-tracker");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Track an import
+	 *
+	 * @param importId
+	 *            ID of the import (e.g. returned by ZImport.createImport())
+	 * @return Future completed with the import (Status, StatusReason,
+	 *         ImportedCount, TotalCount, ResultResourceUrl) once Completed,
+	 *         Failed or Canceled
+	 */
+	public CompletableFuture<Import> track(ID importId) {
+		return track(importId.getID());
+	}
+
+	/**
+	 * Track an import
+	 *
+	 * @param importId
+	 *            ID of the import
+	 * @return Future completed with the import once Completed, Failed or Canceled
+	 */
+	public CompletableFuture<Import> track(String importId) {
+
+		TrackedImport trackedImport = new TrackedImport();
+		TrackedImport current = tracked.putIfAbsent(importId, trackedImport);
+
+		if (current != null) {
+			return current.future;
+		}
+
+		schedule(true);
+
+		return trackedImport.future;
+	}
+
+	/**
+	 * Track several imports
+	 *
+	 * @param importIds
+	 *            ID of the imports (e.g. returned by
+	 *            ZImport.createShardedImport())
+	 * @return Futures completed with each import once Completed, Failed or Canceled (same
+	 *         order as the IDs)
+	 */
+	public List<CompletableFuture<Import>> track(List<ID> importIds) {
+
+		List<CompletableFuture<Import>> futures = new ArrayList<CompletableFuture<Import>>(importIds.size());
+		for (ID importId : importIds) {
+			futures.add(track(importId));
+		}
+
+		return futures;
+	}
+
+	/**
+	 * Stop polling, the futures not completed yet are cancelled
+	 */
+	public void shutdown() {
+
+		scheduler.shutdownNow();
+
+		for (TrackedImport trackedImport : tracked.values()) {
+			trackedImport.future.cancel(false);
+		}
+		tracked.clear();
+	}
+
+	/**
+	 * Number of imports in progress
+	 */
+	public int getTrackedCount() {
+		return tracked.size();
+	}
+
+	/**
+	 * Number of status queries in a row without an import (wrong or deleted
+	 * ID) before its future fails
+	 */
+	public void setMaxMissingPolls(int maxMissingPolls) {
+		this.maxMissingPolls = maxMissingPolls;
+	}
+
+	/**
+	 * Schedule the next tick
+	 *
+	 * @param reset
+	 *            True to go back to the first poll interval (something changed)
+	 */
+	private synchronized void schedule(boolean reset) {
+
+		if (reset) {
+			currentInterval = pollInterval;
+		}
+
+		if (scheduled || tracked.isEmpty() || scheduler.isShutdown()) {
+			return;
+		}
+
+		scheduled = true;
+		scheduler.schedule(() -> tick(), currentInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Read the status of all the imports in progress and complete the futures
+	 * of the ones done
+	 */
+	private void tick() {
+
+		synchronized (this) {
+			scheduled = false;
+		}
+
+		boolean changed = false;
+
+		try {
+			// Cancelled by the caller
+			tracked.values().removeIf(trackedImport -> trackedImport.future.isDone());
+
+			List<String> ids = new ArrayList<String>(tracked.keySet());
+
+			for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+				changed |= poll(ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size())));
+			}
+
+		} catch (RuntimeException e) {
+			logger.error("Could not read the status of the imports | {}", e.getMessage());
+		}
+
+		synchronized (this) {
+			if (!changed) {
+				currentInterval = Math.min(maxPollInterval, currentInterval * 3 / 2);
+			}
+		}
+
+		schedule(changed);
+	}
+
+	/**
+	 * Read the status of some imports with one query
+	 *
+	 * @return True if the status of an import changed
+	 */
+	private boolean poll(List<String> ids) {
+
+		StringBuilder query = new StringBuilder(QUERY);
+		for (int i = 0; i < ids.size(); i++) {
+			query.append(i == 0 ? "Id = '" : " OR Id = '").append(ids.get(i)).append("'");
+		}
+
+		// Not from the query cache: the status is changed by Zuora
+		QueryResult result = pool.execute(zapi -> zapi.zQuery(query.toString(), null, false));
+
+		if (result == null) {
+			logger.error("Could not read the status of {} import(s), trying again later", ids.size());
+			return false;
+		}
+
+		boolean changed = false;
+		List<String> missing = new ArrayList<String>(ids);
+
+		for (ZObject record : result.getRecords() != null ? result.getRecords() : new ZObject[0]) {
+
+			Import zimport = (Import) record;
+			missing.remove(zimport.getId().getID());
+			TrackedImport trackedImport = tracked.get(zimport.getId().getID());
+
+			if (trackedImport == null) {
+				continue;
+			}
+
+			trackedImport.missingPolls = 0;
+
+			String status = zimport.getStatus();
+
+			if (status != null && !status.equals(trackedImport.status)) {
+				logger.debug("Import {} is {} ({}/{})", zimport.getId().getID(), status, zimport.getImportedCount(),
+						zimport.getTotalCount());
+				trackedImport.status = status;
+				changed = true;
+			}
+
+			if (STATUS_COMPLETED.equals(status) || STATUS_FAILED.equals(status) || STATUS_CANCELED.equals(status)) {
+				tracked.remove(zimport.getId().getID());
+				trackedImport.future.complete(zimport);
+			}
+		}
+
+		for (String id : missing) {
+			TrackedImport trackedImport = tracked.get(id);
+
+			if (trackedImport != null && ++trackedImport.missingPolls >= maxMissingPolls) {
+				logger.error("Import {} not found after {} poll(s), not tracked anymore", id,
+						trackedImport.missingPolls);
+				tracked.remove(id);
+				trackedImport.future.completeExceptionally(new IllegalStateException("Import " + id + " not found"));
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * An import in progress, its last status and its future
+	 */
+	private static class TrackedImport {
+
+		private volatile String status;
+
+		/** Status queries in a row without this import */
+		private int missingPolls = 0;
+
+		private final CompletableFuture<Import> future = new CompletableFuture<Import>();
+	}
+}
@@ -0,0 +1,522 @@
+package com.zuora.api.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local mirror of Zuora objects (see ZSync), kept in memory and in one
+ * append-only file per object type in a directory: `<Type>.store`.
+ *
+ * Each upsert appends the record (`<crc32>\t<id>\t<field>=<value>\t...`), the
+ * watermark of the last sync is a `#watermark` record. On open, the files are
+ * read back, the last record of an ID wins; a record cut by a crash or with a
+ * wrong checksum ends the file and is removed. compact() rewrites a file with
+ * only the current records.
+ *
+ * The records are the field values as strings (IDs, dates in the format of
+ * the API). They can be read by ID or filtered with ZOQL-style conditions:
+ *
+ * `List<Map<String, String>> active = store.select("Account", "Status = 'Active' AND Balance > 0");`
+ */
+public class ZLocalStore implements Closeable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZLocalStore.class);
+
+	/** The field of the ID in the records */
+	public static final String ID = "Id";
+
+	/** Extension of the files */
+	private static final String EXTENSION = ".store";
+
+	/** Key of the watermark record */
+	private static final String WATERMARK = "#watermark";
+
+	/** The directory of the files */
+	private final File dir;
+
+	/** The types opened, by name */
+	private final Map<String, TypeStore> types = new HashMap<String, TypeStore>();
+
+	/**
+	 * Open a store, reading the files already in the directory
+	 *
+	 * @param dir
+	 *            The directory of the files (created if it does not exist)
+	 */
+	public ZLocalStore(File dir) throws IOException {
+
+		this.dir = dir;
+		Files.createDirectories(dir.toPath());
+
+		File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+		for (File file : files != null ? files : new File[0]) {
+			String type = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+			types.put(type, new TypeStore(file));
+		}
+
+		logger.info("Local store `{}` opened: {}", dir, this);
+	}
+
+	/**
+	 * Insert or replace records (written to disk before returning)
+	 *
+	 * @param type
+	 *            Account, Subscription, etc.
+	 * @param records
+	 *            The records, with their Id
+	 */
+	public synchronized void upsert(String type, Collection<Map<String, String>> records) throws IOException {
+
+		TypeStore store = getTypeStore(type);
+
+		StringBuilder lines = new StringBuilder();
+		for (Map<String, String> record : records) {
+			String id = record.get(ID);
+			if (id == null || id.startsWith("#")) {
+				throw new IllegalArgumentException("Record without Id: " + record);
+			}
+			lines.append(line(id, record));
+			store.records.put(id, Collections.unmodifiableMap(new LinkedHashMap<String, String>(record)));
+		}
+
+		store.append(lines.toString());
+	}
+
+	/**
+	 * A record by ID
+	 *
+	 * @return The record, null if not in the store
+	 */
+	public synchronized Map<String, String> get(String type, String id) {
+
+		TypeStore store = types.get(type);
+
+		return store != null ? store.records.get(id) : null;
+	}
+
+	/**
+	 * The records matching ZOQL-style conditions: `field op value`, with =,
+	 * !=, <, <=, > and >= (numbers compared as numbers), joined by AND / OR
+	 * (AND before OR, no parentheses)
+	 *
+	 * @param where
+	 *            The conditions, null or empty for all the records
+	 * @return The records, by ID
+	 */
+	public synchronized List<Map<String, String>> select(String type, String where) {
+
+		TypeStore store = types.get(type);
+		if (store == null) {
+			return new ArrayList<Map<String, String>>();
+		}
+
+		Filter filter = Filter.parse(where);
+		List<Map<String, String>> selected = new ArrayList<Map<String, String>>();
+		for (Map<String, String> record : store.records.values()) {
+			if (filter.matches(record)) {
+				selected.add(record);
+			}
+		}
+
+		return selected;
+	}
+
+	/**
+	 * Number of records of a type
+	 */
+	public synchronized int size(String type) {
+
+		TypeStore store = types.get(type);
+
+		return store != null ? store.records.size() : 0;
+	}
+
+	/**
+	 * The watermark of the last sync of a type (see ZSync)
+	 *
+	 * @return The watermark, null if never synced
+	 */
+	public synchronized String getWatermark(String type) {
+
+		TypeStore store = types.get(type);
+
+		return store != null ? store.watermark : null;
+	}
+
+	/**
+	 * Record the watermark of a sync (written to disk before returning)
+	 */
+	public synchronized void setWatermark(String type, String watermark) throws IOException {
+
+		TypeStore store = getTypeStore(type);
+		store.append(line(WATERMARK, Collections.singletonMap(WATERMARK, watermark)));
+		store.watermark = watermark;
+	}
+
+	/**
+	 * Remove the records and watermark of a type (e.g. before a full reload)
+	 */
+	public synchronized void clear(String type) throws IOException {
+
+		TypeStore store = types.remove(type);
+		if (store != null) {
+			store.channel.close();
+			Files.deleteIfExists(store.file.toPath());
+		}
+	}
+
+	/**
+	 * Rewrite the file of a type with only its current records
+	 */
+	public synchronized void compact(String type) throws IOException {
+
+		TypeStore store = types.get(type);
+		if (store == null) {
+			return;
+		}
+
+		Path path = store.file.toPath();
+		Path tmp = Files.createTempFile(dir.toPath(), type, ".tmp");
+
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			StringBuilder lines = new StringBuilder();
+			for (Map.Entry<String, Map<String, String>> record : store.records.entrySet()) {
+				lines.append(line(record.getKey(), record.getValue()));
+				if (lines.length() > 64 * 1024) {
+					write(out, lines.toString());
+					lines.setLength(0);
+				}
+			}
+			if (store.watermark != null) {
+				lines.append(line(WATERMARK, Collections.singletonMap(WATERMARK, store.watermark)));
+			}
+			write(out, lines.toString());
+			out.force(false);
+		}
+
+		store.channel.close();
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		types.put(type, new TypeStore(store.file));
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		for (TypeStore store : types.values()) {
+			store.channel.close();
+		}
+		types.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, TypeStore> store : new TreeMap<String, TypeStore>(types).entrySet()) {
+			text.append(text.length() > 0 ? " | " : "").append(store.getValue().records.size()).append(' ')
+					.append(store.getKey());
+		}
+
+		return text.length() > 0 ? text.toString() : "empty";
+	}
+
+	private TypeStore getTypeStore(String type) throws IOException {
+
+		TypeStore store = types.get(type);
+		if (store == null) {
+			store = new TypeStore(new File(dir, type + EXTENSION));
+			types.put(type, store);
+		}
+
+		return store;
+	}
+
+	/**
+	 * The line of a record: checksum, ID and fields (the fields of the record
+	 * without value are not written)
+	 */
+	private static String line(String id, Map<String, String> record) {
+
+		StringBuilder content = new StringBuilder(escape(id));
+		for (Map.Entry<String, String> field : record.entrySet()) {
+			if (field.getValue() != null && !ID.equals(field.getKey())) {
+				content.append('\t').append(escape(field.getKey())).append('=').append(escape(field.getValue()));
+			}
+		}
+
+		return Long.toHexString(crc(content.toString())) + "\t" + content + "\n";
+	}
+
+	private static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r")
+				.replace("=", "\\e");
+	}
+
+	private static String unescape(String text) {
+
+		if (text.indexOf('\\') < 0) {
+			return text;
+		}
+
+		StringBuilder unescaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length()) {
+				char next = text.charAt(++i);
+				unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next == 'e' ? '='
+						: next);
+			} else {
+				unescaped.append(c);
+			}
+		}
+
+		return unescaped.toString();
+	}
+
+	private static void write(FileChannel channel, String lines) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static long crc(String content) {
+
+		CRC32 crc = new CRC32();
+		crc.update(content.getBytes(StandardCharsets.UTF_8));
+
+		return crc.getValue();
+	}
+
+	// --- Getter(s) ---
+
+	public File getDir() {
+		return dir;
+	}
+
+	/**
+	 * The records and file of a type
+	 */
+	private static class TypeStore {
+
+		private final File file;
+
+		/** Opened in append mode */
+		private final FileChannel channel;
+
+		/** The records, by ID */
+		private final Map<String, Map<String, String>> records = new TreeMap<String, Map<String, String>>();
+
+		private String watermark;
+
+		TypeStore(File file) throws IOException {
+
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+			long valid = replay();
+			if (valid < channel.size()) {
+				logger.warn("Store `{}` ends with an incomplete record, {} byte(s) removed", file,
+						channel.size() - valid);
+				channel.truncate(valid);
+				channel.force(false);
+			}
+			channel.position(valid);
+		}
+
+		/**
+		 * Read the records back
+		 *
+		 * @return Length of the valid records (bytes)
+		 */
+		private long replay() throws IOException {
+
+			byte[] content = Files.readAllBytes(file.toPath());
+			int start = 0;
+
+			for (int end = 0; end < content.length; end++) {
+				if (content[end] != '\n') {
+					continue;
+				}
+
+				String line = new String(content, start, end - start, StandardCharsets.UTF_8);
+				int tab = line.indexOf('\t');
+				if (tab < 0 || !Long.toHexString(crc(line.substring(tab + 1))).equals(line.substring(0, tab))) {
+					break;
+				}
+
+				String[] fields = line.substring(tab + 1).split("\t", -1);
+				String id = unescape(fields[0]);
+				Map<String, String> record = new LinkedHashMap<String, String>();
+				record.put(ID, id);
+				for (int i = 1; i < fields.length; i++) {
+					int equals = fields[i].indexOf('=');
+					record.put(unescape(fields[i].substring(0, equals)), unescape(fields[i].substring(equals + 1)));
+				}
+
+				if (WATERMARK.equals(id)) {
+					watermark = record.get(WATERMARK);
+				} else {
+					records.put(id, Collections.unmodifiableMap(record));
+				}
+
+				start = end + 1;
+			}
+
+			return start;
+		}
+
+		/**
+		 * Append lines and write them to disk
+		 */
+		void append(String lines) throws IOException {
+			write(channel, lines);
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * ZOQL-style conditions on the records: OR of ANDs of `field op value`
+	 */
+	static class Filter {
+
+		/** `field op value` */
+		private static final Pattern CONDITION = Pattern.compile(
+				"^\\s*(\\w+)\\s*(=|!=|<>|<=|>=|<|>)\\s*('(?:[^'\\\\]|\\\\.)*'|[^\\s']+)\\s*$", Pattern.DOTALL);
+
+		/** ` AND ` / ` OR ` outside of the quoted values */
+		private static final Pattern KEYWORD = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|\\s(and|or)\\s",
+				Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+		/** The conditions: field, operator, value (OR of ANDs) */
+		private final List<List<String[]>> conditions;
+
+		private Filter(List<List<String[]>> conditions) {
+			this.conditions = conditions;
+		}
+
+		static Filter parse(String where) {
+
+			List<List<String[]>> conditions = new ArrayList<List<String[]>>();
+			if (where == null || where.trim().isEmpty()) {
+				return new Filter(conditions);
+			}
+
+			List<String[]> and = new ArrayList<String[]>();
+			conditions.add(and);
+
+			Matcher keyword = KEYWORD.matcher(where);
+			int start = 0;
+			while (keyword.find()) {
+				if (keyword.group(1) == null) {
+					continue;
+				}
+				and.add(condition(where.substring(start, keyword.start())));
+				if ("or".equalsIgnoreCase(keyword.group(1))) {
+					and = new ArrayList<String[]>();
+					conditions.add(and);
+				}
+				start = keyword.end();
+			}
+			and.add(condition(where.substring(start)));
+
+			return new Filter(conditions);
+		}
+
+		private static String[] condition(String text) {
+
+			Matcher matcher = CONDITION.matcher(text);
+			if (!matcher.matches()) {
+				throw new IllegalArgumentException("Malformed condition: " + text.trim());
+			}
+
+			String value = matcher.group(3);
+			if (value.startsWith("'")) {
+				value = value.substring(1, value.length() - 1).replaceAll("\\\\(.)", "$1");
+			} else if ("null".equalsIgnoreCase(value)) {
+				value = null;
+			}
+
+			return new String[] { matcher.group(1), matcher.group(2), value };
+		}
+
+		boolean matches(Map<String, String> record) {
+
+			if (conditions.isEmpty()) {
+				return true;
+			}
+
+			for (List<String[]> and : conditions) {
+				boolean all = true;
+				for (String[] condition : and) {
+					all &= matches(record.get(condition[0]), condition[1], condition[2]);
+				}
+				if (all) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private static boolean matches(String actual, String op, String expected) {
+
+			if (actual == null || expected == null) {
+				boolean equal = actual == expected;
+				return "=".equals(op) ? equal : ("!=".equals(op) || "<>".equals(op)) && !equal;
+			}
+
+			int compared = compare(actual, expected);
+
+			switch (op) {
+			case "=":
+				return compared == 0;
+			case "!=":
+			case "<>":
+				return compared != 0;
+			case "<":
+				return compared < 0;
+			case "<=":
+				return compared <= 0;
+			case ">":
+				return compared > 0;
+			default:
+				return compared >= 0;
+			}
+		}
+
+		private static int compare(String actual, String expected) {
+
+			try {
+				return new BigDecimal(actual).compareTo(new BigDecimal(expected));
+			} catch (NumberFormatException e) {
+				return actual.compareTo(expected);
+			}
+		}
+	}
+}
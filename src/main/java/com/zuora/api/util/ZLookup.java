@@ -0,0 +1,279 @@
+package com.zuora.api.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Lookup of objects by a key field (AccountNumber, etc.) which merges the
+ * lookups of all the threads into few queries: the keys asked during a short
+ * window (or until maxKeys is reached) are sent in one query with OR'd
+ * conditions, and each caller gets its own result.
+ *
+ * `ZLookup accounts = new ZLookup(async, "Account", "AccountNumber");`
+ * `String id = accounts.lookupId("A00000042").join();`
+ *
+ * The futures are completed with null if no object has this key (the first
+ * one if several), and fail if the query fails. The same key asked twice in a
+ * window is only queried once.
+ */
+public class ZLookup {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZLookup.class);
+
+	/** Default max number of keys per query */
+	public static final int DEFAULT_MAX_KEYS = 200;
+
+	/** Default max length of a query (characters) */
+	public static final int DEFAULT_MAX_QUERY_LENGTH = 8000;
+
+	/** Default time (ms) the first key waits for other ones */
+	public static final long DEFAULT_WINDOW = 10;
+
+	/** Between two conditions */
+	private static final String OR = " OR ";
+
+	/** The calls to Zuora */
+	private final ZApiAsync async;
+
+	/** The object type, e.g. Account */
+	private final String type;
+
+	/** The key field, e.g. AccountNumber */
+	private final String keyField;
+
+	/** Reads the key of the objects returned */
+	private final Method keyGetter;
+
+	/** The query without conditions */
+	private final String select;
+
+	/** Time (ms) the first key waits for other ones */
+	private final long window;
+
+	/** Max number of keys per query */
+	private final int maxKeys;
+
+	/** Max length of a query (characters) */
+	private final int maxQueryLength;
+
+	/** Sends the keys at the end of the window */
+	private final ScheduledExecutorService timer;
+
+	/** The keys waiting to be sent, and their futures */
+	private Map<String, CompletableFuture<ZObject>> pending = new LinkedHashMap<String, CompletableFuture<ZObject>>();
+
+	/** Length of the query of the pending keys */
+	private int queryLength;
+
+	/** The send at the end of the window, null if no key is pending */
+	private ScheduledFuture<?> scheduled;
+
+	/**
+	 * Instantiates a new lookup, with the default window and limits
+	 *
+	 * @param async
+	 *            The async ZApi sending the queries
+	 * @param type
+	 *            The object type, e.g. Account
+	 * @param keyField
+	 *            The key field, e.g. AccountNumber
+	 */
+	public ZLookup(ZApiAsync async, String type, String keyField) {
+
+		this(async, type, keyField, DEFAULT_WINDOW, DEFAULT_MAX_KEYS, DEFAULT_MAX_QUERY_LENGTH);
+	}
+
+	/**
+	 * Overloaded constructor to specify the window and limits
+	 *
+	 * @param window
+	 *            Time (ms) the first key waits for other ones
+	 * @param maxKeys
+	 *            Max number of keys per query
+	 * @param maxQueryLength
+	 *            Max length of a query (characters)
+	 */
+	public ZLookup(ZApiAsync async, String type, String keyField, long window, int maxKeys, int maxQueryLength) {
+
+		this.async = async;
+		this.type = type;
+		this.keyField = keyField;
+		this.window = window;
+		this.maxKeys = Math.max(1, maxKeys);
+		this.maxQueryLength = maxQueryLength;
+		this.select = "SELECT Id, " + keyField + " FROM " + type + " WHERE ";
+		this.queryLength = select.length();
+
+		try {
+			this.keyGetter = Class.forName("com.zuora.api.axis2.ZuoraServiceStub$" + type).getMethod("get" + keyField);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Unknown field " + type + "." + keyField, e);
+		}
+
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "zlookup-" + type);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Look up an object by key
+	 *
+	 * @return The object (Id and key field), null if not found
+	 */
+	public synchronized CompletableFuture<ZObject> lookup(String key) {
+
+		CompletableFuture<ZObject> future = pending.get(key);
+		if (future != null) {
+			return future;
+		}
+
+		int length = condition(key).length() + (pending.isEmpty() ? 0 : OR.length());
+		if (!pending.isEmpty() && queryLength + length > maxQueryLength) {
+			flush();
+			length = condition(key).length();
+		}
+
+		future = new CompletableFuture<ZObject>();
+		pending.put(key, future);
+		queryLength += length;
+
+		if (pending.size() >= maxKeys) {
+			flush();
+		} else if (scheduled == null) {
+			scheduled = timer.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Look up the Zuora ID of an object by key
+	 *
+	 * @return The ID, null if not found
+	 */
+	public CompletableFuture<String> lookupId(String key) {
+
+		return lookup(key).thenApply(object -> object != null ? object.getId().getID() : null);
+	}
+
+	/**
+	 * Send the pending keys now
+	 */
+	public synchronized void flush() {
+
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		final Map<String, CompletableFuture<ZObject>> batch = pending;
+		pending = new LinkedHashMap<String, CompletableFuture<ZObject>>();
+		queryLength = select.length();
+
+		StringBuilder query = new StringBuilder(select);
+		for (String key : batch.keySet()) {
+			if (query.length() > select.length()) {
+				query.append(OR);
+			}
+			query.append(condition(key));
+		}
+
+		logger.debug("Looking up {} {} key(s) in one query", batch.size(), type);
+
+		fetch(async.query(query.toString()), new ArrayList<ZObject>()).whenComplete((records, error) -> {
+			if (error != null) {
+				for (CompletableFuture<ZObject> future : batch.values()) {
+					future.completeExceptionally(error);
+				}
+				return;
+			}
+
+			Map<Object, ZObject> byKey = new HashMap<Object, ZObject>();
+			for (ZObject record : records) {
+				byKey.putIfAbsent(getKey(record), record);
+			}
+			for (Map.Entry<String, CompletableFuture<ZObject>> lookup : batch.entrySet()) {
+				lookup.getValue().complete(byKey.get(lookup.getKey()));
+			}
+		});
+	}
+
+	/**
+	 * Stop the timer (the pending keys are sent first)
+	 */
+	public void shutdown() {
+		flush();
+		timer.shutdown();
+	}
+
+	/**
+	 * All the records of a query, following the queryMore() pages
+	 */
+	private CompletableFuture<List<ZObject>> fetch(CompletableFuture<QueryResult> page, final List<ZObject> records) {
+
+		return page.thenCompose(result -> {
+			if (result.getRecords() != null) {
+				for (ZObject record : result.getRecords()) {
+					records.add(record);
+				}
+			}
+			if (result.getDone() || result.getQueryLocator() == null) {
+				return CompletableFuture.completedFuture(records);
+			}
+			return fetch(async.queryMore(result.getQueryLocator().getQueryLocator()), records);
+		});
+	}
+
+	private String condition(String key) {
+		return keyField + " = '" + key.replace("\\", "\\\\").replace("'", "\\'") + "'";
+	}
+
+	private Object getKey(ZObject record) {
+
+		try {
+			Object key = keyGetter.getDeclaringClass().isInstance(record) ? keyGetter.invoke(record) : null;
+			return key instanceof ID ? ((ID) key).getID() : key != null ? key.toString() : null;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	// --- Getter(s) ---
+
+	public String getType() {
+		return type;
+	}
+
+	public String getKeyField() {
+		return keyField;
+	}
+
+	/**
+	 * Number of keys waiting to be sent
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+}
@@ -0,0 +1,275 @@
+package com.zuora.api.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory metrics of the ZApi calls, per operation: number of calls and
+ * faults (by fault code), latency percentiles, records, bytes and chunks. Used
+ * by the ZApi by default, read it from a scheduled task or a dashboard
+ * endpoint, e.g. `ZMetricsRegistry.getInstance().toString()`.
+ */
+public class ZMetricsRegistry implements ZApiMetrics {
+
+	/** The registry used by the ZApi by default */
+	private static ZMetricsRegistry instance = null;
+
+	/** The metrics, by operation */
+	private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+
+	/** Start of the measures (ms) */
+	private volatile long since = System.currentTimeMillis();
+
+	/**
+	 * Get the registry shared by the ZApi (singleton pattern)
+	 */
+	public static synchronized ZMetricsRegistry getInstance() {
+
+		if (instance == null) {
+			instance = new ZMetricsRegistry();
+		}
+
+		return instance;
+	}
+
+	@Override
+	public void onCall(String operation, long latencyNanos, int records, long bytesSent, long bytesReceived,
+			String fault) {
+
+		OperationMetrics metrics = get(operation);
+
+		metrics.calls.increment();
+		metrics.latency.record(latencyNanos / 1000);
+		metrics.records.add(records);
+		metrics.bytesSent.add(bytesSent);
+		metrics.bytesReceived.add(bytesReceived);
+
+		if (fault != null) {
+			metrics.faults.computeIfAbsent(fault, k -> new LongAdder()).increment();
+		}
+	}
+
+	@Override
+	public void onChunks(String operation, int objects, int chunks) {
+		get(operation).chunks.add(chunks);
+	}
+
+	/**
+	 * The metrics of an operation (created empty if there was no call yet)
+	 */
+	public OperationMetrics get(String operation) {
+		return operations.computeIfAbsent(operation, k -> new OperationMetrics());
+	}
+
+	/**
+	 * The metrics of all the operations called, by operation name
+	 */
+	public Map<String, OperationMetrics> getOperations() {
+		return Collections.unmodifiableMap(new TreeMap<String, OperationMetrics>(operations));
+	}
+
+	/**
+	 * Start the measures again
+	 */
+	public void reset() {
+		operations.clear();
+		since = System.currentTimeMillis();
+	}
+
+	/**
+	 * One line per operation, e.g. for the logs
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder summary = new StringBuilder();
+		double seconds = Math.max(1, System.currentTimeMillis() - since) / 1000.0;
+
+		for (Map.Entry<String, OperationMetrics> operation : getOperations().entrySet()) {
+			OperationMetrics metrics = operation.getValue();
+			summary.append(String.format("%s: %d call(s) | %.1f/s | %d fault(s) %s | p50 %.1f ms | p99 %.1f ms"
+					+ " | %d record(s) | %d chunk(s) | %d B sent | %d B received%n", operation.getKey(),
+					metrics.getCalls(), metrics.getCalls() / seconds, metrics.getFaultCount(), metrics.getFaults(),
+					metrics.getP50(), metrics.getP99(), metrics.getRecords(), metrics.getChunks(),
+					metrics.getBytesSent(), metrics.getBytesReceived()));
+		}
+
+		return summary.toString();
+	}
+
+	// --- Getter(s) ---
+
+	/**
+	 * Start of the measures (ms)
+	 */
+	public long getSince() {
+		return since;
+	}
+
+	/**
+	 * The metrics of one operation
+	 */
+	public static class OperationMetrics {
+
+		private final LongAdder calls = new LongAdder();
+
+		private final ConcurrentMap<String, LongAdder> faults = new ConcurrentHashMap<String, LongAdder>();
+
+		private final Histogram latency = new Histogram();
+
+		private final LongAdder records = new LongAdder();
+
+		private final LongAdder bytesSent = new LongAdder();
+
+		private final LongAdder bytesReceived = new LongAdder();
+
+		private final LongAdder chunks = new LongAdder();
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		/**
+		 * Number of failed calls, by fault code
+		 */
+		public Map<String, Long> getFaults() {
+
+			Map<String, Long> counts = new TreeMap<String, Long>();
+			for (Map.Entry<String, LongAdder> fault : faults.entrySet()) {
+				counts.put(fault.getKey(), fault.getValue().sum());
+			}
+
+			return counts;
+		}
+
+		public long getFaultCount() {
+
+			long count = 0;
+			for (LongAdder fault : faults.values()) {
+				count += fault.sum();
+			}
+
+			return count;
+		}
+
+		/**
+		 * Latency (ms) below which are the given share of the calls, e.g. 0.99
+		 */
+		public double getLatency(double percentile) {
+			return latency.percentile(percentile) / 1000.0;
+		}
+
+		public double getP50() {
+			return getLatency(0.5);
+		}
+
+		public double getP99() {
+			return getLatency(0.99);
+		}
+
+		/**
+		 * Mean latency (ms)
+		 */
+		public double getMeanLatency() {
+
+			long count = getCalls();
+
+			return count > 0 ? latency.total.sum() / 1000.0 / count : 0;
+		}
+
+		public long getRecords() {
+			return records.sum();
+		}
+
+		public long getBytesSent() {
+			return bytesSent.sum();
+		}
+
+		public long getBytesReceived() {
+			return bytesReceived.sum();
+		}
+
+		public long getChunks() {
+			return chunks.sum();
+		}
+	}
+
+	/**
+	 * Lock-free histogram of values (µs) with a precision of 1/16: 16 buckets
+	 * per power of 2, from 1 µs to days
+	 */
+	static class Histogram {
+
+		/** Values below 32 have their own bucket */
+		private static final int LINEAR = 32;
+
+		/** Buckets per power of 2 above LINEAR */
+		private static final int PER_POWER = 16;
+
+		private final AtomicLongArray counts = new AtomicLongArray(LINEAR + 59 * PER_POWER);
+
+		private final LongAdder total = new LongAdder();
+
+		void record(long value) {
+
+			value = Math.max(0, value);
+			counts.incrementAndGet(index(value));
+			total.add(value);
+		}
+
+		/**
+		 * Value below which are the given share of the records (middle of
+		 * the bucket), 0 if empty
+		 */
+		long percentile(double percentile) {
+
+			long count = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				count += counts.get(i);
+			}
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(percentile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					return value(i);
+				}
+			}
+
+			return value(counts.length() - 1);
+		}
+
+		static int index(long value) {
+
+			if (value < LINEAR) {
+				return (int) value;
+			}
+
+			// value >> shift is between 16 and 31
+			int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+
+			return LINEAR + (shift - 1) * PER_POWER + (int) (value >> shift) - PER_POWER;
+		}
+
+		static long value(int index) {
+
+			if (index < LINEAR) {
+				return index;
+			}
+
+			int shift = (index - LINEAR) / PER_POWER + 1;
+			long lower = (long) ((index - LINEAR) % PER_POWER + PER_POWER) << shift;
+
+			return lower + (1L << shift) / 2;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.zuora.api.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publish the metrics of the ZApi calls to a Micrometer registry (Prometheus,
+ * Datadog, etc.). Micrometer is an optional dependency of z-java, add
+ * `micrometer-core` to your project to use it:
+ *
+ * `zapi.setMetrics(new ZMicrometerMetrics(meterRegistry));`
+ *
+ * Meters, tagged by `operation`:
+ * - zuora.api.calls: timer of the calls, also tagged by `outcome` (success or
+ * the fault code), with the p50/p99
+ * - zuora.api.records: records per call
+ * - zuora.api.request.size / zuora.api.response.size: bytes per call
+ * - zuora.api.chunks: calls sent for the create/update/delete of more than
+ * ZApi.MAX_OBJECTS objects
+ */
+public class ZMicrometerMetrics implements ZApiMetrics {
+
+	/** Outcome of the calls without fault */
+	private static final String SUCCESS = "success";
+
+	private final MeterRegistry registry;
+
+	/** The meters already registered, by name/operation/outcome */
+	private final ConcurrentMap<String, Object> meters = new ConcurrentHashMap<String, Object>();
+
+	public ZMicrometerMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void onCall(String operation, long latencyNanos, int records, long bytesSent, long bytesReceived,
+			String fault) {
+
+		String outcome = fault != null ? fault : SUCCESS;
+
+		Timer timer = (Timer) meters.computeIfAbsent("calls/" + operation + "/" + outcome,
+				k -> Timer.builder("zuora.api.calls").description("Calls to the Zuora SOAP API")
+						.tags("operation", operation, "outcome", outcome).publishPercentiles(0.5, 0.99)
+						.register(registry));
+		timer.record(latencyNanos, TimeUnit.NANOSECONDS);
+
+		summary("zuora.api.records", operation, null).record(records);
+		summary("zuora.api.request.size", operation, "bytes").record(bytesSent);
+		summary("zuora.api.response.size", operation, "bytes").record(bytesReceived);
+	}
+
+	@Override
+	public void onChunks(String operation, int objects, int chunks) {
+
+		Counter counter = (Counter) meters.computeIfAbsent("chunks/" + operation,
+				k -> Counter.builder("zuora.api.chunks").tags("operation", operation).register(registry));
+		counter.increment(chunks);
+	}
+
+	private DistributionSummary summary(String name, String operation, String baseUnit) {
+
+		return (DistributionSummary) meters.computeIfAbsent(name + "/" + operation,
+				k -> DistributionSummary.builder(name).baseUnit(baseUnit).tags("operation", operation)
+						.register(registry));
+	}
+
+	// --- Getter(s) ---
+
+	public MeterRegistry getRegistry() {
+		return registry;
+	}
+}
@@ -1,59 +1,53 @@
 package com.zuora.api.util;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.zuora.api.axis2.ZuoraServiceStub.Account;
-import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
-import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
-import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
-
+/**
+ * Erase a test tenant: all its accounts and the objects they depend on (see
+ * ZPurge, which does the work).
+ */
 public class ZNuke {
 
-	/** The Zuora API helper instance */
-	private ZApi zapi;
+	/** The bulk API deleting the objects */
+	private ZBulkApi bulk;
 	
 	/** The logger */
 	private static Logger logger = LoggerFactory.getLogger(ZNuke.class);
 	
 	public ZNuke() {
-		zapi = new ZApi();
-		zapi.zLogin();
+		bulk = new ZBulkApi();
 	}
 	
 	public void launch() {
 		logger.debug("* * * NUKE LAUNCHED!!! * * *");
-		// Query the existing billing account(s)
-		QueryResult accountQueryResult = zapi.zQuery("SELECT Id FROM Account");
-		
-		// Extract their IDs
-		List<String> ids = new ArrayList<String>();
-		for (ZObject zobj : accountQueryResult.getRecords()) {
-			Account a = (Account) zobj;
-			ids.add(a.getId().getID());
-		}
-		logger.debug("* * * Estimated casualties: " + ids.size() + " * * *");
-		
-		// Nuke'em
-		DeleteResult[] deleted = zapi.zDelete(ids.toArray(new String[ids.size()]), "Account");
-		
-		// Check the result
-		boolean hasFailure = false;
-		for (DeleteResult d : deleted) {
-			if (!d.getSuccess()) {
-				hasFailure = true;
-				logger.error("* * * Could not nuke the target * * *");
-				for (com.zuora.api.axis2.ZuoraServiceStub.Error e : d.getErrors()) {
-					logger.error("Field: " + e.getField() + " | Message: " + e.getMessage() + " | Code: " + e.getCode());
+		ZPurge purge = new ZPurge(bulk);
+
+		try {
+			// Count the casualties first
+			Map<String, Long> counts = purge.count();
+			logger.debug("* * * Estimated casualties: {} * * *", counts);
+
+			// Nuke'em, dependencies first (the errors are logged by ZPurge)
+			Map<String, ZPurge.Progress> report = counts != null ? purge.purge() : null;
+
+			boolean hasFailure = report == null;
+			if (report != null) {
+				for (ZPurge.Progress progress : report.values()) {
+					hasFailure |= progress.getFailed() > 0;
 				}
 			}
-		}
-		
-		if (!hasFailure) {
-			logger.debug("* * * Successfully nuked this tenant! Congrats. * * *");
+
+			if (hasFailure) {
+				logger.error("* * * Could not nuke the target * * *");
+			} else {
+				logger.debug("* * * Successfully nuked this tenant! Congrats. * * *");
+			}
+
+		} finally {
+			bulk.shutdown();
 		}
 	}
 	
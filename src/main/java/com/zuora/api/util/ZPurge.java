@@ -0,0 +1,284 @@
+package com.zuora.api.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Delete all the objects of a (test) tenant, type after type in dependency
+ * order: refunds, adjustments and payments before the invoices, invoices and
+ * usage before the subscriptions, subscriptions before the accounts, etc.
+ *
+ * The IDs of each type are read page after page (queryMore) and each page is
+ * deleted by a ZBulkApi, several chunks of 50 at the same time. count() only
+ * reads the size of the first page of each type (dry run). With a checkpoint journal, the types already
+ * purged are skipped when the purge is started again; the objects of the
+ * type in progress are queried again (the ones deleted are gone).
+ *
+ * ALL the objects of these types are deleted, never use it on a production
+ * tenant.
+ */
+public class ZPurge {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZPurge.class);
+
+	/** The types deleted by default, in dependency order */
+	public static final List<String> DEFAULT_TYPES = Collections.unmodifiableList(Arrays.asList("Refund",
+			"CreditBalanceAdjustment", "InvoiceItemAdjustment", "InvoiceAdjustment", "Payment", "Invoice", "Usage",
+			"Amendment", "Subscription", "Account"));
+
+	/** The operation of the journal records */
+	private static final String JOURNAL_OPERATION = "purge";
+
+	/** Sends the delete chunks */
+	private final ZBulkApi bulk;
+
+	/** The types to delete, in order */
+	private List<String> types = DEFAULT_TYPES;
+
+	/** Notified after each page, can be null */
+	private ProgressListener listener;
+
+	/** Records the types purged, can be null */
+	private ZCheckpointJournal journal;
+
+	/**
+	 * Instantiates a purge deleting with this bulk API (and querying with its
+	 * pool)
+	 *
+	 * @param bulk
+	 *            The bulk API, its concurrency is the number of delete chunks
+	 *            in flight
+	 */
+	public ZPurge(ZBulkApi bulk) {
+		this.bulk = bulk;
+	}
+
+	/**
+	 * Count the objects which would be deleted (dry run), one query per type:
+	 * the size of the first page is the total
+	 *
+	 * @return The number of objects of each type, in order, or null if a
+	 *         query failed
+	 */
+	public Map<String, Long> count() {
+
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+		for (String type : types) {
+			final String query = "SELECT Id FROM " + type;
+			QueryResult result = bulk.getPool().execute(zapi -> zapi.zQuery(query, null, false));
+			if (result == null) {
+				logger.error("Could not count the {} objects (see previous error)", type);
+				return null;
+			}
+			long found = result.getSize();
+			counts.put(type, found);
+			logger.info("Dry run: {} {} object(s) to delete", found, type);
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Delete all the objects of the types, in order
+	 *
+	 * @return The progress of each type, in order, or null if a query failed
+	 *         or the journal could not be written (the purge can be started
+	 *         again)
+	 */
+	public Map<String, Progress> purge() {
+
+		logger.warn("Purging {} from `{}`", types, bulk.getPool().getEndpoint());
+
+		Map<String, Progress> report = new LinkedHashMap<String, Progress>();
+
+		for (int i = 0; i < types.size(); i++) {
+			String type = types.get(i);
+			final Progress progress = new Progress(type);
+			report.put(type, progress);
+
+			if (journal != null && journal.get(JOURNAL_OPERATION, i, 1) != null) {
+				logger.info("{} already purged (journal)", type);
+				progress.skipped = true;
+				continue;
+			}
+
+			boolean queried = forEachPage(type, ids -> {
+				progress.found += ids.length;
+
+				DeleteResult[] results = bulk.zDelete(ids, type);
+				for (int j = 0; j < ids.length; j++) {
+					if (results != null && results[j] != null && results[j].getSuccess()) {
+						progress.deleted++;
+					} else {
+						progress.failed++;
+					}
+				}
+
+				if (listener != null) {
+					listener.onProgress(progress);
+				}
+			});
+			if (!queried) {
+				return null;
+			}
+
+			logger.info("{}", progress);
+
+			if (journal != null) {
+				try {
+					journal.record(JOURNAL_OPERATION, i, new String[] { type });
+				} catch (IOException e) {
+					logger.error("Could not write the journal `{}` | {}", journal.getFile(), e.getMessage());
+					return null;
+				}
+			}
+		}
+
+		return report;
+	}
+
+	/**
+	 * Read the IDs of all the objects of a type, one page at a time. A ZApi is
+	 * only borrowed for each query call, the deletes of the page use the other
+	 * ones of the pool.
+	 *
+	 * @return False if a query failed
+	 */
+	private boolean forEachPage(String type, PageHandler handler) {
+
+		final String query = "SELECT Id FROM " + type;
+
+		// Not from the query cache: the objects deleted must not be read again
+		QueryResult result = bulk.getPool().execute(zapi -> zapi.zQuery(query, null, false));
+
+		while (result != null) {
+			ZObject[] records = result.getRecords();
+			if (records != null && records.length > 0) {
+				String[] ids = new String[records.length];
+				for (int i = 0; i < records.length; i++) {
+					ids[i] = records[i].getId().getID();
+				}
+				handler.onPage(ids);
+			}
+
+			if (result.getDone() || result.getQueryLocator() == null) {
+				return true;
+			}
+			final String locator = result.getQueryLocator().getQueryLocator();
+			result = bulk.getPool().execute(zapi -> zapi.zQueryMore(locator));
+		}
+
+		logger.error("Could not read the {} objects (see previous error)", type);
+		return false;
+	}
+
+	// --- Getter(s) ---
+
+	public ZBulkApi getBulk() {
+		return bulk;
+	}
+
+	public List<String> getTypes() {
+		return types;
+	}
+
+	/**
+	 * Delete other types than DEFAULT_TYPES (the dependencies first)
+	 */
+	public void setTypes(List<String> types) {
+		this.types = types;
+	}
+
+	public void setListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Record the types purged, to skip them if the purge is started again
+	 * with the same journal
+	 */
+	public void setJournal(ZCheckpointJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Notified after each page of objects deleted
+	 */
+	public interface ProgressListener {
+
+		void onProgress(Progress progress);
+	}
+
+	/**
+	 * The objects of a page
+	 */
+	private interface PageHandler {
+
+		void onPage(String[] ids);
+	}
+
+	/**
+	 * The progress of the purge of a type
+	 */
+	public static class Progress {
+
+		private final String type;
+
+		private long found = 0;
+
+		private long deleted = 0;
+
+		private long failed = 0;
+
+		private boolean skipped = false;
+
+		Progress(String type) {
+			this.type = type;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * Number of objects read so far
+		 */
+		public long getFound() {
+			return found;
+		}
+
+		public long getDeleted() {
+			return deleted;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		/**
+		 * True if the type was already purged according to the journal
+		 */
+		public boolean isSkipped() {
+			return skipped;
+		}
+
+		@Override
+		public String toString() {
+			return skipped ? type + ": already purged"
+					: String.format("%s: %d found | %d deleted | %d failed", type, found, deleted, failed);
+		}
+	}
+}
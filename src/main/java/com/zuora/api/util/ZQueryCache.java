@@ -0,0 +1,343 @@
+package com.zuora.api.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+
+/**
+ * Bounded cache of the results of ZApi.zQuery(), for the lookups sent again
+ * and again (account by number, product catalog, etc.). Disabled by default,
+ * give it to the ZApi (or the pool) to use it:
+ *
+ * `zapi.setQueryCache(new ZQueryCache(1000, 60000));`
+ *
+ * The queries are keyed by their normalized ZOQL (case and white spaces
+ * ignored, except in the quoted values). The least recently used results are
+ * evicted when the cache is full, and the results are expired after the TTL.
+ * Only the complete results (no queryMore() needed) are cached. A successful
+ * create/update/delete through a ZApi using the cache invalidates the results
+ * of the same object type; subscribe/amend invalidate everything.
+ *
+ * Each caller gets its own copy of a cached result (its records array can be
+ * modified, e.g. by a ZQueryIterator), but the records themselves are shared:
+ * do not modify them. Use one cache per tenant.
+ */
+public class ZQueryCache {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZQueryCache.class);
+
+	/** The Constant PROPERTY_MAX_SIZE. */
+	private static final String PROPERTY_MAX_SIZE = "queryCache.maxSize";
+
+	/** The Constant PROPERTY_TTL. */
+	private static final String PROPERTY_TTL = "queryCache.ttl";
+
+	/** Default max number of results cached */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	/** Default time (ms) a result stays in the cache */
+	public static final long DEFAULT_TTL = 60 * 1000;
+
+	/** The object type of a normalized query */
+	private static final Pattern FROM = Pattern.compile("\\bfrom ([a-z0-9_]+)");
+
+	/** Max number of results cached */
+	private final int maxSize;
+
+	/** Time (ms) a result stays in the cache */
+	private final long ttl;
+
+	/** The results, least recently used first */
+	private final LinkedHashMap<String, CachedResult> entries;
+
+	/** The keys of the results, by object type (lower case) */
+	private final Map<String, Set<String>> keysByType = new HashMap<String, Set<String>>();
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	private long invalidations = 0;
+
+	/**
+	 * Instantiates a new cache, the size and TTL are read from the
+	 * config.properties file (`queryCache.maxSize` and `queryCache.ttl`)
+	 */
+	public ZQueryCache() {
+
+		this(ZuoraUtility.getPropertyValue(PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE),
+				ZuoraUtility.getPropertyValue(PROPERTY_TTL, DEFAULT_TTL));
+	}
+
+	/**
+	 * Overloaded constructor to specify the size and TTL
+	 *
+	 * @param maxSize
+	 *            Max number of results cached
+	 * @param ttl
+	 *            Time (ms) a result stays in the cache
+	 */
+	public ZQueryCache(int maxSize, long ttl) {
+
+		this.maxSize = Math.max(1, maxSize);
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				if (size() <= ZQueryCache.this.maxSize) {
+					return false;
+				}
+				unindex(eldest.getKey(), eldest.getValue().type);
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * The key of a query: the ZOQL in lower case without extra white spaces,
+	 * except in the quoted values
+	 *
+	 * @param scope
+	 *            Prefix of the key (endpoint, batch size, etc.), can be null
+	 * @param queryString
+	 *            The ZOQL query
+	 */
+	public static String normalize(String scope, String queryString) {
+
+		StringBuilder key = new StringBuilder(queryString.length() + 32);
+		if (scope != null) {
+			key.append(scope).append('|');
+		}
+		int start = key.length();
+
+		boolean quoted = false;
+		boolean space = false;
+
+		for (int i = 0; i < queryString.length(); i++) {
+			char c = queryString.charAt(i);
+
+			if (quoted) {
+				key.append(c);
+				if (c == '\\' && i + 1 < queryString.length()) {
+					key.append(queryString.charAt(++i));
+				} else if (c == '\'') {
+					quoted = false;
+				}
+
+			} else if (Character.isWhitespace(c)) {
+				space = true;
+
+			} else {
+				if (space && key.length() > start) {
+					key.append(' ');
+				}
+				space = false;
+				quoted = c == '\'';
+				key.append(Character.toLowerCase(c));
+			}
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * The cached result of a query, null if not cached or expired
+	 *
+	 * @param key
+	 *            The key of the query (see normalize())
+	 */
+	public synchronized QueryResult get(String key) {
+
+		CachedResult entry = entries.get(key);
+
+		if (entry != null && System.currentTimeMillis() - entry.time > ttl) {
+			entries.remove(key);
+			unindex(key, entry.type);
+			evictions++;
+			entry = null;
+		}
+
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return copy(entry.result);
+	}
+
+	/**
+	 * Cache the result of a query, if it is complete
+	 *
+	 * @param key
+	 *            The key of the query (see normalize())
+	 */
+	public synchronized void put(String key, QueryResult result) {
+
+		if (result == null || !result.getDone()) {
+			return;
+		}
+
+		Matcher from = FROM.matcher(key);
+		String type = from.find() ? from.group(1) : "";
+
+		// The caller keeps the original result
+		CachedResult previous = entries.put(key, new CachedResult(copy(result), type, System.currentTimeMillis()));
+		if (previous != null) {
+			unindex(key, previous.type);
+		}
+		keysByType.computeIfAbsent(type, k -> new HashSet<String>()).add(key);
+	}
+
+	/**
+	 * Remove the results of the queries on an object type (after a change)
+	 *
+	 * @param type
+	 *            Account, Subscription, etc.
+	 */
+	public synchronized void invalidate(String type) {
+
+		Set<String> keys = keysByType.remove(type.toLowerCase(Locale.ROOT));
+		if (keys == null) {
+			return;
+		}
+
+		for (String key : keys) {
+			entries.remove(key);
+		}
+		invalidations += keys.size();
+
+		logger.debug("{} cached quer(y/ies) on {} invalidated", keys.size(), type);
+	}
+
+	/**
+	 * Remove all the results
+	 */
+	public synchronized void invalidateAll() {
+
+		invalidations += entries.size();
+		entries.clear();
+		keysByType.clear();
+	}
+
+	/**
+	 * Remove the expired results (they are also removed when read)
+	 */
+	public synchronized void cleanUp() {
+
+		long now = System.currentTimeMillis();
+
+		for (Iterator<Map.Entry<String, CachedResult>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, CachedResult> entry = it.next();
+			if (now - entry.getValue().time > ttl) {
+				it.remove();
+				unindex(entry.getKey(), entry.getValue().type);
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Copy of a result, with its own records array (the records are not
+	 * copied)
+	 */
+	private static QueryResult copy(QueryResult result) {
+
+		QueryResult copy = new QueryResult();
+		copy.setDone(result.getDone());
+		copy.setSize(result.getSize());
+		copy.setQueryLocator(result.getQueryLocator());
+		copy.setRecords(result.getRecords() != null ? result.getRecords().clone() : null);
+
+		return copy;
+	}
+
+	private void unindex(String key, String type) {
+
+		Set<String> keys = keysByType.get(type);
+		if (keys != null && keys.remove(key) && keys.isEmpty()) {
+			keysByType.remove(type);
+		}
+	}
+
+	/**
+	 * Share of the reads found in the cache
+	 */
+	public synchronized double getHitRate() {
+		return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d/%d result(s) | %d hit(s) | %d miss(es) | %.1f%% hit rate | %d eviction(s)"
+				+ " | %d invalidation(s)", entries.size(), maxSize, hits, misses, getHitRate() * 100, evictions,
+				invalidations);
+	}
+
+	// --- Getter(s) ---
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * A cached result
+	 */
+	private static class CachedResult {
+
+		private final QueryResult result;
+
+		/** The object type, lower case */
+		private final String type;
+
+		/** When it was cached (ms) */
+		private final long time;
+
+		CachedResult(QueryResult result, String type, long time) {
+			this.result = result;
+			this.type = type;
+			this.time = time;
+		}
+	}
+}
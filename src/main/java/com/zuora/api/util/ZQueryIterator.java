@@ -0,0 +1,218 @@
+package com.zuora.api.util;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Streaming cursor over all the records of a ZOQL query. The pages are fetched
+ * by a background thread (query() then queryMore() until done) and at most
+ * `maxPages` pages are kept in memory ahead of the caller. The thread uses its
+ * own ZApi (a copy of the given one, same session), so the given ZApi can
+ * still be used by the caller while iterating.
+ *
+ * The iterator can only be consumed once. Call close() to stop the background
+ * fetch when not reading all the records.
+ */
+public class ZQueryIterator implements Iterator<ZObject>, Iterable<ZObject>, Closeable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZQueryIterator.class);
+
+	/** Default number of pages fetched ahead of the caller */
+	public static final int DEFAULT_MAX_PAGES = 2;
+
+	/** Empty page, used before the first page is received */
+	private static final ZObject[] NO_RECORDS = new ZObject[0];
+
+	/** The Zuora API helper used to run the query, only used by the fetcher */
+	private final ZApi zapi;
+
+	/** The ZOQL query string */
+	private final String queryString;
+
+	/** The query options (batch size) sent with each call */
+	private final QueryOptions options;
+
+	/** The pages fetched but not consumed yet */
+	private final BlockingQueue<Page> pages;
+
+	/** The background thread fetching the pages */
+	private final Thread fetcher;
+
+	/** Records of the current page */
+	private ZObject[] records = NO_RECORDS;
+
+	/** Position in the current page */
+	private int index = 0;
+
+	/** True once the last page has been taken from the queue */
+	private boolean lastPage = false;
+
+	/** Total number of records returned so far */
+	private long count = 0;
+
+	/** Set when the iterator is closed by the caller */
+	private volatile boolean closed = false;
+
+	/**
+	 * Instantiates a new query iterator and starts fetching the first page
+	 *
+	 * @param zapi
+	 *            The Zuora API helper (must be logged in), copied for the
+	 *            background thread
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param options
+	 *            The query options, or null to use the server defaults
+	 * @param maxPages
+	 *            Max number of pages kept in memory ahead of the caller
+	 */
+	public ZQueryIterator(ZApi zapi, String queryString, QueryOptions options, int maxPages) {
+
+		this.zapi = zapi.fork();
+		this.queryString = queryString;
+		this.options = options;
+		this.pages = new ArrayBlockingQueue<Page>(Math.max(1, maxPages));
+
+		fetcher = new Thread(new Runnable() {
+			public void run() {
+				fetchPages();
+			}
+		}, "zquery-fetcher");
+		fetcher.setDaemon(true);
+		fetcher.start();
+	}
+
+	/**
+	 * Fetch the pages one after the other, blocking while the queue is full
+	 */
+	private void fetchPages() {
+
+		try {
+			QueryResult result = zapi.zQuery(queryString, options);
+
+			while (!closed) {
+
+				if (result == null) {
+					pages.put(new Page(null, true, "Query failed (see previous error) for `" + queryString + "`"));
+					return;
+				}
+
+				boolean done = result.getDone() || result.getQueryLocator() == null;
+				pages.put(new Page(result.getRecords(), done, null));
+
+				if (done) {
+					return;
+				}
+
+				result = zapi.zQueryMore(result.getQueryLocator().getQueryLocator(), options);
+			}
+
+		} catch (InterruptedException e) {
+			logger.debug("Query fetcher interrupted for `{}`", queryString);
+		}
+	}
+
+	public boolean hasNext() {
+
+		while (index >= records.length) {
+
+			if (lastPage || closed) {
+				return false;
+			}
+
+			Page page;
+			try {
+				page = pages.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next page", e);
+			}
+
+			lastPage = page.last;
+
+			if (page.error != null) {
+				throw new IllegalStateException(page.error);
+			}
+
+			records = page.records != null ? page.records : NO_RECORDS;
+			index = 0;
+		}
+
+		return true;
+	}
+
+	public ZObject next() {
+
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		count++;
+		ZObject record = records[index];
+
+		// Release the reference so consumed records can be garbage collected
+		records[index++] = null;
+
+		return record;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("Records of a query cannot be removed");
+	}
+
+	/**
+	 * Return this iterator, so it can be used in a for-each loop (only once)
+	 */
+	public Iterator<ZObject> iterator() {
+		return this;
+	}
+
+	/**
+	 * Stop fetching the next pages and release the buffered ones
+	 */
+	public void close() {
+
+		closed = true;
+		fetcher.interrupt();
+		pages.clear();
+		records = NO_RECORDS;
+
+		logger.debug("Query iterator closed after {} record(s)", count);
+	}
+
+	/**
+	 * Number of records returned so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * A page of records, or the error that stopped the query
+	 */
+	private static class Page {
+
+		private final ZObject[] records;
+
+		private final boolean last;
+
+		private final String error;
+
+		Page(ZObject[] records, boolean last, String error) {
+			this.records = records;
+			this.last = last;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.zuora.api.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side limiter of the calls sent to Zuora, shared by all the ZApi of
+ * the process (the limits are per tenant):
+ *
+ * - a token bucket caps the number of calls per second (`rate.requestsPerSecond`)
+ * - an AIMD cap limits the number of calls in flight: it grows by one call per
+ * round of successful calls up to `rate.maxConcurrency`, and is halved when
+ * Zuora throttles a call (SERVER_UNAVAILABLE, HTTP 429/503)
+ *
+ * A throttled call is sent again after a jittered exponential delay, at most
+ * `rate.maxRetries` times.
+ */
+public class ZRateLimiter {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZRateLimiter.class);
+
+	/** The Constant PROPERTY_REQUESTS_PER_SECOND. */
+	private static final String PROPERTY_REQUESTS_PER_SECOND = "rate.requestsPerSecond";
+
+	/** The Constant PROPERTY_MAX_CONCURRENCY. */
+	private static final String PROPERTY_MAX_CONCURRENCY = "rate.maxConcurrency";
+
+	/** The Constant PROPERTY_MAX_RETRIES. */
+	private static final String PROPERTY_MAX_RETRIES = "rate.maxRetries";
+
+	/** The Constant PROPERTY_RETRY_DELAY. */
+	private static final String PROPERTY_RETRY_DELAY = "rate.retryDelay";
+
+	/** The Constant PROPERTY_MAX_RETRY_DELAY. */
+	private static final String PROPERTY_MAX_RETRY_DELAY = "rate.maxRetryDelay";
+
+	/** Default max number of calls per second (0 = no limit) */
+	public static final int DEFAULT_REQUESTS_PER_SECOND = 0;
+
+	/** Default max number of calls in flight */
+	public static final int DEFAULT_MAX_CONCURRENCY = 20;
+
+	/** Default max number of times a throttled call is sent again */
+	public static final int DEFAULT_MAX_RETRIES = 5;
+
+	/** Default delay (ms) before the first retry, doubled at each retry */
+	public static final long DEFAULT_RETRY_DELAY = 500;
+
+	/** Default max delay (ms) before a retry */
+	public static final long DEFAULT_MAX_RETRY_DELAY = 30 * 1000;
+
+	/** The shared instance */
+	private static ZRateLimiter instance = null;
+
+	/** Max number of calls per second (0 = no limit) */
+	private final int requestsPerSecond;
+
+	/** Max number of calls in flight */
+	private final int maxConcurrency;
+
+	/** Max number of times a throttled call is sent again */
+	private final int maxRetries;
+
+	/** Delay (ms) before the first retry */
+	private final long retryDelay;
+
+	/** Max delay (ms) before a retry */
+	private final long maxRetryDelay;
+
+	/** Current cap on the calls in flight (AIMD) */
+	private double concurrencyLimit;
+
+	/** Number of calls in flight */
+	private int inFlight = 0;
+
+	/** Tokens left in the bucket, negative when calls are waiting for one */
+	private double tokens;
+
+	/** Last time (ns) the bucket was refilled */
+	private long lastRefill = System.nanoTime();
+
+	/** Last time (ns) the cap was decreased */
+	private long lastDecrease;
+
+	/**
+	 * Instantiates a new limiter
+	 *
+	 * @param requestsPerSecond
+	 *            Max number of calls per second (0 = no limit)
+	 * @param maxConcurrency
+	 *            Max number of calls in flight
+	 * @param maxRetries
+	 *            Max number of times a throttled call is sent again
+	 * @param retryDelay
+	 *            Delay (ms) before the first retry, doubled at each retry
+	 * @param maxRetryDelay
+	 *            Max delay (ms) before a retry
+	 */
+	public ZRateLimiter(int requestsPerSecond, int maxConcurrency, int maxRetries, long retryDelay, long maxRetryDelay) {
+
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Invalid max concurrency: " + maxConcurrency);
+		}
+
+		this.requestsPerSecond = Math.max(0, requestsPerSecond);
+		this.maxConcurrency = maxConcurrency;
+		this.maxRetries = Math.max(0, maxRetries);
+		this.retryDelay = retryDelay;
+		this.maxRetryDelay = Math.max(retryDelay, maxRetryDelay);
+		this.concurrencyLimit = maxConcurrency;
+		this.tokens = this.requestsPerSecond;
+		this.lastDecrease = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(retryDelay);
+	}
+
+	/**
+	 * Get the shared limiter (singleton pattern), configured from the
+	 * config.properties file (`rate.*`)
+	 */
+	public static synchronized ZRateLimiter getInstance() {
+
+		if (instance == null) {
+			instance = new ZRateLimiter(
+					ZuoraUtility.getPropertyValue(PROPERTY_REQUESTS_PER_SECOND, DEFAULT_REQUESTS_PER_SECOND),
+					ZuoraUtility.getPropertyValue(PROPERTY_MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY),
+					ZuoraUtility.getPropertyValue(PROPERTY_MAX_RETRIES, DEFAULT_MAX_RETRIES),
+					ZuoraUtility.getPropertyValue(PROPERTY_RETRY_DELAY, DEFAULT_RETRY_DELAY),
+					ZuoraUtility.getPropertyValue(PROPERTY_MAX_RETRY_DELAY, DEFAULT_MAX_RETRY_DELAY));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Wait for a free slot and a token before sending a call, release() must be
+	 * called once the call is done
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException {
+
+		long wait;
+
+		synchronized (this) {
+			while (inFlight >= (int) concurrencyLimit) {
+				wait();
+			}
+			inFlight++;
+
+			wait = reserveToken();
+		}
+
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				release(false);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Free the slot of a call
+	 *
+	 * @param throttled
+	 *            True if Zuora throttled the call, to decrease the cap on the
+	 *            calls in flight; otherwise it is increased
+	 */
+	public synchronized void release(boolean throttled) {
+
+		inFlight--;
+
+		if (throttled) {
+			long now = System.nanoTime();
+
+			// The calls in flight when the cap was decreased can be throttled
+			// too, only decrease once per retry delay
+			if (now - lastDecrease >= TimeUnit.MILLISECONDS.toNanos(retryDelay)) {
+				lastDecrease = now;
+				concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+				tokens = Math.min(tokens, 0);
+				logger.warn("Throttled by Zuora, max. {} call(s) in flight", (int) concurrencyLimit);
+			}
+
+		} else if (concurrencyLimit < maxConcurrency) {
+			// +1 after a full round of successful calls
+			concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Delay before sending a throttled call again: random between 0 and
+	 * retryDelay * 2^retry (full jitter), so that the retries of the calls
+	 * throttled at the same time do not hit Zuora at the same time again
+	 *
+	 * @param retry
+	 *            Number of the retry (0 for the first one)
+	 * @return The delay (ms)
+	 */
+	public long getRetryDelay(int retry) {
+
+		long delay = retryDelay << Math.min(retry, 20);
+
+		return ThreadLocalRandom.current().nextLong(Math.min(delay, maxRetryDelay) + 1);
+	}
+
+	/**
+	 * Take a token from the bucket
+	 *
+	 * @return The time (ns) to wait for the token
+	 */
+	private long reserveToken() {
+
+		if (requestsPerSecond == 0) {
+			return 0;
+		}
+
+		long now = System.nanoTime();
+
+		// Refill, the bucket holds at most one second of calls
+		tokens = Math.min(requestsPerSecond, tokens + (now - lastRefill) * requestsPerSecond / 1e9);
+		lastRefill = now;
+
+		tokens--;
+
+		return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / requestsPerSecond);
+	}
+
+	// --- Getter(s) ---
+
+	public int getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Current cap on the calls in flight
+	 */
+	public synchronized int getConcurrencyLimit() {
+		return (int) concurrencyLimit;
+	}
+
+	/**
+	 * Number of calls in flight
+	 */
+	public synchronized int getInFlightCount() {
+		return inFlight;
+	}
+}
@@ -0,0 +1,270 @@
+package com.zuora.api.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+
+/**
+ * Cache of the Zuora sessions, shared by all the ZApi of the process: one
+ * session per endpoint and user. The sessions are also keyed by a hash of the
+ * password, so a login with another password never gets a cached session (it
+ * is sent to Zuora).
+ *
+ * Only one login runs at a time for a given endpoint/user, the other threads
+ * wait for it and reuse its session. After `session.refreshAfter` ms the
+ * session is renewed by the next caller, on its own thread before its call
+ * (there is no background renewal), while the others keep using the current
+ * one; after `session.maxAge` ms every caller waits for a new one.
+ */
+public class ZSessionCache {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZSessionCache.class);
+
+	/** The Constant PROPERTY_REFRESH_AFTER. */
+	private static final String PROPERTY_REFRESH_AFTER = "session.refreshAfter";
+
+	/** The Constant PROPERTY_MAX_AGE. */
+	private static final String PROPERTY_MAX_AGE = "session.maxAge";
+
+	/** Default age (ms) after which the next caller renews the session */
+	public static final long DEFAULT_REFRESH_AFTER = 10 * 60 * 1000;
+
+	/** Default age (ms) after which the session is not used anymore */
+	public static final long DEFAULT_MAX_AGE = 15 * 60 * 1000;
+
+	/** The shared instance */
+	private static ZSessionCache instance = null;
+
+	/** The sessions, by endpoint, user and password hash */
+	private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+	/** Age (ms) after which the next caller renews the session */
+	private final long refreshAfter;
+
+	/** Age (ms) after which the session is not used anymore */
+	private final long maxAge;
+
+	/**
+	 * Instantiates a new session cache
+	 *
+	 * @param refreshAfter
+	 *            Age (ms) after which the session is renewed by the next caller
+	 * @param maxAge
+	 *            Age (ms) after which the session is not used anymore
+	 */
+	public ZSessionCache(long refreshAfter, long maxAge) {
+
+		this.refreshAfter = Math.min(refreshAfter, maxAge);
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Get the shared session cache (singleton pattern), configured from the
+	 * config.properties file
+	 */
+	public static synchronized ZSessionCache getInstance() {
+
+		if (instance == null) {
+			instance = new ZSessionCache(ZuoraUtility.getPropertyValue(PROPERTY_REFRESH_AFTER, DEFAULT_REFRESH_AFTER),
+					ZuoraUtility.getPropertyValue(PROPERTY_MAX_AGE, DEFAULT_MAX_AGE));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Get the session for this endpoint/user, logging in if there is none or if
+	 * it is too old
+	 *
+	 * @param endpoint
+	 *            The Zuora endpoint
+	 * @param username
+	 *            Zuora API user
+	 * @param login
+	 *            The login call, only run if a new session is needed
+	 * @return The login result of the session, null if the login failed
+	 */
+	public LoginResult get(String endpoint, String username, Supplier<LoginResult> login) {
+		return get(endpoint, username, null, login);
+	}
+
+	/**
+	 * Overloaded method to specify the password of the login call: a session is
+	 * only reused by the logins with the same password
+	 *
+	 * @param password
+	 *            Zuora API password (only its hash is kept)
+	 */
+	public LoginResult get(String endpoint, String username, String password, Supplier<LoginResult> login) {
+
+		Session session = getSession(endpoint, username, password);
+		long age = session.getAge();
+
+		if (age < refreshAfter) {
+			return session.result;
+		}
+
+		if (age < maxAge) {
+			// Still valid: one caller renews it, the other ones keep using it
+			if (session.refreshing.compareAndSet(false, true)) {
+				try {
+					synchronized (session) {
+						session.update(endpoint, username, login);
+					}
+				} finally {
+					session.refreshing.set(false);
+				}
+			}
+			return session.result;
+		}
+
+		synchronized (session) {
+			// Someone else may have logged in while we were waiting
+			if (session.getAge() >= maxAge) {
+				session.update(endpoint, username, login);
+			}
+			return session.result;
+		}
+	}
+
+	/**
+	 * Get a new session after the server rejected the current one. If another
+	 * thread already renewed it, its session is returned without logging in
+	 * again.
+	 *
+	 * @param endpoint
+	 *            The Zuora endpoint
+	 * @param username
+	 *            Zuora API user
+	 * @param rejectedSession
+	 *            The session rejected by the server
+	 * @param login
+	 *            The login call, only run if a new session is needed
+	 * @return The login result of the new session, null if the login failed
+	 */
+	public LoginResult renew(String endpoint, String username, String rejectedSession, Supplier<LoginResult> login) {
+		return renew(endpoint, username, null, rejectedSession, login);
+	}
+
+	/**
+	 * Overloaded method to specify the password of the login call
+	 *
+	 * @param password
+	 *            Zuora API password (only its hash is kept)
+	 */
+	public LoginResult renew(String endpoint, String username, String password, String rejectedSession,
+			Supplier<LoginResult> login) {
+
+		Session session = getSession(endpoint, username, password);
+
+		synchronized (session) {
+			if (session.result == null || session.result.getSession().equals(rejectedSession)) {
+				logger.info("Session rejected for user `{}`, logging in again", username);
+				session.update(endpoint, username, login);
+			}
+			return session.result;
+		}
+	}
+
+	/**
+	 * Remove the sessions of this endpoint/user (whatever the password)
+	 */
+	public void invalidate(String endpoint, String username) {
+		String prefix = endpoint + "|" + username + "|";
+		sessions.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * Remove all the sessions
+	 */
+	public void clear() {
+		sessions.clear();
+	}
+
+	private Session getSession(String endpoint, String username, String password) {
+
+		String key = key(endpoint, username, password);
+		Session session = sessions.get(key);
+
+		if (session == null) {
+			Session newSession = new Session();
+			session = sessions.putIfAbsent(key, newSession);
+			if (session == null) {
+				session = newSession;
+			}
+		}
+
+		return session;
+	}
+
+	private static String key(String endpoint, String username, String password) {
+		return endpoint + "|" + username + "|" + hash(password);
+	}
+
+	/**
+	 * SHA-256 of the password (hex), empty if none: the passwords are not kept
+	 * in memory by the cache
+	 */
+	private static String hash(String password) {
+
+		if (password == null) {
+			return "";
+		}
+
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * A cached session and the time it was obtained
+	 */
+	private static class Session {
+
+		private volatile LoginResult result;
+
+		private volatile long obtainedAt;
+
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		/**
+		 * Age of the session, or Long.MAX_VALUE if there is none
+		 */
+		long getAge() {
+			return result == null ? Long.MAX_VALUE : System.currentTimeMillis() - obtainedAt;
+		}
+
+		/**
+		 * Log in, keeping the current session if the login fails
+		 */
+		void update(String endpoint, String username, Supplier<LoginResult> login) {
+
+			LoginResult newResult = login.get();
+
+			if (newResult != null) {
+				obtainedAt = System.currentTimeMillis();
+				result = newResult;
+				logger.debug("New session cached for user `{}` on `{}`", username, endpoint);
+			} else {
+				logger.error("Could not get a new session for user `{}` on `{}`", username, endpoint);
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.zuora.api.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import javax.activation.DataSource;
+
+/**
+ * Data source of an MTOM attachment read while it is sent, through a buffer of
+ * BUFFER_SIZE bytes: unlike ByteArrayDataSource, the file is never loaded in
+ * memory, whatever its size.
+ *
+ * A file can be read several times (e.g. when a throttled call is sent again),
+ * a stream or a channel only once.
+ */
+public class ZStreamDataSource implements DataSource {
+
+	/** Size of the read buffer */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The file to read, null for a stream */
+	private final File file;
+
+	/** The stream to read, null once read (or for a file) */
+	private InputStream stream;
+
+	/** The MIME type, e.g. `text/plain;name=usage.csv` */
+	private final String contentType;
+
+	/**
+	 * Instantiates a data source reading a file
+	 *
+	 * @param file
+	 *            The file to send
+	 * @param contentType
+	 *            The MIME type, e.g. `text/plain;name=usage.csv`
+	 */
+	public ZStreamDataSource(File file, String contentType) {
+
+		this.file = file;
+		this.stream = null;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Instantiates a data source reading a channel from its current position
+	 *
+	 * @param channel
+	 *            The channel to send (e.g. FileChannel.open(path))
+	 * @param contentType
+	 *            The MIME type, e.g. `text/plain;name=usage.csv`
+	 */
+	public ZStreamDataSource(FileChannel channel, String contentType) {
+
+		this(Channels.newInputStream(channel), contentType);
+	}
+
+	/**
+	 * Instantiates a data source reading a stream
+	 *
+	 * @param stream
+	 *            The stream to send
+	 * @param contentType
+	 *            The MIME type, e.g. `text/plain;name=usage.csv`
+	 */
+	public ZStreamDataSource(InputStream stream, String contentType) {
+
+		this.file = null;
+		this.stream = stream;
+		this.contentType = contentType;
+	}
+
+	public synchronized InputStream getInputStream() throws IOException {
+
+		if (file != null) {
+			return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		}
+
+		if (stream == null) {
+			throw new IOException("The stream of `" + getName() + "` has already been read");
+		}
+
+		InputStream result = new BufferedInputStream(stream, BUFFER_SIZE);
+		stream = null;
+
+		return result;
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException("Read-only data source");
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getName() {
+		return file != null ? file.getName() : contentType;
+	}
+}
@@ -0,0 +1,237 @@
+package com.zuora.api.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+
+/**
+ * Streaming version of ZBulkApi.zSubscribe(), for a flow of signups: the
+ * requests added are sent by chunks of `batch.subscribe.size` (MAX_OBJECTS
+ * by default), several chunks at the same time, and the handler gets the
+ * result of each request in the order the requests were added.
+ *
+ * `try (ZSubscribeSink sink = new ZSubscribeSink(bulk, (index, request, result) -> ...)) {`
+ * `    for (SubscribeRequest request : orders) sink.add(request);`
+ * `}`
+ *
+ * add() waits when the bulk concurrency is reached (the chunks in flight are
+ * bounded). A chunk whose call failed gives failed results (see
+ * ZBulkApi.zSubscribe()). The handler is called by the threads of the bulk
+ * API, one result at a time; it should not add requests to the same sink.
+ */
+public class ZSubscribeSink implements AutoCloseable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZSubscribeSink.class);
+
+	/** Sends the chunks */
+	private final ZBulkApi bulk;
+
+	/** Gets the results */
+	private final ResultHandler handler;
+
+	/** Number of requests per chunk */
+	private final int batchSize;
+
+	/** The chunks in flight (one permit each) */
+	private final Semaphore inFlight;
+
+	/** The requests of the next chunk */
+	private List<SubscribeRequest> buffer = new ArrayList<SubscribeRequest>();
+
+	/** Index of the next request added */
+	private long added = 0;
+
+	/** The chunks sent whose results were not given to the handler yet, in order */
+	private final Deque<Chunk> chunks = new ArrayDeque<Chunk>();
+
+	private long succeeded = 0;
+
+	private long failed = 0;
+
+	/**
+	 * Instantiates a new sink
+	 *
+	 * @param bulk
+	 *            The bulk API sending the chunks, its concurrency is the max
+	 *            number of chunks in flight
+	 * @param handler
+	 *            Gets the result of each request, in order
+	 */
+	public ZSubscribeSink(ZBulkApi bulk, ResultHandler handler) {
+
+		this.bulk = bulk;
+		this.handler = handler;
+		this.batchSize = ZBatcher.forOperation("subscribe").getBatchSize();
+		this.inFlight = new Semaphore(bulk.getConcurrency());
+	}
+
+	/**
+	 * Add a request, sent with the next full chunk
+	 *
+	 * @return The index of the request (given to the handler with its result)
+	 */
+	public synchronized long add(SubscribeRequest request) throws InterruptedException {
+
+		long index = added++;
+
+		buffer.add(request);
+		if (buffer.size() >= batchSize) {
+			send();
+		}
+
+		return index;
+	}
+
+	/**
+	 * Send the requests added so far, even if the chunk is not full
+	 */
+	public synchronized void flush() throws InterruptedException {
+		if (!buffer.isEmpty()) {
+			send();
+		}
+	}
+
+	/**
+	 * Send the last requests and wait until the handler got all the results
+	 * (returns earlier if the thread is interrupted, with its interrupt flag
+	 * set)
+	 */
+	@Override
+	public void close() {
+
+		try {
+			flush();
+
+			synchronized (chunks) {
+				while (!chunks.isEmpty()) {
+					chunks.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Subscribe sink closed before all the results were given (interrupted)");
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		logger.info("Subscribe sink closed: {} request(s) successful, {} failed", getSucceededCount(),
+				getFailedCount());
+	}
+
+	/**
+	 * Send the buffer as a chunk, once a chunk in flight is done if the
+	 * concurrency is reached
+	 */
+	private void send() throws InterruptedException {
+
+		inFlight.acquire();
+
+		final Chunk chunk = new Chunk(added - buffer.size(),
+				buffer.toArray(new SubscribeRequest[buffer.size()]));
+		buffer = new ArrayList<SubscribeRequest>();
+
+		synchronized (chunks) {
+			chunks.add(chunk);
+		}
+
+		bulk.subscribe(chunk.requests).thenAccept(results -> {
+			inFlight.release();
+			chunk.results = results;
+			deliver();
+		});
+	}
+
+	/**
+	 * Give the results of the chunks done to the handler, in order
+	 */
+	private void deliver() {
+
+		synchronized (chunks) {
+			while (!chunks.isEmpty() && chunks.peek().results != null) {
+				Chunk chunk = chunks.poll();
+
+				for (int i = 0; i < chunk.requests.length; i++) {
+					SubscribeResult result = chunk.results[i];
+					if (result != null && result.getSuccess()) {
+						succeeded++;
+					} else {
+						failed++;
+					}
+
+					try {
+						handler.onResult(chunk.from + i, chunk.requests[i], result);
+					} catch (RuntimeException e) {
+						logger.error("Subscribe result handler failed on request #{} | {}", chunk.from + i, e);
+					}
+				}
+			}
+
+			chunks.notifyAll();
+		}
+	}
+
+	// --- Getter(s) ---
+
+	/**
+	 * Number of requests added
+	 */
+	public synchronized long getAddedCount() {
+		return added;
+	}
+
+	/**
+	 * Number of successful results given to the handler
+	 */
+	public long getSucceededCount() {
+		synchronized (chunks) {
+			return succeeded;
+		}
+	}
+
+	/**
+	 * Number of failed results given to the handler
+	 */
+	public long getFailedCount() {
+		synchronized (chunks) {
+			return failed;
+		}
+	}
+
+	/**
+	 * Gets the result of each request
+	 */
+	public interface ResultHandler {
+
+		/**
+		 * @param index
+		 *            Index of the request (0 for the first one added)
+		 */
+		void onResult(long index, SubscribeRequest request, SubscribeResult result);
+	}
+
+	/**
+	 * A chunk sent, and its results once done
+	 */
+	private static class Chunk {
+
+		/** Index of the first request */
+		private final long from;
+
+		private final SubscribeRequest[] requests;
+
+		private volatile SubscribeResult[] results;
+
+		Chunk(long from, SubscribeRequest[] requests) {
+			this.from = from;
+			this.requests = requests;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package com.zuora.api.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.axis2.databinding.utils.ConverterUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Incremental copy of Zuora objects into a ZLocalStore, for the services
+ * reading the same accounts, subscriptions, invoices, etc. again and again:
+ *
+ * `ZSync sync = new ZSync(pool, new ZLocalStore(new File("mirror")));`
+ * `sync.register("Account", "AccountNumber", "Name", "Status", "Balance");`
+ * `sync.sync();`
+ *
+ * The first sync of a type loads all its objects, the next ones only the
+ * objects updated since the last UpdatedDate seen (the watermark, kept in the
+ * store with the records), read page after page (queryMore) and upserted
+ * page by page. The watermark is only moved once all the pages are stored: a
+ * failed sync is done again from the previous watermark. The objects updated
+ * at the same time as the last ones are read again (>=).
+ *
+ * The objects deleted from Zuora are not seen by the UpdatedDate queries:
+ * reload() a type to remove them.
+ */
+public class ZSync {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZSync.class);
+
+	/** The field of the watermark */
+	public static final String UPDATED_DATE = "UpdatedDate";
+
+	/** The pool of ZApi used to send the queries */
+	private final ZApiPool pool;
+
+	/** The local copy */
+	private final ZLocalStore store;
+
+	/** The fields read, by type */
+	private final Map<String, Map<String, Method>> types = new LinkedHashMap<String, Map<String, Method>>();
+
+	/**
+	 * Instantiates a new sync
+	 *
+	 * @param pool
+	 *            The pool of ZApi used to send the queries (one query per type
+	 *            at the same time)
+	 * @param store
+	 *            The local copy
+	 */
+	public ZSync(ZApiPool pool, ZLocalStore store) {
+		this.pool = pool;
+		this.store = store;
+	}
+
+	/**
+	 * Add a type to sync (Id and UpdatedDate are always read)
+	 *
+	 * @param type
+	 *            Account, Subscription, etc.
+	 * @param fields
+	 *            The fields copied
+	 */
+	public synchronized void register(String type, String... fields) {
+
+		Map<String, Method> getters = new LinkedHashMap<String, Method>();
+
+		try {
+			Class<?> typeClass = Class.forName("com.zuora.api.axis2.ZuoraServiceStub$" + type);
+			getters.put(ZLocalStore.ID, typeClass.getMethod("getId"));
+			getters.put(UPDATED_DATE, typeClass.getMethod("get" + UPDATED_DATE));
+			for (String field : fields) {
+				getters.put(field, typeClass.getMethod("get" + field));
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Unknown type or field: " + type + " " + String.join(", ", fields), e);
+		}
+
+		types.put(type, getters);
+	}
+
+	/**
+	 * Sync all the registered types, at the same time
+	 *
+	 * @return The number of objects read for each type, or null if a type
+	 *         could not be synced (the other ones are)
+	 */
+	public Map<String, Integer> sync() {
+
+		List<String> names;
+		synchronized (this) {
+			names = new ArrayList<String>(types.keySet());
+		}
+		if (names.isEmpty()) {
+			return new LinkedHashMap<String, Integer>();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(names.size());
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (final String type : names) {
+				futures.add(executor.submit(() -> sync(type)));
+			}
+
+			Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+			boolean failed = false;
+			for (int i = 0; i < futures.size(); i++) {
+				Integer count = futures.get(i).get();
+				failed |= count == null;
+				counts.put(names.get(i), count);
+			}
+
+			return failed ? null : counts;
+
+		} catch (ExecutionException e) {
+			logger.error("Could not sync the local store | {}", e.getCause().getMessage());
+			return null;
+
+		} catch (InterruptedException e) {
+			logger.error("Interrupted while syncing the local store");
+			Thread.currentThread().interrupt();
+			return null;
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sync a registered type: the objects updated since its watermark, all
+	 * of them the first time
+	 *
+	 * @return The number of objects read, or null if a query failed or the
+	 *         store could not be written
+	 */
+	public Integer sync(String type) {
+
+		Map<String, Method> getters;
+		synchronized (this) {
+			getters = types.get(type);
+		}
+		if (getters == null) {
+			throw new IllegalArgumentException("Type not registered: " + type);
+		}
+
+		long start = System.currentTimeMillis();
+		String watermark = store.getWatermark(type);
+
+		final String query = "SELECT " + String.join(", ", getters.keySet()) + " FROM " + type
+				+ (watermark != null ? " WHERE " + UPDATED_DATE + " >= '" + watermark + "'" : "");
+
+		Calendar latest = null;
+		int count = 0;
+
+		try {
+			// Not from the query cache: it would hide the objects updated since
+			QueryResult result = pool.execute(zapi -> zapi.zQuery(query, null, false));
+
+			while (result != null) {
+				ZObject[] records = result.getRecords() != null ? result.getRecords() : new ZObject[0];
+
+				List<Map<String, String>> page = new ArrayList<Map<String, String>>(records.length);
+				for (ZObject record : records) {
+					page.add(toRecord(record, getters));
+					Calendar updated = (Calendar) getters.get(UPDATED_DATE).invoke(record);
+					if (updated != null && (latest == null || updated.compareTo(latest) > 0)) {
+						latest = updated;
+					}
+				}
+				store.upsert(type, page);
+				count += records.length;
+
+				if (result.getDone() || result.getQueryLocator() == null) {
+					break;
+				}
+				final String locator = result.getQueryLocator().getQueryLocator();
+				result = pool.execute(zapi -> zapi.zQueryMore(locator));
+			}
+
+			if (result == null) {
+				logger.error("Could not sync {}, query failed (see previous error)", type);
+				return null;
+			}
+
+			if (latest != null) {
+				store.setWatermark(type, ConverterUtil.convertToString(latest));
+			}
+
+		} catch (IOException e) {
+			logger.error("Could not write the {} objects to the local store | {}", type, e.getMessage());
+			return null;
+
+		} catch (ReflectiveOperationException e) {
+			logger.error("Could not read the {} objects | {}", type, e.getMessage());
+			return null;
+		}
+
+		logger.info("{} synced in {} ms: {} object(s) read ({} in the store)", type,
+				System.currentTimeMillis() - start, count, store.size(type));
+
+		return count;
+	}
+
+	/**
+	 * Remove the local copy of a type and load all its objects again
+	 *
+	 * @return The number of objects read, or null if it failed
+	 */
+	public Integer reload(String type) {
+
+		try {
+			store.clear(type);
+		} catch (IOException e) {
+			logger.error("Could not clear the {} objects of the local store | {}", type, e.getMessage());
+			return null;
+		}
+
+		return sync(type);
+	}
+
+	/**
+	 * The fields of an object, as strings (the fields without value are not
+	 * kept)
+	 */
+	private static Map<String, String> toRecord(ZObject object, Map<String, Method> getters)
+			throws ReflectiveOperationException {
+
+		Map<String, String> record = new LinkedHashMap<String, String>();
+
+		for (Map.Entry<String, Method> getter : getters.entrySet()) {
+			Object value = getter.getValue().invoke(object);
+			if (value != null) {
+				record.put(getter.getKey(), toString(value));
+			}
+		}
+
+		return record;
+	}
+
+	private static String toString(Object value) {
+
+		if (value instanceof ID) {
+			return ((ID) value).getID();
+		}
+		if (value instanceof Calendar) {
+			return ConverterUtil.convertToString((Calendar) value);
+		}
+		if (value instanceof Date) {
+			return ConverterUtil.convertToString((Date) value);
+		}
+		if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).toPlainString();
+		}
+
+		return String.valueOf(value);
+	}
+
+	// --- Getter(s) ---
+
+	public ZLocalStore getStore() {
+		return store;
+	}
+}
@@ -0,0 +1,271 @@
+package com.zuora.api.util;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodRetryHandler;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP transport settings of the ZApi stubs: one Axis2 configuration context
+ * and one pool of keep-alive HTTP connections shared by all the stubs created
+ * with the same ZTransport, plus the timeouts and compression options applied
+ * to each stub.
+ */
+public class ZTransport {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZTransport.class);
+
+	/** The Constant PROPERTY_MAX_CONNECTIONS_PER_HOST. */
+	private static final String PROPERTY_MAX_CONNECTIONS_PER_HOST = "http.maxConnectionsPerHost";
+
+	/** The Constant PROPERTY_MAX_TOTAL_CONNECTIONS. */
+	private static final String PROPERTY_MAX_TOTAL_CONNECTIONS = "http.maxTotalConnections";
+
+	/** The Constant PROPERTY_CONNECT_TIMEOUT. */
+	private static final String PROPERTY_CONNECT_TIMEOUT = "http.connectTimeout";
+
+	/** The Constant PROPERTY_READ_TIMEOUT. */
+	private static final String PROPERTY_READ_TIMEOUT = "http.readTimeout";
+
+	/** The Constant PROPERTY_KEEP_ALIVE. */
+	private static final String PROPERTY_KEEP_ALIVE = "http.keepAlive";
+
+	/** The Constant PROPERTY_GZIP. */
+	private static final String PROPERTY_GZIP = "http.gzip";
+
+	/** Default max number of connections to the Zuora host */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+	/** Default max number of connections */
+	public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 50;
+
+	/** Default connect timeout (ms) */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 30 * 1000;
+
+	/** Default read timeout (ms), large queries can take a while */
+	public static final int DEFAULT_READ_TIMEOUT = 10 * 60 * 1000;
+
+	/** Max number of times HttpClient sends a request again */
+	private static final int MAX_RETRIES = 3;
+
+	/**
+	 * Only send a request again if it was not sent (e.g. the connection could
+	 * not be opened): the calls are POST and a create, subscribe or amend sent
+	 * twice could be applied twice. The default handler of HttpClient also
+	 * sends again a request whose connection was closed without a response.
+	 */
+	private static final HttpMethodRetryHandler RETRY_UNSENT = (method, exception,
+			executionCount) -> executionCount <= MAX_RETRIES && !method.isRequestSent();
+
+	/** The transport shared by the ZApi created without one */
+	private static ZTransport defaultTransport = null;
+
+	/** The Axis2 configuration context shared by the stubs */
+	private final ConfigurationContext configurationContext;
+
+	/** The HTTP connections shared by the stubs */
+	private final MultiThreadedHttpConnectionManager connectionManager;
+
+	/** The http sockets, counting the bytes sent and received */
+	private final Protocol http = new Protocol("http", new ZCountingSocketFactory(), 80);
+
+	/** The https sockets, counting the bytes sent and received */
+	private final Protocol https = new Protocol("https", (ProtocolSocketFactory) new ZCountingSocketFactory.Secure(),
+			443);
+
+	/** Connect timeout (ms) */
+	private final int connectTimeout;
+
+	/** Read timeout (ms) */
+	private final int readTimeout;
+
+	/** True to reuse the HTTP connections between calls */
+	private final boolean keepAlive;
+
+	/** True to compress the requests and accept compressed responses */
+	private final boolean gzip;
+
+	/**
+	 * Instantiates a new transport, the settings are read from the
+	 * config.properties file (`http.*`)
+	 */
+	public ZTransport() {
+
+		this(0);
+	}
+
+	/**
+	 * Overloaded constructor to make sure there are at least the given number
+	 * of connections to the Zuora host (e.g. one per thread), the settings are
+	 * read from the config.properties file (`http.*`)
+	 *
+	 * @param minConnectionsPerHost
+	 *            Min value for the max number of connections to the Zuora host
+	 */
+	public ZTransport(int minConnectionsPerHost) {
+
+		this(Math.max(minConnectionsPerHost,
+				ZuoraUtility.getPropertyValue(PROPERTY_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST)),
+				Math.max(minConnectionsPerHost,
+						ZuoraUtility.getPropertyValue(PROPERTY_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_TOTAL_CONNECTIONS)),
+				ZuoraUtility.getPropertyValue(PROPERTY_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT),
+				ZuoraUtility.getPropertyValue(PROPERTY_READ_TIMEOUT, DEFAULT_READ_TIMEOUT),
+				!"false".equalsIgnoreCase(ZuoraUtility.getPropertyValue(PROPERTY_KEEP_ALIVE)),
+				"true".equalsIgnoreCase(ZuoraUtility.getPropertyValue(PROPERTY_GZIP)));
+	}
+
+	/**
+	 * Overloaded constructor to specify all the settings
+	 *
+	 * @param maxConnectionsPerHost
+	 *            Max number of connections to the Zuora host
+	 * @param maxTotalConnections
+	 *            Max number of connections
+	 * @param connectTimeout
+	 *            Connect timeout (ms)
+	 * @param readTimeout
+	 *            Read timeout (ms)
+	 * @param keepAlive
+	 *            True to reuse the HTTP connections between calls
+	 * @param gzip
+	 *            True to compress the requests and accept compressed responses
+	 */
+	public ZTransport(int maxConnectionsPerHost, int maxTotalConnections, int connectTimeout, int readTimeout,
+			boolean keepAlive, boolean gzip) {
+
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.keepAlive = keepAlive;
+		this.gzip = gzip;
+
+		connectionManager = new MultiThreadedHttpConnectionManager();
+
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+		params.setMaxTotalConnections(maxTotalConnections);
+		params.setConnectionTimeout(connectTimeout);
+		params.setSoTimeout(readTimeout);
+		params.setTcpNoDelay(true);
+		// Kept: without it a keep-alive connection closed by the server is only
+		// seen once the request is sent, and a create sent again could be a
+		// duplicate (see RETRY_UNSENT)
+		params.setStaleCheckingEnabled(true);
+
+		try {
+			configurationContext = ConfigurationContextFactory.createConfigurationContextFromFileSystem(null, null);
+		} catch (AxisFault e) {
+			throw new IllegalStateException("Could not create the Axis2 configuration context | " + e.getMessage(), e);
+		}
+
+		// All the stubs of this context use the same HTTP client (and connections)
+		configurationContext.setProperty(HTTPConstants.REUSE_HTTP_CLIENT, Boolean.TRUE);
+		HttpClient client = new HttpClient(connectionManager);
+		client.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, RETRY_UNSENT);
+		configurationContext.setProperty(HTTPConstants.CACHED_HTTP_CLIENT, client);
+
+		logger.debug("HTTP transport created (max. {} connections per host | keep-alive = {} | gzip = {})",
+				maxConnectionsPerHost, keepAlive, gzip);
+	}
+
+	/**
+	 * Get the transport shared by the ZApi created without one (singleton
+	 * pattern)
+	 */
+	public static synchronized ZTransport getDefault() {
+
+		if (defaultTransport == null) {
+			defaultTransport = new ZTransport();
+		}
+
+		return defaultTransport;
+	}
+
+	/**
+	 * Apply the per-call settings to the options of a stub
+	 *
+	 * @param options
+	 *            The options of the stub service client
+	 */
+	public void configure(Options options) {
+
+		options.setTimeOutInMilliSeconds(readTimeout);
+		options.setProperty(HTTPConstants.SO_TIMEOUT, readTimeout);
+		options.setProperty(HTTPConstants.CONNECTION_TIMEOUT, connectTimeout);
+
+		// HTTP/1.0 closes the connection after each call
+		options.setProperty(HTTPConstants.HTTP_PROTOCOL_VERSION,
+				keepAlive ? HTTPConstants.HEADER_PROTOCOL_11 : HTTPConstants.HEADER_PROTOCOL_10);
+
+		if (gzip) {
+			options.setProperty(HTTPConstants.MC_GZIP_REQUEST, Boolean.TRUE);
+			options.setProperty(HTTPConstants.MC_ACCEPT_GZIP, Boolean.TRUE);
+		}
+
+		// Release the HTTP connection after each call so it can be reused
+		options.setCallTransportCleanup(true);
+
+		// Count the bytes of each call (see ZApiMetrics)
+		String address = options.getTo() != null ? options.getTo().getAddress() : null;
+		if (address != null) {
+			options.setProperty(HTTPConstants.CUSTOM_PROTOCOL_HANDLER, address.startsWith("https:") ? https : http);
+		}
+	}
+
+	/**
+	 * Close the idle connections (e.g. from a scheduled task)
+	 *
+	 * @param idleTime
+	 *            Min idle time (ms) of the connections to close
+	 */
+	public void closeIdleConnections(long idleTime) {
+		connectionManager.closeIdleConnections(idleTime);
+	}
+
+	/**
+	 * Close all the connections, the stubs of this transport cannot be used
+	 * anymore
+	 */
+	public void shutdown() {
+		connectionManager.shutdown();
+	}
+
+	// --- Getter(s) ---
+
+	public ConfigurationContext getConfigurationContext() {
+		return configurationContext;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	/**
+	 * Number of connections currently open (idle or in use)
+	 */
+	public int getConnectionsInPool() {
+		return connectionManager.getConnectionsInPool();
+	}
+}
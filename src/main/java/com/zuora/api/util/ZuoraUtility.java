@@ -4,12 +4,31 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
+import org.apache.axis2.AxisFault;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.zuora.api.axis2.InvalidQueryLocatorFault;
+import com.zuora.api.axis2.InvalidTypeFault;
+import com.zuora.api.axis2.InvalidValueFault;
+import com.zuora.api.axis2.LoginFault;
+import com.zuora.api.axis2.MalformedQueryFault;
+import com.zuora.api.axis2.UnexpectedErrorFault;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ApiFault;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
 import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
 import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
 
 public class ZuoraUtility {
@@ -20,6 +39,17 @@ public class ZuoraUtility {
 	/** Filename for properties file. */
 	private static final String FILE_PROPERTY_NAME = "config.properties";
 
+	/** The error of a failed result without details */
+	private static final com.zuora.api.axis2.ZuoraServiceStub.Error[] NO_ERROR = { new com.zuora.api.axis2.ZuoraServiceStub.Error() };
+
+	/** The Zuora error codes of the objects (or calls) worth sending again */
+	private static final Set<String> RETRYABLE_ERRORS = new HashSet<String>(Arrays.asList("SERVER_UNAVAILABLE",
+			"UNKNOWN_ERROR", "TRANSACTION_FAILED", "BATCH_FAIL_ERROR", "INVALID_SESSION"));
+
+	/** The error codes proving that nothing was written (call rejected or batch rolled back) */
+	private static final Set<String> NOT_WRITTEN_ERRORS = new HashSet<String>(Arrays.asList("THROTTLED",
+			"SERVER_UNAVAILABLE", "BATCH_FAIL_ERROR", "INVALID_SESSION"));
+
 	/** The properties, loaded from the file. */
 	private static Properties properties = null;
 
@@ -44,21 +74,21 @@ public class ZuoraUtility {
 
 		try {
 			properties.load(is);
-			logger.info("Properties successfully loaded from `" + FILE_PROPERTY_NAME + "`");
+			logger.info("Properties successfully loaded from `{}`", FILE_PROPERTY_NAME);
 
 		} catch (IOException e) {
-			logger.error("Error loading properties file | " + e.getMessage());
+			logger.error("Error loading properties file | {}", e.getMessage());
 
 		} catch (NullPointerException e) {
-			logger.error("Error loading properties file (null pointer exception while loading properties) | "
-					+ e.getMessage());
+			logger.error("Error loading properties file (null pointer exception while loading properties) | {}",
+					e.getMessage());
 		} finally {
 			// Close the resource
 			if (is != null) {
 				try {
 					is.close();
 				} catch (IOException e) {
-					logger.error("Could close the ressource | " + e.getMessage());
+					logger.error("Could close the ressource | {}", e.getMessage());
 				}
 			}
 		}
@@ -86,20 +116,51 @@ public class ZuoraUtility {
 
 		return getProperties().getProperty(propertyName);
 	}
+
+
+	/**
+	 * Get a property value as an integer, or the default value if not set.
+	 */
+	public static int getPropertyValue(String propertyName, int defaultValue) {
+
+		return (int) getPropertyValue(propertyName, (long) defaultValue);
+	}
+
+
+	/**
+	 * Get a property value as a long, or the default value if not set.
+	 */
+	public static long getPropertyValue(String propertyName, long defaultValue) {
+
+		String value = getPropertyValue(propertyName);
+
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for `{}`: {}, using {}", propertyName, value, defaultValue);
+			return defaultValue;
+		}
+	}
 	
 	
 	/**
-	 * Split object in tab of 50
+	 * Split object in tab of 50 (the last one with the remaining objects)
+	 * 
+	 * @deprecated Use ZBatcher, which also supports other batch sizes and a
+	 *             max payload
 	 */
+	@Deprecated
 	public static ZObject[][] splitObjects(ZObject[] objects) {
 
-		int n = objects.length / ZApi.MAX_OBJECTS + 1;
+		List<ZBatcher.Batch> batches = new ZBatcher(ZApi.MAX_OBJECTS).split(objects.length);
 
-		ZObject[][] returnedObjects = new ZObject[n][ZApi.MAX_OBJECTS];
-
-		for (int i = 0; i < objects.length; i++) {
-			int j = i / ZApi.MAX_OBJECTS;
-			returnedObjects[j][i % ZApi.MAX_OBJECTS] = objects[i];
+		ZObject[][] returnedObjects = new ZObject[batches.size()][];
+		for (int i = 0; i < returnedObjects.length; i++) {
+			returnedObjects[i] = batches.get(i).of(objects);
 		}
 
 		return returnedObjects;
@@ -107,17 +168,18 @@ public class ZuoraUtility {
 
 	
 	/**
-	 * Split string in tab of 50
+	 * Split string in tab of 50 (the last one with the remaining IDs)
+	 * 
+	 * @deprecated Use ZBatcher
 	 */
+	@Deprecated
 	public static String[][] splitIds(String[] ids) {
 
-		int n = ids.length / ZApi.MAX_OBJECTS + 1;
-
-		String[][] returnedIds = new String[n][ZApi.MAX_OBJECTS];
+		List<ZBatcher.Batch> batches = new ZBatcher(ZApi.MAX_OBJECTS).split(ids.length);
 
-		for (int i = 0; i < ids.length; i++) {
-			int j = i / ZApi.MAX_OBJECTS;
-			returnedIds[j][i % ZApi.MAX_OBJECTS] = ids[i];
+		String[][] returnedIds = new String[batches.size()][];
+		for (int i = 0; i < returnedIds.length; i++) {
+			returnedIds[i] = batches.get(i).of(ids);
 		}
 
 		return returnedIds;
@@ -139,4 +201,240 @@ public class ZuoraUtility {
 		
 		return zuoraIds;
 	}
+	
+	
+	/**
+	 * Get the Zuora error code (INVALID_SESSION, SERVER_UNAVAILABLE, etc.) of
+	 * a fault, or null if unknown
+	 */
+	public static String getFaultCode(Exception e) {
+
+		ApiFault fault = null;
+
+		try {
+			if (e instanceof UnexpectedErrorFault) {
+				fault = ((UnexpectedErrorFault) e).getFaultMessage().getUnexpectedErrorFault();
+			} else if (e instanceof InvalidTypeFault) {
+				fault = ((InvalidTypeFault) e).getFaultMessage().getInvalidTypeFault();
+			} else if (e instanceof InvalidValueFault) {
+				fault = ((InvalidValueFault) e).getFaultMessage().getInvalidValueFault();
+			} else if (e instanceof MalformedQueryFault) {
+				fault = ((MalformedQueryFault) e).getFaultMessage().getMalformedQueryFault();
+			} else if (e instanceof InvalidQueryLocatorFault) {
+				fault = ((InvalidQueryLocatorFault) e).getFaultMessage().getInvalidQueryLocatorFault();
+			} else if (e instanceof LoginFault) {
+				fault = ((LoginFault) e).getFaultMessage().getLoginFault();
+			} else if (e instanceof AxisFault && ((AxisFault) e).getFaultCode() != null) {
+				return ((AxisFault) e).getFaultCode().getLocalPart();
+			}
+		} catch (NullPointerException npe) {
+			// Fault without detail
+			return null;
+		}
+
+		if (fault == null || fault.getFaultCode() == null) {
+			return null;
+		}
+
+		return fault.getFaultCode().getValue();
+	}
+
+
+	/**
+	 * True if Zuora rejected the call because it is overloaded or because of
+	 * the tenant limits (the call was not processed and can be sent again)
+	 */
+	public static boolean isThrottled(Exception e) {
+
+		if ("SERVER_UNAVAILABLE".equals(getFaultCode(e))) {
+			return true;
+		}
+
+		// HTTP error, e.g. "Transport error: 503 Error: Service Unavailable"
+		String message = e.getMessage();
+
+		return e instanceof AxisFault && message != null
+				&& (message.contains("Transport error: 429") || message.contains("Transport error: 503"));
+	}
+
+
+	/**
+	 * True if an object (or a call) failing with this error code may succeed
+	 * when sent again: Zuora overloaded or throttling, transaction rolled back
+	 * because of another object of the batch, session expired or transport
+	 * error (IOException, etc.). The other Zuora error codes (INVALID_VALUE,
+	 * DUPLICATE_VALUE, etc.) need the object to be fixed first.
+	 * 
+	 * @param code
+	 *            A Zuora error code, or a fault code given by
+	 *            ZApi.getLastFault(), null if unknown
+	 */
+	public static boolean isRetryable(String code) {
+		return isRetryable(code, true);
+	}
+
+	/**
+	 * Overloaded method for the writes which must not be applied twice (a
+	 * create sent again makes a duplicate): if not idempotent, only the codes
+	 * proving that nothing was written are retryable (THROTTLED,
+	 * SERVER_UNAVAILABLE, BATCH_FAIL_ERROR, INVALID_SESSION). A timeout or an
+	 * UNKNOWN_ERROR may come after Zuora committed the objects.
+	 * 
+	 * @param idempotent
+	 *            True if sending the object twice has the same effect as once
+	 *            (update, delete)
+	 */
+	public static boolean isRetryable(String code, boolean idempotent) {
+
+		if (!idempotent) {
+			return code != null && NOT_WRITTEN_ERRORS.contains(code);
+		}
+
+		if (code == null || RETRYABLE_ERRORS.contains(code)) {
+			return true;
+		}
+
+		try {
+			return ErrorCode.Factory.fromValue(code) == null;
+		} catch (IllegalArgumentException e) {
+			// Not a Zuora error: THROTTLED, SocketTimeoutException, etc.
+			return true;
+		}
+	}
+
+
+	/**
+	 * One line summing up the failed results of a call, the errors grouped by
+	 * code and field, e.g. `create: 3 of 50 object(s) failed | INVALID_VALUE on
+	 * Name x2 (first #4: The length of field value is too long.) | ...`
+	 * 
+	 * @return The summary, null if all the results are successful
+	 */
+	public static String summarizeErrors(String operation, SaveResult[] results) {
+
+		com.zuora.api.axis2.ZuoraServiceStub.Error[][] errors = new com.zuora.api.axis2.ZuoraServiceStub.Error[results.length][];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null && !results[i].getSuccess()) {
+				errors[i] = results[i].getErrors() != null ? results[i].getErrors() : NO_ERROR;
+			}
+		}
+
+		return summarizeErrors(operation, errors);
+	}
+
+	/**
+	 * Same for the results of a delete
+	 */
+	public static String summarizeErrors(String operation, DeleteResult[] results) {
+
+		com.zuora.api.axis2.ZuoraServiceStub.Error[][] errors = new com.zuora.api.axis2.ZuoraServiceStub.Error[results.length][];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null && !results[i].getSuccess()) {
+				errors[i] = results[i].getErrors() != null ? results[i].getErrors() : NO_ERROR;
+			}
+		}
+
+		return summarizeErrors(operation, errors);
+	}
+
+	/**
+	 * Same for the results of a subscribe
+	 */
+	public static String summarizeErrors(String operation, SubscribeResult[] results) {
+
+		com.zuora.api.axis2.ZuoraServiceStub.Error[][] errors = new com.zuora.api.axis2.ZuoraServiceStub.Error[results.length][];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null && !results[i].getSuccess()) {
+				errors[i] = results[i].getErrors() != null ? results[i].getErrors() : NO_ERROR;
+			}
+		}
+
+		return summarizeErrors(operation, errors);
+	}
+
+	/**
+	 * Same for the results of an amend
+	 */
+	public static String summarizeErrors(String operation, AmendResult[] results) {
+
+		com.zuora.api.axis2.ZuoraServiceStub.Error[][] errors = new com.zuora.api.axis2.ZuoraServiceStub.Error[results.length][];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null && !results[i].getSuccess()) {
+				errors[i] = results[i].getErrors() != null ? results[i].getErrors() : NO_ERROR;
+			}
+		}
+
+		return summarizeErrors(operation, errors);
+	}
+
+	/**
+	 * The error of a request whose call failed (no result from Zuora): the
+	 * fault code if it is a Zuora error code, UNKNOWN_ERROR otherwise (the
+	 * fault in the message)
+	 * 
+	 * @param fault
+	 *            The fault of the call (see ZApi.getLastFault()), can be null
+	 */
+	public static com.zuora.api.axis2.ZuoraServiceStub.Error[] toErrors(String fault) {
+
+		com.zuora.api.axis2.ZuoraServiceStub.Error error = new com.zuora.api.axis2.ZuoraServiceStub.Error();
+		ErrorCode code;
+		try {
+			code = fault != null ? ErrorCode.Factory.fromValue(fault) : ErrorCode.UNKNOWN_ERROR;
+		} catch (IllegalArgumentException e) {
+			code = ErrorCode.UNKNOWN_ERROR;
+		}
+		error.setCode(code);
+		error.setMessage("Call failed: " + fault);
+
+		return new com.zuora.api.axis2.ZuoraServiceStub.Error[] { error };
+	}
+
+	/**
+	 * @param errors
+	 *            The errors of each object, null if it succeeded
+	 */
+	private static String summarizeErrors(String operation, com.zuora.api.axis2.ZuoraServiceStub.Error[][] errors) {
+
+		int failed = 0;
+
+		// code + field -> {count, index of the first object}, and its message
+		Map<String, int[]> groups = new LinkedHashMap<String, int[]>();
+		Map<String, String> messages = new LinkedHashMap<String, String>();
+
+		for (int i = 0; i < errors.length; i++) {
+			if (errors[i] == null) {
+				continue;
+			}
+			failed++;
+
+			for (com.zuora.api.axis2.ZuoraServiceStub.Error error : errors[i]) {
+				String key = (error.getCode() != null ? error.getCode().getValue() : "UNKNOWN")
+						+ (error.getField() != null ? " on " + error.getField() : "");
+
+				int[] group = groups.get(key);
+				if (group == null) {
+					groups.put(key, new int[] { 1, i });
+					messages.put(key, error.getMessage());
+				} else {
+					group[0]++;
+				}
+			}
+		}
+
+		if (failed == 0) {
+			return null;
+		}
+
+		StringBuilder summary = new StringBuilder();
+		summary.append(operation).append(": ").append(failed).append(" of ").append(errors.length)
+				.append(" object(s) failed");
+
+		for (Map.Entry<String, int[]> group : groups.entrySet()) {
+			summary.append(" | ").append(group.getKey()).append(" x").append(group.getValue()[0]).append(" (first #")
+					.append(group.getValue()[1]).append(": ").append(messages.get(group.getKey())).append(")");
+		}
+
+		return summary.toString();
+	}
 }
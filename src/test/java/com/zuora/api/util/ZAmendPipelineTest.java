@@ -0,0 +1,243 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Subscription;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscriptionData;
+
+public class ZAmendPipelineTest {
+
+	private static final int NB_SUBSCRIPTIONS = 60;
+
+	private static final int NB_AMENDMENTS = 4;
+
+	private static final String UNKNOWN_ID = "2c92c0f84b0000000000000000000000";
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZBulkApi bulk;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "amend@zuora.com", "secret", 0, 4, 60000, 10000);
+		bulk = new ZBulkApi(pool, 3);
+	}
+
+	@After
+	public void tearDown() {
+		bulk.shutdown();
+		pool.close();
+		server.stop();
+	}
+
+	@Test
+	public void testAmendmentsInOrderPerSubscription() throws Exception {
+
+		List<String> subscriptionIds = subscribe(NB_SUBSCRIPTIONS);
+
+		// The batches are done out of order
+		server.setLatency(0, 30);
+
+		final Map<String, List<Integer>> applied = new HashMap<String, List<Integer>>();
+		final List<Long> failed = Collections.synchronizedList(new ArrayList<Long>());
+
+		try (ZAmendPipeline pipeline = new ZAmendPipeline(bulk, (index, request, result) -> {
+			if (!result.getSuccess()) {
+				failed.add(index);
+				return;
+			}
+			Amendment amendment = request.getAmendments()[0];
+			String[] name = amendment.getName().split("#");
+			synchronized (applied) {
+				applied.computeIfAbsent(name[0], k -> new ArrayList<Integer>()).add(Integer.valueOf(name[1]));
+			}
+		}, 50)) {
+			// All the amendments use the ID of version 1
+			for (int step = 0; step < NB_AMENDMENTS; step++) {
+				for (String subscriptionId : subscriptionIds) {
+					pipeline.submit(request(subscriptionId, step));
+				}
+			}
+		}
+
+		Assert.assertEquals(Collections.emptyList(), failed);
+		Assert.assertEquals(NB_SUBSCRIPTIONS, applied.size());
+		for (String subscriptionId : subscriptionIds) {
+			Assert.assertEquals(Arrays.asList(0, 1, 2, 3), applied.get(subscriptionId));
+		}
+
+		Assert.assertEquals(NB_SUBSCRIPTIONS * NB_AMENDMENTS, server.count("Amendment"));
+		Assert.assertEquals(NB_SUBSCRIPTIONS * (NB_AMENDMENTS + 1), server.count("Subscription"));
+
+		QueryResult active = pool.execute(zapi -> zapi
+				.zQuery("SELECT Id, Version FROM Subscription WHERE Status = 'Active'"));
+		Assert.assertEquals(NB_SUBSCRIPTIONS, active.getSize());
+		for (int i = 0; i < active.getRecords().length; i++) {
+			Assert.assertEquals(NB_AMENDMENTS + 1, ((Subscription) active.getRecords()[i]).getVersion());
+		}
+
+		// Batched across subscriptions
+		Assert.assertTrue(server.getCallCount("amend") < NB_SUBSCRIPTIONS * NB_AMENDMENTS / 2);
+	}
+
+	@Test
+	public void testFailedAmendmentStopsItsSubscription() throws Exception {
+
+		List<String> subscriptionIds = subscribe(2);
+
+		final Map<Long, String> errors = new HashMap<Long, String>();
+		long first;
+		long next;
+		long other;
+
+		try (ZAmendPipeline pipeline = new ZAmendPipeline(bulk, (index, request, result) -> {
+			synchronized (errors) {
+				errors.put(index, result.getSuccess() ? null : result.getErrors()[0].getCode().getValue());
+			}
+		})) {
+			first = pipeline.submit(request(UNKNOWN_ID, 0));
+			next = pipeline.submit(request(UNKNOWN_ID, 1));
+			other = pipeline.submit(request(subscriptionIds.get(0), 0));
+			pipeline.submit(request(subscriptionIds.get(0), 1));
+			pipeline.submit(request(subscriptionIds.get(1), 0));
+		}
+
+		Assert.assertEquals(5, errors.size());
+		Assert.assertEquals("INVALID_ID", errors.get(first));
+		Assert.assertEquals("INVALID_VALUE", errors.get(next));
+		Assert.assertNull(errors.get(other));
+		Assert.assertEquals(3, server.count("Amendment"));
+	}
+
+	@Test
+	public void testNothingSentAfterFailure() throws Exception {
+
+		final Map<Long, String> errors = new HashMap<Long, String>();
+
+		try (ZAmendPipeline pipeline = new ZAmendPipeline(bulk, (index, request, result) -> {
+			synchronized (errors) {
+				errors.put(index, result.getSuccess() ? null : result.getErrors()[0].getCode().getValue());
+			}
+		})) {
+			pipeline.submit(request(UNKNOWN_ID, 0));
+			// Submitted once the first one failed (its queue is empty)
+			while (pipeline.getPendingCount() > 0) {
+				Thread.sleep(10);
+			}
+			pipeline.submit(request(UNKNOWN_ID, 1));
+		}
+
+		Assert.assertEquals("INVALID_ID", errors.get(0L));
+		Assert.assertEquals("INVALID_VALUE", errors.get(1L));
+		Assert.assertEquals(1, server.getCallCount("amend"));
+	}
+
+	@Test
+	public void testSubmitWhileInFlight() throws Exception {
+
+		List<String> subscriptionIds = subscribe(4);
+		server.setLatency(1, 5);
+
+		final Map<String, List<Integer>> applied = new HashMap<String, List<Integer>>();
+		final List<Long> failed = Collections.synchronizedList(new ArrayList<Long>());
+
+		try (ZAmendPipeline pipeline = new ZAmendPipeline(bulk, (index, request, result) -> {
+			if (!result.getSuccess()) {
+				failed.add(index);
+				return;
+			}
+			String[] name = request.getAmendments()[0].getName().split("#");
+			synchronized (applied) {
+				applied.computeIfAbsent(name[0], k -> new ArrayList<Integer>()).add(Integer.valueOf(name[1]));
+			}
+		})) {
+			// Each request is queued while the previous one of its subscription is in flight
+			for (int step = 0; step < 25; step++) {
+				for (String subscriptionId : subscriptionIds) {
+					pipeline.submit(request(subscriptionId, step));
+				}
+				Thread.sleep(1);
+			}
+		}
+
+		Assert.assertEquals(Collections.emptyList(), failed);
+		for (String subscriptionId : subscriptionIds) {
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int step = 0; step < 25; step++) {
+				expected.add(step);
+			}
+			Assert.assertEquals(expected, applied.get(subscriptionId));
+		}
+		Assert.assertEquals(4 * 25, server.count("Amendment"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRequestWithoutSubscription() throws Exception {
+
+		try (ZAmendPipeline pipeline = new ZAmendPipeline(bulk, (index, request, result) -> {
+		})) {
+			AmendRequest request = new AmendRequest();
+			request.setAmendments(new Amendment[] { new Amendment() });
+			pipeline.submit(request);
+		}
+	}
+
+	private List<String> subscribe(int count) {
+
+		SubscribeRequest[] requests = new SubscribeRequest[count];
+		for (int i = 0; i < count; i++) {
+			Account account = new Account();
+			account.setName("Amend Test Account " + i);
+
+			SubscriptionData data = new SubscriptionData();
+			data.setSubscription(new Subscription());
+
+			requests[i] = new SubscribeRequest();
+			requests[i].setAccount(account);
+			requests[i].setSubscriptionData(data);
+		}
+
+		List<String> subscriptionIds = new ArrayList<String>();
+		for (SubscribeResult result : bulk.zSubscribe(requests)) {
+			Assert.assertTrue(result.getSuccess());
+			subscriptionIds.add(result.getSubscriptionId().getID());
+		}
+
+		return subscriptionIds;
+	}
+
+	private static AmendRequest request(String subscriptionId, int step) {
+
+		ID id = new ID();
+		id.setID(subscriptionId);
+
+		Amendment amendment = new Amendment();
+		amendment.setName(subscriptionId + "#" + step);
+		amendment.setType("TermsAndConditions");
+		amendment.setSubscriptionId(id);
+
+		AmendRequest request = new AmendRequest();
+		request.setAmendments(new Amendment[] { amendment });
+
+		return request;
+	}
+}
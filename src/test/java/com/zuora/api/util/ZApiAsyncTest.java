@@ -0,0 +1,102 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZApiAsyncTest {
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZApiAsync zapi;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "async@zuora.com", "secret", 0, 2, 60000, 10000);
+		zapi = new ZApiAsync(pool, 2, null);
+		zapi.login().join();
+	}
+
+	@After
+	public void tearDown() {
+		zapi.shutdown();
+		pool.close();
+		server.stop();
+	}
+
+	@Test
+	public void testQueriesInParallel() {
+
+		// More queries than calls in flight, some of them wait in the queue
+		List<CompletableFuture<QueryResult>> futures = new ArrayList<CompletableFuture<QueryResult>>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(zapi.query("SELECT AccountNumber FROM Account WHERE Id = 'dummyId'"));
+		}
+
+		for (CompletableFuture<QueryResult> future : futures) {
+			Assert.assertEquals(0, future.join().getSize());
+		}
+		Assert.assertEquals(5, server.getCallCount("query"));
+	}
+
+	@Test
+	public void updateWithError() {
+
+		// The mock server accepts any account created, not an unknown ID
+		ID id = new ID();
+		id.setID("2c92c0f84b0000000000000000000000");
+
+		Account account = new Account();
+		account.setId(id);
+		account.setName("Dummy account");
+
+		SaveResult[] result = zapi.update(new ZObject[] { account }).join();
+
+		// Make sure the result throw an error
+		Assert.assertFalse(result[0].getSuccess());
+	}
+
+	@Test
+	public void testErrorFailsTheFuture() throws Exception {
+
+		// An Error (not an Exception) thrown while sending the call
+		Account account = new Account() {
+			@Override
+			public void serialize(QName parentQName, XMLStreamWriter xmlWriter, boolean serializeType) {
+				throw new AssertionError("Not serializable");
+			}
+		};
+
+		try {
+			zapi.create(new ZObject[] { account }).get(10, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof AssertionError);
+		}
+
+		// The slot is released after the future is completed
+		long deadline = System.currentTimeMillis() + 10000;
+		while (zapi.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, zapi.getInFlightCount());
+	}
+}
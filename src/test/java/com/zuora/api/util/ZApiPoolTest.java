@@ -0,0 +1,91 @@
+package com.zuora.api.util;
+
+import java.util.NoSuchElementException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+
+public class ZApiPoolTest {
+
+	private ZMockServer server;
+	private ZApiPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "pool@zuora.com", "secret", 0, 2, 60000, 10000);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+		server.stop();
+	}
+
+	@Test
+	public void testSharedSession() {
+
+		ZApi first = pool.borrow();
+		ZApi second = pool.borrow();
+
+		// Two different stubs, one single session
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(first.getHeader().getSession(), second.getHeader().getSession());
+		Assert.assertEquals(2, pool.getActiveCount());
+
+		pool.release(first);
+		pool.release(second);
+		Assert.assertEquals(0, pool.getActiveCount());
+		Assert.assertEquals(1, server.getCallCount("login"));
+	}
+
+	@Test
+	public void testExecute() {
+
+		QueryResult queryResult = pool.execute(zapi -> zapi
+				.zQuery("SELECT AccountNumber FROM Account WHERE Id = 'dummyId'"));
+		Assert.assertEquals(0, queryResult.getSize());
+	}
+
+	@Test
+	public void testLoginWithinMaxSize() {
+
+		for (int i = 0; i < 5; i++) {
+			Assert.assertNotNull(pool.login());
+		}
+		Assert.assertEquals(1, pool.getSize());
+		Assert.assertEquals(1, pool.getIdleCount());
+		Assert.assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testFailedLoginNotPooled() {
+
+		server.addUser("pool@zuora.com", "secret");
+		ZApiPool wrong = new ZApiPool(server.getEndpoint(), "pool@zuora.com", "WRONG", 0, 2, 60000, 100);
+		try {
+			Assert.assertNull(wrong.login());
+			Assert.assertEquals(0, wrong.getSize());
+			Assert.assertEquals(0, wrong.getIdleCount());
+		} finally {
+			wrong.close();
+		}
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testBorrowTimeout() {
+
+		ZApiPool small = new ZApiPool(server.getEndpoint(), "pool@zuora.com", "secret", 0, 1, 60000, 100);
+		try {
+			small.borrow();
+			small.borrow();
+		} finally {
+			small.close();
+		}
+	}
+}
@@ -43,6 +43,20 @@ public class ZApiTest {
 		Assert.assertEquals(queryResult.getSize(), 0);
 	}
 
+	@Test
+	public void testZQueryIterator() {
+		zapi.zLogin();
+		QueryResult queryResult = zapi.zQuery("SELECT Id FROM Account");
+
+		// Small batches to go through several queryMore() calls
+		ZQueryIterator iterator = zapi.zQueryIterator("SELECT Id FROM Account", 10);
+		for (ZObject obj : iterator) {
+			Assert.assertNotNull(obj.getId());
+		}
+
+		Assert.assertEquals(queryResult.getSize(), iterator.getCount());
+	}
+
 	@Test
 	public void createWithError() {
 
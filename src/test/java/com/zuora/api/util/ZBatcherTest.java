@@ -0,0 +1,118 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZBatcherTest {
+
+	@Test
+	public void testExactBatches() {
+
+		ZBatcher batcher = new ZBatcher(ZApi.MAX_OBJECTS);
+
+		Assert.assertTrue(batcher.split(0).isEmpty());
+		Assert.assertEquals("[[0, 1)]", batcher.split(1).toString());
+		Assert.assertEquals("[[0, 50), [50, 100)]", batcher.split(100).toString());
+		Assert.assertEquals("[[0, 50), [50, 100), [100, 101)]", batcher.split(101).toString());
+
+		// Not more than the API allows
+		Assert.assertEquals(ZApi.MAX_OBJECTS, new ZBatcher(500).getBatchSize());
+		Assert.assertEquals("[[0, 20), [20, 40), [40, 45)]", new ZBatcher(20).split(45).toString());
+
+		// No copy when one batch covers the input
+		String[] ids = new String[] { "a", "b", "c" };
+		Assert.assertSame(ids, batcher.split(ids.length).get(0).of(ids));
+		Assert.assertEquals("[c]", new ZBatcher(2).split(ids.length).get(1).view(ids).toString());
+	}
+
+	@Test
+	public void testSplitByPayload() {
+
+		ZObject[] accounts = new ZObject[10];
+		for (int i = 0; i < accounts.length; i++) {
+			Account account = new Account();
+			account.setName(i == 3 ? new String(new char[1000]).replace('\0', 'x') : "Account " + i);
+			accounts[i] = account;
+		}
+
+		long small = ZBatcher.getSerializedSize(accounts[0]);
+		long large = ZBatcher.getSerializedSize(accounts[3]);
+		Assert.assertTrue(large > 1000 && small < 200);
+
+		// 3 small ones per batch, the large one alone
+		List<ZBatcher.Batch> batches = new ZBatcher(ZApi.MAX_OBJECTS, 3 * small).split(accounts);
+		Assert.assertEquals("[[0, 3), [3, 4), [4, 7), [7, 10)]", batches.toString());
+
+		// Both limits
+		batches = new ZBatcher(2, 3 * small).split(accounts);
+		Assert.assertEquals("[[0, 2), [2, 3), [3, 4), [4, 6), [6, 8), [8, 10)]", batches.toString());
+	}
+
+	@Test
+	public void testNoEmptyChunk() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+
+		try {
+			ZApi zapi = new ZApi(server.getEndpoint());
+			zapi.zLogin("batcher@zuora.com", "secret");
+
+			ZObject[] accounts = new ZObject[2 * ZApi.MAX_OBJECTS];
+			for (int i = 0; i < accounts.length; i++) {
+				Account account = new Account();
+				account.setName("Batch Test Account " + i);
+				accounts[i] = account;
+			}
+
+			SaveResult[] results = zapi.zCreate(accounts);
+			Assert.assertEquals(accounts.length, results.length);
+			Assert.assertEquals(2, server.getCallCount("create"));
+
+			zapi.setBatcher("update", new ZBatcher(30));
+			for (int i = 0; i < accounts.length; i++) {
+				accounts[i].setId(results[i].getId());
+			}
+			results = zapi.zUpdate(accounts);
+			Assert.assertEquals(accounts.length, results.length);
+			Assert.assertTrue(results[accounts.length - 1].getSuccess());
+			Assert.assertEquals(4, server.getCallCount("update"));
+
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testPayloadWithStreamedImport() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+
+		try {
+			ZApi zapi = new ZApi(server.getEndpoint());
+			zapi.zLogin("batcher@zuora.com", "secret");
+			zapi.setBatcher("create", new ZBatcher(ZApi.MAX_OBJECTS, 1000));
+
+			// The size check must not read the stream, it can only be read once
+			String csv = "Account.Name,Account.Currency\nFirst,USD\n";
+			ID importId = ZImport.createImport(zapi, new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+					"accounts.csv");
+
+			Assert.assertNotNull(importId);
+			Assert.assertEquals(1, server.count("Import"));
+
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.zuora.api.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZBulkApiTest {
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZBulkApi bulk;
+	private static Logger logger = LoggerFactory.getLogger(ZBulkApiTest.class);
+
+	/** More than 2 chunks, last one not full */
+	private static final int NB_ACCOUNTS = 120;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "bulk@zuora.com", "secret", 0, 3, 60000, 10000);
+		bulk = new ZBulkApi(pool, 3);
+	}
+
+	@After
+	public void tearDown() {
+		bulk.shutdown();
+		pool.close();
+		server.stop();
+	}
+
+	@Test
+	public void createAndDeleteAccountsInOrder() {
+
+		Account[] accounts = new Account[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			accounts[i] = new Account();
+			accounts[i].setName("Bulk Test Account " + i);
+			accounts[i].setCurrency("USD");
+			accounts[i].setBillCycleDay(1);
+			accounts[i].setStatus("Draft");
+		}
+
+		SaveResult[] result = bulk.zCreate((ZObject[]) accounts);
+		Assert.assertEquals(NB_ACCOUNTS, result.length);
+
+		String[] ids = new String[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			Assert.assertTrue(result[i].getSuccess());
+			ids[i] = result[i].getId().getID();
+		}
+		logger.info("Successfully created " + NB_ACCOUNTS + " accounts in bulk");
+
+		// Make sure the results are in the same order as the input
+		ZApi zapi = new ZApi(server.getEndpoint());
+		zapi.zLogin("bulk@zuora.com", "secret");
+		QueryResult queryResult = zapi.zQuery("SELECT Name FROM Account WHERE Id = '" + ids[NB_ACCOUNTS - 1] + "'");
+		Assert.assertEquals("Bulk Test Account " + (NB_ACCOUNTS - 1), ((Account) queryResult.getRecords()[0]).getName());
+
+		DeleteResult[] deleteResult = bulk.zDelete(ids, "Account");
+		Assert.assertEquals(NB_ACCOUNTS, deleteResult.length);
+
+		for (DeleteResult deleted : deleteResult) {
+			Assert.assertTrue(deleted.getSuccess());
+		}
+
+		Assert.assertEquals(0, server.count("Account"));
+		logger.info("Successfully deleted the test accounts");
+	}
+}
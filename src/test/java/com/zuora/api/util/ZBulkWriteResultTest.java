@@ -0,0 +1,136 @@
+package com.zuora.api.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZBulkWriteResultTest {
+
+	/** More than 2 chunks, last one not full */
+	private static final int NB_ACCOUNTS = 120;
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZBulkApi bulk;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "bulk@zuora.com", "secret", 0, 3, 60000, 10000);
+		bulk = new ZBulkApi(pool, 3);
+	}
+
+	@After
+	public void tearDown() {
+		bulk.shutdown();
+		pool.close();
+		server.stop();
+	}
+
+	@Test
+	public void testRetryOnlyFailedChunks() {
+
+		bulk.setMaxAttempts(1);
+		server.setFailureRate(1, "BATCH_FAIL_ERROR");
+
+		ZBulkWriteResult result = bulk.zCreateAll(accounts());
+		Assert.assertEquals(0, result.getSuccessCount());
+		Assert.assertEquals(NB_ACCOUNTS, result.getRetryableIndexes().length);
+		Assert.assertEquals(Collections.singletonList("BATCH_FAIL_ERROR"), result.getErrorCodes(NB_ACCOUNTS - 1));
+		Assert.assertFalse(result.isComplete());
+		Assert.assertNull(bulk.zCreate(accounts()));
+
+		server.setFailureRate(0, "BATCH_FAIL_ERROR");
+		bulk.retry(result);
+
+		Assert.assertTrue(result.isSuccess());
+		Assert.assertEquals(2, result.getAttempts());
+		Assert.assertEquals(NB_ACCOUNTS, server.count("Account"));
+		Assert.assertFalse(Arrays.asList(result.getIds()).contains(null));
+	}
+
+	@Test
+	public void testCreateNotSentAgainAfterUnknownError() {
+
+		server.setFailureRate(1, "UNKNOWN_ERROR");
+
+		// The objects may have been created: not sent again
+		ZBulkWriteResult result = bulk.zCreateAll(accounts());
+		Assert.assertEquals(1, result.getAttempts());
+		Assert.assertEquals(0, result.getRetryableIndexes().length);
+		Assert.assertEquals(NB_ACCOUNTS, result.getPermanentIndexes().length);
+		Assert.assertEquals(3, server.getCallCount("create"));
+	}
+
+	@Test
+	public void testPermanentFailures() {
+
+		ZBulkWriteResult created = bulk.zCreateAll(accounts());
+		Assert.assertTrue(created.isSuccess());
+		Assert.assertEquals(1, created.getAttempts());
+
+		String[] ids = created.getIds();
+		ids[10] = "2c92c0f9ffffffffffffffffffffff10";
+		ids[70] = "2c92c0f9ffffffffffffffffffffff70";
+
+		Account[] updates = new Account[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			ID id = new ID();
+			id.setID(ids[i]);
+			updates[i] = new Account();
+			updates[i].setId(id);
+			updates[i].setStatus("Active");
+		}
+
+		ZBulkWriteResult updated = bulk.zUpdateAll(updates);
+
+		// Not sent again, the objects need to be fixed first
+		Assert.assertEquals(1, updated.getAttempts());
+		Assert.assertEquals(NB_ACCOUNTS - 2, updated.getSuccessCount());
+		Assert.assertArrayEquals(new int[] { 10, 70 }, updated.getPermanentIndexes());
+		Assert.assertEquals(0, updated.getRetryableIndexes().length);
+		Assert.assertEquals(Collections.singletonList("INVALID_ID"), updated.getErrorCodes(70));
+		Assert.assertTrue(updated.isComplete());
+	}
+
+	@Test
+	public void testRetryableErrorCodes() {
+
+		Assert.assertTrue(ZuoraUtility.isRetryable("SERVER_UNAVAILABLE"));
+		Assert.assertTrue(ZuoraUtility.isRetryable("TRANSACTION_FAILED"));
+		Assert.assertTrue(ZuoraUtility.isRetryable("THROTTLED"));
+		Assert.assertTrue(ZuoraUtility.isRetryable("SocketTimeoutException"));
+		Assert.assertFalse(ZuoraUtility.isRetryable("INVALID_VALUE"));
+		Assert.assertFalse(ZuoraUtility.isRetryable("DUPLICATE_VALUE"));
+		Assert.assertFalse(ZuoraUtility.isRetryable("INVALID_TYPE"));
+
+		// A create may have been committed before the response was lost
+		Assert.assertTrue(ZuoraUtility.isRetryable("THROTTLED", false));
+		Assert.assertTrue(ZuoraUtility.isRetryable("BATCH_FAIL_ERROR", false));
+		Assert.assertFalse(ZuoraUtility.isRetryable("SocketTimeoutException", false));
+		Assert.assertFalse(ZuoraUtility.isRetryable("UNKNOWN_ERROR", false));
+		Assert.assertFalse(ZuoraUtility.isRetryable(null, false));
+	}
+
+	private static ZObject[] accounts() {
+
+		ZObject[] accounts = new ZObject[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			Account account = new Account();
+			account.setName("Bulk Test Account " + i);
+			account.setStatus("Draft");
+			accounts[i] = account;
+		}
+
+		return accounts;
+	}
+}
@@ -0,0 +1,107 @@
+package com.zuora.api.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Product;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlan;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlanCharge;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZCatalogTest {
+
+	@Test
+	public void testLoadAndRefresh() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "catalog@zuora.com", "secret", 0, 3, 60000, 10000);
+
+		try {
+			ZApi zapi = pool.borrow();
+			String[] productIds = create(zapi, product("SKU-1", "Basic"), product("SKU-2", "Pro"));
+			String[] ratePlanIds = create(zapi, ratePlan(productIds[0], "Monthly"), ratePlan(productIds[1], "Monthly"),
+					ratePlan(productIds[1], "Annual"));
+			create(zapi, charge(ratePlanIds[2], "Seat"), charge(ratePlanIds[2], "Setup"));
+
+			ZCatalog catalog = new ZCatalog(pool);
+			Assert.assertTrue(catalog.load());
+
+			ZCatalog.Snapshot loaded = catalog.getSnapshot();
+			Assert.assertEquals("2 product(s) | 3 rate plan(s) | 2 charge(s)", loaded.toString());
+			Assert.assertEquals("Pro", catalog.getProductBySku("SKU-2").getName());
+			Assert.assertEquals(ratePlanIds[2], catalog.getRatePlan("SKU-2", "Annual").getId().getID());
+			Assert.assertNull(catalog.getRatePlan("SKU-1", "Annual"));
+			Assert.assertEquals(2, loaded.getCharges(ratePlanIds[2]).size());
+			Assert.assertNotNull(loaded.getCharge(ratePlanIds[2], "Setup"));
+			Assert.assertEquals(1, loaded.getProductsByName("Basic").size());
+
+			// Changes picked up by the refresh, the previous snapshot is unchanged
+			Thread.sleep(20);
+			Product renamed = new Product();
+			renamed.setId(id(productIds[0]));
+			renamed.setName("Starter");
+			zapi.zUpdate(new ZObject[] { renamed });
+			create(zapi, ratePlan(productIds[0], "Annual"));
+
+			Assert.assertTrue(catalog.refresh());
+			Assert.assertEquals("Starter", catalog.getProductBySku("SKU-1").getName());
+			Assert.assertNotNull(catalog.getRatePlan("SKU-1", "Annual"));
+			Assert.assertEquals(4, catalog.getSnapshot().getRatePlans().size());
+			Assert.assertEquals("Basic", loaded.getProductBySku("SKU-1").getName());
+			Assert.assertTrue(loaded.getProductsByName("Starter").isEmpty());
+
+			pool.release(zapi);
+
+		} finally {
+			pool.close();
+			server.stop();
+		}
+	}
+
+	private static String[] create(ZApi zapi, ZObject... objects) {
+
+		String[] ids = new String[objects.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = zapi.zCreate(new ZObject[] { objects[i] })[0].getId().getID();
+		}
+
+		return ids;
+	}
+
+	private static Product product(String sku, String name) {
+
+		Product product = new Product();
+		product.setSKU(sku);
+		product.setName(name);
+
+		return product;
+	}
+
+	private static ProductRatePlan ratePlan(String productId, String name) {
+
+		ProductRatePlan ratePlan = new ProductRatePlan();
+		ratePlan.setProductId(id(productId));
+		ratePlan.setName(name);
+
+		return ratePlan;
+	}
+
+	private static ProductRatePlanCharge charge(String ratePlanId, String name) {
+
+		ProductRatePlanCharge charge = new ProductRatePlanCharge();
+		charge.setProductRatePlanId(id(ratePlanId));
+		charge.setName(name);
+
+		return charge;
+	}
+
+	private static ID id(String value) {
+
+		ID id = new ID();
+		id.setID(value);
+
+		return id;
+	}
+}
@@ -0,0 +1,130 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZCheckpointJournalTest {
+
+	/** More than 2 chunks, last one not full */
+	private static final int NB_ACCOUNTS = 120;
+
+	private ZMockServer server;
+	private ZApi zapi;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		zapi = new ZApi(server.getEndpoint());
+		zapi.zLogin("journal@zuora.com", "secret");
+		file = File.createTempFile("zjournal", ".log");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		file.delete();
+	}
+
+	@Test
+	public void testResumeCreate() throws IOException {
+
+		ZObject[] accounts = new ZObject[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			Account account = new Account();
+			account.setName("Journal Test Account " + i);
+			accounts[i] = account;
+		}
+
+		// First run stopped after 2 chunks
+		ZCheckpointJournal journal = new ZCheckpointJournal(file);
+		SaveResult[] first = zapi.zCreate(Arrays.copyOf(accounts, 2 * ZApi.MAX_OBJECTS), journal);
+		journal.close();
+		Assert.assertEquals(2 * ZApi.MAX_OBJECTS, server.count("Account"));
+
+		// Second run: only the last chunk is sent
+		journal = new ZCheckpointJournal(file);
+		Assert.assertEquals(2, journal.size());
+		SaveResult[] resumed = zapi.zCreate(accounts, journal);
+		journal.close();
+
+		Assert.assertEquals(NB_ACCOUNTS, resumed.length);
+		Assert.assertEquals(NB_ACCOUNTS, server.count("Account"));
+		Assert.assertEquals(3, server.getCallCount("create"));
+		Assert.assertEquals(first[70].getId().getID(), resumed[70].getId().getID());
+		for (SaveResult result : resumed) {
+			Assert.assertTrue(result.getSuccess());
+		}
+	}
+
+	@Test
+	public void testResumeDelete() throws IOException {
+
+		ZObject[] accounts = new ZObject[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			accounts[i] = new Account();
+		}
+		SaveResult[] created = zapi.zCreate(accounts);
+		String[] ids = new String[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			ids[i] = created[i].getId().getID();
+		}
+
+		try (ZCheckpointJournal journal = new ZCheckpointJournal(file)) {
+			zapi.zDelete(Arrays.copyOf(ids, ZApi.MAX_OBJECTS), "Account", journal);
+		}
+
+		// Without the journal, the deleted IDs would fail with INVALID_ID
+		try (ZCheckpointJournal journal = new ZCheckpointJournal(file)) {
+			DeleteResult[] deleted = zapi.zDelete(ids, "Account", journal);
+			for (DeleteResult result : deleted) {
+				Assert.assertTrue(result.getSuccess());
+			}
+		}
+
+		Assert.assertEquals(0, server.count("Account"));
+		Assert.assertEquals(3, server.getCallCount("delete"));
+	}
+
+	@Test
+	public void testIncompleteRecord() throws IOException {
+
+		try (ZCheckpointJournal journal = new ZCheckpointJournal(file)) {
+			journal.record("create", 0, new String[] { "2c92c0f9000000000000000000000001", null });
+		}
+		long length = file.length();
+
+		// Crash while writing the next record
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write("1a2b3c\tcreate\t2\t2c92c0f9".getBytes("UTF-8"));
+		}
+
+		try (ZCheckpointJournal journal = new ZCheckpointJournal(file)) {
+			Assert.assertEquals(length, file.length());
+			Assert.assertEquals(1, journal.size());
+			Assert.assertArrayEquals(new String[] { "2c92c0f9000000000000000000000001", "" },
+					journal.get("create", 0, 2));
+			Assert.assertNull(journal.get("create", 2, 1));
+			journal.record("create", 2, new String[] { "2c92c0f9000000000000000000000003" });
+		}
+
+		try (ZCheckpointJournal journal = new ZCheckpointJournal(file)) {
+			Assert.assertEquals(2, journal.size());
+			Assert.assertNull(journal.get("delete:Account", 0, 2));
+		}
+	}
+}
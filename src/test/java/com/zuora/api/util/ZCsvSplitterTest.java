@@ -0,0 +1,113 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZCsvSplitterTest {
+
+	private static final String HEADER = "ACCOUNT_ID,UOM,QTY,STARTDATE,ENDDATE,SUBSCRIPTION_ID,CHARGE_ID,DESCRIPTION\n";
+
+	private File directory;
+
+	private final List<String> shards = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("zcsvsplitter").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testHeaderInEachShard() throws IOException {
+
+		StringBuilder csv = new StringBuilder(HEADER);
+		for (int i = 0; i < 100; i++) {
+			csv.append(row(i));
+		}
+
+		int maxShardSize = HEADER.length() + 10 * row(0).length();
+		Assert.assertEquals(10, split(csv.toString(), maxShardSize));
+
+		int i = 0;
+		for (String shard : shards) {
+			Assert.assertTrue(shard.startsWith(HEADER));
+			Assert.assertTrue(shard.length() <= maxShardSize);
+
+			// Rows kept in order, never cut
+			for (String line : shard.substring(HEADER.length()).split("\n")) {
+				Assert.assertEquals(row(i++), line + "\n");
+			}
+		}
+		Assert.assertEquals(100, i);
+	}
+
+	@Test
+	public void testQuotedLineBreak() throws IOException {
+
+		String multiLine = "A00000002,Each,1,01/01/2014,,,,\"first line\nsecond line\"\n";
+		String csv = HEADER + row(1) + multiLine + row(3);
+
+		Assert.assertEquals(3, split(csv, HEADER.length() + multiLine.length()));
+		Assert.assertEquals(HEADER + multiLine, shards.get(1));
+	}
+
+	@Test
+	public void testBlankRowsAndNoFinalLineBreak() throws IOException {
+
+		// Same as sample-usage-1.csv: blank row after the header, no final line break
+		String csv = HEADER + "\n" + "A66666666,Each,666,02/12/2014,,,,";
+
+		Assert.assertEquals(1, split(csv, 1024));
+		Assert.assertEquals(HEADER + "A66666666,Each,666,02/12/2014,,,,\n", shards.get(0));
+	}
+
+	@Test
+	public void testRowLargerThanShard() throws IOException {
+
+		String csv = HEADER + row(1) + row(2);
+
+		Assert.assertEquals(2, split(csv, 10));
+		Assert.assertEquals(HEADER + row(1), shards.get(0));
+		Assert.assertEquals(HEADER + row(2), shards.get(1));
+	}
+
+	@Test
+	public void testHeaderOnly() throws IOException {
+
+		Assert.assertEquals(0, split(HEADER, 1024));
+		Assert.assertTrue(shards.isEmpty());
+	}
+
+	private int split(String csv, long maxShardSize) throws IOException {
+
+		ZCsvSplitter splitter = new ZCsvSplitter(maxShardSize, directory);
+
+		return splitter.split(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "usage.csv",
+				(index, shard) -> {
+					Assert.assertEquals(shards.size(), index);
+					Assert.assertEquals(String.format("usage.part%04d.csv", index + 1), shard.getName());
+					shards.add(new String(Files.readAllBytes(shard.toPath()), StandardCharsets.UTF_8));
+				});
+	}
+
+	private static String row(int i) {
+		return String.format("A%08d,Each,%d,01/01/2014,01/31/2014,,,\n", i, i % 10);
+	}
+}
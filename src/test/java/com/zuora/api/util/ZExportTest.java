@@ -0,0 +1,112 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZExportTest {
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZExport export;
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.setExportProcessingTime(50);
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "export@zuora.com", "secret", 0, 4, 60000, 10000);
+		export = new ZExport(pool, 10, 40, 4);
+		dir = Files.createTempDirectory("zexport").toFile();
+
+		ZObject[] accounts = new ZObject[3];
+		for (int i = 0; i < accounts.length; i++) {
+			Account account = new Account();
+			account.setName(i == 0 ? "Smith, Jones & Co" : "Export Test Account " + i);
+			accounts[i] = account;
+		}
+		Assert.assertNotNull(pool.execute(zapi -> zapi.zCreate(accounts)));
+	}
+
+	@After
+	public void tearDown() {
+		export.shutdown();
+		pool.close();
+		server.stop();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testExport() throws Exception {
+
+		File target = new File(dir, "accounts.csv");
+		Assert.assertEquals(target, export.export("SELECT Id, Name FROM Account", target).join());
+
+		List<String> lines = Files.readAllLines(target.toPath(), StandardCharsets.UTF_8);
+		Assert.assertEquals(4, lines.size());
+		Assert.assertEquals("Account.Id,Account.Name", lines.get(0));
+		Assert.assertTrue(lines.get(1).endsWith(",\"Smith, Jones & Co\""));
+
+		// Only the target is left, no temporary file
+		Assert.assertEquals(1, dir.listFiles().length);
+	}
+
+	@Test
+	public void testParallelExports() throws Exception {
+
+		List<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(export.export("SELECT Id FROM Account", new File(dir, "ids-" + i + ".zip"), true));
+		}
+		CompletableFuture<File> failed = export.export("SELECT Id FROM Nothing", new File(dir, "nothing.csv"));
+
+		for (CompletableFuture<File> future : futures) {
+			try (ZipInputStream zip = new ZipInputStream(new FileInputStream(future.join()))) {
+				ZipEntry entry = zip.getNextEntry();
+				Assert.assertTrue(entry.getName().endsWith(".csv"));
+				String csv = new String(readAll(zip), StandardCharsets.UTF_8);
+				Assert.assertEquals(4, csv.split("\n").length);
+			}
+		}
+
+		try {
+			failed.join();
+			Assert.fail("The export of an unknown type should fail");
+		} catch (CompletionException e) {
+			Assert.assertTrue(e.getCause().getMessage().contains("Failed"));
+		}
+		Assert.assertFalse(new File(dir, "nothing.csv").exists());
+	}
+
+	private static byte[] readAll(ZipInputStream in) throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			out.write(buffer, 0, read);
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,87 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+
+public class ZImportTrackerTest {
+
+	private static final String UNKNOWN_ID = "2c92c0f84b0000000000000000000000";
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZImportTracker tracker;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.setImportProcessingTime(200);
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "tracker@zuora.com", "secret", 0, 2, 60000, 10000);
+		tracker = new ZImportTracker(pool, 50, 100);
+	}
+
+	@After
+	public void tearDown() {
+		tracker.shutdown();
+		pool.close();
+		server.stop();
+	}
+
+	@Test
+	public void testTrackImport() throws Exception {
+
+		ID importId = pool.execute(zapi -> ZImport.createImport(zapi,
+				new ByteArrayInputStream("Account.Name\nFirst\nSecond\n".getBytes(StandardCharsets.UTF_8)),
+				"accounts.csv"));
+		Assert.assertNotNull(importId);
+
+		Import zimport = tracker.track(importId).get(10, TimeUnit.SECONDS);
+		Assert.assertEquals(ZImportTracker.STATUS_COMPLETED, zimport.getStatus());
+		Assert.assertEquals(2, zimport.getImportedCount());
+		Assert.assertEquals(0, tracker.getTrackedCount());
+	}
+
+	@Test
+	public void testCanceledImport() throws Exception {
+
+		server.setImportProcessingTime(60000);
+		ID importId = pool.execute(zapi -> ZImport.createImport(zapi,
+				new ByteArrayInputStream("Account.Name\nFirst\n".getBytes(StandardCharsets.UTF_8)), "accounts.csv"));
+		CompletableFuture<Import> future = tracker.track(importId);
+
+		// Cancelled in Zuora while pending
+		((Import) server.get("Import", importId.getID())).setStatus(ZImportTracker.STATUS_CANCELED);
+
+		Import zimport = future.get(10, TimeUnit.SECONDS);
+		Assert.assertEquals(ZImportTracker.STATUS_CANCELED, zimport.getStatus());
+		Assert.assertEquals(0, tracker.getTrackedCount());
+	}
+
+	@Test
+	public void testUnknownImportFails() throws Exception {
+
+		tracker.setMaxMissingPolls(3);
+		CompletableFuture<Import> future = tracker.track(UNKNOWN_ID);
+
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		Assert.assertEquals(0, tracker.getTrackedCount());
+		Assert.assertEquals(3, server.getCallCount("query"));
+	}
+}
@@ -0,0 +1,94 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZLocalStoreTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("zstore").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testUpsertAndReopen() throws IOException {
+
+		ZLocalStore store = new ZLocalStore(dir);
+		store.upsert("Account", Arrays.asList(record("A1", "Active", "10.50", "Tab\tand\nnew line = ok"),
+				record("A2", "Draft", "0", "Jones"), record("A3", "Active", "0", "O'Brien")));
+		store.upsert("Account", Arrays.asList(record("A2", "Active", "7", "Jones")));
+		store.setWatermark("Account", "2014-01-01T00:00:00.000Z");
+		store.close();
+
+		// A record cut by a crash
+		try (FileOutputStream out = new FileOutputStream(new File(dir, "Account.store"), true)) {
+			out.write("12345678\tA4\tStatus=Act".getBytes(StandardCharsets.UTF_8));
+		}
+
+		store = new ZLocalStore(dir);
+		Assert.assertEquals(3, store.size("Account"));
+		Assert.assertEquals("Tab\tand\nnew line = ok", store.get("Account", "A1").get("Name"));
+		Assert.assertEquals("7", store.get("Account", "A2").get("Balance"));
+		Assert.assertNull(store.get("Account", "A4"));
+		Assert.assertEquals("2014-01-01T00:00:00.000Z", store.getWatermark("Account"));
+
+		// Only the current records once compacted
+		long size = new File(dir, "Account.store").length();
+		store.compact("Account");
+		Assert.assertTrue(new File(dir, "Account.store").length() < size);
+		store.close();
+
+		store = new ZLocalStore(dir);
+		Assert.assertEquals(3, store.size("Account"));
+		Assert.assertEquals("2014-01-01T00:00:00.000Z", store.getWatermark("Account"));
+		store.close();
+	}
+
+	@Test
+	public void testSelect() throws IOException {
+
+		ZLocalStore store = new ZLocalStore(dir);
+		store.upsert("Account", Arrays.asList(record("A1", "Active", "10.50", "Smith"),
+				record("A2", "Draft", "100", "Jones"), record("A3", "Active", "9", "Smith and O'Brien")));
+
+		Assert.assertEquals(3, store.select("Account", null).size());
+		Assert.assertEquals(1, store.select("Account", "Status = 'Active' AND Balance > 10").size());
+		Assert.assertEquals(2, store.select("Account", "Balance >= 100 OR Name = 'Smith'").size());
+		Assert.assertEquals("A3", store.select("Account", "Name = 'Smith and O\\'Brien'").get(0).get("Id"));
+		Assert.assertEquals(2, store.select("Account", "Status != 'Draft'").size());
+		Assert.assertTrue(store.select("Subscription", "Status = 'Active'").isEmpty());
+		store.close();
+	}
+
+	private static Map<String, String> record(String id, String status, String balance, String name) {
+
+		Map<String, String> record = new LinkedHashMap<String, String>();
+		record.put("Id", id);
+		record.put("Status", status);
+		record.put("Balance", balance);
+		record.put("Name", name);
+
+		return record;
+	}
+}
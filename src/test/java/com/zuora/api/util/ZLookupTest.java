@@ -0,0 +1,94 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZLookupTest {
+
+	private static final int NB_ACCOUNTS = 300;
+
+	@Test
+	public void testCoalescedLookups() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "lookup@zuora.com", "secret", 0, 4, 60000, 10000);
+		ZApiAsync async = new ZApiAsync(pool, 4, null);
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+
+		try {
+			ZObject[] accounts = new ZObject[NB_ACCOUNTS];
+			for (int i = 0; i < NB_ACCOUNTS; i++) {
+				Account account = new Account();
+				account.setAccountNumber("A" + i + (i == 7 ? "'s" : ""));
+				accounts[i] = account;
+			}
+			SaveResult[] created = pool.execute(zapi -> zapi.zCreate(accounts));
+			long queries = server.getCallCount("query");
+
+			ZLookup lookup = new ZLookup(async, "Account", "AccountNumber", 50, 200, 8000);
+
+			// One lookup per thread call, more keys than one query can hold
+			List<Future<CompletableFuture<String>>> ids = new ArrayList<Future<CompletableFuture<String>>>();
+			for (int i = 0; i < NB_ACCOUNTS; i++) {
+				final String key = ((Account) accounts[i]).getAccountNumber();
+				ids.add(callers.submit(() -> lookup.lookupId(key)));
+			}
+			CompletableFuture<String> missing = lookup.lookupId("NOT-AN-ACCOUNT");
+
+			for (int i = 0; i < NB_ACCOUNTS; i++) {
+				Assert.assertEquals(created[i].getId().getID(), ids.get(i).get().get());
+			}
+			Assert.assertNull(missing.get());
+			Assert.assertTrue(server.getCallCount("query") - queries <= 4);
+			lookup.shutdown();
+
+		} finally {
+			callers.shutdown();
+			async.shutdown();
+			pool.close();
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testQueryLength() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "lookup@zuora.com", "secret", 0, 2, 60000, 10000);
+		ZApiAsync async = new ZApiAsync(pool, 2, null);
+
+		try {
+			// About 30 characters per key: 3 keys per query
+			ZLookup lookup = new ZLookup(async, "Account", "AccountNumber", 1000, 200, 150);
+			List<CompletableFuture<String>> ids = new ArrayList<CompletableFuture<String>>();
+			for (int i = 0; i < 9; i++) {
+				ids.add(lookup.lookupId("KEY-" + i));
+			}
+			lookup.flush();
+
+			for (CompletableFuture<String> id : ids) {
+				Assert.assertNull(id.get());
+			}
+			Assert.assertEquals(3, server.getCallCount("query"));
+			lookup.shutdown();
+
+		} finally {
+			async.shutdown();
+			pool.close();
+			server.stop();
+		}
+	}
+}
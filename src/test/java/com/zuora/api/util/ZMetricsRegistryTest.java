@@ -0,0 +1,90 @@
+package com.zuora.api.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZMetricsRegistryTest {
+
+	@Test
+	public void testHistogramBuckets() {
+
+		// Each value falls in a bucket whose middle is within 1/16
+		for (long value = 0; value < 10000000; value += 1 + value / 100) {
+			long bucket = ZMetricsRegistry.Histogram.value(ZMetricsRegistry.Histogram.index(value));
+			Assert.assertTrue(value + " -> " + bucket, Math.abs(bucket - value) <= Math.max(1, value / 16));
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+
+		ZMetricsRegistry registry = new ZMetricsRegistry();
+		Random random = new Random(42);
+
+		// 1 to 10 ms, then 1% of 500 ms
+		for (int i = 0; i < 9900; i++) {
+			registry.onCall("query", (1000 + random.nextInt(9000)) * 1000L, 10, 100, 1000, null);
+		}
+		for (int i = 0; i < 100; i++) {
+			registry.onCall("query", 500 * 1000000L, 0, 100, 200, "SERVER_UNAVAILABLE");
+		}
+
+		ZMetricsRegistry.OperationMetrics query = registry.get("query");
+		Assert.assertEquals(10000, query.getCalls());
+		Assert.assertEquals(5.5, query.getP50(), 0.5);
+		Assert.assertEquals(10, query.getP99(), 1);
+		Assert.assertEquals(500, query.getLatency(0.995), 500 / 16.0);
+		Assert.assertEquals(99000, query.getRecords());
+		Assert.assertEquals(1000000, query.getBytesSent());
+		Assert.assertEquals(100, query.getFaultCount());
+		Assert.assertEquals(Long.valueOf(100), query.getFaults().get("SERVER_UNAVAILABLE"));
+	}
+
+	@Test
+	public void testZApiCalls() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+
+		try {
+			ZMetricsRegistry registry = new ZMetricsRegistry();
+
+			ZApi zapi = new ZApi(server.getEndpoint());
+			zapi.setMetrics(registry);
+			zapi.zLogin("metrics@zuora.com", "secret");
+
+			ZObject[] accounts = new ZObject[2];
+			for (int i = 0; i < accounts.length; i++) {
+				Account account = new Account();
+				account.setName("Account " + i);
+				accounts[i] = account;
+			}
+			zapi.zCreate(accounts);
+			zapi.zQuery("SELECT Id, Name FROM Account");
+			zapi.zQuery("SELECT Id FROM NotAType");
+
+			Assert.assertEquals(1, registry.get("login").getCalls());
+
+			ZMetricsRegistry.OperationMetrics create = registry.get("create");
+			Assert.assertEquals(1, create.getCalls());
+			Assert.assertEquals(2, create.getRecords());
+			Assert.assertEquals(1, create.getChunks());
+			Assert.assertTrue(create.getBytesSent() > 0);
+			Assert.assertTrue(create.getBytesReceived() > 0);
+
+			ZMetricsRegistry.OperationMetrics query = registry.get("query");
+			Assert.assertEquals(2, query.getCalls());
+			Assert.assertEquals(2, query.getRecords());
+			Assert.assertEquals(Long.valueOf(1), query.getFaults().get("MALFORMED_QUERY"));
+			Assert.assertTrue(query.getP99() > 0);
+
+		} finally {
+			server.stop();
+		}
+	}
+}
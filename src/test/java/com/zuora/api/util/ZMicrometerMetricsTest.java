@@ -0,0 +1,64 @@
+package com.zuora.api.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ZMicrometerMetricsTest {
+
+	@Test
+	public void testZApiCalls() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+
+		try {
+			SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+			ZApi zapi = new ZApi(server.getEndpoint());
+			zapi.setMetrics(new ZMicrometerMetrics(registry));
+			zapi.zLogin("micrometer@zuora.com", "secret");
+
+			ZObject[] accounts = new ZObject[ZApi.MAX_OBJECTS + 10];
+			for (int i = 0; i < accounts.length; i++) {
+				accounts[i] = new Account();
+				((Account) accounts[i]).setName("Micrometer Account " + i);
+			}
+			zapi.zCreate(accounts);
+			zapi.zQuery("SELECT Id FROM Account");
+
+			Timer queries = registry.find("zuora.api.calls").tags("operation", "query", "outcome", "success").timer();
+			Assert.assertNotNull(queries);
+			Assert.assertEquals(1, queries.count());
+			Assert.assertTrue(queries.totalTime(TimeUnit.NANOSECONDS) > 0);
+
+			Timer creates = registry.find("zuora.api.calls").tags("operation", "create").timer();
+			Assert.assertEquals(2, creates.count());
+
+			DistributionSummary records = registry.find("zuora.api.records").tags("operation", "query").summary();
+			Assert.assertEquals(accounts.length, records.totalAmount(), 0);
+
+			DistributionSummary sent = registry.find("zuora.api.request.size").tags("operation", "create").summary();
+			DistributionSummary received = registry.find("zuora.api.response.size").tags("operation", "query")
+					.summary();
+			Assert.assertEquals(2, sent.count());
+			Assert.assertTrue(sent.totalAmount() > 0);
+			Assert.assertTrue(received.totalAmount() > 0);
+
+			Counter chunks = registry.find("zuora.api.chunks").tags("operation", "create").counter();
+			Assert.assertEquals(2, chunks.count(), 0);
+
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,1527 @@
+package com.zuora.api.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.activation.DataHandler;
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.attachments.Attachments;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axiom.soap.SOAPHeader;
+import org.apache.axis2.databinding.ADBBean;
+import org.apache.axis2.databinding.utils.ConverterUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.zuora.api.axis2.ZuoraServiceStub;
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.Amend;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+import com.zuora.api.axis2.ZuoraServiceStub.ApiFault;
+import com.zuora.api.axis2.ZuoraServiceStub.Create;
+import com.zuora.api.axis2.ZuoraServiceStub.CreateResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.Delete;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
+import com.zuora.api.axis2.ZuoraServiceStub.Export;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+import com.zuora.api.axis2.ZuoraServiceStub.InvalidTypeFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.Login;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+import com.zuora.api.axis2.ZuoraServiceStub.MalformedQueryFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.Query;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryLocator;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMore;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMoreResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Subscribe;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Subscription;
+import com.zuora.api.axis2.ZuoraServiceStub.UnexpectedErrorFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.Update;
+import com.zuora.api.axis2.ZuoraServiceStub.UpdateResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * In-process stand-in for the Zuora SOAP API (zuora.a.45.0.wsdl), to test the
+ * client without a tenant: give getEndpoint() to the ZApi(String endpoint)
+ * constructor.
+ *
+ * Implemented calls: login, query, queryMore, create (including an Import with
+ * its MTOM file, and an Export whose CSV file is then served on
+ * /apps/api/file/), update, delete, subscribe and amend. The objects are kept in memory; queries
+ * support `SELECT fields FROM Type [WHERE field op value (AND|OR) ...]` with
+ * =, !=, <, <=, > and >= (AND before OR, no parentheses).
+ *
+ * To test the client behaviour under load it can add latency, fail a share of
+ * the calls, expire the sessions and throttle (HTTP 429) the calls above a
+ * number of calls in flight.
+ *
+ * Run it with -Dsun.net.httpserver.nodelay=true (set by the build for the
+ * tests), otherwise the responses wait for the delayed ACK on kept-alive
+ * connections.
+ */
+public class ZMockServer {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZMockServer.class);
+
+	/** Path of the endpoint */
+	public static final String PATH = "/apps/services/a/45.0";
+
+	/** Max number of records per query() or queryMore() */
+	public static final int MAX_BATCH_SIZE = ZApi.MAX_QUERY_OBJECTS;
+
+	/** Path of the files (exports) */
+	public static final String FILE_PATH = "/apps/api/file/";
+
+	/** Namespace of the SOAP 1.1 envelope */
+	private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+	/** `SELECT fields FROM Type [WHERE conditions]` */
+	private static final Pattern QUERY = Pattern.compile(
+			"^\\s*select\\s+(.+?)\\s+from\\s+(\\w+)(?:\\s+where\\s+(.+?))?\\s*$",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	/** `field op value` */
+	private static final Pattern CONDITION = Pattern.compile(
+			"^\\s*(\\w+)\\s*(=|!=|<>|<=|>=|<|>)\\s*('(?:[^'\\\\]|\\\\.)*'|[^\\s']+)\\s*$", Pattern.DOTALL);
+
+	/** The HTTP server */
+	private final HttpServer server;
+
+	/** The threads handling the calls */
+	private final ExecutorService executor;
+
+	/** The objects, by type and ID */
+	private final ConcurrentMap<String, NavigableMap<String, ZObject>> objects = new ConcurrentHashMap<String, NavigableMap<String, ZObject>>();
+
+	/** The remaining records of the queries, by query locator */
+	private final ConcurrentMap<String, List<ZObject>> locators = new ConcurrentHashMap<String, List<ZObject>>();
+
+	/** The sessions, with their creation time */
+	private final ConcurrentMap<String, Long> sessions = new ConcurrentHashMap<String, Long>();
+
+	/** The users allowed to log in (anyone if empty) */
+	private final Map<String, String> users = new ConcurrentHashMap<String, String>();
+
+	/** The imports being processed, with the time they will be done */
+	private final ConcurrentMap<String, Long> pendingImports = new ConcurrentHashMap<String, Long>();
+
+	/** The exports being processed, with the time they will be done */
+	private final ConcurrentMap<String, Long> pendingExports = new ConcurrentHashMap<String, Long>();
+
+	/** The content of the export files, by file ID */
+	private final ConcurrentMap<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+
+	/** The last ID given to an object */
+	private final AtomicLong lastId = new AtomicLong();
+
+	/** Number of calls received, by operation */
+	private final ConcurrentMap<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+
+	/** Number of calls throttled */
+	private final AtomicLong throttled = new AtomicLong();
+
+	/** Number of calls in flight */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/** Max number of calls in flight, the other ones are throttled (0 = no limit) */
+	private volatile int maxConcurrentCalls = 0;
+
+	/** Min latency (ms) added to each call */
+	private volatile long minLatency = 0;
+
+	/** Max latency (ms) added to each call */
+	private volatile long maxLatency = 0;
+
+	/** Share of the calls failing (0 to 1), login excluded */
+	private volatile double failureRate = 0;
+
+	/** Fault code of the failing calls */
+	private volatile String failureCode = "UNKNOWN_ERROR";
+
+	/** Age (ms) after which a session is rejected (0 = never) */
+	private volatile long sessionTimeout = 0;
+
+	/** Time (ms) an import stays Pending before being Completed */
+	private volatile long importProcessingTime = 0;
+
+	/** Time (ms) an export stays Processing before being Completed */
+	private volatile long exportProcessingTime = 0;
+
+	/**
+	 * Instantiates a new mock server on a free local port, start() must be
+	 * called before use
+	 */
+	public ZMockServer() throws IOException {
+
+		this(0);
+	}
+
+	/**
+	 * Overloaded constructor to specify the port
+	 *
+	 * @param port
+	 *            The local port, 0 for a free one
+	 */
+	public ZMockServer(int port) throws IOException {
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext(PATH, exchange -> handle(exchange));
+		server.createContext(FILE_PATH, exchange -> handleFile(exchange));
+
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "zmock-server");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+	}
+
+	public void start() {
+
+		server.start();
+		logger.info("Mock Zuora server started on `{}`", getEndpoint());
+	}
+
+	public void stop() {
+
+		server.stop(0);
+		executor.shutdownNow();
+		logger.info("Mock Zuora server stopped");
+	}
+
+	/**
+	 * The endpoint to give to the ZApi
+	 */
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+	}
+
+	/**
+	 * Only accept this user (by default any credentials are accepted)
+	 */
+	public void addUser(String username, String password) {
+		users.put(username, password);
+	}
+
+	/**
+	 * Store an object as if it was created, its ID is set if missing
+	 *
+	 * @return The ID of the object
+	 */
+	public String put(ZObject object) {
+
+		ZObject stored = copy(object, null);
+		String id = object.getId() != null ? object.getId().getID() : newId();
+		stored.setId(toId(id));
+		stamp(stored, true);
+
+		getObjects(typeOf(object)).put(id, stored);
+
+		return id;
+	}
+
+	/**
+	 * Get a stored object
+	 *
+	 * @return The object, null if there is none with this ID
+	 */
+	public ZObject get(String type, String id) {
+		return getObjects(type).get(id);
+	}
+
+	/**
+	 * Number of objects of a type
+	 */
+	public int count(String type) {
+		return getObjects(type).size();
+	}
+
+	/**
+	 * Remove all the objects, sessions and query locators
+	 */
+	public void clear() {
+
+		objects.clear();
+		locators.clear();
+		sessions.clear();
+		pendingImports.clear();
+		pendingExports.clear();
+		files.clear();
+	}
+
+	/**
+	 * Reject all the current sessions (INVALID_SESSION)
+	 */
+	public void expireSessions() {
+		sessions.clear();
+	}
+
+	/**
+	 * Number of calls received for an operation (login, query, create, etc.)
+	 */
+	public long getCallCount(String operation) {
+
+		AtomicLong count = calls.get(operation);
+
+		return count != null ? count.get() : 0;
+	}
+
+	/**
+	 * Number of calls received
+	 */
+	public long getCallCount() {
+
+		long total = 0;
+		for (AtomicLong count : calls.values()) {
+			total += count.get();
+		}
+
+		return total;
+	}
+
+	/**
+	 * Number of calls throttled (HTTP 429)
+	 */
+	public long getThrottledCount() {
+		return throttled.get();
+	}
+
+	// --- Setter(s) ---
+
+	/**
+	 * Latency added to each call, random between min and max (ms)
+	 */
+	public void setLatency(long minLatency, long maxLatency) {
+		this.minLatency = minLatency;
+		this.maxLatency = Math.max(minLatency, maxLatency);
+	}
+
+	/**
+	 * Share of the calls (login excluded) failing with the given fault code,
+	 * e.g. 0.1 and SERVER_UNAVAILABLE
+	 */
+	public void setFailureRate(double failureRate, String failureCode) {
+		this.failureRate = failureRate;
+		this.failureCode = failureCode;
+	}
+
+	/**
+	 * Max number of calls in flight, the other ones get an HTTP 429 (0 = no
+	 * limit)
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+	}
+
+	/**
+	 * Age (ms) after which a session is rejected (0 = never)
+	 */
+	public void setSessionTimeout(long sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+
+	/**
+	 * Time (ms) an import stays Pending before being Completed
+	 */
+	public void setImportProcessingTime(long importProcessingTime) {
+		this.importProcessingTime = importProcessingTime;
+	}
+
+	/**
+	 * Time (ms) an export stays Processing before being Completed
+	 */
+	public void setExportProcessingTime(long exportProcessingTime) {
+		this.exportProcessingTime = exportProcessingTime;
+	}
+
+	// --- HTTP ---
+
+	private void handle(HttpExchange exchange) throws IOException {
+
+		int current = inFlight.incrementAndGet();
+
+		try {
+			if (maxConcurrentCalls > 0 && current > maxConcurrentCalls) {
+				throttled.incrementAndGet();
+				drain(exchange.getRequestBody());
+				exchange.sendResponseHeaders(429, -1);
+				return;
+			}
+
+			byte[] response;
+			int status = 200;
+
+			try {
+				response = dispatch(exchange);
+			} catch (FaultException e) {
+				response = e.toSoap();
+				status = 500;
+			} catch (Exception e) {
+				logger.error("Mock server error | {}", e);
+				response = new FaultException("UNKNOWN_ERROR", String.valueOf(e)).toSoap();
+				status = 500;
+			}
+
+			sleep();
+
+			exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+			exchange.sendResponseHeaders(status, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+
+		} finally {
+			inFlight.decrementAndGet();
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Download of a file: `GET /apps/api/file/<file ID>` with the header
+	 * `Authorization: ZSession <session>`
+	 */
+	private void handleFile(HttpExchange exchange) throws IOException {
+
+		try {
+			String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			String session = authorization != null && authorization.startsWith("ZSession ")
+					? authorization.substring("ZSession ".length()) : null;
+			byte[] file = files.get(exchange.getRequestURI().getPath().substring(FILE_PATH.length()));
+
+			if (session == null || !sessions.containsKey(session)) {
+				exchange.sendResponseHeaders(401, -1);
+			} else if (file == null) {
+				exchange.sendResponseHeaders(404, -1);
+			} else {
+				sleep();
+				exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+				exchange.sendResponseHeaders(200, file.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(file);
+				}
+			}
+
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Parse the request (SOAP or MTOM) and run the operation
+	 */
+	private byte[] dispatch(HttpExchange exchange) throws Exception {
+
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		InputStream in = exchange.getRequestBody();
+
+		SOAPEnvelope envelope;
+		if (contentType != null && contentType.toLowerCase(Locale.ENGLISH).startsWith("multipart/related")) {
+			// MTOM, the attachments above 1 MB are kept in temporary files
+			Attachments attachments = new Attachments(in, contentType, true, System.getProperty("java.io.tmpdir"),
+					String.valueOf(1024 * 1024));
+			envelope = OMXMLBuilderFactory.createSOAPModelBuilder(attachments).getSOAPEnvelope();
+		} else {
+			envelope = OMXMLBuilderFactory.createSOAPModelBuilder(in, "UTF-8").getSOAPEnvelope();
+		}
+
+		OMElement request = envelope.getBody().getFirstElement();
+		String operation = request.getLocalName();
+
+		calls.computeIfAbsent(operation, k -> new AtomicLong()).incrementAndGet();
+
+		if ("login".equals(operation)) {
+			Login login = Login.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(login(login), LoginResponse.MY_QNAME);
+		}
+
+		checkSession(envelope.getHeader());
+
+		if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+			throw new FaultException(failureCode, "Failure injected by the mock server");
+		}
+
+		switch (operation) {
+		case "query":
+			Query query = Query.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(query(query.getQueryString(), getBatchSize(envelope.getHeader())), QueryResponse.MY_QNAME);
+
+		case "queryMore":
+			QueryMore queryMore = QueryMore.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(queryMore(queryMore.getQueryLocator().getQueryLocator(),
+					getBatchSize(envelope.getHeader())), QueryMoreResponse.MY_QNAME);
+
+		case "create":
+			Create create = Create.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(create(create.getZObjects()), CreateResponse.MY_QNAME);
+
+		case "update":
+			Update update = Update.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(update(update.getZObjects()), UpdateResponse.MY_QNAME);
+
+		case "delete":
+			Delete delete = Delete.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(delete(delete.getType(), delete.getIds()), DeleteResponse.MY_QNAME);
+
+		case "subscribe":
+			Subscribe subscribe = Subscribe.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(subscribe(subscribe.getSubscribes()), SubscribeResponse.MY_QNAME);
+
+		case "amend":
+			Amend amend = Amend.Factory.parse(request.getXMLStreamReaderWithoutCaching());
+			return toSoap(amend(amend.getRequests()), AmendResponse.MY_QNAME);
+
+		default:
+			throw new FaultException("UNKNOWN_ERROR", "Operation not supported by the mock server: " + operation);
+		}
+	}
+
+	// --- Operations ---
+
+	private LoginResponse login(Login login) throws FaultException {
+
+		String password = users.get(login.getUsername());
+
+		if (!users.isEmpty() && (password == null || !password.equals(login.getPassword()))) {
+			throw new FaultException("INVALID_LOGIN", "Invalid login. User name and password do not match.",
+					"login");
+		}
+
+		String session = UUID.randomUUID().toString().replace("-", "");
+		sessions.put(session, System.currentTimeMillis());
+
+		LoginResult result = new LoginResult();
+		result.setSession(session);
+		result.setServerUrl(getEndpoint());
+
+		LoginResponse response = new LoginResponse();
+		response.setResult(result);
+
+		return response;
+	}
+
+	private QueryResponse query(String queryString, int batchSize) throws FaultException {
+
+		Matcher matcher = QUERY.matcher(queryString);
+		if (!matcher.matches()) {
+			throw new FaultException("MALFORMED_QUERY", "Malformed query: " + queryString, "query");
+		}
+
+		String type = matcher.group(2);
+		Class<? extends ZObject> typeClass = typeClass(type, "query");
+
+		List<String> fields = new ArrayList<String>();
+		for (String field : matcher.group(1).split(",")) {
+			String name = BeanFields.of(typeClass).name(field.trim());
+			if (name == null) {
+				throw new FaultException("INVALID_FIELD", "invalid field for query: " + type + "." + field.trim(),
+						"query");
+			}
+			fields.add(name);
+		}
+
+		List<List<String[]>> where = matcher.group(3) != null ? parseWhere(matcher.group(3), typeClass)
+				: Collections.<List<String[]>> emptyList();
+
+		if (typeClass == Import.class) {
+			processImports();
+		} else if (typeClass == Export.class) {
+			processExports();
+		}
+
+		List<ZObject> records = new ArrayList<ZObject>();
+		for (ZObject object : getObjects(typeClass.getSimpleName()).values()) {
+			if (where.isEmpty() || matches(object, where)) {
+				records.add(copy(object, fields));
+			}
+		}
+
+		QueryResponse response = new QueryResponse();
+		response.setResult(page(records, batchSize));
+
+		return response;
+	}
+
+	private QueryMoreResponse queryMore(String locator, int batchSize) throws FaultException {
+
+		List<ZObject> records = locators.remove(locator);
+		if (records == null) {
+			throw new FaultException("INVALID_VALUE", "invalid query locator: " + locator);
+		}
+
+		QueryMoreResponse response = new QueryMoreResponse();
+		response.setResult(page(records, batchSize));
+
+		return response;
+	}
+
+	private CreateResponse create(ZObject[] zObjects) throws FaultException, IOException {
+
+		checkSize(zObjects, "create");
+
+		SaveResult[] results = new SaveResult[zObjects.length];
+
+		for (int i = 0; i < zObjects.length; i++) {
+			ZObject stored = copy(zObjects[i], null);
+			String id = newId();
+			stored.setId(toId(id));
+			stamp(stored, true);
+
+			if (stored instanceof Import) {
+				receiveImport((Import) stored, id);
+			} else if (stored instanceof Export) {
+				receiveExport((Export) stored, id);
+			}
+
+			getObjects(typeOf(stored)).put(id, stored);
+			results[i] = saveResult(id, null, null);
+		}
+
+		CreateResponse response = new CreateResponse();
+		response.setResult(results);
+
+		return response;
+	}
+
+	private UpdateResponse update(ZObject[] zObjects) throws FaultException {
+
+		checkSize(zObjects, "update");
+
+		SaveResult[] results = new SaveResult[zObjects.length];
+
+		for (int i = 0; i < zObjects.length; i++) {
+			ZObject update = zObjects[i];
+			String id = update.getId() != null ? update.getId().getID() : null;
+			ZObject stored = id != null ? getObjects(typeOf(update)).get(id) : null;
+
+			if (stored == null) {
+				results[i] = saveResult(null, ErrorCode.INVALID_ID, "invalid id for update: " + id);
+				continue;
+			}
+
+			synchronized (stored) {
+				BeanFields.of(stored.getClass()).copySpecified(update, stored, null);
+				if (update.getFieldsToNull() != null) {
+					for (String field : update.getFieldsToNull()) {
+						BeanFields.of(stored.getClass()).setNull(stored, field);
+					}
+				}
+				stamp(stored, false);
+			}
+
+			results[i] = saveResult(id, null, null);
+		}
+
+		UpdateResponse response = new UpdateResponse();
+		response.setResult(results);
+
+		return response;
+	}
+
+	private DeleteResponse delete(String type, ID[] ids) throws FaultException {
+
+		Class<? extends ZObject> typeClass = typeClass(type, "delete");
+		checkSize(ids, "delete");
+
+		DeleteResult[] results = new DeleteResult[ids.length];
+
+		for (int i = 0; i < ids.length; i++) {
+			String id = ids[i].getID();
+			DeleteResult result = new DeleteResult();
+
+			if (getObjects(typeClass.getSimpleName()).remove(id) != null) {
+				result.setId(ids[i]);
+				result.setSuccess(true);
+			} else {
+				result.setSuccess(false);
+				result.setErrors(new ZuoraServiceStub.Error[] { error(ErrorCode.INVALID_ID,
+						"invalid id for delete: " + id) });
+			}
+
+			results[i] = result;
+		}
+
+		DeleteResponse response = new DeleteResponse();
+		response.setResult(results);
+
+		return response;
+	}
+
+	// --- Helpers ---
+
+	private void checkSession(SOAPHeader header) throws FaultException {
+
+		String session = null;
+
+		if (header != null) {
+			for (Iterator<?> it = header.getChildElements(); it.hasNext();) {
+				OMElement element = (OMElement) it.next();
+				if ("SessionHeader".equals(element.getLocalName())) {
+					OMElement child = element.getFirstElement();
+					session = child != null ? child.getText() : null;
+				}
+			}
+		}
+
+		Long created = session != null ? sessions.get(session) : null;
+
+		if (created == null || (sessionTimeout > 0 && System.currentTimeMillis() - created > sessionTimeout)) {
+			throw new FaultException("INVALID_SESSION", "Invalid Session");
+		}
+	}
+
+	private static int getBatchSize(SOAPHeader header) {
+
+		if (header != null) {
+			for (Iterator<?> it = header.getChildElements(); it.hasNext();) {
+				OMElement element = (OMElement) it.next();
+				if ("QueryOptions".equals(element.getLocalName())) {
+					for (Iterator<?> options = element.getChildElements(); options.hasNext();) {
+						OMElement option = (OMElement) options.next();
+						if ("batchSize".equals(option.getLocalName())) {
+							int batchSize = Integer.parseInt(option.getText().trim());
+							return batchSize > 0 ? Math.min(batchSize, MAX_BATCH_SIZE) : MAX_BATCH_SIZE;
+						}
+					}
+				}
+			}
+		}
+
+		return MAX_BATCH_SIZE;
+	}
+
+	/**
+	 * The first batchSize records, the other ones are kept for queryMore()
+	 */
+	private QueryResult page(List<ZObject> records, int batchSize) {
+
+		QueryResult result = new QueryResult();
+		result.setSize(records.size());
+
+		if (records.size() <= batchSize) {
+			result.setDone(true);
+			result.setQueryLocator(null);
+			result.setRecords(records.toArray(new ZObject[records.size()]));
+			return result;
+		}
+
+		String locator = UUID.randomUUID().toString().replace("-", "");
+		locators.put(locator, new ArrayList<ZObject>(records.subList(batchSize, records.size())));
+
+		QueryLocator queryLocator = new QueryLocator();
+		queryLocator.setQueryLocator(locator);
+
+		result.setDone(false);
+		result.setQueryLocator(queryLocator);
+		result.setRecords(records.subList(0, batchSize).toArray(new ZObject[batchSize]));
+
+		return result;
+	}
+
+	/**
+	 * Parse the WHERE clause: OR of AND of conditions {field, op, value}
+	 */
+	private static List<List<String[]>> parseWhere(String where, Class<? extends ZObject> typeClass)
+			throws FaultException {
+
+		List<List<String[]>> or = new ArrayList<List<String[]>>();
+
+		for (String orTerm : splitOutsideQuotes(where, "or")) {
+			List<String[]> and = new ArrayList<String[]>();
+
+			for (String condition : splitOutsideQuotes(orTerm, "and")) {
+				Matcher matcher = CONDITION.matcher(condition);
+				String name = matcher.matches() ? BeanFields.of(typeClass).name(matcher.group(1)) : null;
+				if (name == null) {
+					throw new FaultException("MALFORMED_QUERY", "Malformed condition: " + condition, "query");
+				}
+
+				String value = matcher.group(3);
+				if (value.startsWith("'")) {
+					value = value.substring(1, value.length() - 1).replace("\\'", "'");
+				} else if ("null".equalsIgnoreCase(value)) {
+					value = null;
+				}
+
+				and.add(new String[] { name, matcher.group(2), value });
+			}
+
+			or.add(and);
+		}
+
+		return or;
+	}
+
+	/**
+	 * Split on a keyword (`and`, `or`) outside of the quoted values
+	 */
+	private static List<String> splitOutsideQuotes(String text, String keyword) {
+
+		List<String> parts = new ArrayList<String>();
+		String lower = text.toLowerCase(Locale.ENGLISH);
+		String separator = " " + keyword + " ";
+		boolean inQuotes = false;
+		int from = 0;
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && inQuotes) {
+				i++;
+			} else if (c == '\'') {
+				inQuotes = !inQuotes;
+			} else if (!inQuotes && Character.isWhitespace(c) && lower.startsWith(keyword, i + 1)
+					&& i + separator.length() <= text.length()
+					&& Character.isWhitespace(text.charAt(i + separator.length() - 1))) {
+				parts.add(text.substring(from, i));
+				from = i + separator.length() - 1;
+				i = from - 1;
+			}
+		}
+		parts.add(text.substring(from));
+
+		return parts;
+	}
+
+	private static boolean matches(ZObject object, List<List<String[]>> where) {
+
+		for (List<String[]> and : where) {
+			boolean all = true;
+			for (String[] condition : and) {
+				if (!matches(BeanFields.of(object.getClass()).get(object, condition[0]), condition[1],
+						condition[2])) {
+					all = false;
+					break;
+				}
+			}
+			if (all) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean matches(Object actual, String op, String expected) {
+
+		if (actual == null || expected == null) {
+			boolean equal = actual == expected;
+			return "=".equals(op) ? equal : ("!=".equals(op) || "<>".equals(op)) && !equal;
+		}
+
+		int comparison;
+		if (actual instanceof ID) {
+			comparison = ((ID) actual).getID().compareTo(expected);
+		} else if (actual instanceof Calendar) {
+			comparison = ((Calendar) actual).compareTo(ConverterUtil.convertToDateTime(expected));
+		} else if (actual instanceof Number) {
+			comparison = Double.compare(((Number) actual).doubleValue(), Double.parseDouble(expected));
+		} else if (actual instanceof Boolean) {
+			comparison = actual.toString().compareToIgnoreCase(expected);
+		} else {
+			comparison = actual.toString().compareTo(expected);
+		}
+
+		switch (op) {
+		case "=":
+			return comparison == 0;
+		case "!=":
+		case "<>":
+			return comparison != 0;
+		case "<":
+			return comparison < 0;
+		case "<=":
+			return comparison <= 0;
+		case ">":
+			return comparison > 0;
+		default:
+			return comparison >= 0;
+		}
+	}
+
+	/**
+	 * Create the account (or use an existing one given by Id), its contacts,
+	 * payment method and an Active subscription (version 1) for each request
+	 */
+	private SubscribeResponse subscribe(SubscribeRequest[] requests) throws FaultException {
+
+		checkSize(requests, "subscribe");
+
+		SubscribeResult[] results = new SubscribeResult[requests.length];
+
+		for (int i = 0; i < requests.length; i++) {
+			SubscribeRequest request = requests[i];
+			SubscribeResult result = new SubscribeResult();
+			results[i] = result;
+
+			Account account = request.getAccount();
+			Subscription subscription = request.getSubscriptionData() != null
+					? request.getSubscriptionData().getSubscription() : null;
+
+			if (account == null || subscription == null) {
+				result.setSuccess(false);
+				result.setErrors(new ZuoraServiceStub.Error[] { error(ErrorCode.MISSING_REQUIRED_VALUE,
+						"Account and SubscriptionData.Subscription are required") });
+				continue;
+			}
+
+			String accountId;
+			if (account.getId() != null) {
+				accountId = account.getId().getID();
+				if (!getObjects("Account").containsKey(accountId)) {
+					result.setSuccess(false);
+					result.setErrors(new ZuoraServiceStub.Error[] { error(ErrorCode.INVALID_ID,
+							"invalid account id: " + accountId) });
+					continue;
+				}
+			} else {
+				Account created = (Account) copy(account, null);
+				if (created.getAccountNumber() == null) {
+					created.setAccountNumber(String.format("A%08d", lastId.get() + 1));
+				}
+				accountId = insert(created);
+			}
+			Account stored = (Account) getObjects("Account").get(accountId);
+
+			for (ZObject related : new ZObject[] { request.getBillToContact(), request.getSoldToContact(),
+					request.getPaymentMethod() }) {
+				if (related != null) {
+					ZObject created = copy(related, null);
+					BeanFields.of(created.getClass()).set(created, "AccountId", toId(accountId));
+					insert(created);
+				}
+			}
+
+			Subscription created = (Subscription) copy(subscription, null);
+			created.setAccountId(toId(accountId));
+			if (created.getName() == null) {
+				created.setName(String.format("A-S%08d", lastId.get() + 1));
+			}
+			created.setStatus("Active");
+			created.setVersion(1);
+			String subscriptionId = insert(created);
+			created.setOriginalId(toId(subscriptionId));
+
+			result.setSuccess(true);
+			result.setAccountId(toId(accountId));
+			result.setAccountNumber(stored.getAccountNumber());
+			result.setSubscriptionId(toId(subscriptionId));
+			result.setSubscriptionNumber(created.getName());
+		}
+
+		SubscribeResponse response = new SubscribeResponse();
+		response.setResult(results);
+
+		return response;
+	}
+
+	/**
+	 * Apply the amendments of each request: each one creates a new version of
+	 * its subscription (Version + 1, the previous one Expired), only the
+	 * latest version (Active) can be amended
+	 */
+	private AmendResponse amend(AmendRequest[] requests) throws FaultException {
+
+		checkSize(requests, "amend");
+
+		AmendResult[] results = new AmendResult[requests.length];
+
+		for (int i = 0; i < requests.length; i++) {
+			AmendResult result = new AmendResult();
+			results[i] = result;
+
+			Amendment[] amendments = requests[i].getAmendments() != null ? requests[i].getAmendments()
+					: new Amendment[0];
+			List<ID> amendmentIds = new ArrayList<ID>();
+			// The amendments of a request apply one after the other
+			Map<String, String> versions = new HashMap<String, String>();
+
+			for (Amendment amendment : amendments) {
+				String subscriptionId = amendment.getSubscriptionId() != null
+						? amendment.getSubscriptionId().getID() : null;
+				while (versions.containsKey(subscriptionId)) {
+					subscriptionId = versions.get(subscriptionId);
+				}
+				Subscription previous = subscriptionId != null
+						? (Subscription) getObjects("Subscription").get(subscriptionId) : null;
+
+				if (previous == null) {
+					result.setErrors(new ZuoraServiceStub.Error[] { error(ErrorCode.INVALID_ID,
+							"invalid subscription id: " + subscriptionId) });
+					break;
+				}
+
+				synchronized (previous) {
+					if (!"Active".equals(previous.getStatus())) {
+						result.setErrors(new ZuoraServiceStub.Error[] { error(ErrorCode.INVALID_VALUE,
+								"The subscription " + subscriptionId + " is not the latest version") });
+						break;
+					}
+					previous.setStatus("Expired");
+					stamp(previous, false);
+				}
+
+				Subscription version = (Subscription) copy(previous, null);
+				version.setStatus("Active");
+				version.setVersion(previous.getVersion() + 1);
+				version.setPreviousSubscriptionId(toId(subscriptionId));
+				String versionId = insert(version);
+				versions.put(subscriptionId, versionId);
+
+				Amendment created = (Amendment) copy(amendment, null);
+				created.setSubscriptionId(toId(versionId));
+				created.setStatus("Completed");
+				amendmentIds.add(toId(insert(created)));
+			}
+
+			result.setSuccess(result.getErrors() == null);
+			if (result.getSuccess()) {
+				result.setAmendmentIds(amendmentIds.toArray(new ID[amendmentIds.size()]));
+			}
+		}
+
+		AmendResponse response = new AmendResponse();
+		response.setResults(results);
+
+		return response;
+	}
+
+	/**
+	 * Store a new object (already copied)
+	 *
+	 * @return Its ID
+	 */
+	private String insert(ZObject object) {
+
+		String id = newId();
+		object.setId(toId(id));
+		stamp(object, true);
+		getObjects(typeOf(object)).put(id, object);
+
+		return id;
+	}
+
+	/**
+	 * Count the rows of the imported file, the import is Pending for
+	 * importProcessingTime ms
+	 */
+	private void receiveImport(Import zimport, String id) throws IOException {
+
+		long rows = 0;
+		DataHandler file = zimport.getFileContent();
+
+		if (file != null) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(),
+					StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.trim().length() > 0) {
+						rows++;
+					}
+				}
+			}
+		}
+
+		// Header not counted, the file is not kept
+		zimport.setFileContent(null);
+		zimport.setTotalCount((int) Math.max(0, rows - 1));
+		zimport.setImportedCount(0);
+		zimport.setStatus("Pending");
+		zimport.setResultResourceUrl(getEndpoint().replace(PATH, "/apps/api/file/") + id);
+
+		pendingImports.put(id, System.currentTimeMillis() + importProcessingTime);
+	}
+
+	/**
+	 * Complete the imports whose processing time is over
+	 */
+	private void processImports() {
+
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, Long> pending : pendingImports.entrySet()) {
+			if (pending.getValue() <= now && pendingImports.remove(pending.getKey()) != null) {
+				Import zimport = (Import) getObjects("Import").get(pending.getKey());
+				if (zimport != null) {
+					zimport.setImportedCount(zimport.getTotalCount());
+					zimport.setStatus("Completed");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run the query of the export and keep its CSV file (zipped if asked), the
+	 * export is Processing for exportProcessingTime ms
+	 */
+	private void receiveExport(Export export, String id) throws IOException {
+
+		export.setStatus("Processing");
+		pendingExports.put(id, System.currentTimeMillis() + exportProcessingTime);
+
+		Matcher matcher = export.getQuery() != null ? QUERY.matcher(export.getQuery()) : null;
+		List<ZObject> records = new ArrayList<ZObject>();
+		List<String> fields = new ArrayList<String>();
+
+		try {
+			if (matcher == null || !matcher.matches()) {
+				throw new FaultException("MALFORMED_QUERY", "Malformed query: " + export.getQuery(), "query");
+			}
+			QueryResult result = query(export.getQuery(), Integer.MAX_VALUE).getResult();
+			if (result.getRecords() != null) {
+				records.addAll(Arrays.asList(result.getRecords()));
+			}
+			BeanFields beanFields = BeanFields.of(typeClass(matcher.group(2), "query"));
+			for (String field : matcher.group(1).split(",")) {
+				fields.add(beanFields.name(field.trim()));
+			}
+
+		} catch (FaultException e) {
+			export.setStatusReason(e.getMessage());
+			return;
+		}
+
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < fields.size(); i++) {
+			csv.append(i > 0 ? "," : "").append(matcher.group(2)).append('.').append(fields.get(i));
+		}
+		csv.append('\n');
+		for (ZObject record : records) {
+			BeanFields beanFields = BeanFields.of(record.getClass());
+			for (int i = 0; i < fields.size(); i++) {
+				csv.append(i > 0 ? "," : "").append(toCsv(beanFields.get(record, fields.get(i))));
+			}
+			csv.append('\n');
+		}
+
+		byte[] content = csv.toString().getBytes(StandardCharsets.UTF_8);
+		if (export.getZip()) {
+			ByteArrayOutputStream zip = new ByteArrayOutputStream();
+			try (ZipOutputStream out = new ZipOutputStream(zip)) {
+				out.putNextEntry(new ZipEntry(export.getName() + ".csv"));
+				out.write(content);
+				out.closeEntry();
+			}
+			content = zip.toByteArray();
+		}
+
+		String fileId = newId();
+		files.put(fileId, content);
+		export.setFileId(toId(fileId));
+		export.setSize(records.size());
+	}
+
+	/**
+	 * Complete the exports whose processing time is over (Failed if their
+	 * query was invalid)
+	 */
+	private void processExports() {
+
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, Long> pending : pendingExports.entrySet()) {
+			if (pending.getValue() <= now && pendingExports.remove(pending.getKey()) != null) {
+				Export export = (Export) getObjects("Export").get(pending.getKey());
+				if (export != null) {
+					export.setStatus(export.getFileId() != null ? "Completed" : "Failed");
+				}
+			}
+		}
+	}
+
+	private static String toCsv(Object value) {
+
+		String text = value == null ? "" : value instanceof ID ? ((ID) value).getID()
+				: value instanceof Calendar ? ConverterUtil.convertToString((Calendar) value) : String.valueOf(value);
+
+		if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0) {
+			return '"' + text.replace("\"", "\"\"") + '"';
+		}
+
+		return text;
+	}
+
+	private static void checkSize(Object[] objects, String operation) throws FaultException {
+
+		if (objects == null || objects.length == 0) {
+			throw new FaultException("MISSING_REQUIRED_VALUE", "No object to " + operation);
+		}
+		if (objects.length > ZApi.MAX_OBJECTS) {
+			throw new FaultException("MAX_RECORDS_EXCEEDED", "The number of records exceeds the limit of "
+					+ ZApi.MAX_OBJECTS);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends ZObject> typeClass(String type, String operation) throws FaultException {
+
+		String name = type.substring(0, 1).toUpperCase(Locale.ENGLISH) + type.substring(1);
+
+		try {
+			Class<?> typeClass = Class.forName(ZuoraServiceStub.class.getName() + "$" + name);
+			if (ZObject.class.isAssignableFrom(typeClass) && typeClass != ZObject.class) {
+				return (Class<? extends ZObject>) typeClass;
+			}
+		} catch (ClassNotFoundException e) {
+			// Not a Zuora object
+		}
+
+		if ("query".equals(operation)) {
+			throw new FaultException("MALFORMED_QUERY", "invalid type: " + type, "query");
+		}
+		throw new FaultException("INVALID_TYPE", "invalid type: " + type, "type");
+	}
+
+	private static String typeOf(ZObject object) {
+		return object.getClass().getSimpleName();
+	}
+
+	private NavigableMap<String, ZObject> getObjects(String type) {
+		return objects.computeIfAbsent(type, k -> new ConcurrentSkipListMap<String, ZObject>());
+	}
+
+	private String newId() {
+		return String.format("2c92c0f9%024x", lastId.incrementAndGet());
+	}
+
+	private static ID toId(String id) {
+
+		ID zId = new ID();
+		zId.setID(id);
+
+		return zId;
+	}
+
+	/**
+	 * Set the CreatedDate/UpdatedDate of the object, if it has them
+	 */
+	private static void stamp(ZObject object, boolean created) {
+
+		BeanFields fields = BeanFields.of(object.getClass());
+		Calendar now = Calendar.getInstance();
+
+		if (created) {
+			fields.set(object, "CreatedDate", now);
+		}
+		fields.set(object, "UpdatedDate", now);
+	}
+
+	/**
+	 * Copy an object, with only the given fields (and its ID) or all of them if
+	 * null
+	 */
+	private static ZObject copy(ZObject object, List<String> fields) {
+
+		try {
+			ZObject copy = object.getClass().newInstance();
+			synchronized (object) {
+				BeanFields.of(object.getClass()).copySpecified(object, copy, fields);
+			}
+			if (object.getId() != null) {
+				copy.setId(object.getId());
+			}
+			return copy;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not copy a " + typeOf(object), e);
+		}
+	}
+
+	private static SaveResult saveResult(String id, ErrorCode code, String message) {
+
+		SaveResult result = new SaveResult();
+		result.setSuccess(code == null);
+
+		if (code == null) {
+			result.setId(toId(id));
+		} else {
+			result.setErrors(new ZuoraServiceStub.Error[] { error(code, message) });
+		}
+
+		return result;
+	}
+
+	private static ZuoraServiceStub.Error error(ErrorCode code, String message) {
+
+		ZuoraServiceStub.Error error = new ZuoraServiceStub.Error();
+		error.setCode(code);
+		error.setMessage(message);
+
+		return error;
+	}
+
+	private void sleep() {
+
+		if (maxLatency <= 0) {
+			return;
+		}
+
+		try {
+			Thread.sleep(minLatency + ThreadLocalRandom.current().nextLong(maxLatency - minLatency + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+
+		byte[] buffer = new byte[8192];
+		while (in.read(buffer) != -1) {
+			// Discard the request
+		}
+		in.close();
+	}
+
+	private static byte[] toSoap(ADBBean response, QName name) throws Exception {
+
+		SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+		SOAPEnvelope envelope = factory.getDefaultEnvelope();
+		envelope.getBody().addChild(response.getOMElement(name, factory));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		envelope.serializeAndConsume(out);
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * A SOAP fault, with the detail expected by the stub for the operation
+	 */
+	private static class FaultException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String code;
+
+		private final String kind;
+
+		FaultException(String code, String message) {
+			this(code, message, null);
+		}
+
+		/**
+		 * @param kind
+		 *            login, query, type or null (unexpected error)
+		 */
+		FaultException(String code, String message, String kind) {
+			super(message);
+			this.code = code;
+			this.kind = kind;
+		}
+
+		byte[] toSoap() {
+
+			SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+			OMElement detail;
+
+			try {
+				if ("login".equals(kind)) {
+					ZuoraServiceStub.LoginFault fault = fill(new ZuoraServiceStub.LoginFault());
+					LoginFaultE element = new LoginFaultE();
+					element.setLoginFault(fault);
+					detail = element.getOMElement(LoginFaultE.MY_QNAME, factory);
+				} else if ("query".equals(kind)) {
+					ZuoraServiceStub.MalformedQueryFault fault = fill(new ZuoraServiceStub.MalformedQueryFault());
+					MalformedQueryFaultE element = new MalformedQueryFaultE();
+					element.setMalformedQueryFault(fault);
+					detail = element.getOMElement(MalformedQueryFaultE.MY_QNAME, factory);
+				} else if ("type".equals(kind)) {
+					ZuoraServiceStub.InvalidTypeFault fault = fill(new ZuoraServiceStub.InvalidTypeFault());
+					InvalidTypeFaultE element = new InvalidTypeFaultE();
+					element.setInvalidTypeFault(fault);
+					detail = element.getOMElement(InvalidTypeFaultE.MY_QNAME, factory);
+				} else {
+					ZuoraServiceStub.UnexpectedErrorFault fault = fill(new ZuoraServiceStub.UnexpectedErrorFault());
+					UnexpectedErrorFaultE element = new UnexpectedErrorFaultE();
+					element.setUnexpectedErrorFault(fault);
+					detail = element.getOMElement(UnexpectedErrorFaultE.MY_QNAME, factory);
+				}
+
+				String message = escape(getMessage());
+
+				return ("<soapenv:Envelope xmlns:soapenv=\"" + SOAP_NS + "\"><soapenv:Body><soapenv:Fault>"
+						+ "<faultcode>fns:" + code + "</faultcode><faultstring>" + message + "</faultstring>"
+						+ "<detail>" + detail.toString() + "</detail></soapenv:Fault></soapenv:Body></soapenv:Envelope>")
+						.replace("<faultcode>fns:", "<faultcode xmlns:fns=\"http://fault.api.zuora.com/\">fns:")
+						.getBytes(StandardCharsets.UTF_8);
+
+			} catch (Exception e) {
+				throw new IllegalStateException("Could not write the fault", e);
+			}
+		}
+
+		private <T extends ApiFault> T fill(T fault) {
+
+			fault.setFaultCode(ErrorCode.Factory.fromValue(code));
+			fault.setFaultMessage(getMessage());
+
+			return fault;
+		}
+
+		private static String escape(String text) {
+			return text == null ? "" : text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+		}
+	}
+
+	/**
+	 * The fields of a generated ADB class, found by reflection: each field has
+	 * a getter, a setter and an isXxxSpecified() method
+	 */
+	private static class BeanFields {
+
+		private static final ConcurrentMap<Class<?>, BeanFields> CACHE = new ConcurrentHashMap<Class<?>, BeanFields>();
+
+		/** Field name, by lower case name */
+		private final Map<String, String> names = new HashMap<String, String>();
+
+		private final Map<String, Method> getters = new HashMap<String, Method>();
+
+		private final Map<String, Method> setters = new HashMap<String, Method>();
+
+		private final Map<String, Method> specified = new HashMap<String, Method>();
+
+		static BeanFields of(Class<?> beanClass) {
+			return CACHE.computeIfAbsent(beanClass, BeanFields::new);
+		}
+
+		BeanFields(Class<?> beanClass) {
+
+			for (Method method : beanClass.getMethods()) {
+				String name = method.getName();
+				if (name.startsWith("is") && name.endsWith("Specified") && method.getParameterTypes().length == 0) {
+					String field = name.substring(2, name.length() - "Specified".length());
+					try {
+						Method getter = beanClass.getMethod("get" + field);
+						Method setter = beanClass.getMethod("set" + field, getter.getReturnType());
+						names.put(field.toLowerCase(Locale.ENGLISH), field);
+						getters.put(field, getter);
+						setters.put(field, setter);
+						specified.put(field, method);
+					} catch (NoSuchMethodException e) {
+						// Not a field
+					}
+				}
+			}
+
+			// Never selected nor copied
+			names.remove("fieldstonull");
+		}
+
+		/**
+		 * The field name with its case, null if unknown
+		 */
+		String name(String field) {
+			return names.get(field.toLowerCase(Locale.ENGLISH));
+		}
+
+		Object get(Object bean, String field) {
+			try {
+				return getters.get(field).invoke(bean);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void set(Object bean, String field, Object value) {
+			try {
+				Method setter = setters.get(field);
+				if (setter != null) {
+					setter.invoke(bean, value);
+				}
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void setNull(Object bean, String field) {
+
+			String name = name(field);
+			if (name != null && !getters.get(name).getReturnType().isPrimitive()) {
+				set(bean, name, null);
+			}
+		}
+
+		/**
+		 * Copy the fields set on the source (all of them, or only the given
+		 * ones)
+		 */
+		void copySpecified(Object source, Object target, List<String> fields) {
+
+			try {
+				for (String field : fields != null ? fields : names.values()) {
+					if ((Boolean) specified.get(field).invoke(source)) {
+						setters.get(field).invoke(target, getters.get(field).invoke(source));
+					}
+				}
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Run a mock server from the command line, e.g. for a load test from
+	 * another process
+	 *
+	 * Usage: ZMockServer [port]
+	 */
+	public static void main(String[] args) throws Exception {
+
+		// Otherwise the responses wait for the delayed ACK on kept-alive connections
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		ZMockServer server = new ZMockServer(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+		server.start();
+
+		System.out.println("Endpoint: " + server.getEndpoint());
+		Thread.currentThread().join();
+	}
+}
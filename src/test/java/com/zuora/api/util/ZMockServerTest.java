@@ -0,0 +1,291 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * The ZApi against a local ZMockServer, no Zuora tenant needed
+ */
+public class ZMockServerTest {
+
+	private ZMockServer server;
+
+	private ZApi zapi;
+
+	@Before
+	public void setUp() throws Exception {
+
+		server = new ZMockServer();
+		server.addUser("mock@zuora.com", "secret");
+		server.start();
+
+		zapi = new ZApi(server.getEndpoint());
+		Assert.assertNotNull(zapi.zLogin("mock@zuora.com", "secret"));
+
+		// No limit from the other tests
+		zapi.setRateLimiter(new ZRateLimiter(0, 100, 5, 10, 100));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testInvalidLogin() {
+		Assert.assertNull(new ZApi(server.getEndpoint()).zLogin("other@zuora.com", "secret"));
+	}
+
+	@Test
+	public void testWrongPasswordWithCachedSession() {
+
+		// The session of mock@zuora.com is cached by setUp()
+		Assert.assertNull(new ZApi(server.getEndpoint()).zLogin("mock@zuora.com", "WRONG"));
+		Assert.assertNotNull(new ZApi(server.getEndpoint()).zLogin("mock@zuora.com", "secret"));
+	}
+
+	@Test
+	public void testCreateQueryUpdateDelete() {
+
+		SaveResult[] created = zapi.zCreate(accounts(3));
+		Assert.assertEquals(3, created.length);
+		Assert.assertTrue(created[0].getSuccess());
+		Assert.assertEquals(3, server.count("Account"));
+
+		String id = created[1].getId().getID();
+
+		QueryResult result = zapi.zQuery("SELECT Id, Name, Currency FROM Account WHERE Id = '" + id + "'");
+		Assert.assertEquals(1, result.getSize());
+		Account account = (Account) result.getRecords()[0];
+		Assert.assertEquals("Mock account 1", account.getName());
+		// Only the selected fields
+		Assert.assertNull(account.getBatch());
+
+		Account update = new Account();
+		update.setId(created[1].getId());
+		update.setName("Renamed");
+		Assert.assertTrue(zapi.zUpdate(new ZObject[] { update })[0].getSuccess());
+		Assert.assertEquals("Renamed", ((Account) server.get("Account", id)).getName());
+		Assert.assertEquals("USD", ((Account) server.get("Account", id)).getCurrency());
+
+		result = zapi.zQuery("select Name from Account where Name = 'Renamed' or Name = 'Mock account 2'");
+		Assert.assertEquals(2, result.getSize());
+
+		result = zapi.zQuery("SELECT Name FROM Account WHERE Name != 'Renamed' AND Currency = 'USD'");
+		Assert.assertEquals(2, result.getSize());
+
+		DeleteResult[] deleted = zapi.zDelete(new String[] { id, id }, "Account");
+		Assert.assertTrue(deleted[0].getSuccess());
+		Assert.assertFalse(deleted[1].getSuccess());
+		Assert.assertEquals(2, server.count("Account"));
+	}
+
+	@Test
+	public void testMalformedQuery() {
+
+		Assert.assertNull(zapi.zQuery("SELECT Name FROM NotAType"));
+		Assert.assertNull(zapi.zQuery("SELECT NotAField FROM Account"));
+		Assert.assertNull(zapi.zQuery("DELETE FROM Account"));
+	}
+
+	@Test
+	public void testQueryMore() {
+
+		for (ZObject account : accounts(250)) {
+			server.put(account);
+		}
+
+		int count = 0;
+		try (ZQueryIterator iterator = zapi.zQueryIterator("SELECT Id, Name FROM Account", 100)) {
+			for (ZObject object : iterator) {
+				Assert.assertNotNull(object.getId());
+				count++;
+			}
+		}
+
+		Assert.assertEquals(250, count);
+		Assert.assertEquals(1, server.getCallCount("query"));
+		Assert.assertEquals(2, server.getCallCount("queryMore"));
+	}
+
+	@Test
+	public void testExpiredSession() {
+
+		server.put(accounts(1)[0]);
+		server.expireSessions();
+
+		// Logged in again once, then the call is sent again
+		Assert.assertEquals(1, zapi.zQuery("SELECT Id FROM Account").getSize());
+		Assert.assertEquals(2, server.getCallCount("login"));
+	}
+
+	@Test
+	public void testFailureInjection() {
+
+		server.setFailureRate(1, "SERVER_UNAVAILABLE");
+		Assert.assertNull(zapi.zQuery("SELECT Id FROM Account"));
+
+		server.setFailureRate(0, null);
+		Assert.assertNotNull(zapi.zQuery("SELECT Id FROM Account"));
+	}
+
+	@Test
+	public void testThrottling() throws Exception {
+
+		server.setLatency(20, 20);
+		server.setMaxConcurrentCalls(2);
+
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "mock@zuora.com", "secret", 0, 8, 60000, 10000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<QueryResult>> results = new ArrayList<Future<QueryResult>>();
+
+		try {
+			for (int i = 0; i < 32; i++) {
+				results.add(executor.submit(() -> pool.execute(zapi -> zapi.zQuery("SELECT Id FROM Account"))));
+			}
+
+			for (Future<QueryResult> result : results) {
+				// Throttled, then sent again by the ZApi
+				Assert.assertNotNull(result.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdown();
+			pool.close();
+		}
+
+		Assert.assertTrue(server.getThrottledCount() > 0);
+		Assert.assertEquals(32, server.getCallCount("query"));
+	}
+
+	@Test
+	public void testUpdateWhileIterating() {
+
+		Assert.assertEquals(30, zapi.zCreate(accounts(30)).length);
+		server.setLatency(0, 5);
+
+		// The pages are fetched with another ZApi while this one updates
+		int count = 0;
+		try (ZQueryIterator records = zapi.zQueryIterator("SELECT Id, Name FROM Account", 5)) {
+			for (ZObject record : records) {
+				Account update = new Account();
+				update.setId(record.getId());
+				update.setName("Iterated " + count++);
+				Assert.assertTrue(zapi.zUpdate(new ZObject[] { update })[0].getSuccess());
+			}
+		}
+
+		Assert.assertEquals(30, count);
+		Assert.assertEquals(30, zapi.zQuery("SELECT Id FROM Account WHERE Name >= 'Iterated'").getSize());
+	}
+
+	@Test
+	public void testImport() throws Exception {
+
+		server.setImportProcessingTime(200);
+
+		String csv = "Account.Name,Account.Currency\nFirst,USD\n\nSecond,USD\n";
+		ID importId = ZImport.createImport(zapi, new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+				"accounts.csv");
+		Assert.assertNotNull(importId);
+
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "mock@zuora.com", "secret", 0, 2, 60000, 1000);
+		ZImportTracker tracker = new ZImportTracker(pool, 50, 200);
+		try {
+			Import zimport = tracker.track(importId).get(10, TimeUnit.SECONDS);
+			Assert.assertEquals(ZImportTracker.STATUS_COMPLETED, zimport.getStatus());
+			Assert.assertEquals(2, zimport.getImportedCount());
+		} finally {
+			tracker.shutdown();
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testShardedImportCleanedUpOnError() throws Exception {
+
+		File tmp = new File(System.getProperty("java.io.tmpdir"));
+		FilenameFilter shardDirectories = (dir, name) -> name.startsWith("zimport");
+		int before = tmp.list(shardDirectories).length;
+
+		StringBuilder csv = new StringBuilder("Account.Name,Account.Currency\n");
+		for (int i = 0; i < 100; i++) {
+			csv.append("Account ").append(i).append(",USD\n");
+		}
+		// The file cannot be read to the end
+		InputStream failing = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("Disk error");
+			}
+		};
+		InputStream in = new SequenceInputStream(
+				new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), failing);
+
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "mock@zuora.com", "secret", 0, 2, 60000, 10000);
+		try {
+			Assert.assertNull(ZImport.createShardedImport(pool, in, "usage.csv", 200));
+		} finally {
+			pool.close();
+		}
+
+		Assert.assertEquals(before, tmp.list(shardDirectories).length);
+	}
+
+	@Test
+	public void testBulkApi() {
+
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "mock@zuora.com", "secret", 0, 4, 60000, 10000);
+		ZBulkApi bulkApi = new ZBulkApi(pool, 4);
+		try {
+			SaveResult[] results = bulkApi.zCreate(accounts(520));
+			Assert.assertEquals(520, results.length);
+			for (SaveResult result : results) {
+				Assert.assertTrue(result.getSuccess());
+			}
+			Assert.assertEquals(520, server.count("Account"));
+			Assert.assertEquals(11, server.getCallCount("create"));
+		} finally {
+			bulkApi.shutdown();
+			pool.close();
+		}
+	}
+
+	private static ZObject[] accounts(int size) {
+
+		ZObject[] accounts = new ZObject[size];
+		for (int i = 0; i < size; i++) {
+			Account account = new Account();
+			account.setName("Mock account " + i);
+			account.setCurrency("USD");
+			account.setBillCycleDay(1);
+			account.setStatus("Draft");
+			accounts[i] = account;
+		}
+
+		return accounts;
+	}
+}
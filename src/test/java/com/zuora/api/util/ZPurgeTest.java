@@ -0,0 +1,116 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.Invoice;
+import com.zuora.api.axis2.ZuoraServiceStub.Payment;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZPurgeTest {
+
+	/** More than one query page */
+	private static final int NB_ACCOUNTS = ZMockServer.MAX_BATCH_SIZE + 100;
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZBulkApi bulk;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		// As many chunks in flight as ZApi in the pool: the queries must not hold one
+		pool = new ZApiPool(server.getEndpoint(), "purge@zuora.com", "secret", 0, 2, 60000, 10000);
+		bulk = new ZBulkApi(pool, 2);
+		file = File.createTempFile("zpurge", ".log");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		bulk.shutdown();
+		pool.close();
+		server.stop();
+		file.delete();
+	}
+
+	@Test
+	public void testCountAndPurge() {
+
+		create(new Account(), NB_ACCOUNTS);
+		create(new Invoice(), 60);
+		create(new Payment(), 30);
+
+		ZPurge purge = new ZPurge(bulk);
+		final List<String> order = new ArrayList<String>();
+		purge.setListener(progress -> {
+			if (!order.contains(progress.getType())) {
+				order.add(progress.getType());
+			}
+		});
+
+		// Dry run, one query per type
+		long queries = server.getCallCount("query");
+		Map<String, Long> counts = purge.count();
+		Assert.assertEquals(ZPurge.DEFAULT_TYPES.size(), server.getCallCount("query") - queries);
+		Assert.assertEquals(0, server.getCallCount("queryMore"));
+		Assert.assertEquals(ZPurge.DEFAULT_TYPES, new ArrayList<String>(counts.keySet()));
+		Assert.assertEquals(Long.valueOf(NB_ACCOUNTS), counts.get("Account"));
+		Assert.assertEquals(Long.valueOf(60), counts.get("Invoice"));
+		Assert.assertEquals(Long.valueOf(0), counts.get("Refund"));
+		Assert.assertEquals(NB_ACCOUNTS, server.count("Account"));
+
+		Map<String, ZPurge.Progress> report = purge.purge();
+		Assert.assertEquals(NB_ACCOUNTS, report.get("Account").getDeleted());
+		Assert.assertEquals(30, report.get("Payment").getDeleted());
+		Assert.assertEquals(0, report.get("Account").getFailed());
+		Assert.assertEquals(Arrays.asList("Payment", "Invoice", "Account"), order);
+		Assert.assertEquals(0, server.count("Account"));
+		Assert.assertEquals(0, server.count("Invoice"));
+		Assert.assertEquals(0, server.count("Payment"));
+	}
+
+	@Test
+	public void testResume() throws Exception {
+
+		create(new Payment(), 10);
+		create(new Account(), 10);
+
+		ZCheckpointJournal journal = new ZCheckpointJournal(file);
+		ZPurge purge = new ZPurge(bulk);
+		purge.setTypes(Arrays.asList("Payment", "Account"));
+		purge.setJournal(journal);
+		Assert.assertEquals(10, purge.purge().get("Payment").getDeleted());
+		journal.close();
+
+		// Started again: the types purged are skipped
+		create(new Payment(), 1);
+		journal = new ZCheckpointJournal(file);
+		purge.setJournal(journal);
+		Map<String, ZPurge.Progress> report = purge.purge();
+		journal.close();
+
+		Assert.assertTrue(report.get("Payment").isSkipped());
+		Assert.assertTrue(report.get("Account").isSkipped());
+		Assert.assertEquals(1, server.count("Payment"));
+	}
+
+	private void create(ZObject object, int count) {
+
+		ZObject[] objects = new ZObject[count];
+		Arrays.fill(objects, object);
+
+		Assert.assertNotNull(bulk.zCreate(objects));
+	}
+}
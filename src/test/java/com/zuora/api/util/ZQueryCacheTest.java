@@ -0,0 +1,169 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZQueryCacheTest {
+
+	@Test
+	public void testNormalize() {
+
+		Assert.assertEquals("select id from account where name = 'Big  Co'",
+				ZQueryCache.normalize(null, "  SELECT Id\n FROM   Account WHERE Name = 'Big  Co' "));
+		Assert.assertEquals("x|select id from account where name = 'It\\'s'",
+				ZQueryCache.normalize("x", "select id from Account where Name = 'It\\'s'"));
+	}
+
+	@Test
+	public void testEvictionAndInvalidation() throws Exception {
+
+		ZQueryCache cache = new ZQueryCache(2, 60000);
+
+		cache.put("select id from account", result(true));
+		cache.put("select id from product", result(true));
+		cache.put("select id from invoice", result(false));
+		Assert.assertEquals(2, cache.size());
+
+		// Least recently used evicted
+		Assert.assertNotNull(cache.get("select id from account"));
+		cache.put("select id from contact", result(true));
+		Assert.assertNull(cache.get("select id from product"));
+		Assert.assertEquals(1, cache.getEvictions());
+
+		cache.invalidate("Account");
+		Assert.assertNull(cache.get("select id from account"));
+		Assert.assertNotNull(cache.get("select id from contact"));
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+
+		// Expired
+		ZQueryCache shortLived = new ZQueryCache(10, 20);
+		shortLived.put("select id from account", result(true));
+		Thread.sleep(50);
+		Assert.assertNull(shortLived.get("select id from account"));
+		Assert.assertEquals(0, shortLived.size());
+	}
+
+	@Test
+	public void testZApiQueries() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+
+		try {
+			ZApi zapi = new ZApi(server.getEndpoint());
+			zapi.zLogin("cache@zuora.com", "secret");
+			zapi.setQueryCache(new ZQueryCache(100, 60000));
+
+			Account account = new Account();
+			account.setName("Cached Account");
+			zapi.zCreate(new ZObject[] { account });
+
+			Assert.assertEquals(1, zapi.zQuery("SELECT Id FROM Account").getSize());
+			Assert.assertEquals(1, zapi.zQuery("select Id from Account").getSize());
+			Assert.assertEquals(1, server.getCallCount("query"));
+
+			zapi.zCreate(new ZObject[] { new Account() });
+			Assert.assertEquals(2, zapi.zQuery("SELECT Id FROM Account").getSize());
+			Assert.assertEquals(2, server.getCallCount("query"));
+			Assert.assertEquals(1, zapi.getQueryCache().getHits());
+
+			// A cached result read by an iterator stays complete
+			for (int i = 0; i < 2; i++) {
+				try (ZQueryIterator records = zapi.zQueryIterator("SELECT Id, Name FROM Account")) {
+					int count = 0;
+					for (ZObject record : records) {
+						Assert.assertNotNull(record);
+						count++;
+					}
+					Assert.assertEquals(2, count);
+				}
+			}
+
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testCaseSensitivityInTheKey() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.start();
+
+		try {
+			ZApi zapi = new ZApi(server.getEndpoint());
+			zapi.zLogin("cache@zuora.com", "secret");
+			zapi.setQueryCache(new ZQueryCache(100, 60000));
+
+			QueryOptions sensitive = new QueryOptions();
+			sensitive.setCaseSensitive(true);
+			QueryOptions insensitive = new QueryOptions();
+			insensitive.setCaseSensitive(false);
+
+			String query = "SELECT Id FROM Account WHERE Name = 'cached'";
+			zapi.zQuery(query, sensitive);
+			zapi.zQuery(query, insensitive);
+			zapi.zQuery(query, sensitive);
+			Assert.assertEquals(2, server.getCallCount("query"));
+			Assert.assertEquals(2, zapi.getQueryCache().size());
+
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testPollersBypassTheCache() throws Exception {
+
+		ZMockServer server = new ZMockServer();
+		server.setImportProcessingTime(200);
+		server.start();
+
+		ZApiPool pool = new ZApiPool(server.getEndpoint(), "cache@zuora.com", "secret", 0, 2, 60000, 1000);
+		pool.setQueryCache(new ZQueryCache(100, 60000));
+		ZImportTracker tracker = new ZImportTracker(pool, 50, 100);
+
+		try {
+			ID importId = pool.execute(zapi -> ZImport.createImport(zapi,
+					new ByteArrayInputStream("Account.Name\nFirst\n".getBytes(StandardCharsets.UTF_8)),
+					"accounts.csv"));
+
+			// The Pending status read by the first polls is not cached
+			Import zimport = tracker.track(importId).get(10, TimeUnit.SECONDS);
+			Assert.assertEquals(ZImportTracker.STATUS_COMPLETED, zimport.getStatus());
+			Assert.assertEquals(0, pool.getQueryCache().size());
+
+			long queries = server.getCallCount("query");
+			pool.execute(zapi -> zapi.zQuery("SELECT Id FROM Account"));
+			pool.execute(zapi -> zapi.zQuery("SELECT Id FROM Account", null, false));
+			Assert.assertEquals(queries + 2, server.getCallCount("query"));
+			Assert.assertEquals(1, pool.getQueryCache().size());
+
+		} finally {
+			tracker.shutdown();
+			pool.close();
+			server.stop();
+		}
+	}
+
+	private static QueryResult result(boolean done) {
+
+		QueryResult result = new QueryResult();
+		result.setDone(done);
+		result.setSize(0);
+
+		return result;
+	}
+}
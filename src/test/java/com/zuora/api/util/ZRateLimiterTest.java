@@ -0,0 +1,141 @@
+package com.zuora.api.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.axis2.AxisFault;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZRateLimiterTest {
+
+	@Test
+	public void testHalveOnThrottle() throws Exception {
+
+		ZRateLimiter limiter = new ZRateLimiter(0, 16, 5, 0, 0);
+
+		limiter.acquire();
+		limiter.release(true);
+		Assert.assertEquals(8, limiter.getConcurrencyLimit());
+
+		limiter.acquire();
+		limiter.release(true);
+		Assert.assertEquals(4, limiter.getConcurrencyLimit());
+
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire();
+			limiter.release(true);
+		}
+		Assert.assertEquals(1, limiter.getConcurrencyLimit());
+	}
+
+	@Test
+	public void testOneDecreasePerRetryDelay() throws Exception {
+
+		ZRateLimiter limiter = new ZRateLimiter(0, 16, 5, 60000, 60000);
+
+		// Several calls in flight throttled at the same time
+		for (int i = 0; i < 4; i++) {
+			limiter.acquire();
+		}
+		for (int i = 0; i < 4; i++) {
+			limiter.release(true);
+		}
+
+		Assert.assertEquals(8, limiter.getConcurrencyLimit());
+	}
+
+	@Test
+	public void testIncreaseAfterSuccess() throws Exception {
+
+		ZRateLimiter limiter = new ZRateLimiter(0, 8, 5, 0, 0);
+
+		limiter.acquire();
+		limiter.release(true);
+		Assert.assertEquals(4, limiter.getConcurrencyLimit());
+
+		// About +1 per round of (4 or 5) successful calls
+		for (int i = 0; i < 5; i++) {
+			limiter.acquire();
+			limiter.release(false);
+		}
+		Assert.assertEquals(5, limiter.getConcurrencyLimit());
+
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire();
+			limiter.release(false);
+		}
+		Assert.assertEquals(8, limiter.getConcurrencyLimit());
+	}
+
+	@Test
+	public void testMaxConcurrency() throws Exception {
+
+		final ZRateLimiter limiter = new ZRateLimiter(0, 3, 5, 0, 0);
+		final AtomicInteger current = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		for (int i = 0; i < 50; i++) {
+			executor.execute(() -> {
+				try {
+					limiter.acquire();
+					try {
+						max.accumulateAndGet(current.incrementAndGet(), Math::max);
+						Thread.sleep(2);
+						current.decrementAndGet();
+					} finally {
+						limiter.release(false);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		Assert.assertEquals(3, max.get());
+		Assert.assertEquals(0, limiter.getInFlightCount());
+	}
+
+	@Test
+	public void testRequestsPerSecond() throws Exception {
+
+		ZRateLimiter limiter = new ZRateLimiter(50, 10, 5, 0, 0);
+
+		// The bucket starts full (50 calls), the next 25 calls take ~0.5 s
+		long start = System.nanoTime();
+		for (int i = 0; i < 75; i++) {
+			limiter.acquire();
+			limiter.release(false);
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		Assert.assertTrue("Too fast: " + elapsed + " ms", elapsed >= 400);
+		Assert.assertTrue("Too slow: " + elapsed + " ms", elapsed < 2000);
+	}
+
+	@Test
+	public void testRetryDelay() {
+
+		ZRateLimiter limiter = new ZRateLimiter(0, 1, 5, 100, 1000);
+
+		for (int i = 0; i < 100; i++) {
+			Assert.assertTrue(limiter.getRetryDelay(0) <= 100);
+			Assert.assertTrue(limiter.getRetryDelay(2) <= 400);
+			Assert.assertTrue(limiter.getRetryDelay(10) <= 1000);
+		}
+	}
+
+	@Test
+	public void testIsThrottled() {
+
+		Assert.assertTrue(ZuoraUtility.isThrottled(new AxisFault("Transport error: 503 Error: Service Unavailable")));
+		Assert.assertTrue(ZuoraUtility.isThrottled(new AxisFault("Transport error: 429 Error: Too Many Requests")));
+		Assert.assertFalse(ZuoraUtility.isThrottled(new AxisFault("Transport error: 500 Error: Internal Server Error")));
+		Assert.assertFalse(ZuoraUtility.isThrottled(new IllegalStateException("Transport error: 503")));
+	}
+}
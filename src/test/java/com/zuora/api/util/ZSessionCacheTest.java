@@ -0,0 +1,103 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+
+public class ZSessionCacheTest {
+
+	private static final String ENDPOINT = "https://apisandbox.zuora.com/apps/services/a/45.0";
+
+	private final AtomicInteger logins = new AtomicInteger();
+
+	/** Fake login call, returns a new session each time */
+	private final Supplier<LoginResult> login = () -> {
+		LoginResult result = new LoginResult();
+		result.setSession("session-" + logins.incrementAndGet());
+		return result;
+	};
+
+	@Test
+	public void testOneLoginForManyThreads() throws Exception {
+
+		final ZSessionCache cache = new ZSessionCache(60000, 60000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		List<Callable<LoginResult>> calls = new ArrayList<Callable<LoginResult>>();
+		for (int i = 0; i < 50; i++) {
+			calls.add(() -> cache.get(ENDPOINT, "user", login));
+		}
+
+		for (Future<LoginResult> future : executor.invokeAll(calls)) {
+			Assert.assertEquals("session-1", future.get().getSession());
+		}
+		executor.shutdown();
+
+		Assert.assertEquals(1, logins.get());
+	}
+
+	@Test
+	public void testOneSessionPerUser() {
+
+		ZSessionCache cache = new ZSessionCache(60000, 60000);
+
+		Assert.assertEquals("session-1", cache.get(ENDPOINT, "user1", login).getSession());
+		Assert.assertEquals("session-2", cache.get(ENDPOINT, "user2", login).getSession());
+		Assert.assertEquals("session-1", cache.get(ENDPOINT, "user1", login).getSession());
+	}
+
+	@Test
+	public void testOneSessionPerPassword() {
+
+		ZSessionCache cache = new ZSessionCache(60000, 60000);
+
+		Assert.assertEquals("session-1", cache.get(ENDPOINT, "user", "secret", login).getSession());
+		// Another password is not given the cached session
+		Assert.assertNull(cache.get(ENDPOINT, "user", "WRONG", () -> null));
+		Assert.assertEquals("session-1", cache.get(ENDPOINT, "user", "secret", login).getSession());
+		Assert.assertEquals(1, logins.get());
+	}
+
+	@Test
+	public void testRenewOnlyOnce() {
+
+		ZSessionCache cache = new ZSessionCache(60000, 60000);
+		cache.get(ENDPOINT, "user", login);
+
+		// Two threads see the same rejected session, only the first one logs in
+		Assert.assertEquals("session-2", cache.renew(ENDPOINT, "user", "session-1", login).getSession());
+		Assert.assertEquals("session-2", cache.renew(ENDPOINT, "user", "session-1", login).getSession());
+		Assert.assertEquals(2, logins.get());
+	}
+
+	@Test
+	public void testRefreshWhenTooOld() throws Exception {
+
+		ZSessionCache cache = new ZSessionCache(0, 60000);
+		cache.get(ENDPOINT, "user", login);
+		Thread.sleep(5);
+
+		// Older than refreshAfter: renewed by the next caller
+		Assert.assertEquals("session-2", cache.get(ENDPOINT, "user", login).getSession());
+	}
+
+	@Test
+	public void testKeepSessionIfLoginFails() throws Exception {
+
+		ZSessionCache cache = new ZSessionCache(0, 60000);
+		cache.get(ENDPOINT, "user", login);
+		Thread.sleep(5);
+
+		Assert.assertEquals("session-1", cache.get(ENDPOINT, "user", () -> null).getSession());
+	}
+}
@@ -0,0 +1,73 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZStreamDataSourceTest {
+
+	private static final String CSV = "ACCOUNT_ID,UOM,QTY,STARTDATE,ENDDATE,SUBSCRIPTION_ID,CHARGE_ID,DESCRIPTION\n"
+			+ "A00000001,Each,10,01/01/2014,01/31/2014,,,\n";
+
+	private static final String CONTENT_TYPE = "text/plain;name=usage.csv";
+
+	@Test
+	public void testFileCanBeReadTwice() throws IOException {
+
+		File file = File.createTempFile("usage", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+
+		ZStreamDataSource dataSource = new ZStreamDataSource(file, CONTENT_TYPE);
+
+		Assert.assertEquals(CSV, read(dataSource.getInputStream()));
+		Assert.assertEquals(CSV, read(dataSource.getInputStream()));
+		Assert.assertEquals(CONTENT_TYPE, dataSource.getContentType());
+		Assert.assertEquals(file.getName(), dataSource.getName());
+	}
+
+	@Test
+	public void testChannel() throws IOException {
+
+		File file = File.createTempFile("usage", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ZStreamDataSource dataSource = new ZStreamDataSource(channel, CONTENT_TYPE);
+			Assert.assertEquals(CSV, read(dataSource.getInputStream()));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testStreamCanBeReadOnce() throws IOException {
+
+		ZStreamDataSource dataSource = new ZStreamDataSource(
+				new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)), CONTENT_TYPE);
+
+		Assert.assertEquals(CSV, read(dataSource.getInputStream()));
+		dataSource.getInputStream();
+	}
+
+	private static String read(InputStream in) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[16];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,116 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.Contact;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Subscription;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscriptionData;
+
+public class ZSubscribeSinkTest {
+
+	/** More than 2 chunks, last one not full */
+	private static final int NB_REQUESTS = 120;
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private ZBulkApi bulk;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "subscribe@zuora.com", "secret", 0, 3, 60000, 10000);
+		bulk = new ZBulkApi(pool, 3);
+	}
+
+	@After
+	public void tearDown() {
+		bulk.shutdown();
+		pool.close();
+		server.stop();
+	}
+
+	@Test
+	public void testBulkSubscribe() {
+
+		SubscribeRequest[] requests = new SubscribeRequest[NB_REQUESTS];
+		for (int i = 0; i < NB_REQUESTS; i++) {
+			requests[i] = request(i);
+		}
+		requests[60].setSubscriptionData(null);
+
+		SubscribeResult[] results = bulk.zSubscribe(requests);
+
+		Assert.assertEquals(NB_REQUESTS, results.length);
+		Assert.assertEquals(3, server.getCallCount("subscribe"));
+		for (int i = 0; i < NB_REQUESTS; i++) {
+			Assert.assertEquals(i != 60, results[i].getSuccess());
+			if (i != 60) {
+				Assert.assertEquals("ACC-" + i, results[i].getAccountNumber());
+			}
+		}
+		Assert.assertEquals("MISSING_REQUIRED_VALUE", results[60].getErrors()[0].getCode().getValue());
+		Assert.assertEquals(NB_REQUESTS - 1, server.count("Subscription"));
+		Assert.assertEquals(NB_REQUESTS - 1, server.count("Contact"));
+	}
+
+	@Test
+	public void testSinkKeepsOrder() throws Exception {
+
+		// The chunks are done out of order
+		server.setLatency(0, 40);
+
+		final List<Long> indexes = Collections.synchronizedList(new ArrayList<Long>());
+		final List<String> accountNumbers = Collections.synchronizedList(new ArrayList<String>());
+
+		int count = 4 * ZApi.MAX_OBJECTS + 7;
+		try (ZSubscribeSink sink = new ZSubscribeSink(bulk, (index, request, result) -> {
+			indexes.add(index);
+			accountNumbers.add(result.getAccountNumber());
+		})) {
+			for (int i = 0; i < count; i++) {
+				Assert.assertEquals(i, sink.add(request(i)));
+			}
+		}
+
+		Assert.assertEquals(count, indexes.size());
+		for (int i = 0; i < count; i++) {
+			Assert.assertEquals(Long.valueOf(i), indexes.get(i));
+			Assert.assertEquals("ACC-" + i, accountNumbers.get(i));
+		}
+		Assert.assertEquals(count, server.count("Subscription"));
+	}
+
+	private static SubscribeRequest request(int i) {
+
+		Account account = new Account();
+		account.setName("Subscribe Test Account " + i);
+		account.setAccountNumber("ACC-" + i);
+
+		Contact contact = new Contact();
+		contact.setFirstName("Jane");
+		contact.setLastName("Doe " + i);
+
+		Subscription subscription = new Subscription();
+		subscription.setNotes("Order " + i);
+		SubscriptionData data = new SubscriptionData();
+		data.setSubscription(subscription);
+
+		SubscribeRequest request = new SubscribeRequest();
+		request.setAccount(account);
+		request.setBillToContact(contact);
+		request.setSubscriptionData(data);
+
+		return request;
+	}
+}
@@ -0,0 +1,100 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZSyncTest {
+
+	/** More than one query page */
+	private static final int NB_ACCOUNTS = ZMockServer.MAX_BATCH_SIZE + 10;
+
+	private ZMockServer server;
+	private ZApiPool pool;
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ZMockServer();
+		server.start();
+		pool = new ZApiPool(server.getEndpoint(), "sync@zuora.com", "secret", 0, 2, 60000, 10000);
+		dir = Files.createTempDirectory("zsync").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+		server.stop();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testIncrementalSync() throws Exception {
+
+		ZObject[] accounts = new ZObject[NB_ACCOUNTS];
+		for (int i = 0; i < NB_ACCOUNTS; i++) {
+			Account account = new Account();
+			account.setName("Sync Test Account " + i);
+			account.setStatus("Draft");
+			accounts[i] = account;
+		}
+		ZBulkApi bulk = new ZBulkApi(pool, 2);
+		SaveResult[] created = bulk.zCreate(accounts);
+		bulk.shutdown();
+
+		ZLocalStore store = new ZLocalStore(dir);
+		ZSync sync = new ZSync(pool, store);
+		sync.register("Account", "Name", "Status");
+
+		// Full load, then only the objects updated since the watermark
+		Assert.assertEquals(Integer.valueOf(NB_ACCOUNTS), sync.sync().get("Account"));
+		Assert.assertNotNull(store.getWatermark("Account"));
+
+		Thread.sleep(20);
+		Account updated = new Account();
+		updated.setId(created[42].getId());
+		updated.setStatus("Active");
+		pool.execute(zapi -> zapi.zUpdate(new ZObject[] { updated }));
+
+		// Read again: the updated one, and the ones at the watermark (same ms)
+		String watermark = store.getWatermark("Account");
+		int atWatermark = store.select("Account", "UpdatedDate = '" + watermark + "'").size();
+		Assert.assertEquals(Integer.valueOf(atWatermark + 1), sync.sync("Account"));
+		Assert.assertNotEquals(watermark, store.getWatermark("Account"));
+		Assert.assertEquals(NB_ACCOUNTS, store.size("Account"));
+		Assert.assertEquals(1, store.select("Account", "Status = 'Active'").size());
+		store.close();
+
+		// Reopened: the watermark is kept
+		store = new ZLocalStore(dir);
+		sync = new ZSync(pool, store);
+		sync.register("Account", "Name", "Status");
+		Map<String, Integer> counts = sync.sync();
+		Assert.assertEquals(Integer.valueOf(1), counts.get("Account"));
+		Assert.assertEquals("Active", store.get("Account", created[42].getId().getID()).get("Status"));
+		store.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownField() throws Exception {
+
+		ZLocalStore store = new ZLocalStore(dir);
+		try {
+			new ZSync(pool, store).register("Account", "Nothing");
+		} finally {
+			store.close();
+		}
+	}
+}
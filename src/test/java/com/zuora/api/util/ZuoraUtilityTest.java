@@ -0,0 +1,55 @@
+package com.zuora.api.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+
+public class ZuoraUtilityTest {
+
+	@Test
+	public void testSummarizeErrors() {
+
+		SaveResult[] results = new SaveResult[5];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = new SaveResult();
+			results[i].setSuccess(true);
+		}
+
+		Assert.assertNull(ZuoraUtility.summarizeErrors("zCreate", results));
+
+		results[1] = failed(ErrorCode.INVALID_VALUE, "Name", "The length of field value is too long.");
+		results[3] = failed(ErrorCode.INVALID_VALUE, "Name", "The length of field value is too long.");
+		results[4] = failed(ErrorCode.DUPLICATE_VALUE, null, "Duplicate account number");
+
+		Assert.assertEquals("zCreate: 3 of 5 object(s) failed"
+				+ " | INVALID_VALUE on Name x2 (first #1: The length of field value is too long.)"
+				+ " | DUPLICATE_VALUE x1 (first #4: Duplicate account number)",
+				ZuoraUtility.summarizeErrors("zCreate", results));
+	}
+
+	@Test
+	public void testSummarizeErrorsWithoutDetail() {
+
+		SaveResult result = new SaveResult();
+		result.setSuccess(false);
+
+		Assert.assertEquals("zUpdate: 1 of 1 object(s) failed | UNKNOWN x1 (first #0: null)",
+				ZuoraUtility.summarizeErrors("zUpdate", new SaveResult[] { result }));
+	}
+
+	private static SaveResult failed(ErrorCode code, String field, String message) {
+
+		com.zuora.api.axis2.ZuoraServiceStub.Error error = new com.zuora.api.axis2.ZuoraServiceStub.Error();
+		error.setCode(code);
+		error.setField(field);
+		error.setMessage(message);
+
+		SaveResult result = new SaveResult();
+		result.setSuccess(false);
+		result.setErrors(new com.zuora.api.axis2.ZuoraServiceStub.Error[] { error });
+
+		return result;
+	}
+}